@@ -0,0 +1,130 @@
+//
+// Copyright © 2014, David Tesler (https://github.com/protobufel)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//     * Redistributions of source code must retain the above copyright
+//       notice, this list of conditions and the following disclaimer.
+//     * Redistributions in binary form must reproduce the above copyright
+//       notice, this list of conditions and the following disclaimer in the
+//       documentation and/or other materials provided with the distribution.
+//     * Neither the name of the <organization> nor the
+//       names of its contributors may be used to endorse or promote products
+//       derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+package com.github.protobufel.benchmarks;
+
+import static com.github.protobufel.test.util.ProtoUtils.cityName;
+import static com.github.protobufel.test.util.ProtoUtils.countryCity;
+import static com.github.protobufel.test.util.ProtoUtils.galaxyStar;
+import static com.github.protobufel.test.util.ProtoUtils.planetCountry;
+import static com.github.protobufel.test.util.ProtoUtils.starPlanet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.protobufel.DynamicMessage;
+import com.github.protobufel.DynamicMessage.Builder;
+import com.github.protobufel.DynamicMessage.Builder.BatchEdit;
+import com.github.protobufel.test.util.ProtoUtils;
+import com.google.protobuf.Message;
+
+/**
+ * Renames every City of the Galaxy, building each Country after every rename, with and without
+ * the Country builders' batch edit scopes. Only the scoped Country builders are built within the
+ * scopes, which is where the scopes gain; an ancestor built within a scope first dispatches the
+ * deferred invalidations, so it is as costly as without the scope.
+ */
+@State(Scope.Thread)
+public class BatchEditBenchmark {
+  private final static int ITERATIONS_COUNT = 100;
+  private Message galaxy;
+  int dummy = 2;
+
+  @Setup(Level.Trial)
+  public void init() {
+    galaxy = DynamicMessage.newBuilder(ProtoUtils.newGalaxy()).build();
+  }
+
+  @Benchmark
+  @BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  @Warmup(iterations = 5, time = 100, timeUnit = TimeUnit.MICROSECONDS)
+  @Measurement(iterations = ITERATIONS_COUNT, time = 1000, timeUnit = TimeUnit.MICROSECONDS)
+  @Fork(1)
+  public Message timeRenameCities() {
+    dummy = ++dummy % Integer.MAX_VALUE;
+    final Builder builder = DynamicMessage.newBuilder(galaxy);
+
+    for (final Builder country : getCountryBuilders(builder)) {
+      renameCities(country);
+    }
+
+    return builder.build();
+  }
+
+  @Benchmark
+  @BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  @Warmup(iterations = 5, time = 100, timeUnit = TimeUnit.MICROSECONDS)
+  @Measurement(iterations = ITERATIONS_COUNT, time = 1000, timeUnit = TimeUnit.MICROSECONDS)
+  @Fork(1)
+  public Message timeRenameCitiesInBatch() {
+    dummy = ++dummy % Integer.MAX_VALUE;
+    final Builder builder = DynamicMessage.newBuilder(galaxy);
+
+    for (final Builder country : getCountryBuilders(builder)) {
+      try (BatchEdit edit = country.batchEdit()) {
+        renameCities(country);
+      }
+    }
+
+    return builder.build();
+  }
+
+  private void renameCities(final Builder country) {
+    final int count = country.getRepeatedFieldCount(countryCity);
+
+    for (int i = 0; i < count; i++) {
+      country.getFieldBuilder(countryCity, i).setField(cityName, "City" + dummy);
+      country.buildPartial();
+    }
+  }
+
+  private static List<Builder> getCountryBuilders(final Builder galaxy) {
+    final List<Builder> countries = new ArrayList<Builder>();
+
+    for (final Builder star : galaxy.getBuilderList(galaxyStar)) {
+      for (final Builder planet : star.getBuilderList(starPlanet)) {
+        countries.addAll(planet.getBuilderList(planetCountry));
+      }
+    }
+
+    return countries;
+  }
+}
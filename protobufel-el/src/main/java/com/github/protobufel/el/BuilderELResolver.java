@@ -43,6 +43,7 @@ import javax.el.MethodNotFoundException;
 import javax.el.PropertyNotFoundException;
 import javax.el.PropertyNotWritableException;
 
+import com.github.protobufel.SchemaPlan;
 import com.google.protobuf.Descriptors.Descriptor;
 import com.google.protobuf.Descriptors.FieldDescriptor;
 import com.google.protobuf.Descriptors.FieldDescriptor.JavaType;
@@ -132,7 +133,7 @@ public class BuilderELResolver extends ELResolver {
     FieldDescriptor field = null;
 
     if (property instanceof String) {
-      field = descriptor.findFieldByName(property.toString());
+      field = SchemaPlan.of(descriptor).findFieldByName(property.toString());
     } else if (property instanceof FieldDescriptor) {
       field = FieldDescriptor.class.cast(property);
 
@@ -0,0 +1,123 @@
+//
+// Copyright © 2014, David Tesler (https://github.com/protobufel)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+// * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+// * Redistributions in binary form must reproduce the above copyright
+// notice, this list of conditions and the following disclaimer in the
+// documentation and/or other materials provided with the distribution.
+// * Neither the name of the <organization> nor the
+// names of its contributors may be used to endorse or promote products
+// derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+
+
+package com.github.protobufel;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.google.protobuf.Descriptors.Descriptor;
+
+/**
+ * The pool of the reusable root {@link DynamicMessage.Builder}s keyed by their types, for the
+ * steady state message construction without allocating a new builder for every message.
+ * <p>
+ * A builder is taken by {@link #acquire(Descriptor)}, and given back by
+ * {@link #release(DynamicMessage.Builder)}, usually right after its {@code build()}; the released
+ * builder is cleared, its field builders are disposed, and it must not be used by its former
+ * holder anymore. The messages built before its release are not affected.
+ * <p>
+ * A pooled builder keeps its own field slots, and clears them in place on its release, while each
+ * of its built messages gets their copy; so the steady state still allocates every built message
+ * with its slots, and its new values, but neither the builder nor its slots.
+ * <p>
+ * It is not thread-safe; use one pool per thread, e.g. held in a {@code ThreadLocal}.
+ *
+ * @author protobufel@gmail.com David Tesler
+ */
+public final class BuilderPool {
+  public static final int DEFAULT_MAX_IDLE_PER_TYPE = 16;
+
+  private final int maxIdlePerType;
+  private final Map<Descriptor, ArrayDeque<DynamicMessage.Builder>> idleBuilders =
+      new HashMap<Descriptor, ArrayDeque<DynamicMessage.Builder>>();
+
+  public BuilderPool() {
+    this(DEFAULT_MAX_IDLE_PER_TYPE);
+  }
+
+  /**
+   * Constructs the pool, retaining at most maxIdlePerType released builders of each type.
+   */
+  public BuilderPool(final int maxIdlePerType) {
+    if (maxIdlePerType < 0) {
+      throw new IllegalArgumentException("maxIdlePerType cannot be negative");
+    }
+
+    this.maxIdlePerType = maxIdlePerType;
+  }
+
+  /**
+   * Returns a cleared root builder of the type, either a released one, or a new one.
+   */
+  public DynamicMessage.Builder acquire(final Descriptor type) {
+    final ArrayDeque<DynamicMessage.Builder> builders = idleBuilders.get(type);
+    DynamicMessage.Builder builder = builders == null ? null : builders.poll();
+
+    if (builder == null) {
+      builder = DynamicMessage.newBuilder(type);
+      builder.markPooled();
+    }
+
+    return builder;
+  }
+
+  /**
+   * Clears the root builder, and retains it for the subsequent {@link #acquire(Descriptor)}, if
+   * there is a room for it.
+   *
+   * @throws IllegalStateException if the builder is a nested one
+   */
+  public void release(final DynamicMessage.Builder builder) {
+    builder.recycle();
+    final Descriptor type = builder.getDescriptorForType();
+    ArrayDeque<DynamicMessage.Builder> builders = idleBuilders.get(type);
+
+    if (builders == null) {
+      if (maxIdlePerType == 0) {
+        return;
+      }
+
+      builders = new ArrayDeque<DynamicMessage.Builder>();
+      idleBuilders.put(type, builders);
+    }
+
+    // a repeated release must not make the builder shared
+    if (builders.size() < maxIdlePerType && !builders.contains(builder)) {
+      builders.push(builder);
+    }
+  }
+
+  /**
+   * Drops all retained builders.
+   */
+  public void clear() {
+    idleBuilders.clear();
+  }
+}
@@ -0,0 +1,290 @@
+//
+// Copyright © 2014, David Tesler (https://github.com/protobufel)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+// * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+// * Redistributions in binary form must reproduce the above copyright
+// notice, this list of conditions and the following disclaimer in the
+// documentation and/or other materials provided with the distribution.
+// * Neither the name of the <organization> nor the
+// names of its contributors may be used to endorse or promote products
+// derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+
+
+package com.github.protobufel;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.ExtensionRegistry;
+
+/**
+ * The iterator over a stream of the length-delimited messages of one type, as written by
+ * {@link DelimitedMessageWriter}, or by {@link com.google.protobuf.MessageLite#writeDelimitedTo}.
+ * The messages are decoded one by one, so the memory used is constant regardless of the stream
+ * size.
+ * <p>
+ * A file can be split into the record-aligned regions by its sidecar index, see
+ * {@link #split(Descriptor, FileChannel, long[], int, ExtensionRegistry)}, each region read by
+ * its own reader, so the regions can be decoded in parallel.
+ * <p>
+ * As the {@link Iterator} cannot throw the checked exceptions, the {@code IOException}s of the
+ * input are rethrown wrapped in a {@code RuntimeException}. The reader is not thread-safe.
+ *
+ * @author protobufel@gmail.com David Tesler
+ */
+public final class DelimitedMessageReader implements Iterator<DynamicMessage>, Closeable {
+  private static final int READ_BUFFER_SIZE = 1 << 13;
+
+  private final Descriptor type;
+  private final ExtensionRegistry extensionRegistry;
+  private final InputStream input;
+  private final CodedInputStream codedInput;
+  private DynamicMessage next;
+
+  public DelimitedMessageReader(final Descriptor type, final InputStream input) {
+    this(type, input, ExtensionRegistry.getEmptyRegistry());
+  }
+
+  public DelimitedMessageReader(final Descriptor type, final InputStream input,
+      final ExtensionRegistry extensionRegistry) {
+    if (type == null || input == null || extensionRegistry == null) {
+      throw new NullPointerException();
+    }
+
+    this.type = type;
+    this.extensionRegistry = extensionRegistry;
+    this.input = input;
+    codedInput = CodedInputStream.newInstance(input);
+  }
+
+  @Override
+  public boolean hasNext() {
+    if (next == null) {
+      try {
+        next = readNext();
+      } catch (final IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    return next != null;
+  }
+
+  @Override
+  public DynamicMessage next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+
+    final DynamicMessage result = next;
+    next = null;
+    return result;
+  }
+
+  @Override
+  public void remove() {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Reads the next message, or returns null at the end of the input.
+   */
+  private DynamicMessage readNext() throws IOException {
+    if (codedInput.isAtEnd()) {
+      return null;
+    }
+
+    // the size limit is per message, rather than per stream
+    codedInput.resetSizeCounter();
+    final int oldLimit = codedInput.pushLimit(codedInput.readRawVarint32());
+    final DynamicMessage message = DynamicMessage.parseFrom(type, codedInput, extensionRegistry);
+    codedInput.checkLastTagWas(0);
+    codedInput.popLimit(oldLimit);
+    return message;
+  }
+
+  /**
+   * Closes the input.
+   */
+  @Override
+  public void close() throws IOException {
+    input.close();
+  }
+
+  /**
+   * Reads the whole sidecar index written by {@link DelimitedMessageWriter}.
+   */
+  public static long[] readIndex(final InputStream indexInput) throws IOException {
+    final DataInputStream dataInput = new DataInputStream(new BufferedInputStream(indexInput));
+    long[] offsets = new long[16];
+    int size = 0;
+
+    while (true) {
+      final long offset;
+
+      try {
+        offset = dataInput.readLong();
+      } catch (final EOFException e) {
+        break;
+      }
+
+      if (size == offsets.length) {
+        offsets = Arrays.copyOf(offsets, size * 2);
+      }
+
+      offsets[size++] = offset;
+    }
+
+    return Arrays.copyOf(offsets, size);
+  }
+
+  /**
+   * Splits the file into at most maxRegions record-aligned regions by its sidecar index, and
+   * returns the readers of these regions, in the file order.
+   *
+   * @see #split(Descriptor, FileChannel, long[], int, ExtensionRegistry)
+   */
+  public static List<DelimitedMessageReader> split(final Descriptor type,
+      final FileChannel channel, final long[] index, final int maxRegions) throws IOException {
+    return split(type, channel, index, maxRegions, ExtensionRegistry.getEmptyRegistry());
+  }
+
+  /**
+   * Splits the file into at most maxRegions record-aligned regions by its sidecar index, and
+   * returns the readers of these regions, in the file order. The regions are read by the
+   * positional reads, so the readers can be used concurrently, each by its own thread; they do
+   * not own the channel, and do not close it.
+   *
+   * @param index the ascending offsets of some messages, as read by {@link #readIndex}
+   */
+  public static List<DelimitedMessageReader> split(final Descriptor type,
+      final FileChannel channel, final long[] index, final int maxRegions,
+      final ExtensionRegistry extensionRegistry) throws IOException {
+    if (maxRegions <= 0) {
+      throw new IllegalArgumentException("maxRegions must be positive");
+    }
+
+    final long size = channel.size();
+
+    if (index.length == 0) {
+      return Collections.singletonList(new DelimitedMessageReader(type,
+          new ChannelRegionInputStream(channel, 0, size), extensionRegistry));
+    }
+
+    final int regionCount = Math.min(maxRegions, index.length);
+    final List<DelimitedMessageReader> readers =
+        new ArrayList<DelimitedMessageReader>(regionCount);
+
+    for (int i = 0; i < regionCount; i++) {
+      // the first region also covers anything before the first indexed message
+      final long start = i == 0 ? 0 : index[(int) ((long) index.length * i / regionCount)];
+      final long end =
+          i == regionCount - 1 ? size : index[(int) ((long) index.length * (i + 1) / regionCount)];
+      readers.add(new DelimitedMessageReader(type,
+          new ChannelRegionInputStream(channel, start, end), extensionRegistry));
+    }
+
+    return readers;
+  }
+
+  /**
+   * The InputStream over the file region, by the positional reads.
+   */
+  private static final class ChannelRegionInputStream extends InputStream {
+    private final FileChannel channel;
+    private final long end;
+    private final ByteBuffer buffer;
+    private long position;
+
+    ChannelRegionInputStream(final FileChannel channel, final long start, final long end) {
+      this.channel = channel;
+      this.end = end;
+      position = start;
+      buffer = ByteBuffer.allocate((int) Math.min(READ_BUFFER_SIZE, Math.max(end - start, 1)));
+      buffer.flip();
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (!buffer.hasRemaining() && !fill()) {
+        return -1;
+      }
+
+      return buffer.get() & 0xFF;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+
+      if (!buffer.hasRemaining() && !fill()) {
+        return -1;
+      }
+
+      final int count = Math.min(len, buffer.remaining());
+      buffer.get(b, off, count);
+      return count;
+    }
+
+    @Override
+    public int available() {
+      return buffer.remaining();
+    }
+
+    private boolean fill() throws IOException {
+      if (position >= end) {
+        return false;
+      }
+
+      buffer.clear();
+      buffer.limit((int) Math.min(buffer.capacity(), end - position));
+      final int count = channel.read(buffer, position);
+      buffer.flip();
+
+      if (count <= 0) {
+        // a blocking file channel returns no data only past its end
+        throw new EOFException("The channel ended before the region's end.");
+      }
+
+      position += count;
+      return true;
+    }
+
+    @Override
+    public void close() {
+      // the channel is not owned
+    }
+  }
+}
@@ -0,0 +1,167 @@
+//
+// Copyright © 2014, David Tesler (https://github.com/protobufel)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+// * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+// * Redistributions in binary form must reproduce the above copyright
+// notice, this list of conditions and the following disclaimer in the
+// documentation and/or other materials provided with the distribution.
+// * Neither the name of the <organization> nor the
+// names of its contributors may be used to endorse or promote products
+// derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+
+
+package com.github.protobufel;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.MessageLite;
+
+/**
+ * The buffered writer of a stream of the length-delimited messages, the same as written by
+ * {@link MessageLite#writeDelimitedTo(OutputStream)}, to be read by {@link DelimitedMessageReader}.
+ * <p>
+ * Optionally, it writes the sidecar index as well, the offset of every {@code indexInterval}-th
+ * message, as a big-endian long, for the record-aligned splitting of the stream by
+ * {@link DelimitedMessageReader#split}.
+ * <p>
+ * It is not thread-safe.
+ *
+ * @author protobufel@gmail.com David Tesler
+ */
+public final class DelimitedMessageWriter implements Closeable, Flushable {
+  public static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+  private final OutputStream output;
+  private final CodedOutputStream codedOutput;
+  private final DataOutputStream indexOutput;
+  private final int indexInterval;
+  private long position;
+  private long count;
+
+  /**
+   * Constructs the writer without the index, and with the default buffer size.
+   */
+  public DelimitedMessageWriter(final OutputStream output) {
+    this(output, DEFAULT_BUFFER_SIZE);
+  }
+
+  /**
+   * Constructs the writer without the index.
+   */
+  public DelimitedMessageWriter(final OutputStream output, final int bufferSize) {
+    this(output, bufferSize, null, 0);
+  }
+
+  /**
+   * Constructs the writer, also writing the offset of every {@code indexInterval}-th message into
+   * the indexOutput, if it is not null.
+   */
+  public DelimitedMessageWriter(final OutputStream output, final int bufferSize,
+      final OutputStream indexOutput, final int indexInterval) {
+    if (output == null) {
+      throw new NullPointerException();
+    }
+
+    if (bufferSize <= 0) {
+      throw new IllegalArgumentException("bufferSize must be positive");
+    }
+
+    if (indexOutput != null && indexInterval <= 0) {
+      throw new IllegalArgumentException("indexInterval must be positive");
+    }
+
+    this.output = output;
+    codedOutput = CodedOutputStream.newInstance(output, bufferSize);
+    this.indexOutput =
+        indexOutput == null ? null : new DataOutputStream(new BufferedOutputStream(indexOutput));
+    this.indexInterval = indexInterval;
+  }
+
+  /**
+   * Writes the message prefixed with its length.
+   */
+  public void write(final MessageLite message) throws IOException {
+    if (indexOutput != null && count % indexInterval == 0) {
+      indexOutput.writeLong(position);
+    }
+
+    final int size = message.getSerializedSize();
+    codedOutput.writeRawVarint32(size);
+    message.writeTo(codedOutput);
+    position += CodedOutputStream.computeRawVarint32Size(size) + size;
+    count++;
+  }
+
+  /**
+   * Writes all messages, each prefixed with its length.
+   */
+  public void writeAll(final Iterable<? extends MessageLite> messages) throws IOException {
+    for (final MessageLite message : messages) {
+      write(message);
+    }
+  }
+
+  /**
+   * Returns the number of bytes written so far, i.e. the offset of the next message.
+   */
+  public long getPosition() {
+    return position;
+  }
+
+  /**
+   * Returns the number of messages written so far.
+   */
+  public long getCount() {
+    return count;
+  }
+
+  @Override
+  public void flush() throws IOException {
+    codedOutput.flush();
+    output.flush();
+
+    if (indexOutput != null) {
+      indexOutput.flush();
+    }
+  }
+
+  /**
+   * Flushes and closes the output, and the index output, if any.
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      codedOutput.flush();
+    } finally {
+      try {
+        output.close();
+      } finally {
+        if (indexOutput != null) {
+          indexOutput.close();
+        }
+      }
+    }
+  }
+}
@@ -27,9 +27,11 @@
 
 package com.github.protobufel;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -45,6 +47,12 @@ import com.github.protobufel.ProtoInterfaces.IBuilder2;
 import com.github.protobufel.ProtoInterfaces.IFieldBuilder;
 import com.github.protobufel.ProtoInterfaces.IFieldHandler;
 import com.github.protobufel.ProtoInterfaces.IMessageEx;
+import com.github.protobufel.LazyMessage.LazyList;
+import com.github.protobufel.PrimitiveLists.BooleanList;
+import com.github.protobufel.PrimitiveLists.DoubleList;
+import com.github.protobufel.PrimitiveLists.FloatList;
+import com.github.protobufel.PrimitiveLists.IntList;
+import com.github.protobufel.PrimitiveLists.LongList;
 import com.google.protobuf.AbstractMessage;
 import com.google.protobuf.AbstractParser;
 import com.google.protobuf.ByteString;
@@ -56,6 +64,7 @@ import com.google.protobuf.Descriptors.FieldDescriptor;
 import com.google.protobuf.Descriptors.FieldDescriptor.JavaType;
 import com.google.protobuf.Descriptors.OneofDescriptor;
 import com.google.protobuf.ExtensionRegistry;
+import com.google.protobuf.ExtensionRegistry.ExtensionInfo;
 import com.google.protobuf.ExtensionRegistryLite;
 import com.google.protobuf.Internal;
 import com.google.protobuf.InvalidProtocolBufferException;
@@ -64,18 +73,32 @@ import com.google.protobuf.Message;
 import com.google.protobuf.MessageOrBuilder;
 import com.google.protobuf.Parser;
 import com.google.protobuf.UnknownFieldSet;
+import com.google.protobuf.WireFormat;
 
 /**
- * A DynamicMessage wrapping the original protobuf DynamicMessage and mirroring all relevant
- * GeneratedMessage functionality.
+ * A DynamicMessage mirroring all relevant GeneratedMessage functionality. The fields are stored in
+ * flat slots indexed by {@link FieldDescriptor#getIndex()}, see {@link FieldSlots}.
  *
  * @see com.google.protobuf.DynamicMessage
  * @see com.google.protobuf.GeneratedMessage
  *
  * @author protobufel@gmail.com David Tesler
  */
-public final class DynamicMessage implements Message, IMessageEx {
+public final class DynamicMessage extends AbstractMessage implements IMessageEx {
   private static final DynamicMesageProvider DYNAMIC_MESSAGE_PROVIDER = new DynamicMesageProvider();
+  private static final int TAG_TYPE_MASK = 7;
+  // the CodedInputStream's default recursion limit
+  private static final int RECURSION_LIMIT = 64;
+  // the size of the chunks a FileChannel region is read by
+  private static final int CHANNEL_CHUNK_SIZE = 1 << 13;
+  /**
+   * The maximal serialized size of the message, which encoding is retained by its
+   * {@link #toByteString()}; 4096 by default, or set by the
+   * {@code com.github.protobufel.DynamicMessage.maxCachedEncodingSize} system property, where 0
+   * disables the caching.
+   */
+  private static final int MAX_CACHED_ENCODING_SIZE = Integer.getInteger(
+      "com.github.protobufel.DynamicMessage.maxCachedEncodingSize", 1 << 12);
 
   /**
    * For testing. Allows a test to disable the optimization that avoids using field builders for
@@ -83,16 +106,25 @@ public final class DynamicMessage implements Message, IMessageEx {
    * reused to test the field builders.
    */
   protected static boolean alwaysUseFieldBuilders = false;
-  private final com.google.protobuf.DynamicMessage message;
-  private int memoizedHashCode = 0;
+  private final Descriptor type;
+  private final FieldSlots fields;
+  private final UnknownFieldSet unknownFields;
   private byte memoizedIsInitialized = -1;
-
-  private DynamicMessage(final com.google.protobuf.DynamicMessage message) {
-    this.message = message;
-  }
-
-  private static DynamicMessage wrap(final com.google.protobuf.DynamicMessage message) {
-    return new DynamicMessage(message);
+  private int memoizedSize = -1;
+  private int memoizedHashCode;
+  // the immutable encoding, safely published by its final fields
+  private ByteString memoizedBytes;
+  // the field indexes' definitions carried over from the builder, or null if none
+  private Map<FieldDescriptor, RepeatedFieldIndex.Definition> indexDefinitions;
+  // the field indexes built on demand, copied on write, and safely published by the final fields
+  // of their unmodifiable map
+  private Map<FieldDescriptor, RepeatedFieldIndex> memoizedFieldIndexes;
+
+  DynamicMessage(final Descriptor type, final FieldSlots fields,
+      final UnknownFieldSet unknownFields) {
+    this.type = type;
+    this.fields = fields;
+    this.unknownFields = unknownFields;
   }
 
   public static DynamicMesageProvider getProvider() {
@@ -119,58 +151,271 @@ public final class DynamicMessage implements Message, IMessageEx {
   }
 
   /**
-   * Get a {@code DynamicMessage} representing the default instance of the given type.
+   * Get a {@code DynamicMessage} representing the default instance of the given type; the instance
+   * is cached by the type's {@link SchemaPlan}.
    */
   public static DynamicMessage getDefaultInstance(final Descriptor type) {
-    return wrap(com.google.protobuf.DynamicMessage.getDefaultInstance(type));
+    return SchemaPlan.of(type).getDefaultInstance();
   }
 
   /** Parse a message of the given type from the given input stream. */
   public static DynamicMessage parseFrom(final Descriptor type, final CodedInputStream input)
       throws IOException {
-    return wrap(com.google.protobuf.DynamicMessage.parseFrom(type, input));
+    return parseFrom(type, input, ExtensionRegistry.getEmptyRegistry(), false);
   }
 
   /** Parse a message of the given type from the given input stream. */
   public static DynamicMessage parseFrom(final Descriptor type, final CodedInputStream input,
       final ExtensionRegistry extensionRegistry) throws IOException {
-    return wrap(com.google.protobuf.DynamicMessage.parseFrom(type, input, extensionRegistry));
+    return parseFrom(type, input, extensionRegistry, false);
   }
 
   /** Parse {@code data} as a message of the given type and return it. */
   public static DynamicMessage parseFrom(final Descriptor type, final ByteString data)
       throws InvalidProtocolBufferException {
-    return wrap(com.google.protobuf.DynamicMessage.parseFrom(type, data));
+    return parseWholeFrom(type, data, ExtensionRegistry.getEmptyRegistry());
   }
 
   /** Parse {@code data} as a message of the given type and return it. */
   public static DynamicMessage parseFrom(final Descriptor type, final ByteString data,
       final ExtensionRegistry extensionRegistry) throws InvalidProtocolBufferException {
-    return wrap(com.google.protobuf.DynamicMessage.parseFrom(type, data, extensionRegistry));
+    return parseWholeFrom(type, data, extensionRegistry);
   }
 
   /** Parse {@code data} as a message of the given type and return it. */
   public static DynamicMessage parseFrom(final Descriptor type, final byte[] data)
       throws InvalidProtocolBufferException {
-    return wrap(com.google.protobuf.DynamicMessage.parseFrom(type, data));
+    return parseWholeFrom(type, data, ExtensionRegistry.getEmptyRegistry());
   }
 
   /** Parse {@code data} as a message of the given type and return it. */
   public static DynamicMessage parseFrom(final Descriptor type, final byte[] data,
       final ExtensionRegistry extensionRegistry) throws InvalidProtocolBufferException {
-    return wrap(com.google.protobuf.DynamicMessage.parseFrom(type, data, extensionRegistry));
+    return parseWholeFrom(type, data, extensionRegistry);
+  }
+
+  /**
+   * Parse the remaining bytes of {@code data} as a message of the given type and return it; the
+   * buffer's position is left unchanged. No buffer is parsed without copying: the buffer backed by
+   * an accessible array is read in place, but its bytes fields are copied out of it; any other
+   * one, e.g. a direct or a memory-mapped buffer, is first copied whole into an immutable heap
+   * {@code ByteString}, which the resulting bytes fields then alias.
+   */
+  public static DynamicMessage parseFrom(final Descriptor type, final ByteBuffer data)
+      throws InvalidProtocolBufferException {
+    return parseWholeFrom(type, data, ExtensionRegistry.getEmptyRegistry());
+  }
+
+  /**
+   * Parse the remaining bytes of {@code data} as a message of the given type and return it.
+   *
+   * @see #parseFrom(Descriptor, ByteBuffer)
+   */
+  public static DynamicMessage parseFrom(final Descriptor type, final ByteBuffer data,
+      final ExtensionRegistry extensionRegistry) throws InvalidProtocolBufferException {
+    return parseWholeFrom(type, data, extensionRegistry);
+  }
+
+  /**
+   * Parse the {@code length} bytes of {@code channel} at {@code offset} as a message of the given
+   * type and return it; the channel's position is left unchanged. The region is not mapped, but
+   * copied with positional reads into an immutable heap {@code ByteString} of its length, which
+   * is parsed in place, and which the resulting bytes fields alias instead of copying; so the
+   * message retains the whole region while any of these fields is reachable.
+   */
+  public static DynamicMessage parseFrom(final Descriptor type, final FileChannel channel,
+      final long offset, final int length) throws IOException {
+    return parseFrom(type, channel, offset, length, ExtensionRegistry.getEmptyRegistry());
+  }
+
+  /**
+   * Parse the {@code length} bytes of {@code channel} at {@code offset} as a message of the given
+   * type and return it.
+   *
+   * @see #parseFrom(Descriptor, FileChannel, long, int)
+   */
+  public static DynamicMessage parseFrom(final Descriptor type, final FileChannel channel,
+      final long offset, final int length, final ExtensionRegistry extensionRegistry)
+      throws IOException {
+    // the output of the exact length wraps its full buffer as is, so the data can be aliased
+    final ByteString.Output output = ByteString.newOutput(length);
+    final ByteBuffer chunk = ByteBuffer.allocate(Math.min(length, CHANNEL_CHUNK_SIZE));
+    long position = offset;
+
+    for (int remaining = length; remaining > 0;) {
+      chunk.clear();
+      chunk.limit(Math.min(remaining, chunk.capacity()));
+
+      while (chunk.hasRemaining()) {
+        if (channel.read(chunk, position + chunk.position()) < 0) {
+          throw new EOFException("The channel ended before the message's end.");
+        }
+      }
+
+      output.write(chunk.array(), 0, chunk.position());
+      position += chunk.position();
+      remaining -= chunk.position();
+    }
+
+    return parseWholeFrom(type, output.toByteString(), extensionRegistry, true);
   }
 
   /** Parse a message of the given type from {@code input} and return it. */
   public static DynamicMessage parseFrom(final Descriptor type, final InputStream input)
       throws IOException {
-    return wrap(com.google.protobuf.DynamicMessage.parseFrom(type, input));
+    return parseFrom(type, CodedInputStream.newInstance(input),
+        ExtensionRegistry.getEmptyRegistry(), true);
   }
 
   /** Parse a message of the given type from {@code input} and return it. */
   public static DynamicMessage parseFrom(final Descriptor type, final InputStream input,
       final ExtensionRegistry extensionRegistry) throws IOException {
-    return wrap(com.google.protobuf.DynamicMessage.parseFrom(type, input, extensionRegistry));
+    return parseFrom(type, CodedInputStream.newInstance(input), extensionRegistry, true);
+  }
+
+  /**
+   * Parse a message of the given type from the given input stream, sharing the string and bytes
+   * values, of the fields selected by the interner, with the equal ones it has already seen.
+   */
+  public static DynamicMessage parseFrom(final Descriptor type, final CodedInputStream input,
+      final ExtensionRegistry extensionRegistry, final ValueInterner interner)
+      throws IOException {
+    return parseFrom(type, input, extensionRegistry, false, interner);
+  }
+
+  /**
+   * Parse {@code data} as a message of the given type and return it, sharing the string and bytes
+   * values, of the fields selected by the interner, with the equal ones it has already seen.
+   */
+  public static DynamicMessage parseFrom(final Descriptor type, final ByteString data,
+      final ExtensionRegistry extensionRegistry, final ValueInterner interner)
+      throws InvalidProtocolBufferException {
+    try {
+      return parseFrom(type, data.newCodedInput(), extensionRegistry, true, interner);
+    } catch (final InvalidProtocolBufferException e) {
+      throw e;
+    } catch (final IOException e) {
+      throw new RuntimeException(
+          "Reading from a ByteString threw an IOException (should never happen).", e);
+    }
+  }
+
+  /**
+   * Parse {@code data} lazily as a message of the given type and return it. The nested message
+   * fields, but the groups, are kept as the undecoded slices of the data, each decoded on its
+   * first access; the untouched ones are serialized back byte for byte. The required fields of
+   * the nested messages are checked right away, if their types have any.
+   * <p>
+   * The slices keep the whole data alive, and the malformed nested messages only fail on their
+   * access, with an {@code IllegalStateException}.
+   */
+  public static DynamicMessage parseLazyFrom(final Descriptor type, final ByteString data)
+      throws InvalidProtocolBufferException {
+    return parseLazyWholeFrom(type, data, ExtensionRegistry.getEmptyRegistry());
+  }
+
+  /**
+   * Parse {@code data} lazily as a message of the given type and return it.
+   *
+   * @see #parseLazyFrom(Descriptor, ByteString)
+   */
+  public static DynamicMessage parseLazyFrom(final Descriptor type, final ByteString data,
+      final ExtensionRegistry extensionRegistry) throws InvalidProtocolBufferException {
+    return parseLazyWholeFrom(type, data, extensionRegistry);
+  }
+
+  /**
+   * Parse a copy of {@code data} lazily as a message of the given type and return it.
+   *
+   * @see #parseLazyFrom(Descriptor, ByteString)
+   */
+  public static DynamicMessage parseLazyFrom(final Descriptor type, final byte[] data)
+      throws InvalidProtocolBufferException {
+    return parseLazyWholeFrom(type, ByteString.copyFrom(data),
+        ExtensionRegistry.getEmptyRegistry());
+  }
+
+  /**
+   * Parse a copy of {@code data} lazily as a message of the given type and return it.
+   *
+   * @see #parseLazyFrom(Descriptor, ByteString)
+   */
+  public static DynamicMessage parseLazyFrom(final Descriptor type, final byte[] data,
+      final ExtensionRegistry extensionRegistry) throws InvalidProtocolBufferException {
+    return parseLazyWholeFrom(type, ByteString.copyFrom(data), extensionRegistry);
+  }
+
+  /**
+   * Parse the fields of a message of the given type selected by the projection, and return them.
+   * The rest of the fields, as well as the extensions and the unknown fields, are skipped at the
+   * wire level, so their values are never decoded. The result is partial: its required fields
+   * are not checked.
+   *
+   * @throws IllegalArgumentException if the projection is not of the given type
+   */
+  public static DynamicMessage parseFrom(final Descriptor type, final CodedInputStream input,
+      final FieldProjection projection) throws IOException {
+    return parseFrom(type, input, ExtensionRegistry.getEmptyRegistry(), projection);
+  }
+
+  /**
+   * Parse the fields of a message of the given type selected by the projection, and return them;
+   * the extensions of the whole selected message fields are looked up in the registry.
+   *
+   * @see #parseFrom(Descriptor, CodedInputStream, FieldProjection)
+   */
+  public static DynamicMessage parseFrom(final Descriptor type, final CodedInputStream input,
+      final ExtensionRegistry extensionRegistry, final FieldProjection projection)
+      throws IOException {
+    if (projection.getDescriptor() != type) {
+      throw new IllegalArgumentException("the projection is not of the type "
+          + type.getFullName());
+    }
+
+    final ProtobufelMetrics metrics = ProtobufelMetrics.getInstalled();
+    final long startTime = metrics == null ? 0 : System.nanoTime();
+    final int startOffset = input.getTotalBytesRead();
+    final FieldSlots fields = new FieldSlots(FieldTable.of(type));
+    mergeProjectedFieldsFrom(input, extensionRegistry, fields, projection, 0);
+    fields.freeze();
+
+    if (metrics != null) {
+      metrics.onParsed(type, input.getTotalBytesRead() - startOffset, System.nanoTime()
+          - startTime);
+    }
+
+    return new DynamicMessage(type, fields, UnknownFieldSet.getDefaultInstance());
+  }
+
+  /**
+   * Parse the fields of {@code data} selected by the projection as a message of the given type.
+   *
+   * @see #parseFrom(Descriptor, CodedInputStream, FieldProjection)
+   */
+  public static DynamicMessage parseFrom(final Descriptor type, final ByteString data,
+      final FieldProjection projection) throws InvalidProtocolBufferException {
+    return parseFrom(type, data, ExtensionRegistry.getEmptyRegistry(), projection);
+  }
+
+  /**
+   * Parse the fields of {@code data} selected by the projection as a message of the given type.
+   *
+   * @see #parseFrom(Descriptor, CodedInputStream, ExtensionRegistry, FieldProjection)
+   */
+  public static DynamicMessage parseFrom(final Descriptor type, final ByteString data,
+      final ExtensionRegistry extensionRegistry, final FieldProjection projection)
+      throws InvalidProtocolBufferException {
+    try {
+      final CodedInputStream input = data.newCodedInput();
+      final DynamicMessage result = parseFrom(type, input, extensionRegistry, projection);
+      input.checkLastTagWas(0);
+      return result;
+    } catch (final InvalidProtocolBufferException e) {
+      throw e;
+    } catch (final IOException e) {
+      throw new RuntimeException(
+          "Reading from a ByteString threw an IOException (should never happen).", e);
+    }
   }
 
   /** Construct a {@link Message.Builder} for the given type. */
@@ -200,60 +445,70 @@ public final class DynamicMessage implements Message, IMessageEx {
    * Gets whether there are any fields set, including unknown fields
    */
   public boolean isEmpty() {
-    return message.getAllFields().isEmpty() && message.getUnknownFields().asMap().isEmpty();
+    return fields.isEmpty() && unknownFields.asMap().isEmpty();
   }
 
-  // -----------------------------------------------------------------
-  // Implementation of Message interface.
-
-  @Override
-  public ByteString toByteString() {
-    return message.toByteString();
+  /**
+   * Gets whether the other message is known to be equal to this one without comparing them, i.e.
+   * whether it shares this message's fields, as the messages rebuilt without changes do.
+   */
+  boolean isSameAs(final DynamicMessage other) {
+    return this == other || fields == other.fields && unknownFields == other.unknownFields;
   }
 
-  @Override
-  public byte[] toByteArray() {
-    return message.toByteArray();
+  FieldSlots getFieldSlots() {
+    return fields;
   }
 
   @Override
-  public void writeTo(final OutputStream output) throws IOException {
-    message.writeTo(output);
-  }
+  public int hashCode() {
+    // racy, yet idempotent
+    int hash = memoizedHashCode;
 
-  @Override
-  public void writeDelimitedTo(final OutputStream output) throws IOException {
-    message.writeDelimitedTo(output);
-  }
+    if (hash == 0) {
+      hash = super.hashCode();
+      memoizedHashCode = hash;
+    }
 
-  @Override
-  public List<String> findInitializationErrors() {
-    return message.findInitializationErrors();
+    return hash;
   }
 
   @Override
-  public String getInitializationErrorString() {
-    return message.getInitializationErrorString();
-  }
+  public boolean equals(final Object obj) {
+    if (obj instanceof DynamicMessage) {
+      final DynamicMessage other = (DynamicMessage) obj;
 
-  @Override
-  public final String toString() {
-    return message.toString();
+      if (isSameAs(other)) {
+        return true;
+      }
+
+      if (memoizedHashCode != 0 && other.memoizedHashCode != 0
+          && memoizedHashCode != other.memoizedHashCode) {
+        return false;
+      }
+    }
+
+    return super.equals(obj);
   }
 
-  @Override
-  public boolean equals(final Object other) {
-    return message.equals(other);
+  /** Verifies that the field is a field of the type. */
+  private static void verifyContainingType(final Descriptor type, final FieldDescriptor field) {
+    if (field.getContainingType() != type) {
+      throw new IllegalArgumentException("FieldDescriptor does not match message type.");
+    }
   }
 
+  // -----------------------------------------------------------------
+  // Implementation of Message interface.
+
   @Override
   public Descriptor getDescriptorForType() {
-    return message.getDescriptorForType();
+    return type;
   }
 
   @Override
   public DynamicMessage getDefaultInstanceForType() {
-    return wrap(message.getDefaultInstanceForType());
+    return getDefaultInstance(type);
   }
 
   @Override
@@ -261,44 +516,177 @@ public final class DynamicMessage implements Message, IMessageEx {
     return getDefaultInstance(descriptor);
   }
 
-  @Override
-  public int hashCode() {
-    if (memoizedHashCode != 0) {
-      return memoizedHashCode;
-    }
-
-    memoizedHashCode = message.hashCode();
-    return memoizedHashCode;
-  }
-
   @Override
   public Map<FieldDescriptor, Object> getAllFields() {
-    return message.getAllFields();
+    return Collections.unmodifiableMap(fields.getAllFields());
   }
 
   @Override
   public boolean hasField(final FieldDescriptor field) {
-    return message.hasField(field);
+    verifyContainingType(type, field);
+
+    if (field.isRepeated()) {
+      throw new IllegalArgumentException("hasField() can only be called on non-repeated fields.");
+    }
+
+    return fields.has(field);
   }
 
   @Override
   public Object getField(final FieldDescriptor field) {
-    return message.getField(field);
+    verifyContainingType(type, field);
+    final Object value = fields.get(field);
+
+    if (value != null) {
+      return value;
+    } else if (field.isRepeated()) {
+      return Collections.emptyList();
+    } else if (field.getJavaType() == JavaType.MESSAGE) {
+      return getDefaultInstance(field.getMessageType());
+    } else {
+      return field.getDefaultValue();
+    }
   }
 
   @Override
   public int getRepeatedFieldCount(final FieldDescriptor field) {
-    return message.getRepeatedFieldCount(field);
+    verifyContainingType(type, field);
+
+    if (!field.isRepeated()) {
+      throw new IllegalArgumentException(
+          "getRepeatedFieldCount() can only be called on repeated fields.");
+    }
+
+    return fields.getRepeatedFieldCount(field);
   }
 
   @Override
   public Object getRepeatedField(final FieldDescriptor field, final int index) {
-    return message.getRepeatedField(field, index);
+    verifyContainingType(type, field);
+
+    if (!field.isRepeated()) {
+      throw new IllegalArgumentException(
+          "getRepeatedField() can only be called on repeated fields.");
+    }
+
+    final Object value = fields.get(field);
+
+    if (value == null) {
+      throw new IndexOutOfBoundsException();
+    }
+
+    return ((List<?>) value).get(index);
+  }
+
+  /**
+   * Returns whether the repeated message field has an index, as defined by the builder of this
+   * message.
+   */
+  public boolean hasFieldIndex(final FieldDescriptor field) {
+    verifyContainingType(type, field);
+    return indexDefinitions != null && indexDefinitions.containsKey(field);
+  }
+
+  /**
+   * Returns the immutable index of the repeated message field, as defined by the builder of this
+   * message, see {@link Builder#addFieldIndex(FieldDescriptor, boolean, FieldDescriptor...)}. The
+   * index is built on the first request.
+   *
+   * @throws IllegalArgumentException if the field has no index
+   */
+  @SuppressWarnings("unchecked")
+  public RepeatedFieldIndex getFieldIndex(final FieldDescriptor field) {
+    verifyContainingType(type, field);
+    final Map<FieldDescriptor, RepeatedFieldIndex> indexes = memoizedFieldIndexes;
+    RepeatedFieldIndex index = indexes == null ? null : indexes.get(field);
+
+    if (index != null) {
+      return index;
+    }
+
+    final RepeatedFieldIndex.Definition definition =
+        indexDefinitions == null ? null : indexDefinitions.get(field);
+
+    if (definition == null) {
+      throw new IllegalArgumentException("the field " + field.getFullName() + " has no index");
+    }
+
+    index = definition.newIndex((List<? extends MessageOrBuilder>) getField(field));
+    final Map<FieldDescriptor, RepeatedFieldIndex> newIndexes = indexes == null
+        ? new HashMap<FieldDescriptor, RepeatedFieldIndex>()
+        : new HashMap<FieldDescriptor, RepeatedFieldIndex>(indexes);
+    newIndexes.put(field, index);
+    memoizedFieldIndexes = Collections.unmodifiableMap(newIndexes);
+    return index;
+  }
+
+  /**
+   * Returns the first element of the repeated message field with the key, or null if there is
+   * none, looked up in the field's index.
+   *
+   * @throws IllegalArgumentException if the field has no index
+   * @see #getFieldIndex(FieldDescriptor)
+   */
+  public Message findByKey(final FieldDescriptor field, final Object key) {
+    final int index = getFieldIndex(field).findFirst(key);
+    return index < 0 ? null : (Message) getRepeatedField(field, index);
   }
 
   @Override
   public UnknownFieldSet getUnknownFields() {
-    return message.getUnknownFields();
+    return unknownFields;
+  }
+
+  /**
+   * Gets the element of the repeated int field without boxing.
+   */
+  public int getRepeatedInt(final FieldDescriptor field, final int index) {
+    verifyContainingType(type, field);
+    verifyRepeatedJavaType(field, JavaType.INT);
+    return PrimitiveLists.getInt(fields.get(field), index);
+  }
+
+  /**
+   * Gets the element of the repeated long field without boxing.
+   */
+  public long getRepeatedLong(final FieldDescriptor field, final int index) {
+    verifyContainingType(type, field);
+    verifyRepeatedJavaType(field, JavaType.LONG);
+    return PrimitiveLists.getLong(fields.get(field), index);
+  }
+
+  /**
+   * Gets the element of the repeated float field without boxing.
+   */
+  public float getRepeatedFloat(final FieldDescriptor field, final int index) {
+    verifyContainingType(type, field);
+    verifyRepeatedJavaType(field, JavaType.FLOAT);
+    return PrimitiveLists.getFloat(fields.get(field), index);
+  }
+
+  /**
+   * Gets the element of the repeated double field without boxing.
+   */
+  public double getRepeatedDouble(final FieldDescriptor field, final int index) {
+    verifyContainingType(type, field);
+    verifyRepeatedJavaType(field, JavaType.DOUBLE);
+    return PrimitiveLists.getDouble(fields.get(field), index);
+  }
+
+  /**
+   * Gets the element of the repeated boolean field without boxing.
+   */
+  public boolean getRepeatedBoolean(final FieldDescriptor field, final int index) {
+    verifyContainingType(type, field);
+    verifyRepeatedJavaType(field, JavaType.BOOLEAN);
+    return PrimitiveLists.getBoolean(fields.get(field), index);
+  }
+
+  /** Verifies that the field is repeated of the javaType. */
+  private static void verifyRepeatedJavaType(final FieldDescriptor field, final JavaType javaType) {
+    if (!field.isRepeated() || field.getJavaType() != javaType) {
+      throw new IllegalArgumentException("the field is not repeated " + javaType);
+    }
   }
 
   @Override
@@ -309,7 +697,7 @@ public final class DynamicMessage implements Message, IMessageEx {
       return isInitialized == 1;
     }
 
-    if (message.isInitialized()) {
+    if (fields.isInitialized()) {
       memoizedIsInitialized = 1;
       return true;
     } else {
@@ -319,44 +707,252 @@ public final class DynamicMessage implements Message, IMessageEx {
   }
 
   @Override
-  public void writeTo(final CodedOutputStream output) throws IOException {
-    message.writeTo(output);
+  public List<String> findInitializationErrors() {
+    if (isInitialized()) {
+      return Collections.emptyList();
+    }
+
+    final List<String> results = new ArrayList<String>();
+    findMissingFields(this, "", results);
+    return results;
   }
 
-  @Override
-  public int getSerializedSize() {
-    return message.getSerializedSize();
+  /**
+   * Collects the paths of the missing required fields, as the protobuf reflection does, but
+   * descends only into the sub-messages known to be uninitialized.
+   */
+  static void findMissingFields(final MessageOrBuilder message, final String prefix,
+      final List<String> results) {
+    final Descriptor type = message.getDescriptorForType();
+
+    if (SchemaPlan.of(type).getRequiredMask() != null) {
+      for (final FieldDescriptor field : type.getFields()) {
+        if (field.isRequired() && !message.hasField(field)) {
+          results.add(prefix + field.getName());
+        }
+      }
+    }
+
+    for (final Entry<FieldDescriptor, Object> entry : message.getAllFields().entrySet()) {
+      final FieldDescriptor field = entry.getKey();
+
+      if (field.getJavaType() != JavaType.MESSAGE) {
+        continue;
+      }
+
+      if (field.isRepeated()) {
+        int index = 0;
+
+        for (final Object element : (List<?>) entry.getValue()) {
+          final MessageOrBuilder value = (MessageOrBuilder) element;
+
+          if (!value.isInitialized()) {
+            findMissingFields(value, subMessagePrefix(prefix, field, index), results);
+          }
+
+          index++;
+        }
+      } else {
+        final MessageOrBuilder value = (MessageOrBuilder) entry.getValue();
+
+        if (!value.isInitialized()) {
+          findMissingFields(value, subMessagePrefix(prefix, field, -1), results);
+        }
+      }
+    }
   }
 
-  @Override
-  public Builder newBuilderForType() {
-    return new Builder(message.getDescriptorForType());
+  private static String subMessagePrefix(final String prefix, final FieldDescriptor field,
+      final int index) {
+    final StringBuilder result = new StringBuilder(prefix);
+
+    if (field.isExtension()) {
+      result.append('(').append(field.getFullName()).append(')');
+    } else {
+      result.append(field.getName());
+    }
+
+    if (index != -1) {
+      result.append('[').append(index).append(']');
+    }
+
+    return result.append('.').toString();
   }
 
   @Override
-  public Builder toBuilder() {
-    return newBuilderForType().mergeFrom(this);
+  public void writeTo(final CodedOutputStream output) throws IOException {
+    final ByteString bytes = memoizedBytes;
+
+    if (bytes != null) {
+      output.writeRawBytes(bytes);
+      return;
+    }
+
+    if (type.getOptions().getMessageSetWireFormat()) {
+      super.writeTo(output);
+      return;
+    }
+
+    fields.writeTo(output);
+    unknownFields.writeTo(output);
   }
 
   @Override
-  public FieldDescriptor getOneofFieldDescriptor(final OneofDescriptor oneof) {
-    return message.getOneofFieldDescriptor(oneof);
+  public int getSerializedSize() {
+    int size = memoizedSize;
+
+    if (size != -1) {
+      return size;
+    }
+
+    if (type.getOptions().getMessageSetWireFormat()) {
+      size = super.getSerializedSize();
+    } else {
+      size = fields.computeSerializedSize() + unknownFields.getSerializedSize();
+    }
+
+    memoizedSize = size;
+    return size;
   }
 
-  @Override
-  public boolean hasOneof(final OneofDescriptor oneof) {
-    return message.hasOneof(oneof);
+  /**
+   * Serializes only the fields selected by the projection, in the field number order; the
+   * extensions and the unknown fields are left out.
+   *
+   * @throws IllegalArgumentException if the projection is not of this message's type
+   */
+  public void writeTo(final CodedOutputStream output, final FieldProjection projection)
+      throws IOException {
+    checkProjection(projection);
+    fields.writeTo(output, projection);
   }
 
-  @Override
-  public Parser<DynamicMessage> getParserForType() {
-    return new AbstractParser<DynamicMessage>() {
-      @Override
-      public DynamicMessage parsePartialFrom(final CodedInputStream input,
-          final ExtensionRegistryLite extensionRegistry) throws InvalidProtocolBufferException {
-        final Builder builder = newBuilder(message.getDescriptorForType());
-        try {
-          builder.mergeFrom(input, extensionRegistry);
+  /**
+   * Returns the number of bytes {@link #writeTo(CodedOutputStream, FieldProjection)} writes.
+   */
+  public int getSerializedSize(final FieldProjection projection) {
+    checkProjection(projection);
+    return fields.computeSerializedSize(projection);
+  }
+
+  /**
+   * Serializes only the fields selected by the projection into a {@code ByteString}.
+   *
+   * @see #writeTo(CodedOutputStream, FieldProjection)
+   */
+  public ByteString toByteString(final FieldProjection projection) {
+    final byte[] result = new byte[getSerializedSize(projection)];
+    final CodedOutputStream output = CodedOutputStream.newInstance(result);
+
+    try {
+      writeTo(output, projection);
+    } catch (final IOException e) {
+      throw new RuntimeException(
+          "Serializing to a byte array threw an IOException (should never happen).", e);
+    }
+
+    output.checkNoSpaceLeft();
+    onSerialized(type, result.length);
+    return ByteString.copyFrom(result);
+  }
+
+  private void checkProjection(final FieldProjection projection) {
+    if (projection.getDescriptor() != type) {
+      throw new IllegalArgumentException("the projection is not of the type "
+          + type.getFullName());
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * The encoding of the message not bigger than {@link #MAX_CACHED_ENCODING_SIZE} is retained,
+   * so the subsequent calls, as well as {@link #writeTo(CodedOutputStream)} and
+   * {@link #toByteArray()}, are reduced to its bulk copy.
+   */
+  @Override
+  public ByteString toByteString() {
+    ByteString result = memoizedBytes;
+
+    if (result == null) {
+      result = super.toByteString();
+
+      if (result.size() <= MAX_CACHED_ENCODING_SIZE) {
+        memoizedBytes = result;
+      }
+    }
+
+    onSerialized(type, result.size());
+    return result;
+  }
+
+  @Override
+  public byte[] toByteArray() {
+    final ByteString bytes = memoizedBytes;
+    final byte[] result = bytes == null ? super.toByteArray() : bytes.toByteArray();
+    onSerialized(type, result.length);
+    return result;
+  }
+
+  private static void onSerialized(final Descriptor type, final int size) {
+    final ProtobufelMetrics metrics = ProtobufelMetrics.getInstalled();
+
+    if (metrics != null) {
+      metrics.onSerialized(type, size);
+    }
+  }
+
+  @Override
+  public Builder newBuilderForType() {
+    return new Builder(type);
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * The builder shares the fields of this message, copying them on its first write only, so it
+   * takes O(1); the nested messages are shared as well, and copied along the path of the write.
+   * The builder keeps the field indexes of this message.
+   */
+  @Override
+  public Builder toBuilder() {
+    return toBuilder(null);
+  }
+
+  private Builder toBuilder(final BuilderParent parent) {
+    final Builder builder = new Builder(type, fields, unknownFields, parent, true);
+    builder.indexDefinitions = indexDefinitions;
+    return builder;
+  }
+
+  @Override
+  public FieldDescriptor getOneofFieldDescriptor(final OneofDescriptor oneof) {
+    verifyOneofContainingType(type, oneof);
+    return fields.getOneofFieldDescriptor(oneof);
+  }
+
+  @Override
+  public boolean hasOneof(final OneofDescriptor oneof) {
+    return getOneofFieldDescriptor(oneof) != null;
+  }
+
+  /** Verifies that the oneof is an oneof of the type. */
+  private static void verifyOneofContainingType(final Descriptor type,
+      final OneofDescriptor oneof) {
+    if (oneof.getContainingType() != type) {
+      throw new IllegalArgumentException("OneofDescriptor does not match message type.");
+    }
+  }
+
+  @Override
+  public Parser<DynamicMessage> getParserForType() {
+    return new AbstractParser<DynamicMessage>() {
+      @Override
+      public DynamicMessage parsePartialFrom(final CodedInputStream input,
+          final ExtensionRegistryLite extensionRegistry) throws InvalidProtocolBufferException {
+        final Builder builder = newBuilder(type);
+        try {
+          builder.mergeFrom(input, extensionRegistry);
         } catch (final InvalidProtocolBufferException e) {
           throw e.setUnfinishedMessage(builder.buildPartial());
         } catch (final IOException e) {
@@ -368,12 +964,518 @@ public final class DynamicMessage implements Message, IMessageEx {
     };
   }
 
+  // ******************************** Wire Parsing START
+
+  private static DynamicMessage parseFrom(final Descriptor type, final CodedInputStream input,
+      final ExtensionRegistryLite extensionRegistry, final boolean isWholeInput)
+      throws IOException {
+    return parseFrom(type, input, extensionRegistry, isWholeInput, null);
+  }
+
+  private static DynamicMessage parseFrom(final Descriptor type, final CodedInputStream input,
+      final ExtensionRegistryLite extensionRegistry, final boolean isWholeInput,
+      final ValueInterner interner) throws IOException {
+    final ProtobufelMetrics metrics = ProtobufelMetrics.getInstalled();
+    final long startTime = metrics == null ? 0 : System.nanoTime();
+    final int startOffset = input.getTotalBytesRead();
+    final DynamicMessage result =
+        parsePartialFrom(FieldTable.of(type), input, extensionRegistry, false, interner);
+
+    if (metrics != null) {
+      metrics.onParsed(type, input.getTotalBytesRead() - startOffset, System.nanoTime()
+          - startTime);
+    }
+
+    if (isWholeInput) {
+      input.checkLastTagWas(0);
+    }
+
+    if (!result.isInitialized()) {
+      throw Builder.newUninitializedParseException(result);
+    }
+
+    return result;
+  }
+
+  private static DynamicMessage parsePartialFrom(final FieldTable table,
+      final CodedInputStream input, final ExtensionRegistryLite extensionRegistry,
+      final boolean isLazy, final ValueInterner interner) throws IOException {
+    final Descriptor type = table.getDescriptor();
+
+    if (type.getOptions().getMessageSetWireFormat()) {
+      return newBuilder(type).mergeFrom(input, extensionRegistry).buildPartial();
+    }
+
+    final FieldSlots fields = new FieldSlots(table);
+    final UnknownFieldSet.Builder unknownFields = UnknownFieldSet.newBuilder();
+    mergeFieldsFrom(input, extensionRegistry, fields, unknownFields, null, 0, isLazy, interner);
+    fields.freeze();
+    return new DynamicMessage(type, fields, unknownFields.build());
+  }
+
+  private static DynamicMessage parseLazyWholeFrom(final Descriptor type, final ByteString data,
+      final ExtensionRegistryLite extensionRegistry) throws InvalidProtocolBufferException {
+    final ProtobufelMetrics metrics = ProtobufelMetrics.getInstalled();
+    final long startTime = metrics == null ? 0 : System.nanoTime();
+    final DynamicMessage result = parseLazily(FieldTable.of(type), data, extensionRegistry);
+
+    if (metrics != null) {
+      metrics.onParsed(type, data.size(), System.nanoTime() - startTime);
+    }
+
+    if (!result.isInitialized()) {
+      throw Builder.newUninitializedParseException(result);
+    }
+
+    return result;
+  }
+
+  /**
+   * Parses the whole data lazily, see {@link #parseLazyFrom(Descriptor, ByteString)}, without
+   * checking whether the result is initialized.
+   */
+  static DynamicMessage parseLazily(final FieldTable table, final ByteString data,
+      final ExtensionRegistryLite extensionRegistry) throws InvalidProtocolBufferException {
+    try {
+      final CodedInputStream input = data.newCodedInput();
+      // the nested messages and the bytes fields become the slices of the data, if possible
+      input.enableAliasing(true);
+      final DynamicMessage result =
+          parsePartialFrom(table, input, extensionRegistry, true, null);
+      input.checkLastTagWas(0);
+      return result;
+    } catch (final InvalidProtocolBufferException e) {
+      throw e;
+    } catch (final IOException e) {
+      throw new RuntimeException(
+          "Reading from a ByteString threw an IOException (should never happen).", e);
+    }
+  }
+
+  private static DynamicMessage parseWholeFrom(final Descriptor type, final ByteString data,
+      final ExtensionRegistryLite extensionRegistry) throws InvalidProtocolBufferException {
+    return parseWholeFrom(type, data, extensionRegistry, false);
+  }
+
+  private static DynamicMessage parseWholeFrom(final Descriptor type, final ByteString data,
+      final ExtensionRegistryLite extensionRegistry, final boolean isAliasing)
+      throws InvalidProtocolBufferException {
+    try {
+      final CodedInputStream input = data.newCodedInput();
+      input.enableAliasing(isAliasing);
+      return parseFrom(type, input, extensionRegistry, true);
+    } catch (final InvalidProtocolBufferException e) {
+      throw e;
+    } catch (final IOException e) {
+      throw new RuntimeException(
+          "Reading from a ByteString threw an IOException (should never happen).", e);
+    }
+  }
+
+  private static DynamicMessage parseWholeFrom(final Descriptor type, final byte[] data,
+      final ExtensionRegistryLite extensionRegistry) throws InvalidProtocolBufferException {
+    try {
+      return parseFrom(type, CodedInputStream.newInstance(data), extensionRegistry, true);
+    } catch (final InvalidProtocolBufferException e) {
+      throw e;
+    } catch (final IOException e) {
+      throw new RuntimeException(
+          "Reading from a byte array threw an IOException (should never happen).", e);
+    }
+  }
+
+  private static DynamicMessage parseWholeFrom(final Descriptor type, final ByteBuffer data,
+      final ExtensionRegistryLite extensionRegistry) throws InvalidProtocolBufferException {
+    if (!data.hasArray()) {
+      // CodedInputStream needs a heap array, so copy once, yet for good
+      return parseWholeFrom(type, ByteString.copyFrom(data.duplicate()), extensionRegistry, true);
+    }
+
+    try {
+      return parseFrom(type, CodedInputStream.newInstance(data.array(),
+          data.arrayOffset() + data.position(), data.remaining()), extensionRegistry, true);
+    } catch (final InvalidProtocolBufferException e) {
+      throw e;
+    } catch (final IOException e) {
+      throw new RuntimeException(
+          "Reading from a ByteBuffer threw an IOException (should never happen).", e);
+    }
+  }
+
+  /**
+   * Parses the fields straight into the slots until the end of input, or the current limit, or an
+   * end-group tag. The fields are looked up by the precomputed {@link FieldTable}. If the builder
+   * is not null, the slots are its own, and the fields backed by its field builders are merged
+   * through them. If isLazy, the nested messages are kept as {@link LazyMessage}s.
+   */
+  private static void mergeFieldsFrom(final CodedInputStream input,
+      final ExtensionRegistryLite extensionRegistry, final FieldSlots fields,
+      final UnknownFieldSet.Builder unknownFields, final Builder builder, final int depth,
+      final boolean isLazy, final ValueInterner interner) throws IOException {
+    final FieldTable table = fields.getTable();
+    final Descriptor type = table.getDescriptor();
+
+    while (true) {
+      final int tag = input.readTag();
+
+      if (tag == 0) {
+        return;
+      }
+
+      final int number = WireFormat.getTagFieldNumber(tag);
+      FieldPlan plan = table.findPlanByNumber(number);
+      Message defaultInstance = null;
+
+      if (plan == null && extensionRegistry instanceof ExtensionRegistry
+          && type.isExtensionNumber(number)) {
+        final ExtensionInfo extension =
+            ((ExtensionRegistry) extensionRegistry).findExtensionByNumber(type, number);
+
+        if (extension != null) {
+          plan = table.getPlan(extension.descriptor);
+          defaultInstance = extension.defaultInstance;
+
+          if (defaultInstance == null && plan.javaType == JavaType.MESSAGE) {
+            throw new IllegalStateException("Message-typed extension lacked default instance: "
+                + plan.field.getFullName());
+          }
+        }
+      }
+
+      if (plan == null) {
+        if (!unknownFields.mergeFieldFrom(tag, input)) {
+          return;
+        }
+      } else if (tag == plan.tag) {
+        mergeValueFrom(input, extensionRegistry, fields, unknownFields, builder, depth, isLazy,
+            interner, plan, defaultInstance);
+      } else if (plan.isPackable
+          && (tag & TAG_TYPE_MASK) == WireFormat.WIRETYPE_LENGTH_DELIMITED) {
+        mergePackedValuesFrom(input, fields, builder, plan.field);
+      } else if (!unknownFields.mergeFieldFrom(tag, input)) {
+        return;
+      }
+    }
+  }
+
+  private static void mergeValueFrom(final CodedInputStream input,
+      final ExtensionRegistryLite extensionRegistry, final FieldSlots fields,
+      final UnknownFieldSet.Builder unknownFields, final Builder builder, final int depth,
+      final boolean isLazy, final ValueInterner interner, final FieldPlan plan,
+      final Message defaultInstance) throws IOException {
+    final FieldDescriptor field = plan.field;
+
+    switch (plan.javaType) {
+      case MESSAGE:
+        if (isLazy && plan.type == FieldDescriptor.Type.MESSAGE
+            && (defaultInstance == null || defaultInstance instanceof DynamicMessage)) {
+          mergeLazyValueFrom(input, extensionRegistry, fields, field);
+          return;
+        }
+
+        if (builder != null && builder.builders.get(field) != null) {
+          if (plan.isRepeated) {
+            builder.addRepeatedField(field, readMessage(input, extensionRegistry, fields, field,
+                defaultInstance, depth, false, interner));
+          } else {
+            final Builder fieldBuilder = builder.getFieldBuilder(field);
+
+            if (plan.type == FieldDescriptor.Type.GROUP) {
+              input.readGroup(plan.number, fieldBuilder, extensionRegistry);
+            } else {
+              input.readMessage(fieldBuilder, extensionRegistry);
+            }
+          }
+
+          return;
+        }
+
+        final Message message =
+            readMessage(input, extensionRegistry, fields, field, defaultInstance, depth, isLazy,
+                interner);
+
+        if (plan.isRepeated) {
+          getMutableFieldList(fields, builder, field).add(message);
+        } else {
+          final Message oldMessage = (Message) fields.get(field);
+          setFieldValue(fields, builder, field, oldMessage == null ? message : oldMessage
+              .toBuilder().mergeFrom(message).buildPartial());
+        }
+
+        return;
+      case ENUM:
+        final int rawValue = input.readEnum();
+        final EnumValueDescriptor enumValue = field.getEnumType().findValueByNumber(rawValue);
+
+        if (enumValue == null) {
+          unknownFields.mergeVarintField(plan.number, rawValue);
+        } else if (plan.isRepeated) {
+          getMutableFieldList(fields, builder, field).add(enumValue);
+        } else {
+          setFieldValue(fields, builder, field, enumValue);
+        }
+
+        return;
+      default:
+        if (interner != null && interner.isInterned(field)) {
+          final Object value = interner.intern(FieldCodec.readPrimitive(input, plan.type));
+
+          if (plan.isRepeated) {
+            getMutableFieldList(fields, builder, field).add(value);
+          } else {
+            setFieldValue(fields, builder, field, value);
+          }
+        } else if (plan.isRepeated) {
+          FieldCodec.readElement(input, plan.type, getMutableFieldList(fields, builder, field));
+        } else {
+          setFieldValue(fields, builder, field, FieldCodec.readPrimitive(input, plan.type));
+        }
+
+        return;
+    }
+  }
+
+  /**
+   * Merges the nested message, in the builder-less slots, as its undecoded slice of the input.
+   */
+  private static void mergeLazyValueFrom(final CodedInputStream input,
+      final ExtensionRegistryLite extensionRegistry, final FieldSlots fields,
+      final FieldDescriptor field) throws IOException {
+    final LazyMessage message =
+        new LazyMessage(fields.getTable().getMessageTable(field), input.readBytes(),
+            extensionRegistry);
+    final Object oldValue = fields.getRaw(field);
+
+    if (!field.isRepeated()) {
+      fields.set(field, oldValue == null ? message : message.mergeAfter(oldValue));
+    } else if (oldValue instanceof LazyList) {
+      ((LazyList) oldValue).addRaw(message);
+    } else {
+      final LazyList list = new LazyList();
+
+      if (oldValue != null) {
+        for (final Object element : (List<?>) oldValue) {
+          list.addRaw(element);
+        }
+      }
+
+      list.addRaw(message);
+      fields.set(field, list);
+    }
+  }
+
+  private static void mergePackedValuesFrom(final CodedInputStream input,
+      final FieldSlots fields, final Builder builder, final FieldDescriptor field)
+      throws IOException {
+    final int limit = input.pushLimit(input.readRawVarint32());
+    final List<Object> values = getMutableFieldList(fields, builder, field);
+
+    if (field.getJavaType() == JavaType.ENUM) {
+      while (input.getBytesUntilLimit() > 0) {
+        final EnumValueDescriptor value = field.getEnumType().findValueByNumber(input.readEnum());
+
+        // the unrecognized enum values are dropped, as by the original protobuf
+        if (value != null) {
+          values.add(value);
+        }
+      }
+    } else {
+      FieldCodec.readPackedElements(input, field.getType(), values);
+    }
+
+    input.popLimit(limit);
+  }
+
+  private static Message readMessage(final CodedInputStream input,
+      final ExtensionRegistryLite extensionRegistry, final FieldSlots fields,
+      final FieldDescriptor field, final Message defaultInstance, final int depth,
+      final boolean isLazy, final ValueInterner interner) throws IOException {
+    final boolean isGroup = field.getType() == FieldDescriptor.Type.GROUP;
+
+    if (defaultInstance != null && !(defaultInstance instanceof DynamicMessage)) {
+      final Message.Builder messageBuilder = defaultInstance.newBuilderForType();
+
+      if (isGroup) {
+        input.readGroup(field.getNumber(), messageBuilder, extensionRegistry);
+      } else {
+        input.readMessage(messageBuilder, extensionRegistry);
+      }
+
+      return messageBuilder.buildPartial();
+    }
+
+    return parseMessage(input, extensionRegistry, fields.getTable().getMessageTable(field),
+        isGroup ? field.getNumber() : 0, depth + 1, isLazy, interner);
+  }
+
+  /**
+   * Parses the nested message, or the group if the groupNumber is not 0, straight into the new
+   * slots.
+   */
+  private static DynamicMessage parseMessage(final CodedInputStream input,
+      final ExtensionRegistryLite extensionRegistry, final FieldTable table,
+      final int groupNumber, final int depth, final boolean isLazy, final ValueInterner interner)
+      throws IOException {
+    if (depth > RECURSION_LIMIT) {
+      throw new InvalidProtocolBufferException(
+          "Protocol message had too many levels of nesting.  May be malicious.");
+    }
+
+    final Descriptor type = table.getDescriptor();
+
+    if (type.getOptions().getMessageSetWireFormat()) {
+      final Builder messageBuilder = newBuilder(type);
+
+      if (groupNumber != 0) {
+        input.readGroup(groupNumber, messageBuilder, extensionRegistry);
+      } else {
+        input.readMessage(messageBuilder, extensionRegistry);
+      }
+
+      return messageBuilder.buildPartial();
+    }
+
+    final FieldSlots fields = new FieldSlots(table);
+    final UnknownFieldSet.Builder unknownFields = UnknownFieldSet.newBuilder();
+
+    if (groupNumber != 0) {
+      mergeFieldsFrom(input, extensionRegistry, fields, unknownFields, null, depth, isLazy,
+          interner);
+      input.checkLastTagWas(groupNumber << 3 | WireFormat.WIRETYPE_END_GROUP);
+    } else {
+      final int oldLimit = input.pushLimit(input.readRawVarint32());
+      mergeFieldsFrom(input, extensionRegistry, fields, unknownFields, null, depth, isLazy,
+          interner);
+      input.checkLastTagWas(0);
+      input.popLimit(oldLimit);
+    }
+
+    fields.freeze();
+    return new DynamicMessage(type, fields, unknownFields.build());
+  }
+
+  /**
+   * Parses the fields selected by the projection straight into the slots until the end of input,
+   * or the current limit, or an end-group tag; the rest are skipped by their wire type.
+   */
+  private static void mergeProjectedFieldsFrom(final CodedInputStream input,
+      final ExtensionRegistryLite extensionRegistry, final FieldSlots fields,
+      final FieldProjection projection, final int depth) throws IOException {
+    final FieldTable table = fields.getTable();
+
+    while (true) {
+      final int tag = input.readTag();
+
+      if (tag == 0) {
+        return;
+      }
+
+      final FieldPlan plan = table.findPlanByNumber(WireFormat.getTagFieldNumber(tag));
+      final int index = plan == null ? -1 : plan.field.getIndex();
+
+      if (plan == null || !projection.isWhole(index) && projection.getSubProjection(index) == null
+          || tag != plan.tag && !(plan.isPackable
+              && (tag & TAG_TYPE_MASK) == WireFormat.WIRETYPE_LENGTH_DELIMITED)) {
+        if (!input.skipField(tag)) {
+          return;
+        }
+      } else if (projection.isWhole(index)) {
+        if (tag == plan.tag) {
+          // the unrecognized enum values are dropped with the rest of the unknown fields
+          mergeValueFrom(input, extensionRegistry, fields, UnknownFieldSet.newBuilder(), null,
+              depth, false, null, plan, null);
+        } else {
+          mergePackedValuesFrom(input, fields, null, plan.field);
+        }
+      } else {
+        final DynamicMessage message =
+            parseProjectedMessage(input, extensionRegistry, table.getMessageTable(plan.field),
+                projection.getSubProjection(index),
+                plan.type == FieldDescriptor.Type.GROUP ? plan.number : 0, depth + 1);
+
+        if (plan.isRepeated) {
+          getMutableFieldList(fields, plan.field).add(message);
+        } else {
+          final Message oldMessage = (Message) fields.get(plan.field);
+          fields.set(plan.field, oldMessage == null ? message : oldMessage.toBuilder()
+              .mergeFrom(message).buildPartial());
+        }
+      }
+    }
+  }
+
+  /**
+   * Parses the fields of the nested message, or the group if the groupNumber is not 0, selected
+   * by the projection, straight into the new slots.
+   */
+  private static DynamicMessage parseProjectedMessage(final CodedInputStream input,
+      final ExtensionRegistryLite extensionRegistry, final FieldTable table,
+      final FieldProjection projection, final int groupNumber, final int depth)
+      throws IOException {
+    if (depth > RECURSION_LIMIT) {
+      throw new InvalidProtocolBufferException(
+          "Protocol message had too many levels of nesting.  May be malicious.");
+    }
+
+    final FieldSlots fields = new FieldSlots(table);
+
+    if (groupNumber != 0) {
+      mergeProjectedFieldsFrom(input, extensionRegistry, fields, projection, depth);
+      input.checkLastTagWas(groupNumber << 3 | WireFormat.WIRETYPE_END_GROUP);
+    } else {
+      final int oldLimit = input.pushLimit(input.readRawVarint32());
+      mergeProjectedFieldsFrom(input, extensionRegistry, fields, projection, depth);
+      input.checkLastTagWas(0);
+      input.popLimit(oldLimit);
+    }
+
+    fields.freeze();
+    return new DynamicMessage(table.getDescriptor(), fields,
+        UnknownFieldSet.getDefaultInstance());
+  }
+
+  private static void setFieldValue(final FieldSlots fields, final Builder builder,
+      final FieldDescriptor field, final Object value) {
+    if (builder == null) {
+      fields.set(field, value);
+    } else {
+      builder.setSlot(field, value);
+    }
+  }
+
+  private static List<Object> getMutableFieldList(final FieldSlots fields, final Builder builder,
+      final FieldDescriptor field) {
+    return builder == null ? getMutableFieldList(fields, field) : builder
+        .ensureFieldListIsMutable(field);
+  }
+
+  /**
+   * Gets the field's list in the slots, replacing it with its mutable copy if needed.
+   */
+  @SuppressWarnings("unchecked")
+  private static List<Object> getMutableFieldList(final FieldSlots fields,
+      final FieldDescriptor field) {
+    final Object value = fields.get(field);
+
+    if (FieldSlots.isMutableList(value)) {
+      return (List<Object>) value;
+    }
+
+    final List<Object> list =
+        value == null ? PrimitiveLists.newList(field) : PrimitiveLists.mutableCopyOf(field,
+            (List<?>) value);
+    fields.set(field, list);
+    return list;
+  }
+
+  // ******************************** Wire Parsing END
+
   // =================================================================
 
   /**
-   * A DynamicMessage.Builder wrapping the original protobuf DynamicMessage.Builder and mirroring
-   * all relevant GeneratedMessage.Builder functionality, including hierarchical builders, insertion
-   * of repeated fields, etc.
+   * A DynamicMessage.Builder mirroring all relevant GeneratedMessage.Builder functionality,
+   * including hierarchical builders, insertion of repeated fields, etc. The active field builders
+   * are kept in slots parallel to the {@link FieldSlots}.
    *
    * @see com.google.protobuf.DynamicMessage.Builder
    * @see com.google.protobuf.GeneratedMessage.Builder
@@ -381,13 +1483,35 @@ public final class DynamicMessage implements Message, IMessageEx {
    * @author protobufel@gmail.com David Tesler
    */
   public static final class Builder extends AbstractMessage.Builder<Builder> implements IBuilder2 {
-    private final com.google.protobuf.DynamicMessage.Builder builder;
+    private final Descriptor type;
+    private FieldSlots fields;
+    // whether the fields are shared with a built message or a clone, and so must be copied on write
+    private boolean isFieldsShared;
+    // whether this root builder is held by a BuilderPool, so it keeps its fields for clearing them
+    // in place, and gives each built message their copy
+    private boolean isPooled;
+    private UnknownFieldSet unknownFields;
     private BuilderParent builderParent;
     private BuilderParentImpl meAsParent;
 
     // Indicates that we've built a message and so we are now obligated
     // to dispatch dirty invalidations. See GeneratedMessage.BuilderListener.
     private boolean isClean;
+    // the open batch edit scopes, and whether the parent's invalidation is deferred by them
+    private int batchDepth;
+    private boolean isChangePending;
+    // the descendants with the pending invalidations, dispatched before this builder's tree is read
+    // through its field builders, or built, see flushPendingChanges(); or null if none
+    private List<Builder> pendingBuilders;
+    // the memoized isInitialized() of this builder's tree, -1 if unknown; a change of the tree
+    // resets it, along with its parents' ones, see invalidateIsInitialized(Builder)
+    private byte memoizedIsInitialized = -1;
+    // the field indexes' definitions, copied on write, as shared with the built messages, or null
+    // if none, and the indexes built on demand, current with this builder, or null if none
+    private Map<FieldDescriptor, RepeatedFieldIndex.Definition> indexDefinitions;
+    private Map<FieldDescriptor, RepeatedFieldIndex> fieldIndexes;
+    // the field being changed by a per field setter, or null if none, see recordChange()
+    private FieldDescriptor changingField;
 
     // SubBuilders
     private final SubBuilders builders;
@@ -399,24 +1523,36 @@ public final class DynamicMessage implements Message, IMessageEx {
 
     /** Construct a {@code Builder} for the given type. */
     private Builder(final Descriptor type, final BuilderParent builderParent) {
-      builder = com.google.protobuf.DynamicMessage.newBuilder(type);
-      this.builderParent = builderParent;
-      builders = new SubBuilders();
-      maybeForceBuilderInitialization();
+      this(type, new FieldSlots(type), UnknownFieldSet.getDefaultInstance(), builderParent, false);
     }
 
-    /** Constructor for cloning. */
-    private Builder(final com.google.protobuf.DynamicMessage.Builder builder,
-        final BuilderParent builderParent) {
-      this.builder = builder;
+    /** Constructor for cloning, and for the builders sharing the frozen fields. */
+    private Builder(final Descriptor type, final FieldSlots fields,
+        final UnknownFieldSet unknownFields, final BuilderParent builderParent,
+        final boolean isFieldsShared) {
+      this.type = type;
+      this.fields = fields;
+      this.isFieldsShared = isFieldsShared;
+      this.unknownFields = unknownFields;
       this.builderParent = builderParent;
       builders = new SubBuilders();
+      final ProtobufelMetrics metrics = ProtobufelMetrics.getInstalled();
+
+      if (metrics != null) {
+        metrics.onBuilderCreated(type);
+      }
+
+      if (builderParent != null) {
+        // the parents might have taken this tree's state from its message
+        invalidateIsInitialized(getParentBuilder());
+      }
+
       maybeForceBuilderInitialization();
     }
 
     private void maybeForceBuilderInitialization() {
       if (alwaysUseFieldBuilders) {
-        for (final FieldDescriptor field : builder.getDescriptorForType().getFields()) {
+        for (final FieldDescriptor field : type.getFields()) {
           if (field.getJavaType() == JavaType.MESSAGE) {
             if (field.isRepeated()) {
               getRepeatedFieldBuilder(field, true);
@@ -442,9 +1578,64 @@ public final class DynamicMessage implements Message, IMessageEx {
       return this;
     }
 
+    /**
+     * Returns the nearest parent Builder, without changing the parent chain, as toParent() does.
+     */
+    private Builder getParentBuilder() {
+      return getParentBuilder(builderParent);
+    }
+
+    /**
+     * Returns the Builder behind the parent, or null if there is none, or it is behind a foreign
+     * BuilderParent.
+     */
+    private static Builder getParentBuilder(BuilderParent parent) {
+      while (parent != null) {
+        if (parent instanceof BuilderParentImpl) {
+          return ((BuilderParentImpl) parent).getBuilder();
+        } else if (parent instanceof SingleFieldBuilder || parent instanceof RepeatedFieldBuilder) {
+          parent = parent.getParent();
+        } else {
+          return null;
+        }
+      }
+
+      return null;
+    }
+
+    /**
+     * Resets the memoized isInitialized() of the builder and its parents, stopping at the first
+     * unknown one, as either its parents are unknown too, or their results do not depend on it.
+     */
+    private static void invalidateIsInitialized(Builder builder) {
+      while (builder != null && builder.memoizedIsInitialized != -1) {
+        builder.memoizedIsInitialized = -1;
+        builder = builder.getParentBuilder();
+      }
+    }
+
+    /**
+     * Records a change of the builder's fields. Unless it is of the changingField, whose index is
+     * maintained by its setter, the builder's field indexes are dropped, to be rebuilt on demand.
+     * If the builder is an element of a repeated field's builder, the parent's index of the field
+     * is dropped as well, unless the change is known not to be of a key field.
+     */
+    private void recordChange() {
+      if (changingField == null) {
+        fieldIndexes = null;
+      }
+
+      if (builderParent instanceof SingleFieldBuilder) {
+        final BuilderParent fieldBuilder = builderParent.getParent();
+
+        if (fieldBuilder instanceof DynamicRepeatedFieldBuilder) {
+          ((DynamicRepeatedFieldBuilder) fieldBuilder).onElementChanged(changingField);
+        }
+      }
+    }
+
     public boolean isEmpty() {
-      return builders.isEmpty() && builder.getAllFields().isEmpty()
-          && builder.getUnknownFields().asMap().isEmpty();
+      return builders.isEmpty() && fields.isEmpty() && unknownFields.asMap().isEmpty();
     }
 
     private static Builder create(final Descriptor type) {
@@ -481,15 +1672,35 @@ public final class DynamicMessage implements Message, IMessageEx {
       return isClean;
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Without the active field builders, the clone shares the fields of this builder, both
+     * copying them on their first write, so it takes O(1) if this builder has not been changed
+     * since it was built or cloned.
+     */
     @Override
     public Builder clone() {
-      final com.google.protobuf.DynamicMessage.Builder cloned = builder.clone();
+      flushPendingChanges();
+      final Builder result;
 
-      for (final Entry<FieldDescriptor, IFieldBuilder> entry : builders.entrySet()) {
-        cloned.setField(entry.getKey(), entry.getValue().build());
+      if (builders.isEmpty()) {
+        if (!isFieldsShared) {
+          fields.freeze();
+          isFieldsShared = true;
+        }
+
+        result = new Builder(type, fields, unknownFields, null, true);
+      } else {
+        fields.freeze();
+        final FieldSlots cloned = fields.copy();
+        builders.buildInto(cloned);
+        cloned.freeze();
+        result = new Builder(type, cloned, unknownFields, null, false);
       }
 
-      return new Builder(cloned, null);
+      result.indexDefinitions = indexDefinitions;
+      return result;
     }
 
     /**
@@ -499,14 +1710,59 @@ public final class DynamicMessage implements Message, IMessageEx {
     @Override
     public Builder clear() {
       onChanged();
-      builder.clear();
+      clearFields();
       builders.clear();
       return this;
     }
 
+    private void clearFields() {
+      if (isFieldsShared) {
+        fields = new FieldSlots(fields.getTable());
+        isFieldsShared = false;
+      } else {
+        fields.clearAll();
+      }
+
+      unknownFields = UnknownFieldSet.getDefaultInstance();
+    }
+
+    /**
+     * Resets this root builder to its initial state, for its reuse by {@link BuilderPool}. Its
+     * field builders are disposed, so they are detached from it, and will not notify it anymore.
+     *
+     * @throws IllegalStateException if this builder is a nested one
+     */
+    void recycle() {
+      markPooled();
+      builders.dispose();
+      clearFields();
+      isClean = false;
+      memoizedIsInitialized = -1;
+      batchDepth = 0;
+      isChangePending = false;
+      pendingBuilders = null;
+      indexDefinitions = null;
+      fieldIndexes = null;
+      maybeForceBuilderInitialization();
+    }
+
+    /**
+     * Makes this root builder keep its own fields across its builds, for {@link BuilderPool}; each
+     * built message gets the copy of the fields, so {@link #recycle()} clears them in place.
+     *
+     * @throws IllegalStateException if this builder is a nested one
+     */
+    void markPooled() {
+      if (builderParent != null) {
+        throw new IllegalStateException("a nested builder cannot be recycled");
+      }
+
+      isPooled = true;
+    }
+
     @Override
     public Descriptor getDescriptorForType() {
-      return builder.getDescriptorForType();
+      return type;
     }
 
     @Override
@@ -517,22 +1773,46 @@ public final class DynamicMessage implements Message, IMessageEx {
     /** Internal helper which returns a mutable map. */
     private Map<FieldDescriptor, Object> getAllFieldsMutable() {
       final TreeMap<FieldDescriptor, Object> result = new TreeMap<FieldDescriptor, Object>();
-      for (final FieldDescriptor field : builder.getDescriptorForType().getFields()) {
-        if (field.isRepeated()) {
-          final List<?> value = (List<?>) getField(field);
 
-          if (!value.isEmpty()) {
-            result.put(field, value);
-          }
-        } else {
-          if (hasField(field)) {
-            result.put(field, getField(field));
-          }
+      if (builders.isEmpty()) {
+        // only the present slots can be set
+        final List<FieldDescriptor> typeFields = type.getFields();
+
+        for (int i = fields.nextPresentIndex(0); i >= 0; i = fields.nextPresentIndex(i + 1)) {
+          putFieldIfSet(result, typeFields.get(i));
+        }
+      } else {
+        for (final FieldDescriptor field : type.getFields()) {
+          putFieldIfSet(result, field);
         }
       }
+
+      for (final FieldDescriptor field : fields.getExtensionFields()) {
+        putFieldIfSet(result, field);
+      }
+
+      for (final FieldDescriptor field : builders.getExtensionFields()) {
+        putFieldIfSet(result, field);
+      }
+
       return result;
     }
 
+    private void putFieldIfSet(final Map<FieldDescriptor, Object> result,
+        final FieldDescriptor field) {
+      if (field.isRepeated()) {
+        final List<?> value = (List<?>) getField(field);
+
+        if (!value.isEmpty()) {
+          result.put(field, value);
+        }
+      } else {
+        if (hasField(field)) {
+          result.put(field, getField(field));
+        }
+      }
+    }
+
     @Override
     public Builder newBuilderForField(final FieldDescriptor field) {
       verifyContainingType(field);
@@ -547,38 +1827,64 @@ public final class DynamicMessage implements Message, IMessageEx {
 
     @Override
     public final Builder setUnknownFields(final UnknownFieldSet unknownFields) {
-      builder.setUnknownFields(unknownFields);
+      this.unknownFields = unknownFields;
       onChanged();
       return this;
     }
 
     @Override
     public final Builder mergeUnknownFields(final UnknownFieldSet unknownFields) {
-      builder.mergeUnknownFields(unknownFields);
+      this.unknownFields =
+          UnknownFieldSet.newBuilder(this.unknownFields).mergeFrom(unknownFields).build();
       onChanged();
       return this;
     }
 
     @Override
     public boolean isInitialized() {
-      if (!builder.isInitialized()) {
-        return false;
+      if (memoizedIsInitialized != -1) {
+        return memoizedIsInitialized == 1;
       }
 
-      if (!builders.isEmpty()) {
-        for (final IFieldBuilder builder : builders.values()) {
-          if (!builder.isInitialized()) {
-            return false;
+      final boolean isInitialized = computeIsInitialized();
+      memoizedIsInitialized = isInitialized ? (byte) 1 : (byte) 0;
+      return isInitialized;
+    }
+
+    @Override
+    public List<String> findInitializationErrors() {
+      if (isInitialized()) {
+        return Collections.emptyList();
+      }
+
+      final List<String> results = new ArrayList<String>();
+      findMissingFields(this, "", results);
+      return results;
+    }
+
+    private boolean computeIsInitialized() {
+      final long[] requiredMask = fields.getTable().getSchemaPlan().getRequiredMask();
+
+      if (requiredMask != null) {
+        final List<FieldDescriptor> typeFields = type.getFields();
+
+        for (int word = 0; word < requiredMask.length; word++) {
+          for (long bits = requiredMask[word]; bits != 0; bits &= bits - 1) {
+            final int index = (word << 6) + Long.numberOfTrailingZeros(bits);
+
+            if (fields.getAt(index) == null && builders.get(typeFields.get(index)) == null) {
+              return false;
+            }
           }
         }
       }
 
-      return true;
+      return fields.areMessagesInitialized() && builders.isInitialized();
     }
 
     @Override
     public final UnknownFieldSet getUnknownFields() {
-      return builder.getUnknownFields();
+      return unknownFields;
     }
 
     /**
@@ -593,75 +1899,250 @@ public final class DynamicMessage implements Message, IMessageEx {
     }
 
     /**
-     * Implementation of {@link BuilderParent} for giving to our children. This small inner class
-     * makes it so we don't publicly expose the BuilderParent methods.
+     * Parses the message fields straight into this builder, merging the fields backed by the field
+     * builders through them.
+     */
+    @Override
+    public Builder mergeFrom(final CodedInputStream input,
+        final ExtensionRegistryLite extensionRegistry) throws IOException {
+      if (type.getOptions().getMessageSetWireFormat()) {
+        return super.mergeFrom(input, extensionRegistry);
+      }
+
+      final UnknownFieldSet.Builder unknownFields = UnknownFieldSet.newBuilder(this.unknownFields);
+
+      try {
+        mergeFieldsFrom(input, extensionRegistry, mutableFields(), unknownFields, this, 0, false,
+            null);
+      } finally {
+        this.unknownFields = unknownFields.build();
+        onChanged();
+      }
+
+      return this;
+    }
+
+    /**
+     * Implementation of {@link BuilderParent} for giving to our children. This small inner class
+     * makes it so we don't publicly expose the BuilderParent methods.
+     */
+    private class BuilderParentImpl implements BuilderParent {
+
+      // @Override (Java 1.6 override semantics, but we must support 1.5)
+      @Override
+      public void markDirty() {
+        // the field builders maintain this builder's field indexes themselves
+        onChildChanged();
+      }
+
+      @Override
+      public BuilderParent getParent() {
+        return builderParent;
+      }
+
+      private Builder getBuilder() {
+        return Builder.this;
+      }
+    }
+
+    /**
+     * Gets the {@link BuilderParent} for giving to our children.
+     *
+     * @return The builder parent for our children.
+     */
+    protected BuilderParent getParentForChildren() {
+      if (meAsParent == null) {
+        meAsParent = new BuilderParentImpl();
+      }
+      return meAsParent;
+    }
+
+    /**
+     * Called when a the builder or one of its nested children has changed and any parent should be
+     * notified of its invalidation.
+     */
+    protected final void onChanged() {
+      recordChange();
+      onChildChanged();
+    }
+
+    /**
+     * Called when one of the nested children has changed, and so this builder's tree as well.
+     */
+    private void onChildChanged() {
+      invalidateIsInitialized(this);
+
+      if (isClean && builderParent != null) {
+        if (batchDepth == 0) {
+          markParentDirty();
+        } else if (!isChangePending) {
+          // dispatched once, when the outermost batch edit scope is closed, or an ancestor is read
+          isChangePending = true;
+
+          for (Builder ancestor = getParentBuilder(); ancestor != null; ancestor =
+              ancestor.getParentBuilder()) {
+            if (ancestor.pendingBuilders == null) {
+              ancestor.pendingBuilders = new ArrayList<Builder>(2);
+            }
+
+            ancestor.pendingBuilders.add(this);
+          }
+        }
+
+        // Don't keep dispatching invalidations until build is called again.
+        isClean = false;
+      }
+    }
+
+    /**
+     * Opens a batch edit scope on this builder, to be closed by a try-with-resources statement.
+     * Within the scope, the invalidation of this builder's parents is deferred, and dispatched at
+     * most once, when the outermost scope is closed, no matter how many times this builder, or its
+     * nested builders, have been changed and built meanwhile. The scopes can be nested.
+     * <p>
+     * Until then, the parent builders are not aware of the changes; yet an ancestor builder built,
+     * cloned, or read through its field builders within the scope first dispatches the pending
+     * invalidations of its descendants, so it never returns stale messages.
+     *
+     * @return the scope to close
+     */
+    public BatchEdit batchEdit() {
+      batchDepth++;
+      return new BatchEdit(this);
+    }
+
+    private void endBatchEdit() {
+      if (--batchDepth == 0) {
+        dispatchPendingChange();
+      }
+    }
+
+    /**
+     * Dispatches this builder's deferred invalidation of its parents, if any.
      */
-    private class BuilderParentImpl implements BuilderParent {
-
-      // @Override (Java 1.6 override semantics, but we must support 1.5)
-      @Override
-      public void markDirty() {
-        onChanged();
+    private void dispatchPendingChange() {
+      if (!isChangePending) {
+        return;
       }
 
-      @Override
-      public BuilderParent getParent() {
-        return builderParent;
+      isChangePending = false;
+
+      for (Builder ancestor = getParentBuilder(); ancestor != null; ancestor =
+          ancestor.getParentBuilder()) {
+        if (ancestor.pendingBuilders != null) {
+          ancestor.pendingBuilders.remove(this);
+        }
       }
 
-      private Builder getBuilder() {
-        return Builder.this;
+      if (builderParent != null) {
+        markParentDirty();
       }
     }
 
     /**
-     * Gets the {@link BuilderParent} for giving to our children.
-     *
-     * @return The builder parent for our children.
+     * Dispatches the deferred invalidations of this builder's descendants within their batch edit
+     * scopes, so its field builders are not clean with the stale messages.
      */
-    protected BuilderParent getParentForChildren() {
-      if (meAsParent == null) {
-        meAsParent = new BuilderParentImpl();
+    private void flushPendingChanges() {
+      final List<Builder> builders = pendingBuilders;
+
+      if (builders == null) {
+        return;
       }
-      return meAsParent;
+
+      // the dispatch may add the intermediate builders with the open scopes
+      while (!builders.isEmpty()) {
+        builders.remove(builders.size() - 1).dispatchPendingChange();
+      }
+    }
+
+    private void markParentDirty() {
+      final ProtobufelMetrics metrics = ProtobufelMetrics.getInstalled();
+
+      if (metrics != null) {
+        metrics.onChangePropagated(type);
+      }
+
+      builderParent.markDirty();
     }
 
     /**
-     * Called when a the builder or one of its nested children has changed and any parent should be
-     * notified of its invalidation.
+     * The batch edit scope of a builder, see {@link Builder#batchEdit()}.
      */
-    protected final void onChanged() {
-      if (isClean && builderParent != null) {
-        builderParent.markDirty();
+    public static final class BatchEdit implements AutoCloseable {
+      private Builder builder;
 
-        // Don't keep dispatching invalidations until build is called again.
-        isClean = false;
+      private BatchEdit(final Builder builder) {
+        this.builder = builder;
+      }
+
+      /**
+       * Closes the scope, dispatching the deferred invalidation if it is the outermost one; the
+       * subsequent calls have no effect.
+       */
+      @Override
+      public void close() {
+        if (builder != null) {
+          builder.endBatchEdit();
+          builder = null;
+        }
       }
     }
 
     @Override
     public DynamicMessage build() {
+      final boolean isInitialized = isInitialized();
       final DynamicMessage result = buildPartial();
 
-      if (!result.isInitialized()) {
+      if (!isInitialized) {
         throw newUninitializedMessageException(result);
       }
 
+      // the message has the same fields as this builder
+      result.memoizedIsInitialized = 1;
       return result;
     }
 
     @Override
     public DynamicMessage buildPartial() {
-      for (final Entry<FieldDescriptor, IFieldBuilder> entry : builders.entrySet()) {
-        builder.setField(entry.getKey(), entry.getValue().build());
+      flushPendingChanges();
+
+      if (!builders.isEmpty()) {
+        builders.buildInto(ownFields());
+        builders.dispose();
       }
 
-      builders.dispose();
-      final DynamicMessage result = wrap(builder.buildPartial());
+      final FieldSlots messageFields;
+
+      if (isPooled && !isFieldsShared) {
+        fields.freeze();
+        messageFields = fields.copy();
+      } else {
+        if (!isFieldsShared) {
+          fields.freeze();
+          isFieldsShared = true;
+        }
+
+        messageFields = fields;
+      }
+
+      final DynamicMessage result = new DynamicMessage(type, messageFields, unknownFields);
+      result.indexDefinitions = indexDefinitions;
       onBuilt();
+      final ProtobufelMetrics metrics = ProtobufelMetrics.getInstalled();
+
+      if (metrics != null) {
+        metrics.onBuildPartial(type);
+      }
+
       return result;
     }
 
+    private static InvalidProtocolBufferException newUninitializedParseException(
+        final DynamicMessage message) {
+      return newUninitializedMessageException(message).asInvalidProtocolBufferException();
+    }
+
     @Override
     public Builder mergeFrom(final Message other) {
       if (other instanceof DynamicMessage) {
@@ -689,6 +2170,15 @@ public final class DynamicMessage implements Message, IMessageEx {
         return this;
       }
 
+      if (isEmpty()) {
+        // share the other's fields, copying them on write
+        fields = other.fields;
+        isFieldsShared = true;
+        unknownFields = other.unknownFields;
+        onChanged();
+        return this;
+      }
+
       for (final Entry<FieldDescriptor, Object> entry : other.getAllFields().entrySet()) {
         final FieldDescriptor field = entry.getKey();
 
@@ -716,7 +2206,7 @@ public final class DynamicMessage implements Message, IMessageEx {
           FieldHandlerType.SINGLE_MESSAGE.getFieldHandler().mergeField(this, field,
               (Message) entry.getValue());
         } else {
-          builder.setField(field, entry.getValue());
+          setSlot(field, entry.getValue());
           onChanged();
         }
       }
@@ -727,7 +2217,7 @@ public final class DynamicMessage implements Message, IMessageEx {
 
     @Override
     public DynamicMessage getDefaultInstanceForType() {
-      return getDefaultInstance(builder.getDescriptorForType());
+      return getDefaultInstance(type);
     }
 
     @Override
@@ -737,19 +2227,28 @@ public final class DynamicMessage implements Message, IMessageEx {
 
     /** Verifies that the field is a field of this message. */
     private void verifyContainingType(final FieldDescriptor field) {
-      if (field.getContainingType() != builder.getDescriptorForType()) {
-        throw new IllegalArgumentException("FieldDescriptor does not match message type.");
-      }
+      DynamicMessage.verifyContainingType(type, field);
     }
 
     // *********************** Visited START ***********************************
 
+    /**
+     * Returns the field's handler, precomputed by the type's SchemaPlan for the regular fields.
+     */
+    private IFieldHandler<Builder, ?, ?> getFieldHandler(final FieldDescriptor field) {
+      if (field.isExtension() || field.getContainingType() != type) {
+        return FieldHandlerType.getFieldHandler(field);
+      }
+
+      return fields.getTable().getSchemaPlan().getFieldHandler(field.getIndex());
+    }
+
     /**
      * Builds the Message for the given field.
      */
     Message build(final FieldDescriptor field) {
       verifyContainingType(field);
-      return FieldHandlerType.getFieldHandler(field).build(this, field);
+      return getFieldHandler(field).build(this, field);
     }
 
     /**
@@ -757,31 +2256,31 @@ public final class DynamicMessage implements Message, IMessageEx {
      */
     Message buildPartial(final FieldDescriptor field) {
       verifyContainingType(field);
-      return FieldHandlerType.getFieldHandler(field).buildPartial(this, field);
+      return getFieldHandler(field).buildPartial(this, field);
     }
 
     @Override
     public boolean hasField(final FieldDescriptor field) {
       verifyContainingType(field);
-      return FieldHandlerType.getFieldHandler(field).hasField(this, field);
+      return getFieldHandler(field).hasField(this, field);
     }
 
     @Override
     public Object getRepeatedField(final FieldDescriptor field, final int index) {
       verifyContainingType(field);
-      return FieldHandlerType.getFieldHandler(field).getRepeatedField(this, field, index);
+      return getFieldHandler(field).getRepeatedField(this, field, index);
     }
 
     @Override
     public Object getField(final FieldDescriptor field) {
       verifyContainingType(field);
-      return FieldHandlerType.getFieldHandler(field).getField(this, field);
+      return getFieldHandler(field).getField(this, field);
     }
 
     @Override
     public int getRepeatedFieldCount(final FieldDescriptor field) {
       verifyContainingType(field);
-      return FieldHandlerType.getFieldHandler(field).getRepeatedFieldCount(this, field);
+      return getFieldHandler(field).getRepeatedFieldCount(this, field);
     }
 
     /**
@@ -789,24 +2288,45 @@ public final class DynamicMessage implements Message, IMessageEx {
      */
     boolean isInitialized(final FieldDescriptor field) {
       verifyContainingType(field);
-      return FieldHandlerType.getFieldHandler(field).isInitialized(this, field);
+      return getFieldHandler(field).isInitialized(this, field);
     }
 
     public Builder toBuilder(final FieldDescriptor field) {
       verifyContainingType(field);
-      return FieldHandlerType.getFieldHandler(field).toBuilder(this, field);
+      return getFieldHandler(field).toBuilder(this, field);
     }
 
     @Override
     public Builder clearField(final FieldDescriptor field) {
       verifyContainingType(field);
-      return FieldHandlerType.getFieldHandler(field).clearField(this, field);
+      final FieldDescriptor oldChangingField = changingField;
+      changingField = field;
+
+      try {
+        getFieldHandler(field).clearField(this, field);
+        final RepeatedFieldIndex index = getCurrentFieldIndex(field);
+
+        if (index != null) {
+          index.clear();
+        }
+      } finally {
+        changingField = oldChangingField;
+      }
+
+      return this;
     }
 
     @Override
     public Builder getFieldBuilder(final FieldDescriptor field) {
       verifyContainingType(field);
-      return FieldHandlerType.getFieldHandler(field).getFieldBuilder(this, field);
+      final FieldDescriptor oldChangingField = changingField;
+      changingField = field;
+
+      try {
+        return getFieldHandler(field).getFieldBuilder(this, field);
+      } finally {
+        changingField = oldChangingField;
+      }
     }
 
     @Override
@@ -817,125 +2337,503 @@ public final class DynamicMessage implements Message, IMessageEx {
       final OneofDescriptor oneofDescriptor = field.getContainingOneof();
 
       if (oneofDescriptor != null) {
-        final FieldDescriptor oldField = builder.getOneofFieldDescriptor(oneofDescriptor);
+        final FieldDescriptor oldField = fields.getOneofFieldDescriptor(oneofDescriptor);
 
         if (oldField != null && oldField != field) {
           clearField(oldField);
         }
       }
 
-      return FieldHandlerType.getFieldHandler(field).setField(this, field, value);
+      final FieldDescriptor oldChangingField = changingField;
+      changingField = field;
+
+      try {
+        getFieldHandler(field).setField(this, field, value);
+
+        if (fieldIndexes != null) {
+          // the whole field is replaced
+          fieldIndexes.remove(field);
+        }
+      } finally {
+        changingField = oldChangingField;
+      }
+
+      return this;
+    }
+
+    @Override
+    public Builder setRepeatedField(final FieldDescriptor field, final int index, final Object value) {
+      verifyNotNull(value);
+      verifyContainingType(field);
+
+      final FieldDescriptor oldChangingField = changingField;
+      changingField = field;
+
+      try {
+        getFieldHandler(field).setRepeatedField(this, field, index, value);
+        final RepeatedFieldIndex fieldIndex = getCurrentFieldIndex(field);
+
+        if (fieldIndex != null) {
+          // a no-op, if already re-indexed by the field builder
+          fieldIndex.replace(index, getMessageOrBuilder(field, index));
+        }
+      } finally {
+        changingField = oldChangingField;
+      }
+
+      return this;
+    }
+
+    @Override
+    public Builder addRepeatedField(final FieldDescriptor field, final Object value) {
+      verifyNotNull(value);
+      verifyContainingType(field);
+
+      final FieldDescriptor oldChangingField = changingField;
+      changingField = field;
+
+      try {
+        getFieldHandler(field).addRepeatedField(this, field, value);
+        final RepeatedFieldIndex index = getCurrentFieldIndex(field);
+
+        // unless already indexed by the field builder
+        if (index != null && index.size() < getRepeatedFieldCount(field)) {
+          final int position = index.size();
+          index.add(position, getMessageOrBuilder(field, position));
+        }
+      } finally {
+        changingField = oldChangingField;
+      }
+
+      return this;
+    }
+
+    /**
+     * Defines the index of the repeated message field's elements, keyed by the given scalar fields
+     * of theirs, for the lookups by {@link #findByKey(FieldDescriptor, Object)}, replacing the
+     * field's previous index, if any. If sorted, the index supports the range lookups as well, see
+     * {@link #findIndexesInRange(FieldDescriptor, Object, Object)}. The index is carried over to
+     * the built messages, and to their builders, see
+     * {@link DynamicMessage#getFieldIndex(FieldDescriptor)}.
+     * <p>
+     * The index is built on the first lookup, and then maintained along with this builder's
+     * changes: the addition, replacement and clearing of the field's elements, any change of the
+     * field's {@link #getRepeatedFieldBuilder(FieldDescriptor) RepeatedFieldBuilder}, the changes
+     * of its elements' builders other than of their key fields, and the changes of the other
+     * fields by their setters keep the index current, while any other change has it rebuilt on
+     * the next lookup.
+     *
+     * @throws IllegalArgumentException if the field is not a repeated message field, or there are
+     *         no key fields, or any of them is not a singular scalar field of the element type
+     * @see RepeatedFieldIndex
+     */
+    public Builder addFieldIndex(final FieldDescriptor field, final boolean isSorted,
+        final FieldDescriptor... keyFields) {
+      verifyContainingType(field);
+      final RepeatedFieldIndex.Definition definition =
+          new RepeatedFieldIndex.Definition(field, isSorted, keyFields);
+      final Map<FieldDescriptor, RepeatedFieldIndex.Definition> definitions =
+          indexDefinitions == null
+          ? new HashMap<FieldDescriptor, RepeatedFieldIndex.Definition>()
+          : new HashMap<FieldDescriptor, RepeatedFieldIndex.Definition>(indexDefinitions);
+      definitions.put(field, definition);
+      indexDefinitions = Collections.unmodifiableMap(definitions);
+
+      if (fieldIndexes != null) {
+        fieldIndexes.remove(field);
+      }
+
+      return this;
+    }
+
+    /**
+     * Removes the index of the repeated message field, if any.
+     */
+    public Builder removeFieldIndex(final FieldDescriptor field) {
+      verifyContainingType(field);
+
+      if (indexDefinitions != null && indexDefinitions.containsKey(field)) {
+        if (indexDefinitions.size() == 1) {
+          indexDefinitions = null;
+          fieldIndexes = null;
+        } else {
+          final Map<FieldDescriptor, RepeatedFieldIndex.Definition> definitions =
+              new HashMap<FieldDescriptor, RepeatedFieldIndex.Definition>(indexDefinitions);
+          definitions.remove(field);
+          indexDefinitions = Collections.unmodifiableMap(definitions);
+
+          if (fieldIndexes != null) {
+            fieldIndexes.remove(field);
+          }
+        }
+      }
+
+      return this;
+    }
+
+    /**
+     * Returns whether the repeated message field has an index.
+     */
+    public boolean hasFieldIndex(final FieldDescriptor field) {
+      verifyContainingType(field);
+      return indexDefinitions != null && indexDefinitions.containsKey(field);
+    }
+
+    /**
+     * Returns the first element of the repeated message field with the key, or null if there is
+     * none, looked up in the field's index. The key is the key field's value, as returned by
+     * {@code getField}, or the list of the values of multiple key fields.
+     *
+     * @throws IllegalArgumentException if the field has no index
+     * @see #addFieldIndex(FieldDescriptor, boolean, FieldDescriptor...)
+     */
+    public MessageOrBuilder findByKey(final FieldDescriptor field, final Object key) {
+      final int index = getFieldIndex(field).findFirst(key);
+      return index < 0 ? null : getMessageOrBuilder(field, index);
+    }
+
+    /**
+     * Returns the indexes of the repeated message field's elements with the key, in the ascending
+     * order, looked up in the field's index.
+     *
+     * @throws IllegalArgumentException if the field has no index
+     * @see #findByKey(FieldDescriptor, Object)
+     */
+    public int[] findIndexesByKey(final FieldDescriptor field, final Object key) {
+      return getFieldIndex(field).find(key);
+    }
+
+    /**
+     * Returns the indexes of the repeated message field's elements with the keys from the fromKey,
+     * inclusive, to the toKey, exclusive, in the key order, looked up in the field's sorted index.
+     * A null bound is unbounded.
+     *
+     * @throws IllegalArgumentException if the field has no index
+     * @throws IllegalStateException if the field's index is not sorted
+     * @see RepeatedFieldIndex#findInRange(Object, Object)
+     */
+    public int[] findIndexesInRange(final FieldDescriptor field, final Object fromKey,
+        final Object toKey) {
+      return getFieldIndex(field).findInRange(fromKey, toKey);
+    }
+
+    /**
+     * Returns the field's index, current with this builder, rebuilding it if need be.
+     */
+    RepeatedFieldIndex getFieldIndex(final FieldDescriptor field) {
+      verifyContainingType(field);
+      RepeatedFieldIndex index = getCurrentFieldIndex(field);
+
+      if (index == null) {
+        final RepeatedFieldIndex.Definition definition =
+            indexDefinitions == null ? null : indexDefinitions.get(field);
+
+        if (definition == null) {
+          throw new IllegalArgumentException("the field " + field.getFullName() + " has no index");
+        }
+
+        index = definition.newIndex(getMessageOrBuilderList(field));
+
+        if (fieldIndexes == null) {
+          fieldIndexes = new HashMap<FieldDescriptor, RepeatedFieldIndex>();
+        }
+
+        fieldIndexes.put(field, index);
+      }
+
+      return index;
+    }
+
+    /**
+     * Returns the field's index, if it is current with this builder, otherwise null.
+     */
+    private RepeatedFieldIndex getCurrentFieldIndex(final FieldDescriptor field) {
+      return fieldIndexes == null ? null : fieldIndexes.get(field);
+    }
+
+    /**
+     * Drops the field's index, if the change of its element's field, or of an unknown one, if
+     * null, might be of the element's key.
+     */
+    private void onFieldElementChanged(final FieldDescriptor field,
+        final FieldDescriptor elementField) {
+      final RepeatedFieldIndex index = getCurrentFieldIndex(field);
+
+      if (index != null && (elementField == null || index.isKeyField(elementField))) {
+        fieldIndexes.remove(field);
+      }
+    }
+
+    @Override
+    public Builder addAllRepeatedField(final FieldDescriptor field, final Iterable<?> values) {
+      verifyNotNull(values);
+      verifyContainingType(field);
+      return getFieldHandler(field).addAllRepeatedField(this, field, values);
+    }
+
+    @Override
+    public Builder addRepeatedField(final FieldDescriptor field, final int index, final Object value) {
+      verifyNotNull(value);
+      verifyContainingType(field);
+      return getFieldHandler(field).addRepeatedField(this, field, index, value);
+    }
+
+    @Override
+    public Builder mergeField(final FieldDescriptor field, final Object value) {
+      verifyNotNull(value);
+      verifyContainingType(field);
+      return getFieldHandler(field).mergeField(this, field, value);
+    }
+
+    @Override
+    public List<Builder> getBuilderList(final FieldDescriptor field) {
+      verifyContainingType(field);
+      return getFieldHandler(field).getBuilderList(this, field);
+    }
+
+    /**
+     * Returns the field builder of the repeated message field, creating it if needed, for the bulk
+     * operations on the field's elements, such as
+     * {@link RepeatedFieldBuilder#removeIf(RepeatedFieldBuilder.MessageFilter)}, each with a single
+     * invalidation.
+     *
+     * @throws IllegalArgumentException if the field is not a repeated message field of this type
+     */
+    public RepeatedFieldBuilder<Message, Builder, MessageOrBuilder> getRepeatedFieldBuilder(
+        final FieldDescriptor field) {
+      verifyContainingType(field);
+
+      if (!field.isRepeated() || field.getJavaType() != JavaType.MESSAGE) {
+        throw new IllegalArgumentException("the field is not a repeated message field: "
+            + field.getFullName());
+      }
+
+      return getRepeatedFieldBuilder(field, true);
+    }
+
+    @Override
+    public List<? extends MessageOrBuilder> getMessageOrBuilderList(final FieldDescriptor field) {
+      verifyContainingType(field);
+      return getFieldHandler(field).getMessageOrBuilderList(this, field);
+    }
+
+    @Override
+    public MessageOrBuilder getMessageOrBuilder(final FieldDescriptor field) {
+      verifyContainingType(field);
+      return getFieldHandler(field).getMessageOrBuilder(this, field);
+    }
+
+    @Override
+    public Builder getFieldBuilder(final FieldDescriptor field, final int index) {
+      verifyContainingType(field);
+      return getFieldHandler(field).getFieldBuilder(this, field, index);
+    }
+
+    @Override
+    public MessageOrBuilder getMessageOrBuilder(final FieldDescriptor field, final int index) {
+      verifyContainingType(field);
+      return getFieldHandler(field).getMessageOrBuilder(this, field, index);
+    }
+
+    @Override
+    public Builder setRepeatedField(final FieldDescriptor field, final int index,
+        final Message.Builder value) {
+      verifyNotNull(value);
+      verifyContainingType(field);
+      return getFieldHandler(field).setRepeatedField(this, field, index, value);
+    }
+
+    @Override
+    public Builder addRepeatedField(final FieldDescriptor field, final Message.Builder value) {
+      verifyNotNull(value);
+      verifyContainingType(field);
+      return getFieldHandler(field).addRepeatedField(this, field, value);
+    }
+
+    @Override
+    public Builder addRepeatedField(final FieldDescriptor field, final int index,
+        final Message.Builder value) {
+      verifyNotNull(value);
+      verifyContainingType(field);
+      return getFieldHandler(field).addRepeatedField(this, field, index, value);
+    }
+
+    @Override
+    public Builder addFieldBuilder(final FieldDescriptor field) {
+      verifyContainingType(field);
+      return getFieldHandler(field).addFieldBuilder(this, field);
+    }
+
+    @Override
+    public Builder addFieldBuilder(final FieldDescriptor field, final int index) {
+      verifyContainingType(field);
+      return getFieldHandler(field).addFieldBuilder(this, field, index);
     }
 
     @Override
-    public Builder setRepeatedField(final FieldDescriptor field, final int index, final Object value) {
-      verifyNotNull(value);
+    public Builder removeRepeatedField(final FieldDescriptor field, final int index) {
       verifyContainingType(field);
-      return FieldHandlerType.getFieldHandler(field).setRepeatedField(this, field, index, value);
+      return getFieldHandler(field).removeRepeatedField(this, field, index);
     }
 
-    @Override
-    public Builder addRepeatedField(final FieldDescriptor field, final Object value) {
-      verifyNotNull(value);
+    /**
+     * Gets the element of the repeated int field without boxing.
+     */
+    public int getRepeatedInt(final FieldDescriptor field, final int index) {
       verifyContainingType(field);
-      return FieldHandlerType.getFieldHandler(field).addRepeatedField(this, field, value);
+      verifyRepeatedJavaType(field, JavaType.INT);
+      return PrimitiveLists.getInt(fields.get(field), index);
     }
 
-    @Override
-    public Builder addAllRepeatedField(final FieldDescriptor field, final Iterable<?> values) {
-      verifyNotNull(values);
+    /**
+     * Sets the element of the repeated int field without boxing.
+     */
+    public Builder setRepeatedInt(final FieldDescriptor field, final int index, final int value) {
       verifyContainingType(field);
-      return FieldHandlerType.getFieldHandler(field).addAllRepeatedField(this, field, values);
+      verifyRepeatedJavaType(field, JavaType.INT);
+      ((IntList) (List<?>) ensureFieldListIsMutable(field)).setInt(index, value);
+      onChanged();
+      return this;
     }
 
-    @Override
-    public Builder addRepeatedField(final FieldDescriptor field, final int index, final Object value) {
-      verifyNotNull(value);
+    /**
+     * Adds the element to the repeated int field without boxing.
+     */
+    public Builder addRepeatedInt(final FieldDescriptor field, final int value) {
       verifyContainingType(field);
-      return FieldHandlerType.getFieldHandler(field).addRepeatedField(this, field, index, value);
+      verifyRepeatedJavaType(field, JavaType.INT);
+      ((IntList) (List<?>) ensureFieldListIsMutable(field)).addInt(value);
+      onChanged();
+      return this;
     }
 
-    @Override
-    public Builder mergeField(final FieldDescriptor field, final Object value) {
-      verifyNotNull(value);
+    /**
+     * Gets the element of the repeated long field without boxing.
+     */
+    public long getRepeatedLong(final FieldDescriptor field, final int index) {
       verifyContainingType(field);
-      return FieldHandlerType.getFieldHandler(field).mergeField(this, field, value);
+      verifyRepeatedJavaType(field, JavaType.LONG);
+      return PrimitiveLists.getLong(fields.get(field), index);
     }
 
-    @Override
-    public List<Builder> getBuilderList(final FieldDescriptor field) {
+    /**
+     * Sets the element of the repeated long field without boxing.
+     */
+    public Builder setRepeatedLong(final FieldDescriptor field, final int index, final long value) {
       verifyContainingType(field);
-      return FieldHandlerType.getFieldHandler(field).getBuilderList(this, field);
+      verifyRepeatedJavaType(field, JavaType.LONG);
+      ((LongList) (List<?>) ensureFieldListIsMutable(field)).setLong(index, value);
+      onChanged();
+      return this;
     }
 
-    @Override
-    public List<? extends MessageOrBuilder> getMessageOrBuilderList(final FieldDescriptor field) {
+    /**
+     * Adds the element to the repeated long field without boxing.
+     */
+    public Builder addRepeatedLong(final FieldDescriptor field, final long value) {
       verifyContainingType(field);
-      return FieldHandlerType.getFieldHandler(field).getMessageOrBuilderList(this, field);
+      verifyRepeatedJavaType(field, JavaType.LONG);
+      ((LongList) (List<?>) ensureFieldListIsMutable(field)).addLong(value);
+      onChanged();
+      return this;
     }
 
-    @Override
-    public MessageOrBuilder getMessageOrBuilder(final FieldDescriptor field) {
+    /**
+     * Gets the element of the repeated float field without boxing.
+     */
+    public float getRepeatedFloat(final FieldDescriptor field, final int index) {
       verifyContainingType(field);
-      return FieldHandlerType.getFieldHandler(field).getMessageOrBuilder(this, field);
+      verifyRepeatedJavaType(field, JavaType.FLOAT);
+      return PrimitiveLists.getFloat(fields.get(field), index);
     }
 
-    @Override
-    public Builder getFieldBuilder(final FieldDescriptor field, final int index) {
+    /**
+     * Sets the element of the repeated float field without boxing.
+     */
+    public Builder setRepeatedFloat(final FieldDescriptor field, final int index, final float value) {
       verifyContainingType(field);
-      return FieldHandlerType.getFieldHandler(field).getFieldBuilder(this, field, index);
+      verifyRepeatedJavaType(field, JavaType.FLOAT);
+      ((FloatList) (List<?>) ensureFieldListIsMutable(field)).setFloat(index, value);
+      onChanged();
+      return this;
     }
 
-    @Override
-    public MessageOrBuilder getMessageOrBuilder(final FieldDescriptor field, final int index) {
+    /**
+     * Adds the element to the repeated float field without boxing.
+     */
+    public Builder addRepeatedFloat(final FieldDescriptor field, final float value) {
       verifyContainingType(field);
-      return FieldHandlerType.getFieldHandler(field).getMessageOrBuilder(this, field, index);
+      verifyRepeatedJavaType(field, JavaType.FLOAT);
+      ((FloatList) (List<?>) ensureFieldListIsMutable(field)).addFloat(value);
+      onChanged();
+      return this;
     }
 
-    @Override
-    public Builder setRepeatedField(final FieldDescriptor field, final int index,
-        final Message.Builder value) {
-      verifyNotNull(value);
+    /**
+     * Gets the element of the repeated double field without boxing.
+     */
+    public double getRepeatedDouble(final FieldDescriptor field, final int index) {
       verifyContainingType(field);
-      return FieldHandlerType.getFieldHandler(field).setRepeatedField(this, field, index, value);
+      verifyRepeatedJavaType(field, JavaType.DOUBLE);
+      return PrimitiveLists.getDouble(fields.get(field), index);
     }
 
-    @Override
-    public Builder addRepeatedField(final FieldDescriptor field, final Message.Builder value) {
-      verifyNotNull(value);
+    /**
+     * Sets the element of the repeated double field without boxing.
+     */
+    public Builder setRepeatedDouble(final FieldDescriptor field, final int index, final double value) {
       verifyContainingType(field);
-      return FieldHandlerType.getFieldHandler(field).addRepeatedField(this, field, value);
+      verifyRepeatedJavaType(field, JavaType.DOUBLE);
+      ((DoubleList) (List<?>) ensureFieldListIsMutable(field)).setDouble(index, value);
+      onChanged();
+      return this;
     }
 
-    @Override
-    public Builder addRepeatedField(final FieldDescriptor field, final int index,
-        final Message.Builder value) {
-      verifyNotNull(value);
+    /**
+     * Adds the element to the repeated double field without boxing.
+     */
+    public Builder addRepeatedDouble(final FieldDescriptor field, final double value) {
       verifyContainingType(field);
-      return FieldHandlerType.getFieldHandler(field).addRepeatedField(this, field, index, value);
+      verifyRepeatedJavaType(field, JavaType.DOUBLE);
+      ((DoubleList) (List<?>) ensureFieldListIsMutable(field)).addDouble(value);
+      onChanged();
+      return this;
     }
 
-    @Override
-    public Builder addFieldBuilder(final FieldDescriptor field) {
+    /**
+     * Gets the element of the repeated boolean field without boxing.
+     */
+    public boolean getRepeatedBoolean(final FieldDescriptor field, final int index) {
       verifyContainingType(field);
-      return FieldHandlerType.getFieldHandler(field).addFieldBuilder(this, field);
+      verifyRepeatedJavaType(field, JavaType.BOOLEAN);
+      return PrimitiveLists.getBoolean(fields.get(field), index);
     }
 
-    @Override
-    public Builder addFieldBuilder(final FieldDescriptor field, final int index) {
+    /**
+     * Sets the element of the repeated boolean field without boxing.
+     */
+    public Builder setRepeatedBoolean(final FieldDescriptor field, final int index, final boolean value) {
       verifyContainingType(field);
-      return FieldHandlerType.getFieldHandler(field).addFieldBuilder(this, field, index);
+      verifyRepeatedJavaType(field, JavaType.BOOLEAN);
+      ((BooleanList) (List<?>) ensureFieldListIsMutable(field)).setBoolean(index, value);
+      onChanged();
+      return this;
     }
 
-    @Override
-    public Builder removeRepeatedField(final FieldDescriptor field, final int index) {
+    /**
+     * Adds the element to the repeated boolean field without boxing.
+     */
+    public Builder addRepeatedBoolean(final FieldDescriptor field, final boolean value) {
       verifyContainingType(field);
-      return FieldHandlerType.getFieldHandler(field).removeRepeatedField(this, field, index);
+      verifyRepeatedJavaType(field, JavaType.BOOLEAN);
+      ((BooleanList) (List<?>) ensureFieldListIsMutable(field)).addBoolean(value);
+      onChanged();
+      return this;
     }
 
     @Override
     public Builder clearOneof(final OneofDescriptor oneof) {
-      final FieldDescriptor field = builder.getOneofFieldDescriptor(oneof);
+      final FieldDescriptor field = getOneofFieldDescriptor(oneof);
 
       if (field != null) {
         clearField(field);
@@ -946,19 +2844,13 @@ public final class DynamicMessage implements Message, IMessageEx {
 
     @Override
     public FieldDescriptor getOneofFieldDescriptor(final OneofDescriptor oneof) {
-      return builder.getOneofFieldDescriptor(oneof);
+      verifyOneofContainingType(type, oneof);
+      return fields.getOneofFieldDescriptor(oneof);
     }
 
     @Override
     public boolean hasOneof(final OneofDescriptor oneof) {
-      return builder.hasOneof(oneof);
-    }
-
-    /** Verifies that the oneof is an oneof of this message. */
-    private void verifyOneofContainingType(final OneofDescriptor oneof) {
-      if (oneof.getContainingType() != builder.getDescriptorForType()) {
-        throw new IllegalArgumentException("OneofDescriptor does not match message type.");
-      }
+      return getOneofFieldDescriptor(oneof) != null;
     }
 
     private static abstract class AbstractFieldHandler<T, E> implements
@@ -1185,12 +3077,12 @@ public final class DynamicMessage implements Message, IMessageEx {
 
       @Override
       public int getRepeatedFieldCount(final Builder builder, final FieldDescriptor field) {
-        return builder.builder.getRepeatedFieldCount(field);
+        return builder.fields.getRepeatedFieldCount(field);
       }
 
       @Override
       public Builder clearField(final Builder builder, final FieldDescriptor field) {
-        builder.builder.clearField(field);
+        builder.clearSlot(field);
         builder.onChanged();
         return builder;
       }
@@ -1198,7 +3090,13 @@ public final class DynamicMessage implements Message, IMessageEx {
       @Override
       public Builder removeRepeatedField(final Builder builder, final FieldDescriptor field,
           final int index) {
-        builder.ensureFieldListIsMutable(field).remove(index);
+        final List<Object> list = builder.ensureFieldListIsMutable(field);
+        list.remove(index);
+
+        if (list.isEmpty()) {
+          builder.clearSlot(field);
+        }
+
         builder.onChanged();
         return builder;
       }
@@ -1249,6 +3147,13 @@ public final class DynamicMessage implements Message, IMessageEx {
       @Override
       public Builder addAllRepeatedField(final Builder builder, final FieldDescriptor field,
           final Iterable<?> values) {
+        if (PrimitiveLists.isListFor(field, values)) {
+          // already verified values of the field's type
+          builder.ensureFieldListIsMutable(field).addAll((Collection<?>) values);
+          builder.onChanged();
+          return builder;
+        }
+
         addAll(builder.ensureFieldListIsMutable(field),
             (Iterable<?>) getVerifiedValue(field, values, null));
         builder.onChanged();
@@ -1271,12 +3176,12 @@ public final class DynamicMessage implements Message, IMessageEx {
 
       @Override
       public boolean hasField(final Builder builder, final FieldDescriptor field) {
-        return builder.builder.hasField(field);
+        return builder.fields.has(field);
       }
 
       @Override
       public Builder clearField(final Builder builder, final FieldDescriptor field) {
-        builder.builder.clearField(field);
+        builder.clearSlot(field);
         builder.onChanged();
         return builder;
       }
@@ -1289,7 +3194,7 @@ public final class DynamicMessage implements Message, IMessageEx {
 
       @Override
       public Builder setField(final Builder builder, final FieldDescriptor field, final Object value) {
-        builder.builder.setField(field, getVerifiedSingleValue(field, value, null));
+        builder.setSlot(field, getVerifiedSingleValue(field, value, null));
         builder.onChanged();
         return builder;
       }
@@ -1556,9 +3461,8 @@ public final class DynamicMessage implements Message, IMessageEx {
           final OneofDescriptor oneofDescriptor = field.getContainingOneof();
 
           if (oneofDescriptor != null) {
-            // TODO update the oneof if the original ProtoBuf does so!
             builder.builders.dispose(field);
-            builder.builder.clearField(field); // or call super.clearField(builder, field);
+            super.clearField(builder, field);
           } else {
             fieldBuilder.clear();
           }
@@ -1607,12 +3511,7 @@ public final class DynamicMessage implements Message, IMessageEx {
           super.setField(builder, field, (Object) value);
         } else {
           fieldBuilder.setMessage((Message) getVerifiedSingleValue(field, value, null));
-
-          if (field.getContainingOneof() != null) {
-            // we set field to default message in order to trigger oneof setting :(
-            builder.builder.setField(field,
-                DynamicMessage.getDefaultInstance(field.getMessageType()));
-          }
+          builder.markOneofCase(field);
         }
 
         return builder;
@@ -1657,29 +3556,23 @@ public final class DynamicMessage implements Message, IMessageEx {
 
           if (builder.hasField(field)) {
             result =
-                newBuilder((Message) builder.builder.getField(field)).mergeFrom(value)
-                .buildPartial();
+                newBuilder((Message) builder.fields.get(field)).mergeFrom(value).buildPartial();
           } else {
             result = value;
           }
 
-          builder.builder.setField(field, getVerifiedSingleValue(field, result, null));
+          builder.setSlot(field, getVerifiedSingleValue(field, result, null));
           builder.onChanged();
         } else {
           fieldBuilder.mergeFrom(value);
-
-          if (field.getContainingOneof() != null) {
-            // we set field to default message in order to trigger oneof setting :(
-            builder.builder.setField(field,
-                DynamicMessage.getDefaultInstance(field.getMessageType()));
-          }
+          builder.markOneofCase(field);
         }
 
         return builder;
       }
     }
 
-    private enum FieldHandlerType {
+    enum FieldHandlerType {
       REPEATED_MESSAGE(new RepeatedMessageHandler()), SINGLE_MESSAGE(new SingleMessageHandler()), REPEATED_PRIMITIVE(
           new RepeatedPrimitiveHandler<Object>()), SINGLE_PRIMITIVE(
               new SinglePrimitiveHandler<Object>()), REPEATED_ENUM(new RepeatedEnumHandler()), SINGLE_ENUM(
@@ -1904,29 +3797,91 @@ public final class DynamicMessage implements Message, IMessageEx {
       return value;
     }
 
-    @SuppressWarnings("unchecked")
-    private List<Object> ensureFieldListIsMutable(final FieldDescriptor field) {
-      if (builder.getRepeatedFieldCount(field) == 0) {
-        builder.setField(field, Collections.emptyList());
-      } else {
-        final List<Object> list = (List<Object>) builder.getField(field);
+    /**
+     * Gets the fields for modification, copying them first if they are shared.
+     */
+    private FieldSlots mutableFields() {
+      invalidateIsInitialized(this);
+      recordChange();
+      return ownFields();
+    }
 
-        if (isListMutable(list)) {
-          return list;
-        } else {
-          builder.setField(field, list);
+    FieldSlots getFieldSlots() {
+      return fields;
+    }
+
+    /**
+     * Returns the active field builder of the field, or null if there is none.
+     */
+    IFieldBuilder getSubBuilder(final FieldDescriptor field) {
+      return builders.get(field);
+    }
+
+    /**
+     * Returns the extensions with the active field builders.
+     */
+    Set<FieldDescriptor> getSubBuilderExtensions() {
+      return builders.getExtensionFields();
+    }
+
+    /**
+     * Returns the fields for writing, with the same values, so not changing the tree's state.
+     */
+    private FieldSlots ownFields() {
+      if (isFieldsShared) {
+        fields = fields.copy();
+        isFieldsShared = false;
+      }
+
+      return fields;
+    }
+
+    private void setSlot(final FieldDescriptor field, final Object value) {
+      switchOneofCase(field);
+      mutableFields().set(field, value);
+    }
+
+    private void clearSlot(final FieldDescriptor field) {
+      mutableFields().clear(field);
+    }
+
+    /**
+     * Clears the field's oneof previous case, if any, including its field builder.
+     */
+    private void switchOneofCase(final FieldDescriptor field) {
+      final OneofDescriptor oneof = field.getContainingOneof();
+
+      if (oneof != null) {
+        final FieldDescriptor oldField = fields.getOneofFieldDescriptor(oneof);
+
+        if (oldField != null && oldField != field) {
+          builders.dispose(oldField);
+          mutableFields().clear(oldField);
         }
       }
+    }
+
+    /**
+     * Makes the field, backed by its field builder, the case of its oneof, if any.
+     */
+    private void markOneofCase(final FieldDescriptor field) {
+      if (field.getContainingOneof() != null) {
+        switchOneofCase(field);
+        mutableFields().setOneofCase(field);
+      }
+    }
 
-      return (List<Object>) builder.getField(field);
+    private List<Object> ensureFieldListIsMutable(final FieldDescriptor field) {
+      return getMutableFieldList(mutableFields(), field);
     }
 
-    private boolean isListMutable(final List<?> list) {
-      return list.getClass() == ArrayList.class;
+    private boolean isListMutable(final Object list) {
+      return FieldSlots.isMutableList(list);
     }
 
     private RepeatedFieldBuilder<Message, Builder, MessageOrBuilder> getRepeatedFieldBuilder(
         final FieldDescriptor field, final boolean newIfNull) {
+      flushPendingChanges();
       @SuppressWarnings("unchecked")
       RepeatedFieldBuilder<Message, Builder, MessageOrBuilder> fieldBuilder =
       (RepeatedFieldBuilder<Message, Builder, MessageOrBuilder>) builders.get(field);
@@ -1934,10 +3889,12 @@ public final class DynamicMessage implements Message, IMessageEx {
       if (newIfNull && fieldBuilder == null) {
         final List<Message> messages = this.<Message>getRepeatedFieldValues(field, false);
         fieldBuilder =
-            new DynamicRepeatedFieldBuilder(messages, isListMutable(messages),
+            new DynamicRepeatedFieldBuilder(field, messages, isListMutable(messages),
                 getParentForChildren(), isClean());
         builders.put(field, fieldBuilder);
-        builder.clearField(field);
+        // the field builder takes over the same elements
+        ownFields().clear(field);
+        onFieldBuilderCreated(field);
       }
 
       return fieldBuilder;
@@ -1945,17 +3902,19 @@ public final class DynamicMessage implements Message, IMessageEx {
 
     private <T> List<T> getRepeatedFieldValues(final FieldDescriptor field,
         final boolean returnImmutable) {
-      if (builder.getRepeatedFieldCount(field) == 0) {
+      @SuppressWarnings("unchecked")
+      final List<T> values = (List<T>) fields.get(field);
+
+      if (values == null || values.isEmpty()) {
         return Collections.<T>emptyList();
       } else {
-        @SuppressWarnings("unchecked")
-        final List<T> values = (List<T>) builder.getField(field);
         return returnImmutable ? Collections.unmodifiableList(values) : values;
       }
     }
 
     private SingleFieldBuilder<Message, Builder, MessageOrBuilder> getSingleFieldBuilder(
         final FieldDescriptor field, final boolean newIfNull) {
+      flushPendingChanges();
       @SuppressWarnings("unchecked")
       SingleFieldBuilder<Message, Builder, MessageOrBuilder> fieldBuilder =
       (SingleFieldBuilder<Message, Builder, MessageOrBuilder>) builders.get(field);
@@ -1965,23 +3924,36 @@ public final class DynamicMessage implements Message, IMessageEx {
             new DynamicSingleFieldBuilder((Message) getSingleFieldValue(field),
                 getParentForChildren(), isClean());
 
-        builders.put(field, fieldBuilder);
-
         if (field.getContainingOneof() == null) {
-          builder.clearField(field);
+          // the field builder takes over the same value
+          ownFields().clear(field);
         } else {
-          builder.setField(field, DynamicMessage.getDefaultInstance(field.getMessageType()));
+          switchOneofCase(field);
+          mutableFields().setOneofCase(field);
         }
+
+        builders.put(field, fieldBuilder);
+        onFieldBuilderCreated(field);
       }
 
       return fieldBuilder;
     }
 
+    private static void onFieldBuilderCreated(final FieldDescriptor field) {
+      final ProtobufelMetrics metrics = ProtobufelMetrics.getInstalled();
+
+      if (metrics != null) {
+        metrics.onFieldBuilderCreated(field);
+      }
+    }
+
 
     @SuppressWarnings("unchecked")
     private <T> T getSingleFieldValue(final FieldDescriptor field) {
-      if (builder.hasField(field)) {
-        return (T) builder.getField(field);
+      final Object value = fields.get(field);
+
+      if (value != null) {
+        return (T) value;
       }
 
       if (field.getJavaType() == JavaType.MESSAGE) {
@@ -1992,131 +3964,248 @@ public final class DynamicMessage implements Message, IMessageEx {
     }
 
     private Object getFieldOrDefault(final FieldDescriptor field) {
-      if (field.isRepeated()) {
-        if (builder.getRepeatedFieldCount(field) == 0) {
-          return Collections.emptyList();
-        }
-      } else if (field.getJavaType() == FieldDescriptor.JavaType.MESSAGE
-          && !builder.hasField(field)) {
+      final Object value = fields.get(field);
+
+      if (value != null) {
+        return value;
+      } else if (field.isRepeated()) {
+        return Collections.emptyList();
+      } else if (field.getJavaType() == FieldDescriptor.JavaType.MESSAGE) {
         return getDefaultInstance(field.getMessageType());
+      } else {
+        return field.getDefaultValue();
       }
-
-      return builder.getField(field);
     }
 
     // ********************* FieldBuilder STUFF END ****************************
 
     // ******************************** SubBuilders START
-    private class SubBuilders implements Map<FieldDescriptor, IFieldBuilder> {
-      private final Map<FieldDescriptor, IFieldBuilder> fields;
+    /**
+     * The active field builders, kept in slots parallel to the field slots; the extension field
+     * builders are kept in a map.
+     */
+    private class SubBuilders {
+      private IFieldBuilder[] slots;
+      private int count;
+      private Map<FieldDescriptor, IFieldBuilder> extensions;
 
-      public SubBuilders() {
-        fields = new HashMap<FieldDescriptor, IFieldBuilder>();
+      public boolean isEmpty() {
+        return count == 0 && (extensions == null || extensions.isEmpty());
       }
 
-      @Override
-      public int size() {
-        return fields.size();
-      }
+      public IFieldBuilder get(final FieldDescriptor field) {
+        if (field.isExtension()) {
+          return extensions == null ? null : extensions.get(field);
+        }
 
-      @Override
-      public boolean isEmpty() {
-        return fields.isEmpty();
+        return slots == null ? null : slots[field.getIndex()];
       }
 
-      @Override
-      public boolean containsKey(final Object key) {
-        return fields.containsKey(key);
-      }
+      public void put(final FieldDescriptor field, final IFieldBuilder builder) {
+        if (field.isExtension()) {
+          if (extensions == null) {
+            extensions = new HashMap<FieldDescriptor, IFieldBuilder>();
+          }
 
-      @Override
-      public boolean containsValue(final Object value) {
-        return fields.containsValue(value);
-      }
+          extensions.put(field, builder);
+          return;
+        }
 
-      @Override
-      public IFieldBuilder get(final Object key) {
-        return fields.get(key);
-      }
+        if (slots == null) {
+          slots = new IFieldBuilder[type.getFields().size()];
+        }
 
-      @Override
-      public IFieldBuilder put(final FieldDescriptor key, final IFieldBuilder value) {
-        return fields.put(key, value);
-      }
+        if (slots[field.getIndex()] == null) {
+          count++;
+        }
 
-      @Override
-      public IFieldBuilder remove(final Object key) {
-        return fields.remove(key);
+        slots[field.getIndex()] = builder;
       }
 
-      public void dispose(final FieldDescriptor key) {
-        final IFieldBuilder builder = fields.remove(key);
+      public void dispose(final FieldDescriptor field) {
+        IFieldBuilder builder;
+
+        if (field.isExtension()) {
+          builder = extensions == null ? null : extensions.remove(field);
+        } else {
+          builder = slots == null ? null : slots[field.getIndex()];
+
+          if (builder != null) {
+            slots[field.getIndex()] = null;
+            count--;
+          }
+        }
 
         if (builder != null) {
           builder.dispose();
         }
       }
 
-
-      @Override
-      public void putAll(final Map<? extends FieldDescriptor, ? extends IFieldBuilder> m) {
-        fields.putAll(m);
+      public Set<FieldDescriptor> getExtensionFields() {
+        return extensions == null ? Collections.<FieldDescriptor>emptySet() : extensions.keySet();
       }
 
-      @Override
       public void clear() {
-        if (!fields.isEmpty()) {
-          for (final IFieldBuilder builder : fields.values()) {
+        if (count != 0) {
+          for (int i = 0; i < slots.length; i++) {
+            if (slots[i] != null) {
+              slots[i].clear();
+              slots[i] = null;
+            }
+          }
+
+          count = 0;
+        }
+
+        if (extensions != null && !extensions.isEmpty()) {
+          for (final IFieldBuilder builder : extensions.values()) {
             builder.clear();
           }
 
-          fields.clear();
+          extensions.clear();
         }
       }
 
       public void dispose() {
-        if (!fields.isEmpty()) {
-          for (final IFieldBuilder builder : fields.values()) {
+        if (count != 0) {
+          for (int i = 0; i < slots.length; i++) {
+            if (slots[i] != null) {
+              slots[i].dispose();
+              slots[i] = null;
+            }
+          }
+
+          count = 0;
+        }
+
+        if (extensions != null && !extensions.isEmpty()) {
+          for (final IFieldBuilder builder : extensions.values()) {
             builder.dispose();
           }
 
-          fields.clear();
+          extensions.clear();
+        }
+      }
+
+      public boolean isInitialized() {
+        if (count != 0) {
+          for (final IFieldBuilder builder : slots) {
+            if (builder != null && !builder.isInitialized()) {
+              return false;
+            }
+          }
+        }
+
+        if (extensions != null) {
+          for (final IFieldBuilder builder : extensions.values()) {
+            if (!builder.isInitialized()) {
+              return false;
+            }
+          }
+        }
+
+        return true;
+      }
+
+      /**
+       * Sets the fields to the values built by their field builders.
+       */
+      public void buildInto(final FieldSlots fields) {
+        if (count != 0) {
+          final List<FieldDescriptor> descriptorFields = type.getFields();
+
+          for (int i = 0; i < slots.length; i++) {
+            if (slots[i] != null) {
+              fields.set(descriptorFields.get(i), slots[i].build());
+            }
+          }
+        }
+
+        if (extensions != null) {
+          for (final Entry<FieldDescriptor, IFieldBuilder> entry : extensions.entrySet()) {
+            fields.set(entry.getKey(), entry.getValue().build());
+          }
         }
       }
+    }
+
+    // ******************************** SubBuilders END
+
+    /**
+     * The repeated message field's builder, maintaining the parent's index of the field, if any.
+     */
+    private static final class DynamicRepeatedFieldBuilder extends
+        RepeatedFieldBuilder<Message, Builder, MessageOrBuilder> {
+      // the field, or null if the parent is not a Builder
+      private final FieldDescriptor field;
+
+      private DynamicRepeatedFieldBuilder(final FieldDescriptor field,
+          final List<Message> messages, final boolean isMessagesListMutable,
+          final BuilderParent parent, final boolean isClean) {
+        super(messages, isMessagesListMutable, parent, isClean);
+        this.field = field;
+      }
 
       @Override
-      public Set<FieldDescriptor> keySet() {
-        return fields.keySet();
+      protected void onAnyChange() {
+        invalidateIsInitialized(getParentBuilder(getParent()));
       }
 
       @Override
-      public Collection<IFieldBuilder> values() {
-        return fields.values();
+      protected void onElementsAdded(final int fromIndex, final int toIndex) {
+        final RepeatedFieldIndex index = getFieldIndex();
+
+        if (index != null) {
+          for (int i = fromIndex; i < toIndex; i++) {
+            index.add(i, getMessageOrBuilder(i));
+          }
+        }
       }
 
       @Override
-      public Set<Entry<FieldDescriptor, IFieldBuilder>> entrySet() {
-        return fields.entrySet();
+      protected void onElementSet(final int index) {
+        final RepeatedFieldIndex fieldIndex = getFieldIndex();
+
+        if (fieldIndex != null) {
+          fieldIndex.replace(index, getMessageOrBuilder(index));
+        }
       }
 
       @Override
-      public boolean equals(final Object o) {
-        return fields.equals(o);
+      protected void onElementsRemoved(final int fromIndex, final int toIndex) {
+        final RepeatedFieldIndex index = getFieldIndex();
+
+        if (index != null) {
+          index.remove(fromIndex, toIndex);
+        }
       }
 
       @Override
-      public int hashCode() {
-        return fields.hashCode();
+      protected void onElementsReordered(final int[] order) {
+        final RepeatedFieldIndex index = getFieldIndex();
+
+        if (index != null) {
+          index.reorder(order);
+        }
       }
-    }
 
-    // ******************************** SubBuilders END
+      /**
+       * Called on a change of an element's builder's field, or of an unknown one, if null.
+       */
+      private void onElementChanged(final FieldDescriptor elementField) {
+        final Builder builder = getParentBuilder(getParent());
 
-    private static final class DynamicRepeatedFieldBuilder extends
-        RepeatedFieldBuilder<Message, Builder, MessageOrBuilder> {
-      private DynamicRepeatedFieldBuilder(final List<Message> messages,
-          final boolean isMessagesListMutable, final BuilderParent parent, final boolean isClean) {
-        super(messages, isMessagesListMutable, parent, isClean);
+        if (builder != null && field != null) {
+          builder.onFieldElementChanged(field, elementField);
+        }
+      }
+
+      /**
+       * Returns the parent's index of the field, if it is current, otherwise null.
+       */
+      private RepeatedFieldIndex getFieldIndex() {
+        final Builder builder = getParentBuilder(getParent());
+        return builder == null || field == null ? null : builder.getCurrentFieldIndex(field);
       }
 
       @Override
@@ -2133,11 +4222,31 @@ public final class DynamicMessage implements Message, IMessageEx {
         super(message, parent, isClean);
       }
 
+      @Override
+      protected void onAnyChange() {
+        invalidateIsInitialized(getParentBuilder(getParent()));
+      }
+
       @Override
       protected Builder newBuilderForType(final Descriptor type, final BuilderParent parent) {
         return DynamicMessage.newBuilder(type, parent);
       }
 
+      @Override
+      protected Builder newBuilder(final Message message) {
+        if (message instanceof DynamicMessage) {
+          // shares the message's fields
+          return ((DynamicMessage) message).toBuilder(this);
+        }
+
+        // merged before attached, so not a change of the parent's elements
+        final Builder builder = new Builder(message.getDescriptorForType());
+        builder.mergeFrom(message);
+        builder.builderParent = this;
+        invalidateIsInitialized(getParentBuilder(this));
+        return builder;
+      }
+
       @Override
       protected void markClean(final Builder builder) {
         builder.markClean();
@@ -2157,7 +4266,8 @@ public final class DynamicMessage implements Message, IMessageEx {
     static RepeatedFieldBuilder<Message, Builder, MessageOrBuilder> newRepeatedFieldBuilderForTesting(
         final List<Message> messages, final boolean isMessagesListMutable,
         final BuilderParent parent, final boolean isClean) {
-      return new DynamicRepeatedFieldBuilder(messages, isMessagesListMutable, parent, isClean);
+      return new DynamicRepeatedFieldBuilder(null, messages, isMessagesListMutable, parent,
+          isClean);
     }
   }
 
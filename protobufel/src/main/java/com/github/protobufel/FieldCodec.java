@@ -0,0 +1,557 @@
+//
+// Copyright © 2014, David Tesler (https://github.com/protobufel)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+// * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+// * Redistributions in binary form must reproduce the above copyright
+// notice, this list of conditions and the following disclaimer in the
+// documentation and/or other materials provided with the distribution.
+// * Neither the name of the <organization> nor the
+// names of its contributors may be used to endorse or promote products
+// derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+
+
+package com.github.protobufel;
+
+import java.io.IOException;
+import java.util.List;
+
+import com.github.protobufel.LazyMessage.LazyList;
+import com.github.protobufel.PrimitiveLists.BooleanList;
+import com.github.protobufel.PrimitiveLists.DoubleList;
+import com.github.protobufel.PrimitiveLists.FloatList;
+import com.github.protobufel.PrimitiveLists.IntList;
+import com.github.protobufel.PrimitiveLists.LongList;
+import com.github.protobufel.PrimitiveLists.PrimitiveList;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.Descriptors.FieldDescriptor.Type;
+import com.google.protobuf.Internal;
+import com.google.protobuf.MessageLite;
+
+/**
+ * The wire format encoding and decoding of the field values, reading and writing the primitive
+ * repeated fields straight from their {@link PrimitiveLists}.
+ *
+ * @author protobufel@gmail.com David Tesler
+ */
+final class FieldCodec {
+  private FieldCodec() {}
+
+  /**
+   * Writes the compiled field with its value, a List for the repeated field.
+   */
+  static void writeField(final CodedOutputStream output, final FieldPlan plan, final Object value)
+      throws IOException {
+    final Type type = plan.type;
+
+    if (!plan.isRepeated) {
+      writeElement(output, type, plan.tag, value);
+    } else if (plan.isPacked) {
+      final List<?> values = (List<?>) value;
+      output.writeRawVarint32(plan.getPackedTag());
+      output.writeRawVarint32(computePackedDataSize(type, values));
+      writePackedElements(output, type, values);
+    } else if (value instanceof PrimitiveList) {
+      writeUnpackedElements(output, type, plan.tag, (List<?>) value);
+    } else {
+      for (final Object element : getRawElements(value)) {
+        writeElement(output, type, plan.tag, element);
+      }
+    }
+  }
+
+  /**
+   * Computes the serialized size of the compiled field with its value, a List for the repeated
+   * field.
+   */
+  static int computeFieldSize(final FieldPlan plan, final Object value) {
+    final Type type = plan.type;
+
+    if (!plan.isRepeated) {
+      return computeElementSize(type, plan.tagSize, value);
+    } else if (plan.isPacked) {
+      final int dataSize = computePackedDataSize(type, (List<?>) value);
+      return plan.tagSize + CodedOutputStream.computeRawVarint32Size(dataSize) + dataSize;
+    } else if (plan.fixedElementSize != 0) {
+      return ((List<?>) value).size() * plan.fixedElementSize;
+    } else if (value instanceof PrimitiveList) {
+      final List<?> values = (List<?>) value;
+      return values.size() * plan.tagSize + computePackedDataSize(type, values);
+    } else {
+      int size = 0;
+
+      for (final Object element : getRawElements(value)) {
+        size += computeElementSize(type, plan.tagSize, element);
+      }
+
+      return size;
+    }
+  }
+
+  /**
+   * Returns the repeated field's elements, keeping its {@link LazyMessage}s undecoded.
+   */
+  private static List<?> getRawElements(final Object value) {
+    return value instanceof LazyList ? ((LazyList) value).getRawElements() : (List<?>) value;
+  }
+
+  private static void writeElement(final CodedOutputStream output, final Type type,
+      final int tag, final Object value) throws IOException {
+    output.writeRawVarint32(tag);
+
+    switch (type) {
+      case STRING:
+        output.writeStringNoTag((String) value);
+        break;
+      case GROUP:
+        ((MessageLite) value).writeTo(output);
+        // the end group tag differs from the start group one by its wire type only
+        output.writeRawVarint32(tag + 1);
+        break;
+      case MESSAGE:
+        if (value instanceof LazyMessage) {
+          // the same encoding, passing through the original bytes
+          output.writeBytesNoTag(((LazyMessage) value).getBytes());
+        } else {
+          output.writeMessageNoTag((MessageLite) value);
+        }
+
+        break;
+      case BYTES:
+        output.writeBytesNoTag((ByteString) value);
+        break;
+      default:
+        writeElementNoTag(output, type, value);
+        break;
+    }
+  }
+
+  /**
+   * Writes the non-packed elements of the primitive list, without boxing them.
+   */
+  private static void writeUnpackedElements(final CodedOutputStream output, final Type type,
+      final int tag, final List<?> values) throws IOException {
+    final int count = values.size();
+
+    if (values instanceof IntList) {
+      final IntList list = (IntList) values;
+
+      for (int i = 0; i < count; i++) {
+        output.writeRawVarint32(tag);
+        writeIntNoTag(output, type, list.getInt(i));
+      }
+    } else if (values instanceof LongList) {
+      final LongList list = (LongList) values;
+
+      for (int i = 0; i < count; i++) {
+        output.writeRawVarint32(tag);
+        writeLongNoTag(output, type, list.getLong(i));
+      }
+    } else if (values instanceof FloatList) {
+      final FloatList list = (FloatList) values;
+
+      for (int i = 0; i < count; i++) {
+        output.writeRawVarint32(tag);
+        output.writeFloatNoTag(list.getFloat(i));
+      }
+    } else if (values instanceof DoubleList) {
+      final DoubleList list = (DoubleList) values;
+
+      for (int i = 0; i < count; i++) {
+        output.writeRawVarint32(tag);
+        output.writeDoubleNoTag(list.getDouble(i));
+      }
+    } else {
+      final BooleanList list = (BooleanList) values;
+
+      for (int i = 0; i < count; i++) {
+        output.writeRawVarint32(tag);
+        output.writeBoolNoTag(list.getBoolean(i));
+      }
+    }
+  }
+
+  private static int computeElementSize(final Type type, final int tagSize, final Object value) {
+    switch (type) {
+      case DOUBLE:
+      case FIXED64:
+      case SFIXED64:
+        return tagSize + 8;
+      case FLOAT:
+      case FIXED32:
+      case SFIXED32:
+        return tagSize + 4;
+      case BOOL:
+        return tagSize + 1;
+      case STRING:
+        return tagSize + CodedOutputStream.computeStringSizeNoTag((String) value);
+      case GROUP:
+        return tagSize * 2 + ((MessageLite) value).getSerializedSize();
+      case MESSAGE:
+        return tagSize + (value instanceof LazyMessage ? CodedOutputStream
+            .computeBytesSizeNoTag(((LazyMessage) value).getBytes()) : CodedOutputStream
+            .computeMessageSizeNoTag((MessageLite) value));
+      case BYTES:
+        return tagSize + CodedOutputStream.computeBytesSizeNoTag((ByteString) value);
+      default:
+        return tagSize + computeElementSizeNoTag(type, value);
+    }
+  }
+
+  private static int computePackedDataSize(final Type type, final List<?> values) {
+    switch (type) {
+      case FIXED32:
+      case SFIXED32:
+      case FLOAT:
+        return values.size() * 4;
+      case FIXED64:
+      case SFIXED64:
+      case DOUBLE:
+        return values.size() * 8;
+      case BOOL:
+        return values.size();
+      case INT32:
+      case UINT32:
+      case SINT32:
+        if (values instanceof IntList) {
+          return computePackedDataSize(type, (IntList) values);
+        }
+
+        break;
+      case INT64:
+      case UINT64:
+      case SINT64:
+        if (values instanceof LongList) {
+          return computePackedDataSize(type, (LongList) values);
+        }
+
+        break;
+      default:
+        break;
+    }
+
+    int size = 0;
+
+    for (final Object element : values) {
+      size += computeElementSizeNoTag(type, element);
+    }
+
+    return size;
+  }
+
+  private static int computePackedDataSize(final Type type, final IntList values) {
+    final int count = values.size();
+    int size = 0;
+
+    switch (type) {
+      case INT32:
+        for (int i = 0; i < count; i++) {
+          size += CodedOutputStream.computeInt32SizeNoTag(values.getInt(i));
+        }
+
+        break;
+      case UINT32:
+        for (int i = 0; i < count; i++) {
+          size += CodedOutputStream.computeUInt32SizeNoTag(values.getInt(i));
+        }
+
+        break;
+      default:
+        for (int i = 0; i < count; i++) {
+          size += CodedOutputStream.computeSInt32SizeNoTag(values.getInt(i));
+        }
+
+        break;
+    }
+
+    return size;
+  }
+
+  private static int computePackedDataSize(final Type type, final LongList values) {
+    final int count = values.size();
+    int size = 0;
+
+    switch (type) {
+      case INT64:
+        for (int i = 0; i < count; i++) {
+          size += CodedOutputStream.computeInt64SizeNoTag(values.getLong(i));
+        }
+
+        break;
+      case UINT64:
+        for (int i = 0; i < count; i++) {
+          size += CodedOutputStream.computeUInt64SizeNoTag(values.getLong(i));
+        }
+
+        break;
+      default:
+        for (int i = 0; i < count; i++) {
+          size += CodedOutputStream.computeSInt64SizeNoTag(values.getLong(i));
+        }
+
+        break;
+    }
+
+    return size;
+  }
+
+  private static int computeElementSizeNoTag(final Type type, final Object value) {
+    switch (type) {
+      case INT64:
+        return CodedOutputStream.computeInt64SizeNoTag((Long) value);
+      case UINT64:
+        return CodedOutputStream.computeUInt64SizeNoTag((Long) value);
+      case INT32:
+        return CodedOutputStream.computeInt32SizeNoTag((Integer) value);
+      case UINT32:
+        return CodedOutputStream.computeUInt32SizeNoTag((Integer) value);
+      case ENUM:
+        return CodedOutputStream.computeEnumSizeNoTag(((Internal.EnumLite) value).getNumber());
+      case SINT32:
+        return CodedOutputStream.computeSInt32SizeNoTag((Integer) value);
+      case SINT64:
+        return CodedOutputStream.computeSInt64SizeNoTag((Long) value);
+      default:
+        throw new IllegalArgumentException("the field type " + type + " cannot be packed");
+    }
+  }
+
+  private static void writePackedElements(final CodedOutputStream output, final Type type,
+      final List<?> values) throws IOException {
+    final int count = values.size();
+
+    if (values instanceof IntList) {
+      final IntList list = (IntList) values;
+
+      for (int i = 0; i < count; i++) {
+        writeIntNoTag(output, type, list.getInt(i));
+      }
+    } else if (values instanceof LongList) {
+      final LongList list = (LongList) values;
+
+      for (int i = 0; i < count; i++) {
+        writeLongNoTag(output, type, list.getLong(i));
+      }
+    } else if (values instanceof FloatList) {
+      final FloatList list = (FloatList) values;
+
+      for (int i = 0; i < count; i++) {
+        output.writeFloatNoTag(list.getFloat(i));
+      }
+    } else if (values instanceof DoubleList) {
+      final DoubleList list = (DoubleList) values;
+
+      for (int i = 0; i < count; i++) {
+        output.writeDoubleNoTag(list.getDouble(i));
+      }
+    } else if (values instanceof BooleanList) {
+      final BooleanList list = (BooleanList) values;
+
+      for (int i = 0; i < count; i++) {
+        output.writeBoolNoTag(list.getBoolean(i));
+      }
+    } else {
+      for (final Object element : values) {
+        writeElementNoTag(output, type, element);
+      }
+    }
+  }
+
+  private static void writeIntNoTag(final CodedOutputStream output, final Type type,
+      final int value) throws IOException {
+    switch (type) {
+      case INT32:
+        output.writeInt32NoTag(value);
+        break;
+      case UINT32:
+        output.writeUInt32NoTag(value);
+        break;
+      case SINT32:
+        output.writeSInt32NoTag(value);
+        break;
+      case FIXED32:
+        output.writeFixed32NoTag(value);
+        break;
+      case SFIXED32:
+        output.writeSFixed32NoTag(value);
+        break;
+      default:
+        throw new IllegalArgumentException("the field type " + type + " is not int");
+    }
+  }
+
+  private static void writeLongNoTag(final CodedOutputStream output, final Type type,
+      final long value) throws IOException {
+    switch (type) {
+      case INT64:
+        output.writeInt64NoTag(value);
+        break;
+      case UINT64:
+        output.writeUInt64NoTag(value);
+        break;
+      case SINT64:
+        output.writeSInt64NoTag(value);
+        break;
+      case FIXED64:
+        output.writeFixed64NoTag(value);
+        break;
+      case SFIXED64:
+        output.writeSFixed64NoTag(value);
+        break;
+      default:
+        throw new IllegalArgumentException("the field type " + type + " is not long");
+    }
+  }
+
+  private static void writeElementNoTag(final CodedOutputStream output, final Type type,
+      final Object value) throws IOException {
+    switch (type) {
+      case DOUBLE:
+        output.writeDoubleNoTag((Double) value);
+        break;
+      case FLOAT:
+        output.writeFloatNoTag((Float) value);
+        break;
+      case BOOL:
+        output.writeBoolNoTag((Boolean) value);
+        break;
+      case ENUM:
+        output.writeEnumNoTag(((Internal.EnumLite) value).getNumber());
+        break;
+      case INT64:
+      case UINT64:
+      case SINT64:
+      case FIXED64:
+      case SFIXED64:
+        writeLongNoTag(output, type, (Long) value);
+        break;
+      default:
+        writeIntNoTag(output, type, (Integer) value);
+        break;
+    }
+  }
+
+  /**
+   * Reads a scalar value, other than enum, of the field type.
+   */
+  static Object readPrimitive(final CodedInputStream input, final Type type) throws IOException {
+    switch (type) {
+      case DOUBLE:
+        return input.readDouble();
+      case FLOAT:
+        return input.readFloat();
+      case INT64:
+        return input.readInt64();
+      case UINT64:
+        return input.readUInt64();
+      case INT32:
+        return input.readInt32();
+      case FIXED64:
+        return input.readFixed64();
+      case FIXED32:
+        return input.readFixed32();
+      case BOOL:
+        return input.readBool();
+      case STRING:
+        return input.readString();
+      case BYTES:
+        return input.readBytes();
+      case UINT32:
+        return input.readUInt32();
+      case SFIXED32:
+        return input.readSFixed32();
+      case SFIXED64:
+        return input.readSFixed64();
+      case SINT32:
+        return input.readSInt32();
+      case SINT64:
+        return input.readSInt64();
+      default:
+        throw new IllegalArgumentException("the field type " + type + " is not primitive");
+    }
+  }
+
+  /**
+   * Reads a scalar value, other than enum, of the field type, and adds it to the field list,
+   * unboxed if the list is primitive.
+   */
+  @SuppressWarnings("unchecked")
+  static void readElement(final CodedInputStream input, final Type type, final List<?> values)
+      throws IOException {
+    if (values instanceof IntList) {
+      ((IntList) values).addInt(readInt(input, type));
+    } else if (values instanceof LongList) {
+      ((LongList) values).addLong(readLong(input, type));
+    } else if (values instanceof FloatList) {
+      ((FloatList) values).addFloat(input.readFloat());
+    } else if (values instanceof DoubleList) {
+      ((DoubleList) values).addDouble(input.readDouble());
+    } else if (values instanceof BooleanList) {
+      ((BooleanList) values).addBoolean(input.readBool());
+    } else {
+      ((List<Object>) values).add(readPrimitive(input, type));
+    }
+  }
+
+  /**
+   * Reads the packed scalar values, other than enums, up to the input's current limit, and adds
+   * them to the field list.
+   */
+  static void readPackedElements(final CodedInputStream input, final Type type,
+      final List<?> values) throws IOException {
+    while (input.getBytesUntilLimit() > 0) {
+      readElement(input, type, values);
+    }
+  }
+
+  private static int readInt(final CodedInputStream input, final Type type) throws IOException {
+    switch (type) {
+      case INT32:
+        return input.readInt32();
+      case UINT32:
+        return input.readUInt32();
+      case SINT32:
+        return input.readSInt32();
+      case FIXED32:
+        return input.readFixed32();
+      case SFIXED32:
+        return input.readSFixed32();
+      default:
+        throw new IllegalArgumentException("the field type " + type + " is not int");
+    }
+  }
+
+  private static long readLong(final CodedInputStream input, final Type type) throws IOException {
+    switch (type) {
+      case INT64:
+        return input.readInt64();
+      case UINT64:
+        return input.readUInt64();
+      case SINT64:
+        return input.readSInt64();
+      case FIXED64:
+        return input.readFixed64();
+      case SFIXED64:
+        return input.readSFixed64();
+      default:
+        throw new IllegalArgumentException("the field type " + type + " is not long");
+    }
+  }
+}
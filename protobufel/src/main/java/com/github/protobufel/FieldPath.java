@@ -0,0 +1,441 @@
+//
+// Copyright © 2014, David Tesler (https://github.com/protobufel)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+// * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+// * Redistributions in binary form must reproduce the above copyright
+// notice, this list of conditions and the following disclaimer in the
+// documentation and/or other materials provided with the distribution.
+// * Neither the name of the <organization> nor the
+// names of its contributors may be used to endorse or promote products
+// derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+
+package com.github.protobufel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.github.protobufel.MessageAdapter.FieldVisitor;
+import com.github.protobufel.ProtoInterfaces.IBuilder2;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor.JavaType;
+import com.google.protobuf.Message;
+import com.google.protobuf.MessageOrBuilder;
+
+/**
+ * The compiled path of the fields from a message type, such as
+ * {@code star[0].planet[1].country[*].name}, with each segment resolved to its field and index
+ * once, so the values are read and written without any name lookups. A segment is a field name,
+ * followed by an index, or the {@code [*]} wildcard, for a repeated field; all but the last
+ * segment must be message fields, and the repeated ones must have an index or a wildcard. The
+ * last repeated field without an index selects the whole field by {@link #get(MessageOrBuilder)}
+ * and {@link #set(Message.Builder, Object)}, and each of its elements by the rest of the
+ * operations.
+ * <p>
+ * The paths work for both messages and builders; for the {@link IBuilder2} builders, such as
+ * {@link DynamicMessage.Builder}, the nested messages are read with {@code getMessageOrBuilder},
+ * so neither their active builders are built, nor the new ones are created, but by the writes.
+ * <p>
+ * The compiled paths are immutable and thread-safe, and cached per type, see
+ * {@link #compile(Descriptor, String)}.
+ *
+ * @author protobufel@gmail.com David Tesler
+ */
+public final class FieldPath {
+  /**
+   * The index of a segment without one.
+   */
+  public static final int NO_INDEX = MessageWalker.NO_INDEX;
+
+  /**
+   * The index of a wildcard segment, selecting all elements of its repeated field.
+   */
+  public static final int ANY_INDEX = -2;
+
+  private final Descriptor type;
+  private final String path;
+  private final FieldDescriptor[] fields;
+  private final int[] indexes;
+  private final boolean hasWildcard;
+
+  private FieldPath(final Descriptor type, final String path, final FieldDescriptor[] fields,
+      final int[] indexes, final boolean hasWildcard) {
+    this.type = type;
+    this.path = path;
+    this.fields = fields;
+    this.indexes = indexes;
+    this.hasWildcard = hasWildcard;
+  }
+
+  /**
+   * Returns the compiled path from the type. The compiled paths are cached by their type's
+   * {@link SchemaPlan}, so the repeated compilations of the same path are just lookups.
+   *
+   * @throws IllegalArgumentException if the path is malformed, or does not match the type
+   */
+  public static FieldPath compile(final Descriptor type, final String path) {
+    return SchemaPlan.of(type).getFieldPath(path);
+  }
+
+  /**
+   * Compiles the path, bypassing the cache.
+   */
+  static FieldPath parse(final Descriptor type, final String path) {
+    if (path.isEmpty()) {
+      throw new IllegalArgumentException("the path is empty");
+    }
+
+    final List<FieldDescriptor> fields = new ArrayList<FieldDescriptor>();
+    final List<Integer> indexes = new ArrayList<Integer>();
+    boolean hasWildcard = false;
+    Descriptor segmentType = type;
+    int start = 0;
+
+    while (true) {
+      final int end = nextSegmentEnd(path, start);
+      final String segment = path.substring(start, end);
+      final int bracket = segment.indexOf('[');
+      final String name = bracket < 0 ? segment : segment.substring(0, bracket);
+      final int index = bracket < 0 ? NO_INDEX : parseIndex(path, segment.substring(bracket));
+
+      if (segmentType == null) {
+        throw newIllegalPathException(path, "a segment follows the non-message field");
+      }
+
+      final FieldDescriptor field = SchemaPlan.of(segmentType).findFieldByName(name);
+
+      if (field == null || field.getContainingType() != segmentType) {
+        throw newIllegalPathException(path, "no field '" + name + "' in "
+            + segmentType.getFullName());
+      }
+
+      if (index != NO_INDEX && !field.isRepeated()) {
+        throw newIllegalPathException(path, "the singular field '" + name + "' is indexed");
+      }
+
+      fields.add(field);
+      indexes.add(index);
+      hasWildcard |= index == ANY_INDEX;
+
+      if (end == path.length()) {
+        break;
+      }
+
+      if (field.isRepeated() && index == NO_INDEX) {
+        throw newIllegalPathException(path, "the repeated field '" + name
+            + "' is neither indexed, nor a wildcard");
+      }
+
+      segmentType = field.getJavaType() == JavaType.MESSAGE ? field.getMessageType() : null;
+      start = end + 1;
+    }
+
+    final int[] indexArray = new int[indexes.size()];
+
+    for (int i = 0; i < indexArray.length; i++) {
+      indexArray[i] = indexes.get(i);
+    }
+
+    return new FieldPath(type, path, fields.toArray(new FieldDescriptor[fields.size()]),
+        indexArray, hasWildcard);
+  }
+
+  private static int nextSegmentEnd(final String path, final int start) {
+    final int end = path.indexOf('.', start);
+
+    if (end == start || end == path.length() - 1) {
+      throw newIllegalPathException(path, "an empty segment");
+    }
+
+    return end < 0 ? path.length() : end;
+  }
+
+  private static int parseIndex(final String path, final String index) {
+    if (index.length() < 3 || index.charAt(index.length() - 1) != ']') {
+      throw newIllegalPathException(path, "a malformed index " + index);
+    }
+
+    final String value = index.substring(1, index.length() - 1);
+
+    if (value.equals("*")) {
+      return ANY_INDEX;
+    }
+
+    try {
+      final int result = Integer.parseInt(value);
+
+      if (result >= 0) {
+        return result;
+      }
+    } catch (final NumberFormatException e) {
+      // handled below
+    }
+
+    throw newIllegalPathException(path, "a malformed index " + index);
+  }
+
+  private static IllegalArgumentException newIllegalPathException(final String path,
+      final String message) {
+    return new IllegalArgumentException("illegal path '" + path + "': " + message);
+  }
+
+  /**
+   * Returns the type the path starts from.
+   */
+  public Descriptor getDescriptor() {
+    return type;
+  }
+
+  /**
+   * Returns the number of the segments.
+   */
+  public int getSegmentCount() {
+    return fields.length;
+  }
+
+  /**
+   * Returns the field of the segment.
+   */
+  public FieldDescriptor getField(final int segment) {
+    return fields[segment];
+  }
+
+  /**
+   * Returns the index of the segment, {@link #NO_INDEX} if it has none, or {@link #ANY_INDEX} for
+   * a wildcard.
+   */
+  public int getIndex(final int segment) {
+    return indexes[segment];
+  }
+
+  /**
+   * Returns the fields of the segments.
+   */
+  public List<FieldDescriptor> getFields() {
+    return Collections.unmodifiableList(Arrays.asList(fields));
+  }
+
+  /**
+   * Returns whether any segment is a wildcard, so the path might select multiple values.
+   */
+  public boolean hasWildcard() {
+    return hasWildcard;
+  }
+
+  /**
+   * Returns the value at the path, as returned by {@code getField}, or {@code getRepeatedField}
+   * for an indexed last segment, so the unset singular fields on the way yield their default
+   * values; for the {@link IBuilder2} builders, the message values are returned with
+   * {@code getMessageOrBuilder}.
+   *
+   * @throws IllegalStateException if the path has a wildcard
+   * @throws IndexOutOfBoundsException if an index is out of its field's range
+   */
+  public Object get(final MessageOrBuilder message) {
+    verifyType(message);
+
+    if (hasWildcard) {
+      throw new IllegalStateException("the path has a wildcard; use forEach instead");
+    }
+
+    MessageOrBuilder current = message;
+    final int last = fields.length - 1;
+
+    for (int i = 0; i < last; i++) {
+      current = MessageWalker.getChild(current, fields[i], indexes[i]);
+    }
+
+    return getValue(current, fields[last], indexes[last]);
+  }
+
+  /**
+   * Visits each present value at the path, in order, fanning out at the wildcards, and at the
+   * last repeated field without an index; the unset singular fields on the way yield none. The
+   * visitor gets the last segment's field, and the value, as {@link #get(MessageOrBuilder)}
+   * returns it.
+   */
+  public void forEach(final MessageOrBuilder message, final FieldVisitor visitor) {
+    if (visitor == null) {
+      throw new NullPointerException();
+    }
+
+    verifyType(message);
+    select(message, 0, visitor);
+  }
+
+  /**
+   * Returns the number of the values {@link #forEach(MessageOrBuilder, FieldVisitor)} visits,
+   * without reading the last segment's values.
+   */
+  public int count(final MessageOrBuilder message) {
+    verifyType(message);
+    return select(message, 0, null);
+  }
+
+  /**
+   * Sets the value at the path, creating the nested builders on the way, as
+   * {@code getFieldBuilder} does. The value of the last repeated field without an index is the
+   * whole list, while the value of the last wildcard is set to all its field's elements; the
+   * wildcards on the way fan out to all their elements.
+   *
+   * @throws UnsupportedOperationException if the path goes through a repeated field of a builder,
+   *         which is not an {@link IBuilder2}
+   * @throws IndexOutOfBoundsException if an index is out of its field's range
+   */
+  public void set(final Message.Builder builder, final Object value) {
+    verifyType(builder);
+    set(builder, 0, value);
+  }
+
+  private void set(final Message.Builder builder, final int level, final Object value) {
+    final FieldDescriptor field = fields[level];
+    final int index = indexes[level];
+
+    if (level == fields.length - 1) {
+      if (index == NO_INDEX) {
+        builder.setField(field, value);
+      } else if (index == ANY_INDEX) {
+        for (int i = 0, count = builder.getRepeatedFieldCount(field); i < count; i++) {
+          builder.setRepeatedField(field, i, value);
+        }
+      } else {
+        builder.setRepeatedField(field, index, value);
+      }
+    } else if (index == NO_INDEX) {
+      set(builder.getFieldBuilder(field), level + 1, value);
+    } else {
+      if (!(builder instanceof IBuilder2)) {
+        throw new UnsupportedOperationException("the repeated field builders of "
+            + builder.getClass().getName() + " are not supported");
+      }
+
+      final IBuilder2 builder2 = (IBuilder2) builder;
+
+      if (index == ANY_INDEX) {
+        for (int i = 0, count = builder.getRepeatedFieldCount(field); i < count; i++) {
+          set(builder2.getFieldBuilder(field, i), level + 1, value);
+        }
+      } else {
+        set(builder2.getFieldBuilder(field, index), level + 1, value);
+      }
+    }
+  }
+
+  /**
+   * Visits, if the visitor is not null, and counts the present values at the path from the level.
+   */
+  private int select(final MessageOrBuilder message, final int level,
+      final FieldVisitor visitor) {
+    final FieldDescriptor field = fields[level];
+    final int index = indexes[level];
+    final boolean isLast = level == fields.length - 1;
+
+    if (!field.isRepeated()) {
+      if (!message.hasField(field)) {
+        return 0;
+      } else if (!isLast) {
+        return select(MessageWalker.getChild(message, field, NO_INDEX), level + 1, visitor);
+      } else if (visitor != null) {
+        visitor.visit(field, getValue(message, field, NO_INDEX));
+      }
+
+      return 1;
+    }
+
+    final int count = message.getRepeatedFieldCount(field);
+
+    if (index >= 0) {
+      if (index >= count) {
+        return 0;
+      } else if (!isLast) {
+        return select(MessageWalker.getChild(message, field, index), level + 1, visitor);
+      } else if (visitor != null) {
+        visitor.visit(field, getValue(message, field, index));
+      }
+
+      return 1;
+    }
+
+    if (isLast) {
+      if (visitor != null) {
+        for (int i = 0; i < count; i++) {
+          visitor.visit(field, getValue(message, field, i));
+        }
+      }
+
+      return count;
+    }
+
+    int result = 0;
+
+    for (int i = 0; i < count; i++) {
+      result += select(MessageWalker.getChild(message, field, i), level + 1, visitor);
+    }
+
+    return result;
+  }
+
+  private static Object getValue(final MessageOrBuilder message, final FieldDescriptor field,
+      final int index) {
+    if (field.getJavaType() == JavaType.MESSAGE && message instanceof IBuilder2) {
+      final IBuilder2 builder = (IBuilder2) message;
+
+      if (index != NO_INDEX) {
+        return builder.getMessageOrBuilder(field, index);
+      } else if (!field.isRepeated()) {
+        return builder.getMessageOrBuilder(field);
+      }
+    }
+
+    return index == NO_INDEX ? message.getField(field) : message.getRepeatedField(field, index);
+  }
+
+  private void verifyType(final MessageOrBuilder message) {
+    if (message.getDescriptorForType() != type) {
+      throw new IllegalArgumentException("the path is from " + type.getFullName() + ", not from "
+          + message.getDescriptorForType().getFullName());
+    }
+  }
+
+  @Override
+  public int hashCode() {
+    return type.hashCode() * 31 + path.hashCode();
+  }
+
+  @Override
+  public boolean equals(final Object obj) {
+    if (this == obj) {
+      return true;
+    }
+
+    if (!(obj instanceof FieldPath)) {
+      return false;
+    }
+
+    final FieldPath other = (FieldPath) obj;
+    return type == other.type && path.equals(other.path);
+  }
+
+  @Override
+  public String toString() {
+    return path;
+  }
+}
@@ -0,0 +1,104 @@
+//
+// Copyright © 2014, David Tesler (https://github.com/protobufel)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+// * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+// * Redistributions in binary form must reproduce the above copyright
+// notice, this list of conditions and the following disclaimer in the
+// documentation and/or other materials provided with the distribution.
+// * Neither the name of the <organization> nor the
+// names of its contributors may be used to endorse or promote products
+// derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+
+
+package com.github.protobufel;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor.JavaType;
+import com.google.protobuf.Descriptors.FieldDescriptor.Type;
+import com.google.protobuf.WireFormat;
+
+/**
+ * The field's wire format properties compiled once per type by its {@link FieldTable}, so the
+ * serialization and parsing loops read them straight from the final fields, instead of deriving
+ * them from the FieldDescriptor, and its options, for every value.
+ *
+ * @author protobufel@gmail.com David Tesler
+ */
+final class FieldPlan {
+  private static final int TAG_TYPE_BITS = 3;
+
+  final FieldDescriptor field;
+  final int number;
+  final Type type;
+  final JavaType javaType;
+  final boolean isRepeated;
+  final boolean isPacked;
+  final boolean isPackable;
+  // the non-packed tag, and its serialized size
+  final int tag;
+  final int tagSize;
+  // the serialized size of the non-packed element, with its tag, or 0 if it is variable
+  final int fixedElementSize;
+
+  FieldPlan(final FieldDescriptor field) {
+    this.field = field;
+    number = field.getNumber();
+    type = field.getType();
+    javaType = type.getJavaType();
+    isRepeated = field.isRepeated();
+    isPacked = field.isPacked();
+    isPackable = field.isPackable();
+    tag = makeTag(field);
+    tagSize = CodedOutputStream.computeRawVarint32Size(tag);
+
+    switch (type) {
+      case FIXED32:
+      case SFIXED32:
+      case FLOAT:
+        fixedElementSize = tagSize + 4;
+        break;
+      case FIXED64:
+      case SFIXED64:
+      case DOUBLE:
+        fixedElementSize = tagSize + 8;
+        break;
+      case BOOL:
+        fixedElementSize = tagSize + 1;
+        break;
+      default:
+        fixedElementSize = 0;
+        break;
+    }
+  }
+
+  /**
+   * Returns the field's non-packed tag.
+   */
+  static int makeTag(final FieldDescriptor field) {
+    return field.getNumber() << TAG_TYPE_BITS | field.getLiteType().getWireType();
+  }
+
+  /**
+   * Returns the field's packed tag.
+   */
+  int getPackedTag() {
+    return number << TAG_TYPE_BITS | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+  }
+}
@@ -0,0 +1,206 @@
+//
+// Copyright © 2014, David Tesler (https://github.com/protobufel)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+// * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+// * Redistributions in binary form must reproduce the above copyright
+// notice, this list of conditions and the following disclaimer in the
+// documentation and/or other materials provided with the distribution.
+// * Neither the name of the <organization> nor the
+// names of its contributors may be used to endorse or promote products
+// derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+
+package com.github.protobufel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor.JavaType;
+
+/**
+ * The FieldMask like selection of the field paths of a type, such as {@code "star.planet.name"},
+ * compiled into the per type selections by the field index, for the projected parsing and
+ * serialization of {@link DynamicMessage}s.
+ * <p>
+ * A path selects the whole field at its end, including all its sub-fields; the paths through the
+ * message fields select only their own sub-fields, and a whole field subsumes all paths through
+ * it. The paths consist of the regular field names only; the extensions and the unknown fields
+ * are never selected. It is immutable and thread-safe.
+ *
+ * @author protobufel@gmail.com David Tesler
+ */
+public final class FieldProjection {
+  private final Descriptor type;
+  // by FieldDescriptor.getIndex(): whether the whole field is selected
+  private final boolean[] isWhole;
+  // by FieldDescriptor.getIndex(): the selection of the message field's sub-fields, or null
+  private final FieldProjection[] subProjections;
+
+  private FieldProjection(final Node node) {
+    type = node.type;
+    isWhole = node.isWhole;
+    subProjections = new FieldProjection[isWhole.length];
+
+    for (int i = 0; i < isWhole.length; i++) {
+      if (node.children[i] != null && !isWhole[i]) {
+        subProjections[i] = new FieldProjection(node.children[i]);
+      }
+    }
+  }
+
+  /**
+   * Compiles the projection of the type selecting the field paths.
+   *
+   * @throws IllegalArgumentException if a path has an unknown field, or goes through a non
+   *         message field
+   */
+  public static FieldProjection of(final Descriptor type, final String... paths) {
+    return of(type, Arrays.asList(paths));
+  }
+
+  /**
+   * Compiles the projection of the type selecting the field paths.
+   *
+   * @throws IllegalArgumentException if a path has an unknown field, or goes through a non
+   *         message field
+   */
+  public static FieldProjection of(final Descriptor type, final Iterable<String> paths) {
+    final Node root = new Node(type);
+
+    for (final String path : paths) {
+      root.add(path, 0);
+    }
+
+    return new FieldProjection(root);
+  }
+
+  public Descriptor getDescriptor() {
+    return type;
+  }
+
+  /**
+   * Gets whether the field is selected, as a whole or partially.
+   */
+  public boolean contains(final FieldDescriptor field) {
+    if (field.isExtension() || field.getContainingType() != type) {
+      return false;
+    }
+
+    final int index = field.getIndex();
+    return isWhole[index] || subProjections[index] != null;
+  }
+
+  /**
+   * Gets whether the field is selected as a whole.
+   */
+  public boolean containsWhole(final FieldDescriptor field) {
+    return !field.isExtension() && field.getContainingType() == type && isWhole[field.getIndex()];
+  }
+
+  /**
+   * Returns the selection of the message field's sub-fields, or null if the field is either
+   * selected as a whole, or not selected at all.
+   */
+  public FieldProjection getSubProjection(final FieldDescriptor field) {
+    if (field.isExtension() || field.getContainingType() != type) {
+      return null;
+    }
+
+    return subProjections[field.getIndex()];
+  }
+
+  boolean isWhole(final int index) {
+    return isWhole[index];
+  }
+
+  FieldProjection getSubProjection(final int index) {
+    return subProjections[index];
+  }
+
+  /**
+   * Returns the normalized selected paths, in the field order.
+   */
+  public List<String> getPaths() {
+    final List<String> paths = new ArrayList<String>();
+    addPaths("", paths);
+    return Collections.unmodifiableList(paths);
+  }
+
+  private void addPaths(final String prefix, final List<String> paths) {
+    for (final FieldDescriptor field : type.getFields()) {
+      final int index = field.getIndex();
+
+      if (isWhole[index]) {
+        paths.add(prefix + field.getName());
+      } else if (subProjections[index] != null) {
+        subProjections[index].addPaths(prefix + field.getName() + ".", paths);
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "FieldProjection [type=" + type.getFullName() + ", paths=" + getPaths() + "]";
+  }
+
+  /**
+   * The mutable selection being compiled.
+   */
+  private static final class Node {
+    private final Descriptor type;
+    private final boolean[] isWhole;
+    private final Node[] children;
+
+    Node(final Descriptor type) {
+      this.type = type;
+      final int fieldCount = type.getFields().size();
+      isWhole = new boolean[fieldCount];
+      children = new Node[fieldCount];
+    }
+
+    void add(final String path, final int start) {
+      final int end = path.indexOf('.', start);
+      final String name = end < 0 ? path.substring(start) : path.substring(start, end);
+      final FieldDescriptor field = SchemaPlan.of(type).findFieldByName(name);
+
+      if (field == null || field.isExtension()) {
+        throw new IllegalArgumentException(String.format("unknown field '%s' of %s in path '%s'",
+            name, type.getFullName(), path));
+      }
+
+      final int index = field.getIndex();
+
+      if (end < 0) {
+        isWhole[index] = true;
+      } else if (field.getJavaType() != JavaType.MESSAGE) {
+        throw new IllegalArgumentException(String.format(
+            "the field '%s' in path '%s' is not a message", name, path));
+      } else if (!isWhole[index]) {
+        if (children[index] == null) {
+          children[index] = new Node(field.getMessageType());
+        }
+
+        children[index].add(path, end + 1);
+      }
+    }
+  }
+}
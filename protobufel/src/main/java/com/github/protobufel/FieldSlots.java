@@ -0,0 +1,601 @@
+//
+// Copyright © 2014, David Tesler (https://github.com/protobufel)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+// * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+// * Redistributions in binary form must reproduce the above copyright
+// notice, this list of conditions and the following disclaimer in the
+// documentation and/or other materials provided with the distribution.
+// * Neither the name of the <organization> nor the
+// names of its contributors may be used to endorse or promote products
+// derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+
+
+package com.github.protobufel;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+
+import com.github.protobufel.LazyMessage.LazyList;
+import com.github.protobufel.PrimitiveLists.PrimitiveList;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor.JavaType;
+import com.google.protobuf.Descriptors.OneofDescriptor;
+import com.google.protobuf.Message;
+
+/**
+ * The field storage of {@link DynamicMessage} and its Builder. The regular fields are kept in a
+ * flat array indexed by {@link FieldDescriptor#getIndex()}, with a presence bitset over it; the
+ * extensions, being relatively rare, are kept in a sorted map.
+ * <p>
+ * A singular field's slot holds its value, and a repeated field's slot holds its {@code List},
+ * which may transiently be empty within a Builder; an absent field's slot is always null. The
+ * repeated scalar fields are held in the unboxed {@link PrimitiveLists}. The lazily parsed message
+ * fields hold their {@link LazyMessage}s, or a {@link LazyList}, decoded on access.
+ *
+ * @author protobufel@gmail.com David Tesler
+ */
+final class FieldSlots {
+  private static final Object[] EMPTY_VALUES = new Object[0];
+  private static final long[] EMPTY_PRESENCE = new long[0];
+
+  private final FieldTable table;
+  private final Descriptor type;
+  private final Object[] values;
+  private final long[] presence;
+  // the oneof cases indexed by OneofDescriptor.getIndex(), or null if there are no oneofs
+  private final FieldDescriptor[] oneofCases;
+  private TreeMap<FieldDescriptor, Object> extensions;
+
+  FieldSlots(final Descriptor type) {
+    this(FieldTable.of(type));
+  }
+
+  FieldSlots(final FieldTable table) {
+    this.table = table;
+    type = table.getDescriptor();
+    final int fieldCount = type.getFields().size();
+
+    if (fieldCount == 0) {
+      values = EMPTY_VALUES;
+      presence = EMPTY_PRESENCE;
+    } else {
+      values = new Object[fieldCount];
+      presence = new long[(fieldCount + 63) >>> 6];
+    }
+
+    final int oneofCount = type.getOneofs().size();
+    oneofCases = oneofCount == 0 ? null : new FieldDescriptor[oneofCount];
+  }
+
+  /** Constructor for copying. */
+  private FieldSlots(final FieldSlots other) {
+    table = other.table;
+    type = other.type;
+    values = other.values.length == 0 ? EMPTY_VALUES : other.values.clone();
+    presence = other.presence.length == 0 ? EMPTY_PRESENCE : other.presence.clone();
+    oneofCases = other.oneofCases == null ? null : other.oneofCases.clone();
+    extensions =
+        other.extensions == null ? null : new TreeMap<FieldDescriptor, Object>(other.extensions);
+  }
+
+  /**
+   * Returns a shallow copy of these slots; the repeated field lists are shared, so the caller must
+   * make sure they are not mutable, see {@link #freeze()}.
+   */
+  FieldSlots copy() {
+    return new FieldSlots(this);
+  }
+
+  Descriptor getDescriptorForType() {
+    return type;
+  }
+
+  FieldTable getTable() {
+    return table;
+  }
+
+  /**
+   * Gets whether no field is set.
+   */
+  boolean isEmpty() {
+    for (int i = nextPresentIndex(0); i >= 0; i = nextPresentIndex(i + 1)) {
+      if (!isEmptyList(values[i])) {
+        return false;
+      }
+    }
+
+    if (extensions != null) {
+      for (final Object value : extensions.values()) {
+        if (!isEmptyList(value)) {
+          return false;
+        }
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Gets whether the singular field is set, or the repeated field is not empty.
+   */
+  boolean has(final FieldDescriptor field) {
+    final Object value = getRaw(field);
+    return value != null && !isEmptyList(value);
+  }
+
+  /**
+   * Gets the field value, or null if the field is not set; the singular {@link LazyMessage} is
+   * decoded.
+   */
+  Object get(final FieldDescriptor field) {
+    return LazyMessage.resolve(getRaw(field));
+  }
+
+  /**
+   * Gets the raw field value, or null if the field is not set.
+   */
+  Object getRaw(final FieldDescriptor field) {
+    if (field.isExtension()) {
+      return extensions == null ? null : extensions.get(field);
+    }
+
+    return values[field.getIndex()];
+  }
+
+  int getRepeatedFieldCount(final FieldDescriptor field) {
+    final Object value = getRaw(field);
+    return value == null ? 0 : ((List<?>) value).size();
+  }
+
+  /**
+   * Sets the raw field value, switching its oneof case, if any.
+   */
+  void set(final FieldDescriptor field, final Object value) {
+    if (field.isExtension()) {
+      if (extensions == null) {
+        extensions = new TreeMap<FieldDescriptor, Object>();
+      }
+
+      extensions.put(field, value);
+      return;
+    }
+
+    final OneofDescriptor oneof = field.getContainingOneof();
+
+    if (oneof != null) {
+      switchOneofCase(oneof, field);
+    }
+
+    final int index = field.getIndex();
+    values[index] = value;
+    presence[index >>> 6] |= 1L << index;
+  }
+
+  void clear(final FieldDescriptor field) {
+    if (field.isExtension()) {
+      if (extensions != null) {
+        extensions.remove(field);
+      }
+
+      return;
+    }
+
+    clear(field.getIndex());
+    final OneofDescriptor oneof = field.getContainingOneof();
+
+    if (oneof != null && oneofCases[oneof.getIndex()] == field) {
+      oneofCases[oneof.getIndex()] = null;
+    }
+  }
+
+  private void clear(final int index) {
+    values[index] = null;
+    presence[index >>> 6] &= ~(1L << index);
+  }
+
+  /**
+   * Clears all fields, keeping the slots for reuse.
+   */
+  void clearAll() {
+    Arrays.fill(values, null);
+    Arrays.fill(presence, 0L);
+
+    if (oneofCases != null) {
+      Arrays.fill(oneofCases, null);
+    }
+
+    extensions = null;
+  }
+
+  FieldDescriptor getOneofFieldDescriptor(final OneofDescriptor oneof) {
+    return oneofCases == null ? null : oneofCases[oneof.getIndex()];
+  }
+
+  /**
+   * Makes the field its oneof's case while its value is held elsewhere, e.g. in a field builder;
+   * the field's own slot, as well as the previous case's one, is cleared.
+   */
+  void setOneofCase(final FieldDescriptor field) {
+    final OneofDescriptor oneof = field.getContainingOneof();
+
+    if (oneof != null) {
+      switchOneofCase(oneof, field);
+      clear(field.getIndex());
+    }
+  }
+
+  private void switchOneofCase(final OneofDescriptor oneof, final FieldDescriptor field) {
+    final FieldDescriptor oldField = oneofCases[oneof.getIndex()];
+
+    if (oldField != null && oldField != field) {
+      clear(oldField.getIndex());
+    }
+
+    oneofCases[oneof.getIndex()] = field;
+  }
+
+  /**
+   * Returns the index of the first occupied slot at or after the fromIndex, or -1 if there is none.
+   */
+  int nextPresentIndex(final int fromIndex) {
+    int word = fromIndex >>> 6;
+
+    if (word >= presence.length) {
+      return -1;
+    }
+
+    long bits = presence[word] & (-1L << fromIndex);
+
+    while (true) {
+      if (bits != 0) {
+        return (word << 6) + Long.numberOfTrailingZeros(bits);
+      }
+
+      if (++word == presence.length) {
+        return -1;
+      }
+
+      bits = presence[word];
+    }
+  }
+
+  /**
+   * Gets the raw value of the regular field by its index, or null if it is not set.
+   */
+  Object getAt(final int index) {
+    return values[index];
+  }
+
+  Set<FieldDescriptor> getExtensionFields() {
+    return extensions == null ? Collections.<FieldDescriptor>emptySet() : extensions.keySet();
+  }
+
+  /**
+   * Makes all repeated field lists immutable, and drops the empty ones; the subsequent changes to
+   * these lists must be done on their copies.
+   */
+  void freeze() {
+    for (int i = nextPresentIndex(0); i >= 0; i = nextPresentIndex(i + 1)) {
+      final Object value = values[i];
+
+      if (value instanceof List) {
+        if (((List<?>) value).isEmpty()) {
+          clear(i);
+        } else {
+          values[i] = freeze(value);
+        }
+      }
+    }
+
+    if (extensions != null) {
+      for (final Entry<FieldDescriptor, Object> entry : extensions.entrySet()) {
+        if (entry.getValue() instanceof List) {
+          entry.setValue(freeze(entry.getValue()));
+        }
+      }
+    }
+  }
+
+  private static Object freeze(final Object list) {
+    if (list instanceof PrimitiveList) {
+      ((PrimitiveList<?>) list).makeImmutable();
+    } else if (isMutableList(list)) {
+      return Collections.unmodifiableList((List<?>) list);
+    }
+
+    return list;
+  }
+
+  /**
+   * Returns all set fields sorted by their numbers.
+   */
+  Map<FieldDescriptor, Object> getAllFields() {
+    final TreeMap<FieldDescriptor, Object> result = new TreeMap<FieldDescriptor, Object>();
+    final List<FieldDescriptor> fields = type.getFields();
+
+    for (int i = nextPresentIndex(0); i >= 0; i = nextPresentIndex(i + 1)) {
+      final Object value = values[i];
+
+      if (!isEmptyList(value)) {
+        result.put(fields.get(i), LazyMessage.resolve(value));
+      }
+    }
+
+    if (extensions != null) {
+      for (final Entry<FieldDescriptor, Object> entry : extensions.entrySet()) {
+        if (!isEmptyList(entry.getValue())) {
+          result.put(entry.getKey(), LazyMessage.resolve(entry.getValue()));
+        }
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Writes all set fields in their number order.
+   */
+  void writeTo(final CodedOutputStream output) throws IOException {
+    final Iterator<Entry<FieldDescriptor, Object>> extensionIterator =
+        extensions == null ? null : extensions.entrySet().iterator();
+    Entry<FieldDescriptor, Object> extension = next(extensionIterator);
+
+    for (final FieldPlan plan : table.getPlansByNumber()) {
+      final Object value = values[plan.field.getIndex()];
+
+      if (value == null) {
+        continue;
+      }
+
+      for (; extension != null && extension.getKey().getNumber() < plan.number; extension =
+          next(extensionIterator)) {
+        writeField(output, table.getPlan(extension.getKey()), extension.getValue());
+      }
+
+      writeField(output, plan, value);
+    }
+
+    for (; extension != null; extension = next(extensionIterator)) {
+      writeField(output, table.getPlan(extension.getKey()), extension.getValue());
+    }
+  }
+
+  private static void writeField(final CodedOutputStream output, final FieldPlan plan,
+      final Object value) throws IOException {
+    if (!isEmptyList(value)) {
+      FieldCodec.writeField(output, plan, value);
+    }
+  }
+
+  private static <E> E next(final Iterator<E> iterator) {
+    return iterator != null && iterator.hasNext() ? iterator.next() : null;
+  }
+
+  /**
+   * Writes the regular fields selected by the projection, in the field number order.
+   */
+  void writeTo(final CodedOutputStream output, final FieldProjection projection)
+      throws IOException {
+    for (final FieldPlan plan : table.getPlansByNumber()) {
+      final int index = plan.field.getIndex();
+      final Object value = values[index];
+
+      if (value == null || isEmptyList(value)) {
+        continue;
+      }
+
+      if (projection.isWhole(index)) {
+        FieldCodec.writeField(output, plan, value);
+        continue;
+      }
+
+      final FieldProjection subProjection = projection.getSubProjection(index);
+
+      if (subProjection == null) {
+        continue;
+      }
+
+      if (plan.isRepeated) {
+        for (final Object element : (List<?>) value) {
+          writeMessage(output, plan, toDynamicMessage(element), subProjection);
+        }
+      } else {
+        writeMessage(output, plan, toDynamicMessage(value), subProjection);
+      }
+    }
+  }
+
+  private static void writeMessage(final CodedOutputStream output, final FieldPlan plan,
+      final DynamicMessage message, final FieldProjection projection) throws IOException {
+    output.writeRawVarint32(plan.tag);
+
+    if (plan.type == FieldDescriptor.Type.GROUP) {
+      message.writeTo(output, projection);
+      output.writeRawVarint32(plan.tag + 1);
+    } else {
+      output.writeRawVarint32(message.getSerializedSize(projection));
+      message.writeTo(output, projection);
+    }
+  }
+
+  /**
+   * Computes the serialized size of the regular fields selected by the projection.
+   */
+  int computeSerializedSize(final FieldProjection projection) {
+    int size = 0;
+
+    for (int i = nextPresentIndex(0); i >= 0; i = nextPresentIndex(i + 1)) {
+      final Object value = values[i];
+
+      if (isEmptyList(value)) {
+        continue;
+      }
+
+      final FieldPlan plan = table.getPlan(i);
+
+      if (projection.isWhole(i)) {
+        size += FieldCodec.computeFieldSize(plan, value);
+        continue;
+      }
+
+      final FieldProjection subProjection = projection.getSubProjection(i);
+
+      if (subProjection == null) {
+        continue;
+      }
+
+      if (plan.isRepeated) {
+        for (final Object element : (List<?>) value) {
+          size += computeMessageSize(plan, toDynamicMessage(element), subProjection);
+        }
+      } else {
+        size += computeMessageSize(plan, toDynamicMessage(value), subProjection);
+      }
+    }
+
+    return size;
+  }
+
+  private static int computeMessageSize(final FieldPlan plan, final DynamicMessage message,
+      final FieldProjection projection) {
+    final int size = message.getSerializedSize(projection);
+    return plan.type == FieldDescriptor.Type.GROUP ? plan.tagSize * 2 + size
+        : plan.tagSize + CodedOutputStream.computeRawVarint32Size(size) + size;
+  }
+
+  /**
+   * Returns the raw message value as a DynamicMessage, decoding the lazy one, and converting the
+   * foreign one.
+   */
+  private static DynamicMessage toDynamicMessage(final Object value) {
+    final Object message = LazyMessage.resolve(value);
+    return message instanceof DynamicMessage ? (DynamicMessage) message : DynamicMessage
+        .newBuilder((Message) message).buildPartial();
+  }
+
+  /**
+   * Computes the serialized size of all set fields.
+   */
+  int computeSerializedSize() {
+    int size = 0;
+
+    for (int i = nextPresentIndex(0); i >= 0; i = nextPresentIndex(i + 1)) {
+      if (!isEmptyList(values[i])) {
+        size += FieldCodec.computeFieldSize(table.getPlan(i), values[i]);
+      }
+    }
+
+    if (extensions != null) {
+      for (final Entry<FieldDescriptor, Object> entry : extensions.entrySet()) {
+        if (!isEmptyList(entry.getValue())) {
+          size +=
+              FieldCodec.computeFieldSize(table.getPlan(entry.getKey()), entry.getValue());
+        }
+      }
+    }
+
+    return size;
+  }
+
+  /**
+   * Gets whether all required fields are set, and all set message fields are initialized.
+   */
+  boolean isInitialized() {
+    final long[] requiredMask = table.getSchemaPlan().getRequiredMask();
+
+    if (requiredMask != null) {
+      for (int word = 0; word < requiredMask.length; word++) {
+        if ((requiredMask[word] & ~presence[word]) != 0) {
+          return false;
+        }
+      }
+    }
+
+    return areMessagesInitialized();
+  }
+
+  /**
+   * Gets whether all set message fields are initialized.
+   */
+  boolean areMessagesInitialized() {
+    final List<FieldDescriptor> fields = type.getFields();
+
+    for (int i = nextPresentIndex(0); i >= 0; i = nextPresentIndex(i + 1)) {
+      if (!isInitialized(fields.get(i), values[i])) {
+        return false;
+      }
+    }
+
+    if (extensions != null) {
+      for (final Entry<FieldDescriptor, Object> entry : extensions.entrySet()) {
+        if (!isInitialized(entry.getKey(), entry.getValue())) {
+          return false;
+        }
+      }
+    }
+
+    return true;
+  }
+
+  private static boolean isInitialized(final FieldDescriptor field, final Object value) {
+    if (field.getJavaType() != JavaType.MESSAGE) {
+      return true;
+    }
+
+    if (field.isRepeated()) {
+      final List<?> elements =
+          value instanceof LazyList ? ((LazyList) value).getRawElements() : (List<?>) value;
+
+      for (final Object element : elements) {
+        if (!isInitialized(element)) {
+          return false;
+        }
+      }
+
+      return true;
+    }
+
+    return isInitialized(value);
+  }
+
+  private static boolean isInitialized(final Object message) {
+    return message instanceof LazyMessage ? ((LazyMessage) message).isInitialized()
+        : ((Message) message).isInitialized();
+  }
+
+  static boolean isMutableList(final Object list) {
+    return list != null
+        && (list.getClass() == ArrayList.class || list instanceof PrimitiveList
+            && ((PrimitiveList<?>) list).isMutable());
+  }
+
+  private static boolean isEmptyList(final Object value) {
+    return value instanceof List && ((List<?>) value).isEmpty();
+  }
+}
@@ -0,0 +1,229 @@
+//
+// Copyright © 2014, David Tesler (https://github.com/protobufel)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+// * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+// * Redistributions in binary form must reproduce the above copyright
+// notice, this list of conditions and the following disclaimer in the
+// documentation and/or other materials provided with the distribution.
+// * Neither the name of the <organization> nor the
+// names of its contributors may be used to endorse or promote products
+// derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+
+
+package com.github.protobufel;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor.JavaType;
+
+/**
+ * The per Descriptor precomputed field lookup tables for the wire format parsing and
+ * serialization: the fields compiled into their {@link FieldPlan}s, the field number to FieldPlan
+ * dispatch table, and the fields in the field number order; owned by the type's
+ * {@link SchemaPlan}.
+ *
+ * @author protobufel@gmail.com David Tesler
+ */
+final class FieldTable {
+  private static final int MIN_DENSE_NUMBER = 64;
+  private static final int DENSE_NUMBER_FACTOR = 4;
+  private static final Comparator<FieldPlan> NUMBER_ORDER = new Comparator<FieldPlan>() {
+    @Override
+    public int compare(final FieldPlan o1, final FieldPlan o2) {
+      return o1.number < o2.number ? -1 : o1.number == o2.number ? 0 : 1;
+    }
+  };
+
+  private final SchemaPlan schemaPlan;
+  private final Descriptor type;
+  // the compiled fields in their number order
+  private final FieldPlan[] plansByNumber;
+  // the compiled fields indexed by FieldDescriptor.getIndex()
+  private final FieldPlan[] plans;
+  // the compiled fields indexed by their numbers, or null if the numbers are too sparse
+  private final FieldPlan[] densePlans;
+  // the sorted field numbers, for the binary search if the numbers are sparse
+  private final int[] numbers;
+  // the lazily resolved message field tables indexed by FieldDescriptor.getIndex()
+  private final FieldTable[] messageTables;
+  // the compiled extensions, or null if the type is not extendable
+  private final ConcurrentMap<FieldDescriptor, FieldPlan> extensionPlans;
+  // whether a message of this type can be uninitialized; 0 if not computed yet
+  private byte requiredState;
+
+  FieldTable(final SchemaPlan schemaPlan) {
+    this.schemaPlan = schemaPlan;
+    type = schemaPlan.getDescriptor();
+    final List<FieldDescriptor> fields = type.getFields();
+    plans = new FieldPlan[fields.size()];
+
+    for (final FieldDescriptor field : fields) {
+      plans[field.getIndex()] = new FieldPlan(field);
+    }
+
+    plansByNumber = plans.clone();
+    Arrays.sort(plansByNumber, NUMBER_ORDER);
+
+    final int maxNumber =
+        plansByNumber.length == 0 ? 0 : plansByNumber[plansByNumber.length - 1].number;
+
+    if (maxNumber < MIN_DENSE_NUMBER || maxNumber <= plansByNumber.length * DENSE_NUMBER_FACTOR) {
+      densePlans = new FieldPlan[maxNumber + 1];
+      numbers = null;
+
+      for (final FieldPlan plan : plansByNumber) {
+        densePlans[plan.number] = plan;
+      }
+    } else {
+      densePlans = null;
+      numbers = new int[plansByNumber.length];
+
+      for (int i = 0; i < plansByNumber.length; i++) {
+        numbers[i] = plansByNumber[i].number;
+      }
+    }
+
+    messageTables = new FieldTable[plans.length];
+    extensionPlans =
+        type.isExtendable() ? new ConcurrentHashMap<FieldDescriptor, FieldPlan>() : null;
+  }
+
+  /**
+   * Returns the shared table for the type.
+   */
+  static FieldTable of(final Descriptor type) {
+    return SchemaPlan.of(type).getFieldTable();
+  }
+
+  Descriptor getDescriptor() {
+    return type;
+  }
+
+  SchemaPlan getSchemaPlan() {
+    return schemaPlan;
+  }
+
+  /**
+   * Returns the compiled regular field by its number, or null if there is none.
+   */
+  FieldPlan findPlanByNumber(final int number) {
+    if (densePlans != null) {
+      return number < densePlans.length ? densePlans[number] : null;
+    }
+
+    final int i = Arrays.binarySearch(numbers, number);
+    return i < 0 ? null : plansByNumber[i];
+  }
+
+  /**
+   * Returns the compiled field; the extensions are compiled once, on their first use.
+   */
+  FieldPlan getPlan(final FieldDescriptor field) {
+    if (!field.isExtension()) {
+      return plans[field.getIndex()];
+    }
+
+    FieldPlan plan = extensionPlans.get(field);
+
+    if (plan == null) {
+      plan = new FieldPlan(field);
+      final FieldPlan oldPlan = extensionPlans.putIfAbsent(field, plan);
+
+      if (oldPlan != null) {
+        plan = oldPlan;
+      }
+    }
+
+    return plan;
+  }
+
+  /**
+   * Returns the compiled regular field by its index.
+   */
+  FieldPlan getPlan(final int index) {
+    return plans[index];
+  }
+
+  /**
+   * Returns the compiled regular fields in their number order; must not be modified.
+   */
+  FieldPlan[] getPlansByNumber() {
+    return plansByNumber;
+  }
+
+  /**
+   * Returns the table of the message field's type.
+   */
+  FieldTable getMessageTable(final FieldDescriptor field) {
+    if (field.isExtension()) {
+      return of(field.getMessageType());
+    }
+
+    // racy, yet idempotent
+    FieldTable table = messageTables[field.getIndex()];
+
+    if (table == null) {
+      table = of(field.getMessageType());
+      messageTables[field.getIndex()] = table;
+    }
+
+    return table;
+  }
+
+  /**
+   * Gets whether a message of this type can lack some required fields, i.e. whether the type, or
+   * any type reachable through its message fields, has the required fields or is extendable.
+   */
+  boolean hasRequiredFields() {
+    // racy, yet idempotent
+    if (requiredState == 0) {
+      requiredState = hasRequiredFields(type, new HashSet<Descriptor>()) ? (byte) 1 : (byte) -1;
+    }
+
+    return requiredState > 0;
+  }
+
+  private static boolean hasRequiredFields(final Descriptor type, final Set<Descriptor> visited) {
+    if (!visited.add(type)) {
+      return false;
+    }
+
+    // the extensions are not known beforehand
+    if (type.isExtendable()) {
+      return true;
+    }
+
+    for (final FieldDescriptor field : type.getFields()) {
+      if (field.isRequired() || field.getJavaType() == JavaType.MESSAGE
+          && hasRequiredFields(field.getMessageType(), visited)) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+}
@@ -0,0 +1,228 @@
+//
+// Copyright © 2014, David Tesler (https://github.com/protobufel)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+// * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+// * Redistributions in binary form must reproduce the above copyright
+// notice, this list of conditions and the following disclaimer in the
+// documentation and/or other materials provided with the distribution.
+// * Neither the name of the <organization> nor the
+// names of its contributors may be used to endorse or promote products
+// derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+
+package com.github.protobufel;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+
+/**
+ * The {@link ProtobufelMetrics} counting the events, over all types, in memory, to be scraped by
+ * {@link #toMap()}; the parse times, and the parsed and serialized message sizes, are kept in
+ * the power of 2 histograms, whose bucket {@code i} counts the values in
+ * {@code [2^(i-1), 2^i)}, and the bucket 0 the zeros. It is thread-safe.
+ *
+ * @author protobufel@gmail.com David Tesler
+ */
+public final class InMemoryMetrics extends ProtobufelMetrics {
+  /** The number of the histogram buckets, enough for any long value. */
+  public static final int BUCKET_COUNT = 64;
+
+  private final AtomicLong builderCreations = new AtomicLong();
+  private final AtomicLong fieldBuilderCreations = new AtomicLong();
+  private final AtomicLong changePropagations = new AtomicLong();
+  private final AtomicLong buildPartialCalls = new AtomicLong();
+  private final AtomicLong serializedMessages = new AtomicLong();
+  private final AtomicLong serializedBytes = new AtomicLong();
+  private final AtomicLong parsedMessages = new AtomicLong();
+  private final AtomicLong parsedBytes = new AtomicLong();
+  private final AtomicLong parseNanos = new AtomicLong();
+  private final AtomicLongArray parseTimeHistogram = new AtomicLongArray(BUCKET_COUNT);
+  private final AtomicLongArray parsedSizeHistogram = new AtomicLongArray(BUCKET_COUNT);
+  private final AtomicLongArray serializedSizeHistogram = new AtomicLongArray(BUCKET_COUNT);
+
+  @Override
+  public void onBuilderCreated(final Descriptor type) {
+    builderCreations.incrementAndGet();
+  }
+
+  @Override
+  public void onFieldBuilderCreated(final FieldDescriptor field) {
+    fieldBuilderCreations.incrementAndGet();
+  }
+
+  @Override
+  public void onChangePropagated(final Descriptor type) {
+    changePropagations.incrementAndGet();
+  }
+
+  @Override
+  public void onBuildPartial(final Descriptor type) {
+    buildPartialCalls.incrementAndGet();
+  }
+
+  @Override
+  public void onSerialized(final Descriptor type, final int bytes) {
+    serializedMessages.incrementAndGet();
+    serializedBytes.addAndGet(bytes);
+    serializedSizeHistogram.incrementAndGet(getBucket(bytes));
+  }
+
+  @Override
+  public void onParsed(final Descriptor type, final int bytes, final long nanos) {
+    parsedMessages.incrementAndGet();
+    parsedBytes.addAndGet(bytes);
+    parseNanos.addAndGet(nanos);
+    parseTimeHistogram.incrementAndGet(getBucket(nanos));
+    parsedSizeHistogram.incrementAndGet(getBucket(bytes));
+  }
+
+  /**
+   * Returns the histogram bucket of the non-negative value.
+   */
+  static int getBucket(final long value) {
+    return Math.min(BUCKET_COUNT - 1, Long.SIZE - Long.numberOfLeadingZeros(value));
+  }
+
+  public long getBuilderCreations() {
+    return builderCreations.get();
+  }
+
+  public long getFieldBuilderCreations() {
+    return fieldBuilderCreations.get();
+  }
+
+  public long getChangePropagations() {
+    return changePropagations.get();
+  }
+
+  public long getBuildPartialCalls() {
+    return buildPartialCalls.get();
+  }
+
+  public long getSerializedMessages() {
+    return serializedMessages.get();
+  }
+
+  public long getSerializedBytes() {
+    return serializedBytes.get();
+  }
+
+  public long getParsedMessages() {
+    return parsedMessages.get();
+  }
+
+  public long getParsedBytes() {
+    return parsedBytes.get();
+  }
+
+  public long getParseNanos() {
+    return parseNanos.get();
+  }
+
+  /**
+   * Returns a snapshot of the parse time histogram, in nanos.
+   */
+  public long[] getParseTimeHistogram() {
+    return toArray(parseTimeHistogram);
+  }
+
+  /**
+   * Returns a snapshot of the parsed message size histogram, in bytes.
+   */
+  public long[] getParsedSizeHistogram() {
+    return toArray(parsedSizeHistogram);
+  }
+
+  /**
+   * Returns a snapshot of the serialized message size histogram, in bytes.
+   */
+  public long[] getSerializedSizeHistogram() {
+    return toArray(serializedSizeHistogram);
+  }
+
+  private static long[] toArray(final AtomicLongArray histogram) {
+    final long[] result = new long[histogram.length()];
+
+    for (int i = 0; i < result.length; i++) {
+      result[i] = histogram.get(i);
+    }
+
+    return result;
+  }
+
+  /**
+   * Returns a snapshot of all counters, and the non-empty histogram buckets, by their names, such
+   * as {@code "parseTimeNanos.lt.1024"}, for the bucket of the values less than 1024, which is not
+   * atomic as a whole.
+   */
+  public Map<String, Long> toMap() {
+    final Map<String, Long> result = new LinkedHashMap<String, Long>();
+    result.put("builderCreations", getBuilderCreations());
+    result.put("fieldBuilderCreations", getFieldBuilderCreations());
+    result.put("changePropagations", getChangePropagations());
+    result.put("buildPartialCalls", getBuildPartialCalls());
+    result.put("serializedMessages", getSerializedMessages());
+    result.put("serializedBytes", getSerializedBytes());
+    result.put("parsedMessages", getParsedMessages());
+    result.put("parsedBytes", getParsedBytes());
+    result.put("parseNanos", getParseNanos());
+    putHistogram(result, "parseTimeNanos", parseTimeHistogram);
+    putHistogram(result, "parsedSizeBytes", parsedSizeHistogram);
+    putHistogram(result, "serializedSizeBytes", serializedSizeHistogram);
+    return result;
+  }
+
+  private static void putHistogram(final Map<String, Long> result, final String name,
+      final AtomicLongArray histogram) {
+    for (int i = 0; i < histogram.length(); i++) {
+      final long count = histogram.get(i);
+
+      if (count != 0) {
+        result.put(name + ".lt." + (i == BUCKET_COUNT - 1 ? "max" : String.valueOf(1L << i)),
+            count);
+      }
+    }
+  }
+
+  /**
+   * Resets all counters and histograms; not atomic as a whole.
+   */
+  public void reset() {
+    for (final AtomicLong counter : new AtomicLong[] {builderCreations, fieldBuilderCreations,
+        changePropagations, buildPartialCalls, serializedMessages, serializedBytes,
+        parsedMessages, parsedBytes, parseNanos}) {
+      counter.set(0);
+    }
+
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      parseTimeHistogram.set(i, 0);
+      parsedSizeHistogram.set(i, 0);
+      serializedSizeHistogram.set(i, 0);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "InMemoryMetrics " + toMap();
+  }
+}
@@ -0,0 +1,172 @@
+//
+// Copyright © 2014, David Tesler (https://github.com/protobufel)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+// * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+// * Redistributions in binary form must reproduce the above copyright
+// notice, this list of conditions and the following disclaimer in the
+// documentation and/or other materials provided with the distribution.
+// * Neither the name of the <organization> nor the
+// names of its contributors may be used to endorse or promote products
+// derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+
+
+package com.github.protobufel;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.ExtensionRegistryLite;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+
+/**
+ * The lazily parsed message field value: the undecoded wire bytes of a nested message, decoded
+ * into a {@link DynamicMessage} on its first access. As long as it is held, its bytes are written
+ * back as is, byte for byte.
+ * <p>
+ * The bytes are usually a slice of the parsed input, and keep the whole input alive.
+ *
+ * @author protobufel@gmail.com David Tesler
+ */
+final class LazyMessage {
+  private final FieldTable table;
+  private final ByteString bytes;
+  private final ExtensionRegistryLite extensionRegistry;
+  private volatile DynamicMessage value;
+
+  LazyMessage(final FieldTable table, final ByteString bytes,
+      final ExtensionRegistryLite extensionRegistry) {
+    this.table = table;
+    this.bytes = bytes;
+    this.extensionRegistry = extensionRegistry;
+  }
+
+  /**
+   * Returns the value itself, decoding it if necessary.
+   *
+   * @throws IllegalStateException if the bytes are not a valid message
+   */
+  static Object resolve(final Object value) {
+    return value instanceof LazyMessage ? ((LazyMessage) value).getValue() : value;
+  }
+
+  /**
+   * Returns the decoded message, parsing it on the first call; its own nested messages are lazy
+   * as well.
+   *
+   * @throws IllegalStateException if the bytes are not a valid message
+   */
+  DynamicMessage getValue() {
+    // racy, yet idempotent
+    DynamicMessage result = value;
+
+    if (result == null) {
+      try {
+        result = DynamicMessage.parseLazily(table, bytes, extensionRegistry);
+      } catch (final InvalidProtocolBufferException e) {
+        throw new IllegalStateException("the lazy message field cannot be parsed", e);
+      }
+
+      value = result;
+    }
+
+    return result;
+  }
+
+  ByteString getBytes() {
+    return bytes;
+  }
+
+  boolean isDecoded() {
+    return value != null;
+  }
+
+  /**
+   * Gets whether the message is initialized, decoding it only if its type can be uninitialized.
+   */
+  boolean isInitialized() {
+    final DynamicMessage result = value;
+
+    if (result != null) {
+      return result.isInitialized();
+    }
+
+    return !table.hasRequiredFields() || getValue().isInitialized();
+  }
+
+  /**
+   * Returns the result of merging the message after the old value, another lazy message or a
+   * decoded one; the lazy ones are merged by concatenating their bytes, as per the wire format.
+   */
+  Object mergeAfter(final Object oldValue) {
+    if (oldValue instanceof LazyMessage) {
+      return new LazyMessage(table, ((LazyMessage) oldValue).bytes.concat(bytes),
+          extensionRegistry);
+    }
+
+    return ((Message) oldValue).toBuilder().mergeFrom(getValue()).buildPartial();
+  }
+
+  /**
+   * The repeated message field list of the lazy messages, decoding each one on its access.
+   * It is immutable, except for the parser's {@link #addRaw(Object)}.
+   */
+  static final class LazyList extends AbstractList<Object> implements RandomAccess {
+    private static final int DEFAULT_CAPACITY = 10;
+
+    private Object[] elements = new Object[DEFAULT_CAPACITY];
+    private int size;
+
+    @Override
+    public Object get(final int index) {
+      if (index >= size) {
+        throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+      }
+
+      return resolve(elements[index]);
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+
+    /**
+     * Adds the lazy message, or the decoded one.
+     */
+    void addRaw(final Object element) {
+      if (size == elements.length) {
+        elements = Arrays.copyOf(elements, size + (size >> 1) + 1);
+      }
+
+      elements[size++] = element;
+    }
+
+    /**
+     * Returns the view of the elements as is, without decoding the lazy ones; must not be
+     * modified.
+     */
+    List<Object> getRawElements() {
+      return Arrays.asList(elements).subList(0, size);
+    }
+  }
+}
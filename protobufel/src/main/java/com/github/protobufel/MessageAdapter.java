@@ -28,7 +28,6 @@
 package com.github.protobufel;
 
 import java.util.AbstractSet;
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -153,6 +152,36 @@ public class MessageAdapter<T extends MessageOrBuilder> implements IMessageOrBui
     return new ChildKeyIterator(getFields().keySet().iterator());
   }
 
+  /**
+   * Visits the present attributes of the message, see
+   * {@link #forEachAttribute(MessageOrBuilder, FieldVisitor)}.
+   */
+  public void forEachAttribute(final FieldVisitor visitor) {
+    forEachField(message, false, visitor);
+  }
+
+  /**
+   * Visits the present children of the message, see
+   * {@link #forEachChild(MessageOrBuilder, FieldVisitor)}.
+   */
+  public void forEachChild(final FieldVisitor visitor) {
+    forEachField(message, true, visitor);
+  }
+
+  /**
+   * Returns the new cursor over the present attributes of the message.
+   */
+  public FieldCursor newAttributeCursor() {
+    return newAttributeCursor(message);
+  }
+
+  /**
+   * Returns the new cursor over the present children of the message.
+   */
+  public FieldCursor newChildCursor() {
+    return newChildCursor(message);
+  }
+
   @Override
   public boolean isFieldIndexed(final FieldDescriptor key) {
     return key.isRepeated();
@@ -238,6 +267,88 @@ public class MessageAdapter<T extends MessageOrBuilder> implements IMessageOrBui
     return new ChildKeyIterator(getKeySet(message).iterator());
   }
 
+  /**
+   * Visits the present attributes of the message or builder, with their values, as returned by
+   * {@code getField}, in the field number order, followed by the set extensions, if any. Unlike
+   * {@link #getAttributes(MessageOrBuilder)}, it walks the type's precomputed attribute fields, so
+   * it allocates nothing, except for the extendable types, whose extensions are looked up in
+   * {@code getAllFields()}.
+   */
+  public static void forEachAttribute(final MessageOrBuilder message,
+      final FieldVisitor visitor) {
+    forEachField(message, false, visitor);
+  }
+
+  /**
+   * Visits the present children of the message or builder, with their values, as returned by
+   * {@code getField}, in the field number order, followed by the set extensions, if any. Unlike
+   * {@link #getChildren(MessageOrBuilder)}, it walks the type's precomputed message fields, so it
+   * allocates nothing, except for the extendable types, whose extensions are looked up in
+   * {@code getAllFields()}.
+   */
+  public static void forEachChild(final MessageOrBuilder message, final FieldVisitor visitor) {
+    forEachField(message, true, visitor);
+  }
+
+  private static void forEachField(final MessageOrBuilder message, final boolean isChild,
+      final FieldVisitor visitor) {
+    final SchemaPlan plan = getSchemaPlan(message);
+    final List<FieldDescriptor> fields = plan.getDescriptor().getFields();
+
+    for (final int index : isChild ? plan.getChildIndexes() : plan.getAttributeIndexes()) {
+      final FieldDescriptor field = fields.get(index);
+
+      if (isPresent(message, field)) {
+        visitor.visit(field, message.getField(field));
+      }
+    }
+
+    if (plan.isExtendable()) {
+      for (final Entry<FieldDescriptor, Object> entry : message.getAllFields().entrySet()) {
+        final FieldDescriptor field = entry.getKey();
+
+        if (field.isExtension() && isFieldAttribute(field) != isChild) {
+          visitor.visit(field, entry.getValue());
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the new cursor over the present attributes of the message or builder.
+   */
+  public static FieldCursor newAttributeCursor(final MessageOrBuilder message) {
+    return new FieldCursor(false).reset(message);
+  }
+
+  /**
+   * Returns the new cursor over the present children of the message or builder.
+   */
+  public static FieldCursor newChildCursor(final MessageOrBuilder message) {
+    return new FieldCursor(true).reset(message);
+  }
+
+  /**
+   * Returns the plan of the message's type, directly from the protobufel messages and builders.
+   */
+  private static SchemaPlan getSchemaPlan(final MessageOrBuilder message) {
+    if (message instanceof DynamicMessage) {
+      return ((DynamicMessage) message).getFieldSlots().getTable().getSchemaPlan();
+    } else if (message instanceof DynamicMessage.Builder) {
+      return ((DynamicMessage.Builder) message).getFieldSlots().getTable().getSchemaPlan();
+    } else {
+      return SchemaPlan.of(message.getDescriptorForType());
+    }
+  }
+
+  /**
+   * Returns whether the singular field is set, or the repeated field is not empty, as
+   * {@code getAllFields()} does.
+   */
+  private static boolean isPresent(final MessageOrBuilder message, final FieldDescriptor field) {
+    return field.isRepeated() ? message.getRepeatedFieldCount(field) > 0 : message.hasField(field);
+  }
+
   public static Message getChild(final FieldDescriptor key, final MessageOrBuilder message) {
     return (Message) message.getField(verifyFieldIsChild(key));
   }
@@ -263,6 +374,151 @@ public class MessageAdapter<T extends MessageOrBuilder> implements IMessageOrBui
     return message.equals(message.getDefaultInstanceForType());
   }
 
+  /**
+   * The visitor of the present fields, see
+   * {@link MessageAdapter#forEachAttribute(MessageOrBuilder, FieldVisitor)} and
+   * {@link MessageAdapter#forEachChild(MessageOrBuilder, FieldVisitor)}.
+   */
+  public interface FieldVisitor {
+    /**
+     * Visits the field with its value, as returned by {@code getField}.
+     */
+    void visit(FieldDescriptor field, Object value);
+  }
+
+  /**
+   * The cursor over the present attributes, or children, of a message or builder, in the field
+   * number order, followed by the set extensions, if any. It walks the type's precomputed fields
+   * by their int indexes, so neither it, nor its {@link #reset(MessageOrBuilder)} for another
+   * message, allocates anything, except for the extendable types, whose extensions are looked up
+   * in {@code getAllFields()}.
+   * <p>
+   * The cursor is positioned before the first field, and moved by {@link #next()}. It is not
+   * thread-safe, and reflects the changes of its builder made meanwhile, as the builder does.
+   */
+  public static final class FieldCursor {
+    private static final int[] NO_INDEXES = new int[0];
+
+    private final boolean isChild;
+    private MessageOrBuilder message;
+    private Descriptor type;
+    private List<FieldDescriptor> fields;
+    private int[] indexes = NO_INDEXES;
+    private boolean isExtendable;
+    private int position;
+    private Iterator<FieldDescriptor> extensions;
+    private FieldDescriptor field;
+
+    private FieldCursor(final boolean isChild) {
+      this.isChild = isChild;
+    }
+
+    /**
+     * Returns whether this cursor is over the children, rather than the attributes.
+     */
+    public boolean isChildCursor() {
+      return isChild;
+    }
+
+    /**
+     * Positions this cursor before the first field of the message or builder.
+     */
+    public FieldCursor reset(final MessageOrBuilder message) {
+      if (message.getDescriptorForType() != type) {
+        final SchemaPlan plan = getSchemaPlan(message);
+        type = plan.getDescriptor();
+        fields = type.getFields();
+        indexes = isChild ? plan.getChildIndexes() : plan.getAttributeIndexes();
+        isExtendable = plan.isExtendable();
+      }
+
+      this.message = message;
+      position = -1;
+      extensions = null;
+      field = null;
+      return this;
+    }
+
+    /**
+     * Moves this cursor to the next present field, if any.
+     *
+     * @return whether there is such a field
+     */
+    public boolean next() {
+      while (++position < indexes.length) {
+        final FieldDescriptor candidate = fields.get(indexes[position]);
+
+        if (isPresent(message, candidate)) {
+          field = candidate;
+          return true;
+        }
+      }
+
+      position = indexes.length;
+
+      if (isExtendable) {
+        if (extensions == null) {
+          extensions = message.getAllFields().keySet().iterator();
+        }
+
+        while (extensions.hasNext()) {
+          final FieldDescriptor candidate = extensions.next();
+
+          if (candidate.isExtension() && isFieldAttribute(candidate) != isChild) {
+            field = candidate;
+            return true;
+          }
+        }
+      }
+
+      field = null;
+      return false;
+    }
+
+    /**
+     * Returns the current field.
+     *
+     * @throws IllegalStateException if the cursor is not on a field
+     */
+    public FieldDescriptor getField() {
+      if (field == null) {
+        throw new IllegalStateException("the cursor is not on a field");
+      }
+
+      return field;
+    }
+
+    /**
+     * Returns the current field's value, as returned by {@code getField}.
+     */
+    public Object getValue() {
+      return message.getField(getField());
+    }
+
+    /**
+     * Returns the number of the current field's values, 1 for a singular field.
+     */
+    public int getValueCount() {
+      final FieldDescriptor field = getField();
+      return field.isRepeated() ? message.getRepeatedFieldCount(field) : 1;
+    }
+
+    /**
+     * Returns the current field's value at the index, which must be 0 for a singular field.
+     */
+    public Object getValue(final int index) {
+      final FieldDescriptor field = getField();
+
+      if (field.isRepeated()) {
+        return message.getRepeatedField(field, index);
+      } else if (index != 0) {
+        throw new IndexOutOfBoundsException();
+      }
+
+      return message.getField(field);
+    }
+  }
+
   private final class AttributeEntrySet extends
       AbstractFieldSet<Map.Entry<FieldDescriptor, Object>> {
 
@@ -514,12 +770,12 @@ public class MessageAdapter<T extends MessageOrBuilder> implements IMessageOrBui
 
   public static FieldDescriptor getFieldDescriptor(final Descriptor descriptor,
       final String fieldName) {
-    return descriptor.findFieldByName(fieldName);
+    return SchemaPlan.of(descriptor).findFieldByName(fieldName);
   }
 
   public static FieldDescriptor getFieldDescriptor(final MessageOrBuilder builder,
       final String fieldName) {
-    return builder.getDescriptorForType().findFieldByName(fieldName);
+    return SchemaPlan.of(builder.getDescriptorForType()).findFieldByName(fieldName);
   }
 
   @SuppressWarnings("unchecked")
@@ -544,30 +800,17 @@ public class MessageAdapter<T extends MessageOrBuilder> implements IMessageOrBui
    * @author protobufel@gmail.com David Tesler
    */
   protected static List<FieldDescriptor> getChildFieldDescriptors(final Descriptor type) {
-    final List<FieldDescriptor> fields = new ArrayList<FieldDescriptor>();
-
-    for (final FieldDescriptor field : type.getFields()) {
-      if (field.getJavaType() == JavaType.MESSAGE) {
-        fields.add(field);
-      }
-    }
-
-    for (final FieldDescriptor field : type.getExtensions()) {
-      if (field.getJavaType() == JavaType.MESSAGE) {
-        fields.add(field);
-      }
-    }
-
-    return Collections.unmodifiableList(fields);
+    return SchemaPlan.of(type).getMessageFields();
   }
 
   public static Map<String, FieldDescriptor> getFieldDescriptors(final Descriptor type,
       final String... fieldNames) {
     final Map<String, FieldDescriptor> result =
         new HashMap<String, FieldDescriptor>(fieldNames.length);
+    final SchemaPlan plan = SchemaPlan.of(type);
 
     for (final String name : fieldNames) {
-      final FieldDescriptor field = type.findFieldByName(name);
+      final FieldDescriptor field = plan.findFieldByName(name);
 
       if (field == null) {
         throw new NullPointerException(String.format("field '%s' doesn't exist", name));
@@ -0,0 +1,729 @@
+//
+// Copyright © 2014, David Tesler (https://github.com/protobufel)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+// * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+// * Redistributions in binary form must reproduce the above copyright
+// notice, this list of conditions and the following disclaimer in the
+// documentation and/or other materials provided with the distribution.
+// * Neither the name of the <organization> nor the
+// names of its contributors may be used to endorse or promote products
+// derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+
+package com.github.protobufel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.EnumValueDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor.JavaType;
+import com.google.protobuf.MessageOrBuilder;
+
+/**
+ * The columnar, struct of arrays, representation of a batch of messages of one type. The
+ * messages are shredded into a column per leaf field path, such as {@code "star.planet.name"},
+ * each holding the Dremel repetition and definition levels of its entries, and the primitive
+ * array of its present values, so the column scans run over the contiguous arrays rather than the
+ * message graphs. The messages are reassembled from the columns losslessly, as far as their
+ * regular fields are concerned.
+ * <p>
+ * Every field of the path, the required included, counts toward the definition level, so the
+ * partial messages are kept as is. The message fields of the types without fields are the leaf
+ * columns without values. The extensions and the unknown fields are not shredded, and the
+ * recursive types are rejected. It is immutable and thread-safe.
+ *
+ * @author protobufel@gmail.com David Tesler
+ */
+public final class MessageColumnBatch {
+  private final Descriptor type;
+  private final int recordCount;
+  private final Node root;
+  private final List<Column> columns;
+  private final Map<String, Column> columnsByPath;
+
+  private MessageColumnBatch(final Descriptor type,
+      final Iterable<? extends MessageOrBuilder> messages) {
+    this.type = type;
+    final List<Column> columns = new ArrayList<Column>();
+    root = new Node(null, type, 0, 0, "", columns, new HashSet<Descriptor>());
+    int recordCount = 0;
+
+    for (final MessageOrBuilder message : messages) {
+      if (message.getDescriptorForType() != type) {
+        throw new IllegalArgumentException("the message is not of the type "
+            + type.getFullName());
+      }
+
+      for (final Column column : columns) {
+        column.startRecord();
+      }
+
+      shred(message, root, 0);
+      recordCount++;
+    }
+
+    final Map<String, Column> columnsByPath = new HashMap<String, Column>();
+
+    for (final Column column : columns) {
+      column.freeze();
+      columnsByPath.put(column.path, column);
+    }
+
+    this.recordCount = recordCount;
+    this.columns = Collections.unmodifiableList(columns);
+    this.columnsByPath = columnsByPath;
+  }
+
+  /**
+   * Shreds the messages, all of the given type, into the new batch.
+   *
+   * @throws IllegalArgumentException if the type is recursive, or a message is not of the type
+   */
+  public static MessageColumnBatch of(final Descriptor type,
+      final Iterable<? extends MessageOrBuilder> messages) {
+    return new MessageColumnBatch(type, messages);
+  }
+
+  public Descriptor getDescriptor() {
+    return type;
+  }
+
+  public int getRecordCount() {
+    return recordCount;
+  }
+
+  /**
+   * Returns the leaf columns in the field order, depth first.
+   */
+  public List<Column> getColumns() {
+    return columns;
+  }
+
+  /**
+   * Returns the column of the leaf field path, or null if there is no such column.
+   */
+  public Column getColumn(final String path) {
+    return columnsByPath.get(path);
+  }
+
+  /**
+   * Reassembles the record from the columns.
+   */
+  public DynamicMessage getMessage(final int record) {
+    if (record < 0 || record >= recordCount) {
+      throw new IndexOutOfBoundsException("record " + record + " of " + recordCount);
+    }
+
+    final int[] levelIndices = new int[columns.size()];
+    final int[] valueIndices = new int[columns.size()];
+
+    for (int i = 0; i < levelIndices.length; i++) {
+      levelIndices[i] = columns.get(i).recordLevelStarts[record];
+      valueIndices[i] = columns.get(i).recordValueStarts[record];
+    }
+
+    return assemble(root, levelIndices, valueIndices);
+  }
+
+  /**
+   * Reassembles all records from the columns, in their order.
+   */
+  public List<DynamicMessage> toMessages() {
+    final List<DynamicMessage> messages = new ArrayList<DynamicMessage>(recordCount);
+    final int[] levelIndices = new int[columns.size()];
+    final int[] valueIndices = new int[columns.size()];
+
+    for (int record = 0; record < recordCount; record++) {
+      messages.add(assemble(root, levelIndices, valueIndices));
+    }
+
+    return Collections.unmodifiableList(messages);
+  }
+
+  /**
+   * Appends the message's fields under the node to their columns; the repetitionLevel is of the
+   * message's first entry, and the definitionLevel of the message itself.
+   */
+  private static void shred(final MessageOrBuilder message, final Node node,
+      final int repetitionLevel) {
+    for (final Node child : node.children) {
+      final FieldDescriptor field = child.field;
+
+      if (field.isRepeated()) {
+        final int count = message.getRepeatedFieldCount(field);
+
+        if (count == 0) {
+          child.addNull(repetitionLevel, node.definitionLevel);
+          continue;
+        }
+
+        shredValue(message.getRepeatedField(field, 0), child, repetitionLevel);
+
+        for (int i = 1; i < count; i++) {
+          shredValue(message.getRepeatedField(field, i), child, child.repetitionLevel);
+        }
+      } else if (message.hasField(field)) {
+        shredValue(message.getField(field), child, repetitionLevel);
+      } else {
+        child.addNull(repetitionLevel, node.definitionLevel);
+      }
+    }
+  }
+
+  private static void shredValue(final Object value, final Node node, final int repetitionLevel) {
+    if (node.column == null) {
+      shred((MessageOrBuilder) value, node, repetitionLevel);
+    } else {
+      node.column.add(repetitionLevel, value);
+    }
+  }
+
+  /**
+   * Reassembles the message of the node from the columns' current entries, advancing them past
+   * the message.
+   */
+  private DynamicMessage assemble(final Node node, final int[] levelIndices,
+      final int[] valueIndices) {
+    final DynamicMessage.Builder builder = DynamicMessage.newBuilder(node.type);
+
+    for (final Node child : node.children) {
+      final int first = child.firstColumn;
+      final Column column = columns.get(first);
+
+      if (column.definitionLevels[levelIndices[first]] < child.definitionLevel) {
+        for (int i = first; i < child.endColumn; i++) {
+          levelIndices[i]++;
+        }
+      } else if (!child.field.isRepeated()) {
+        builder.setField(child.field, assembleValue(child, levelIndices, valueIndices));
+      } else {
+        do {
+          builder.addRepeatedField(child.field,
+              assembleValue(child, levelIndices, valueIndices));
+        } while (levelIndices[first] < column.levelCount
+            && column.repetitionLevels[levelIndices[first]] == child.repetitionLevel);
+      }
+    }
+
+    return builder.buildPartial();
+  }
+
+  private Object assembleValue(final Node node, final int[] levelIndices,
+      final int[] valueIndices) {
+    if (node.column == null) {
+      return assemble(node, levelIndices, valueIndices);
+    }
+
+    levelIndices[node.firstColumn]++;
+    return node.column.getValue(valueIndices[node.firstColumn]++);
+  }
+
+  /**
+   * The shredding schema node of a field, or of the batch type for the root.
+   */
+  private static final class Node {
+    final FieldDescriptor field;
+    // the message type of the node, if not a leaf
+    final Descriptor type;
+    final int repetitionLevel;
+    final int definitionLevel;
+    final List<Node> children;
+    // the column of the leaf node, otherwise null
+    final Column column;
+    // the range of the node's columns in the batch
+    final int firstColumn;
+    final int endColumn;
+
+    Node(final FieldDescriptor field, final Descriptor type, final int repetitionLevel,
+        final int definitionLevel, final String path, final List<Column> columns,
+        final Set<Descriptor> ancestors) {
+      this.field = field;
+      this.type = type;
+      this.repetitionLevel = repetitionLevel;
+      this.definitionLevel = definitionLevel;
+      firstColumn = columns.size();
+
+      if (definitionLevel > Byte.MAX_VALUE) {
+        throw new IllegalArgumentException("the field path is too deep: " + path);
+      }
+
+      if (type == null || type.getFields().isEmpty() && field != null) {
+        children = Collections.emptyList();
+        column = new Column(path, field, repetitionLevel, definitionLevel);
+        columns.add(column);
+      } else {
+        if (!ancestors.add(type)) {
+          throw new IllegalArgumentException("the recursive type can't be shredded: "
+              + type.getFullName());
+        }
+
+        final List<Node> children = new ArrayList<Node>(type.getFields().size());
+
+        for (final FieldDescriptor child : type.getFields()) {
+          children.add(new Node(child,
+              child.getJavaType() == JavaType.MESSAGE ? child.getMessageType() : null,
+              child.isRepeated() ? repetitionLevel + 1 : repetitionLevel, definitionLevel + 1,
+              path.isEmpty() ? child.getName() : path + '.' + child.getName(), columns,
+              ancestors));
+        }
+
+        ancestors.remove(type);
+        this.children = children;
+        column = null;
+      }
+
+      endColumn = columns.size();
+    }
+
+    /**
+     * Appends the absent node entry to all its columns.
+     */
+    void addNull(final int repetitionLevel, final int definitionLevel) {
+      if (column != null) {
+        column.addNull(repetitionLevel, definitionLevel);
+        return;
+      }
+
+      for (final Node child : children) {
+        child.addNull(repetitionLevel, definitionLevel);
+      }
+    }
+  }
+
+  /**
+   * The column of a leaf field path: the repetition and definition levels of its entries, and its
+   * present values, in the entries' order. The integral, the boolean, as 0 or 1, and the enum
+   * values, as their numbers, are kept in a {@code long[]}, the floating point ones in a
+   * {@code double[]}, the strings and the bytes in an {@code Object[]}, and the empty messages
+   * are not kept at all.
+   */
+  public static final class Column {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final String path;
+    private final FieldDescriptor field;
+    private final int maxRepetitionLevel;
+    private final int maxDefinitionLevel;
+    private byte[] repetitionLevels = new byte[INITIAL_CAPACITY];
+    private byte[] definitionLevels = new byte[INITIAL_CAPACITY];
+    private int levelCount;
+    private long[] longValues;
+    private double[] doubleValues;
+    private Object[] objectValues;
+    private int valueCount;
+    // the indices of each record's first entry and value, and of the end
+    private int[] recordLevelStarts = new int[INITIAL_CAPACITY];
+    private int[] recordValueStarts = new int[INITIAL_CAPACITY];
+    private int recordCount;
+
+    Column(final String path, final FieldDescriptor field, final int maxRepetitionLevel,
+        final int maxDefinitionLevel) {
+      this.path = path;
+      this.field = field;
+      this.maxRepetitionLevel = maxRepetitionLevel;
+      this.maxDefinitionLevel = maxDefinitionLevel;
+
+      switch (field.getJavaType()) {
+        case FLOAT:
+        case DOUBLE:
+          doubleValues = new double[INITIAL_CAPACITY];
+          break;
+        case STRING:
+        case BYTE_STRING:
+          objectValues = new Object[INITIAL_CAPACITY];
+          break;
+        case MESSAGE:
+          break;
+        default:
+          longValues = new long[INITIAL_CAPACITY];
+          break;
+      }
+    }
+
+    /**
+     * Returns the dot separated field names of the column's path.
+     */
+    public String getPath() {
+      return path;
+    }
+
+    /**
+     * Returns the leaf field of the column's path.
+     */
+    public FieldDescriptor getField() {
+      return field;
+    }
+
+    public int getMaxRepetitionLevel() {
+      return maxRepetitionLevel;
+    }
+
+    public int getMaxDefinitionLevel() {
+      return maxDefinitionLevel;
+    }
+
+    /**
+     * Returns the number of the entries, present or not, at least one per record.
+     */
+    public int getLevelCount() {
+      return levelCount;
+    }
+
+    public int getRepetitionLevel(final int index) {
+      checkIndex(index, levelCount);
+      return repetitionLevels[index];
+    }
+
+    public int getDefinitionLevel(final int index) {
+      checkIndex(index, levelCount);
+      return definitionLevels[index];
+    }
+
+    /**
+     * Returns the number of the present values, those of the entries at the max definition level.
+     */
+    public int getValueCount() {
+      return valueCount;
+    }
+
+    /**
+     * Returns the integral, the boolean, as 0 or 1, or the enum value, as its number.
+     */
+    public long getLong(final int index) {
+      checkIndex(index, valueCount);
+      return getLongValues()[index];
+    }
+
+    /**
+     * Returns the floating point value.
+     */
+    public double getDouble(final int index) {
+      checkIndex(index, valueCount);
+      return getDoubleValues()[index];
+    }
+
+    /**
+     * Returns the value as its field's Java type, but the boolean, the enum and the empty message
+     * ones as their own.
+     */
+    public Object getValue(final int index) {
+      checkIndex(index, valueCount);
+
+      switch (field.getJavaType()) {
+        case INT:
+          return Integer.valueOf((int) longValues[index]);
+        case LONG:
+          return Long.valueOf(longValues[index]);
+        case BOOLEAN:
+          return Boolean.valueOf(longValues[index] != 0);
+        case ENUM:
+          return field.getEnumType().findValueByNumber((int) longValues[index]);
+        case FLOAT:
+          return Float.valueOf((float) doubleValues[index]);
+        case DOUBLE:
+          return Double.valueOf(doubleValues[index]);
+        case MESSAGE:
+          return DynamicMessage.getDefaultInstance(field.getMessageType());
+        default:
+          return objectValues[index];
+      }
+    }
+
+    /**
+     * Returns the sum of the integral, the boolean or the enum values.
+     */
+    public long sumLong() {
+      final long[] values = getLongValues();
+      long sum = 0;
+
+      for (int i = 0; i < valueCount; i++) {
+        sum += values[i];
+      }
+
+      return sum;
+    }
+
+    /**
+     * Returns the sum of the numeric values.
+     */
+    public double sumDouble() {
+      if (doubleValues == null) {
+        final long[] values = getLongValues();
+        double sum = 0;
+
+        for (int i = 0; i < valueCount; i++) {
+          sum += values[i];
+        }
+
+        return sum;
+      }
+
+      double sum = 0;
+
+      for (int i = 0; i < valueCount; i++) {
+        sum += doubleValues[i];
+      }
+
+      return sum;
+    }
+
+    /**
+     * Returns the minimum of the integral, the boolean or the enum values.
+     *
+     * @throws NoSuchElementException if there are no values
+     */
+    public long minLong() {
+      final long[] values = getLongValues();
+      checkNotEmpty();
+      long min = values[0];
+
+      for (int i = 1; i < valueCount; i++) {
+        min = Math.min(min, values[i]);
+      }
+
+      return min;
+    }
+
+    /**
+     * Returns the maximum of the integral, the boolean or the enum values.
+     *
+     * @throws NoSuchElementException if there are no values
+     */
+    public long maxLong() {
+      final long[] values = getLongValues();
+      checkNotEmpty();
+      long max = values[0];
+
+      for (int i = 1; i < valueCount; i++) {
+        max = Math.max(max, values[i]);
+      }
+
+      return max;
+    }
+
+    /**
+     * Returns the minimum of the floating point values.
+     *
+     * @throws NoSuchElementException if there are no values
+     */
+    public double minDouble() {
+      final double[] values = getDoubleValues();
+      checkNotEmpty();
+      double min = values[0];
+
+      for (int i = 1; i < valueCount; i++) {
+        min = Math.min(min, values[i]);
+      }
+
+      return min;
+    }
+
+    /**
+     * Returns the maximum of the floating point values.
+     *
+     * @throws NoSuchElementException if there are no values
+     */
+    public double maxDouble() {
+      final double[] values = getDoubleValues();
+      checkNotEmpty();
+      double max = values[0];
+
+      for (int i = 1; i < valueCount; i++) {
+        max = Math.max(max, values[i]);
+      }
+
+      return max;
+    }
+
+    /**
+     * Returns the bitmap of the records with any integral, boolean or enum value in the inclusive
+     * range.
+     */
+    public BitSet selectRecords(final long min, final long max) {
+      final long[] values = getLongValues();
+      final BitSet result = new BitSet(recordCount);
+
+      for (int record = 0; record < recordCount; record++) {
+        for (int i = recordValueStarts[record], end = recordValueStarts[record + 1]; i < end; i++) {
+          if (values[i] >= min && values[i] <= max) {
+            result.set(record);
+            break;
+          }
+        }
+      }
+
+      return result;
+    }
+
+    /**
+     * Returns the bitmap of the records with any floating point value in the inclusive range.
+     */
+    public BitSet selectRecords(final double min, final double max) {
+      final double[] values = getDoubleValues();
+      final BitSet result = new BitSet(recordCount);
+
+      for (int record = 0; record < recordCount; record++) {
+        for (int i = recordValueStarts[record], end = recordValueStarts[record + 1]; i < end; i++) {
+          if (values[i] >= min && values[i] <= max) {
+            result.set(record);
+            break;
+          }
+        }
+      }
+
+      return result;
+    }
+
+    /**
+     * Returns the bitmap of the records with any of their entries present, i.e. at the max
+     * definition level.
+     */
+    public BitSet selectPresentRecords() {
+      final BitSet result = new BitSet(recordCount);
+
+      for (int record = 0; record < recordCount; record++) {
+        for (int i = recordLevelStarts[record], end = recordLevelStarts[record + 1]; i < end; i++) {
+          if (definitionLevels[i] == maxDefinitionLevel) {
+            result.set(record);
+            break;
+          }
+        }
+      }
+
+      return result;
+    }
+
+    private long[] getLongValues() {
+      if (longValues == null) {
+        throw new IllegalStateException("not an integral, boolean or enum column: " + path);
+      }
+
+      return longValues;
+    }
+
+    private double[] getDoubleValues() {
+      if (doubleValues == null) {
+        throw new IllegalStateException("not a floating point column: " + path);
+      }
+
+      return doubleValues;
+    }
+
+    private void checkNotEmpty() {
+      if (valueCount == 0) {
+        throw new NoSuchElementException("no values in the column: " + path);
+      }
+    }
+
+    private static void checkIndex(final int index, final int size) {
+      if (index < 0 || index >= size) {
+        throw new IndexOutOfBoundsException("index " + index + " of " + size);
+      }
+    }
+
+    void startRecord() {
+      if (recordCount + 1 == recordLevelStarts.length) {
+        recordLevelStarts = Arrays.copyOf(recordLevelStarts, recordLevelStarts.length * 2);
+        recordValueStarts = Arrays.copyOf(recordValueStarts, recordValueStarts.length * 2);
+      }
+
+      recordLevelStarts[recordCount] = levelCount;
+      recordValueStarts[recordCount++] = valueCount;
+    }
+
+    void addNull(final int repetitionLevel, final int definitionLevel) {
+      addLevels(repetitionLevel, definitionLevel);
+    }
+
+    void add(final int repetitionLevel, final Object value) {
+      addLevels(repetitionLevel, maxDefinitionLevel);
+
+      if (longValues != null) {
+        if (valueCount == longValues.length) {
+          longValues = Arrays.copyOf(longValues, valueCount * 2);
+        }
+
+        longValues[valueCount] = toLong(value);
+      } else if (doubleValues != null) {
+        if (valueCount == doubleValues.length) {
+          doubleValues = Arrays.copyOf(doubleValues, valueCount * 2);
+        }
+
+        doubleValues[valueCount] = ((Number) value).doubleValue();
+      } else if (objectValues != null) {
+        if (valueCount == objectValues.length) {
+          objectValues = Arrays.copyOf(objectValues, valueCount * 2);
+        }
+
+        objectValues[valueCount] = value;
+      }
+
+      valueCount++;
+    }
+
+    private static long toLong(final Object value) {
+      if (value instanceof Boolean) {
+        return ((Boolean) value).booleanValue() ? 1 : 0;
+      } else if (value instanceof EnumValueDescriptor) {
+        return ((EnumValueDescriptor) value).getNumber();
+      } else {
+        return ((Number) value).longValue();
+      }
+    }
+
+    private void addLevels(final int repetitionLevel, final int definitionLevel) {
+      if (levelCount == repetitionLevels.length) {
+        repetitionLevels = Arrays.copyOf(repetitionLevels, levelCount * 2);
+        definitionLevels = Arrays.copyOf(definitionLevels, levelCount * 2);
+      }
+
+      repetitionLevels[levelCount] = (byte) repetitionLevel;
+      definitionLevels[levelCount++] = (byte) definitionLevel;
+    }
+
+    /**
+     * Trims the arrays, and records the end of the last record.
+     */
+    void freeze() {
+      startRecord();
+      recordCount--;
+      repetitionLevels = Arrays.copyOf(repetitionLevels, levelCount);
+      definitionLevels = Arrays.copyOf(definitionLevels, levelCount);
+      recordLevelStarts = Arrays.copyOf(recordLevelStarts, recordCount + 1);
+      recordValueStarts = Arrays.copyOf(recordValueStarts, recordCount + 1);
+
+      if (longValues != null) {
+        longValues = Arrays.copyOf(longValues, valueCount);
+      } else if (doubleValues != null) {
+        doubleValues = Arrays.copyOf(doubleValues, valueCount);
+      } else if (objectValues != null) {
+        objectValues = Arrays.copyOf(objectValues, valueCount);
+      }
+    }
+  }
+}
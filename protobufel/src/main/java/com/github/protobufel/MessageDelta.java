@@ -0,0 +1,520 @@
+//
+// Copyright © 2014, David Tesler (https://github.com/protobufel)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+// * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+// * Redistributions in binary form must reproduce the above copyright
+// notice, this list of conditions and the following disclaimer in the
+// documentation and/or other materials provided with the distribution.
+// * Neither the name of the <organization> nor the
+// names of its contributors may be used to endorse or promote products
+// derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+
+package com.github.protobufel;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.ExtensionRegistry;
+import com.google.protobuf.ExtensionRegistry.ExtensionInfo;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+import com.google.protobuf.WireFormat;
+
+/**
+ * The field level delta between two messages of the same type, computed by
+ * {@link MessageDiff#diff(Message, Message)}, and applied by
+ * {@link #applyTo(DynamicMessage.Builder)}.
+ * <p>
+ * Its compact wire format is the protobuf message:
+ *
+ * <pre>
+ * message MessageDelta {
+ *   repeated FieldDelta field = 1;
+ * }
+ *
+ * message FieldDelta {
+ *   required int32 number = 1;
+ *   optional bool clear = 2;
+ *   // the message having just the field set to its new value
+ *   optional bytes value = 3;
+ *   // the delta of the singular message field
+ *   optional MessageDelta delta = 4;
+ *   // the edits of the repeated field, by their ascending indexes in the old list
+ *   repeated Run run = 5;
+ * }
+ *
+ * message Run {
+ *   required int32 index = 1;
+ *   optional int32 delete_count = 2;
+ *   // the message having just the field set to the inserted elements
+ *   optional bytes values = 3;
+ *   // the deltas of the replaced message elements, instead of the values
+ *   repeated MessageDelta delta = 4;
+ * }
+ * </pre>
+ *
+ * The unknown fields are not part of the delta.
+ *
+ * @author protobufel@gmail.com David Tesler
+ */
+public final class MessageDelta {
+  private static final int TAG_TYPE_BITS = 3;
+  // MessageDelta
+  private static final int FIELD_FIELD_NUMBER = 1;
+  // FieldDelta
+  private static final int NUMBER_FIELD_NUMBER = 1;
+  private static final int CLEAR_FIELD_NUMBER = 2;
+  private static final int VALUE_FIELD_NUMBER = 3;
+  private static final int DELTA_FIELD_NUMBER = 4;
+  private static final int RUN_FIELD_NUMBER = 5;
+  // Run, along with its DELTA_FIELD_NUMBER
+  private static final int INDEX_FIELD_NUMBER = 1;
+  private static final int DELETE_COUNT_FIELD_NUMBER = 2;
+  private static final int VALUES_FIELD_NUMBER = 3;
+
+  private final Descriptor type;
+  private final List<FieldDelta> fieldDeltas;
+
+  MessageDelta(final Descriptor type, final List<FieldDelta> fieldDeltas) {
+    this.type = type;
+    this.fieldDeltas = Collections.unmodifiableList(fieldDeltas);
+  }
+
+  public Descriptor getDescriptorForType() {
+    return type;
+  }
+
+  /**
+   * Returns the changed fields' deltas, in their field number order.
+   */
+  public List<FieldDelta> getFieldDeltas() {
+    return fieldDeltas;
+  }
+
+  /**
+   * Gets whether the messages are equal, disregarding their unknown fields.
+   */
+  public boolean isEmpty() {
+    return fieldDeltas.isEmpty();
+  }
+
+  /**
+   * Applies this delta to the builder of the old message, making it equal to the new message,
+   * disregarding their unknown fields.
+   *
+   * @throws IllegalArgumentException if the builder is of another type
+   */
+  public DynamicMessage.Builder applyTo(final DynamicMessage.Builder builder) {
+    if (builder.getDescriptorForType() != type) {
+      throw new IllegalArgumentException("the builder is of another type");
+    }
+
+    for (final FieldDelta fieldDelta : fieldDeltas) {
+      fieldDelta.applyTo(builder);
+    }
+
+    return builder;
+  }
+
+  /**
+   * Applies this delta to the old message.
+   */
+  public DynamicMessage applyTo(final Message message) {
+    return applyTo(DynamicMessage.newBuilder(message)).buildPartial();
+  }
+
+  public ByteString toByteString() {
+    try {
+      final ByteString.Output bytes = ByteString.newOutput();
+      final CodedOutputStream output = CodedOutputStream.newInstance(bytes);
+      writeTo(output);
+      output.flush();
+      return bytes.toByteString();
+    } catch (final IOException e) {
+      throw new RuntimeException("Serializing to a ByteString threw an IOException (should never "
+          + "happen).", e);
+    }
+  }
+
+  private void writeTo(final CodedOutputStream output) throws IOException {
+    for (final FieldDelta fieldDelta : fieldDeltas) {
+      output.writeBytes(FIELD_FIELD_NUMBER, fieldDelta.toByteString());
+    }
+  }
+
+  /**
+   * Parses the delta of the messages of the type.
+   */
+  public static MessageDelta parseFrom(final Descriptor type, final ByteString data)
+      throws InvalidProtocolBufferException {
+    return parseFrom(type, data, ExtensionRegistry.getEmptyRegistry());
+  }
+
+  /**
+   * Parses the delta of the messages of the type; the registry resolves the changed extensions.
+   */
+  public static MessageDelta parseFrom(final Descriptor type, final ByteString data,
+      final ExtensionRegistry extensionRegistry) throws InvalidProtocolBufferException {
+    final List<FieldDelta> fieldDeltas = new ArrayList<FieldDelta>();
+
+    try {
+      final CodedInputStream input = data.newCodedInput();
+
+      for (int tag = input.readTag(); tag != 0; tag = input.readTag()) {
+        if (tag == makeTag(FIELD_FIELD_NUMBER)) {
+          fieldDeltas.add(FieldDelta.parseFrom(type, input.readBytes(), extensionRegistry));
+        } else if (!input.skipField(tag)) {
+          break;
+        }
+      }
+    } catch (final InvalidProtocolBufferException e) {
+      throw e;
+    } catch (final IOException e) {
+      throw new RuntimeException("Reading from a ByteString threw an IOException (should never "
+          + "happen).", e);
+    }
+
+    return new MessageDelta(type, fieldDeltas);
+  }
+
+  private static int makeTag(final int number) {
+    return number << TAG_TYPE_BITS | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+  }
+
+  private static int makeVarintTag(final int number) {
+    return number << TAG_TYPE_BITS | WireFormat.WIRETYPE_VARINT;
+  }
+
+  @Override
+  public String toString() {
+    return "MessageDelta [type=" + type.getFullName() + ", fieldDeltas=" + fieldDeltas + "]";
+  }
+
+  /**
+   * The change of a field: either its clearing, its new value, the delta of its singular message,
+   * or the edit runs of its repeated value.
+   */
+  public static final class FieldDelta {
+    private final FieldDescriptor field;
+    private final boolean isClear;
+    private final Object value;
+    private final MessageDelta delta;
+    private final List<Run> runs;
+
+    private FieldDelta(final FieldDescriptor field, final boolean isClear, final Object value,
+        final MessageDelta delta, final List<Run> runs) {
+      this.field = field;
+      this.isClear = isClear;
+      this.value = value;
+      this.delta = delta;
+      this.runs = runs == null ? Collections.<Run>emptyList() : Collections.unmodifiableList(runs);
+    }
+
+    static FieldDelta newClear(final FieldDescriptor field) {
+      return new FieldDelta(field, true, null, null, null);
+    }
+
+    static FieldDelta newValue(final FieldDescriptor field, final Object value) {
+      return new FieldDelta(field, false, value, null, null);
+    }
+
+    static FieldDelta newDelta(final FieldDescriptor field, final MessageDelta delta) {
+      return new FieldDelta(field, false, null, delta, null);
+    }
+
+    static FieldDelta newRuns(final FieldDescriptor field, final List<Run> runs) {
+      return new FieldDelta(field, false, null, null, runs);
+    }
+
+    public FieldDescriptor getField() {
+      return field;
+    }
+
+    public boolean isClear() {
+      return isClear;
+    }
+
+    /**
+     * Returns the new value of the field, or null if it is not replaced as a whole.
+     */
+    public Object getValue() {
+      return value;
+    }
+
+    /**
+     * Returns the delta of the singular message field, or null if there is none.
+     */
+    public MessageDelta getDelta() {
+      return delta;
+    }
+
+    /**
+     * Returns the edit runs of the repeated field, by their ascending indexes in the old list.
+     */
+    public List<Run> getRuns() {
+      return runs;
+    }
+
+    private void applyTo(final DynamicMessage.Builder builder) {
+      if (isClear) {
+        builder.clearField(field);
+      } else if (value != null) {
+        builder.setField(field, value);
+      } else if (delta != null) {
+        builder.setField(field, delta.applyTo((Message) builder.getField(field)));
+      } else {
+        final List<?> oldValues = (List<?>) builder.getField(field);
+        final List<Object> newValues = new ArrayList<Object>(oldValues.size());
+        int index = 0;
+
+        for (final Run run : runs) {
+          newValues.addAll(oldValues.subList(index, run.index));
+
+          if (run.deltas.isEmpty()) {
+            newValues.addAll(run.values);
+          } else {
+            for (int i = 0; i < run.deltas.size(); i++) {
+              newValues.add(run.deltas.get(i).applyTo((Message) oldValues.get(run.index + i)));
+            }
+          }
+
+          index = run.index + run.deleteCount;
+        }
+
+        newValues.addAll(oldValues.subList(index, oldValues.size()));
+
+        if (newValues.isEmpty()) {
+          builder.clearField(field);
+        } else {
+          builder.setField(field, newValues);
+        }
+      }
+    }
+
+    private ByteString toByteString() throws IOException {
+      final ByteString.Output bytes = ByteString.newOutput();
+      final CodedOutputStream output = CodedOutputStream.newInstance(bytes);
+      output.writeInt32(NUMBER_FIELD_NUMBER, field.getNumber());
+
+      if (isClear) {
+        output.writeBool(CLEAR_FIELD_NUMBER, true);
+      } else if (value != null) {
+        output.writeBytes(VALUE_FIELD_NUMBER, encodeValue(field, value));
+      } else if (delta != null) {
+        output.writeBytes(DELTA_FIELD_NUMBER, delta.toByteString());
+      } else {
+        for (final Run run : runs) {
+          output.writeBytes(RUN_FIELD_NUMBER, run.toByteString(field));
+        }
+      }
+
+      output.flush();
+      return bytes.toByteString();
+    }
+
+    private static FieldDelta parseFrom(final Descriptor type, final ByteString data,
+        final ExtensionRegistry extensionRegistry) throws IOException {
+      final CodedInputStream input = data.newCodedInput();
+      FieldDescriptor field = null;
+      boolean isClear = false;
+      ByteString value = null;
+      ByteString delta = null;
+      final List<ByteString> runs = new ArrayList<ByteString>();
+
+      for (int tag = input.readTag(); tag != 0; tag = input.readTag()) {
+        if (tag == makeVarintTag(NUMBER_FIELD_NUMBER)) {
+          field = findField(type, input.readInt32(), extensionRegistry);
+        } else if (tag == makeVarintTag(CLEAR_FIELD_NUMBER)) {
+          isClear = input.readBool();
+        } else if (tag == makeTag(VALUE_FIELD_NUMBER)) {
+          value = input.readBytes();
+        } else if (tag == makeTag(DELTA_FIELD_NUMBER)) {
+          delta = input.readBytes();
+        } else if (tag == makeTag(RUN_FIELD_NUMBER)) {
+          runs.add(input.readBytes());
+        } else if (!input.skipField(tag)) {
+          break;
+        }
+      }
+
+      if (field == null) {
+        throw new InvalidProtocolBufferException("the field delta has no field number");
+      }
+
+      if (isClear) {
+        return newClear(field);
+      } else if (value != null) {
+        return newValue(field, decodeValue(field, value, extensionRegistry));
+      } else if (delta != null) {
+        return newDelta(field, MessageDelta.parseFrom(field.getMessageType(), delta,
+            extensionRegistry));
+      }
+
+      final List<Run> parsedRuns = new ArrayList<Run>(runs.size());
+
+      for (final ByteString run : runs) {
+        parsedRuns.add(Run.parseFrom(field, run, extensionRegistry));
+      }
+
+      return newRuns(field, parsedRuns);
+    }
+
+    private static FieldDescriptor findField(final Descriptor type, final int number,
+        final ExtensionRegistry extensionRegistry) throws InvalidProtocolBufferException {
+      FieldDescriptor field = SchemaPlan.of(type).findFieldByNumber(number);
+
+      if (field == null && type.isExtensionNumber(number)) {
+        final ExtensionInfo extension = extensionRegistry.findExtensionByNumber(type, number);
+        field = extension == null ? null : extension.descriptor;
+      }
+
+      if (field == null) {
+        throw new InvalidProtocolBufferException(String.format("unknown field %s of %s", number,
+            type.getFullName()));
+      }
+
+      return field;
+    }
+
+    @Override
+    public String toString() {
+      return "FieldDelta [field=" + field.getName() + ", isClear=" + isClear + ", value=" + value
+          + ", delta=" + delta + ", runs=" + runs + "]";
+    }
+  }
+
+  /**
+   * The edit run of a repeated field: deleting the elements starting at the index in the old list,
+   * and inserting the new values, or replacing them with their deltas.
+   */
+  public static final class Run {
+    private final int index;
+    private final int deleteCount;
+    private final List<Object> values;
+    private final List<MessageDelta> deltas;
+
+    Run(final int index, final int deleteCount, final List<?> values,
+        final List<MessageDelta> deltas) {
+      this.index = index;
+      this.deleteCount = deleteCount;
+      this.values = Collections.unmodifiableList(new ArrayList<Object>(values));
+      this.deltas = Collections.unmodifiableList(deltas);
+    }
+
+    /**
+     * Returns the index of the first edited element in the old list.
+     */
+    public int getIndex() {
+      return index;
+    }
+
+    public int getDeleteCount() {
+      return deleteCount;
+    }
+
+    /**
+     * Returns the inserted values.
+     */
+    public List<Object> getValues() {
+      return values;
+    }
+
+    /**
+     * Returns the deltas of the replaced message elements, if the run is their patch rather than
+     * their replacement.
+     */
+    public List<MessageDelta> getDeltas() {
+      return deltas;
+    }
+
+    private ByteString toByteString(final FieldDescriptor field) throws IOException {
+      final ByteString.Output bytes = ByteString.newOutput();
+      final CodedOutputStream output = CodedOutputStream.newInstance(bytes);
+      output.writeInt32(INDEX_FIELD_NUMBER, index);
+
+      if (deleteCount != 0) {
+        output.writeInt32(DELETE_COUNT_FIELD_NUMBER, deleteCount);
+      }
+
+      if (!values.isEmpty()) {
+        output.writeBytes(VALUES_FIELD_NUMBER, encodeValue(field, values));
+      }
+
+      for (final MessageDelta delta : deltas) {
+        output.writeBytes(DELTA_FIELD_NUMBER, delta.toByteString());
+      }
+
+      output.flush();
+      return bytes.toByteString();
+    }
+
+    private static Run parseFrom(final FieldDescriptor field, final ByteString data,
+        final ExtensionRegistry extensionRegistry) throws IOException {
+      final CodedInputStream input = data.newCodedInput();
+      int index = 0;
+      int deleteCount = 0;
+      List<?> values = Collections.emptyList();
+      final List<MessageDelta> deltas = new ArrayList<MessageDelta>();
+
+      for (int tag = input.readTag(); tag != 0; tag = input.readTag()) {
+        if (tag == makeVarintTag(INDEX_FIELD_NUMBER)) {
+          index = input.readInt32();
+        } else if (tag == makeVarintTag(DELETE_COUNT_FIELD_NUMBER)) {
+          deleteCount = input.readInt32();
+        } else if (tag == makeTag(VALUES_FIELD_NUMBER)) {
+          values = (List<?>) decodeValue(field, input.readBytes(), extensionRegistry);
+        } else if (tag == makeTag(DELTA_FIELD_NUMBER)) {
+          deltas.add(MessageDelta.parseFrom(field.getMessageType(), input.readBytes(),
+              extensionRegistry));
+        } else if (!input.skipField(tag)) {
+          break;
+        }
+      }
+
+      return new Run(index, deleteCount, values, deltas);
+    }
+
+    @Override
+    public String toString() {
+      return "Run [index=" + index + ", deleteCount=" + deleteCount + ", values=" + values
+          + ", deltas=" + deltas + "]";
+    }
+  }
+
+  /**
+   * Encodes the value as the message of the field's containing type having just that field set.
+   */
+  private static ByteString encodeValue(final FieldDescriptor field, final Object value) {
+    return DynamicMessage.newBuilder(field.getContainingType()).setField(field, value)
+        .buildPartial().toByteString();
+  }
+
+  private static Object decodeValue(final FieldDescriptor field, final ByteString data,
+      final ExtensionRegistry extensionRegistry) throws InvalidProtocolBufferException {
+    return DynamicMessage.newBuilder(field.getContainingType()).mergeFrom(data, extensionRegistry)
+        .buildPartial().getField(field);
+  }
+}
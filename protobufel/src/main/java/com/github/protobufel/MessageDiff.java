@@ -0,0 +1,250 @@
+//
+// Copyright © 2014, David Tesler (https://github.com/protobufel)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+// * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+// * Redistributions in binary form must reproduce the above copyright
+// notice, this list of conditions and the following disclaimer in the
+// documentation and/or other materials provided with the distribution.
+// * Neither the name of the <organization> nor the
+// names of its contributors may be used to endorse or promote products
+// derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+
+package com.github.protobufel;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+
+import com.github.protobufel.MessageDelta.FieldDelta;
+import com.github.protobufel.MessageDelta.Run;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor.JavaType;
+import com.google.protobuf.Message;
+
+/**
+ * The field level diff engine, computing the {@link MessageDelta} between two messages of the same
+ * type: the set and cleared fields, the deltas of the changed singular message fields, and the
+ * insert, delete and replace runs of the changed repeated fields, with the replaced message
+ * elements patched by their own deltas.
+ * <p>
+ * The identical subtrees are skipped by their identity, by the shared fields of the rebuilt
+ * {@link DynamicMessage}s, or by their hash codes, memoized by the messages, before comparing
+ * them. The repeated fields are matched by their longest common subsequence, after trimming their
+ * common prefix and suffix; the middle parts of more than {@value #MAX_MATCHED_ELEMENTS} elements
+ * each are replaced as a whole.
+ *
+ * @author protobufel@gmail.com David Tesler
+ */
+public final class MessageDiff {
+  public static final int MAX_MATCHED_ELEMENTS = 1 << 10;
+
+  private MessageDiff() {
+  }
+
+  /**
+   * Returns the delta turning the first message into the second one.
+   *
+   * @throws IllegalArgumentException if the messages are of different types
+   */
+  public static MessageDelta diff(final Message from, final Message to) {
+    final Descriptor type = from.getDescriptorForType();
+
+    if (to.getDescriptorForType() != type) {
+      throw new IllegalArgumentException("the messages are of different types");
+    }
+
+    if (isSame(from, to)) {
+      return new MessageDelta(type, Collections.<FieldDelta>emptyList());
+    }
+
+    final List<FieldDelta> fieldDeltas = new ArrayList<FieldDelta>();
+    // both in the field number order
+    final Iterator<Entry<FieldDescriptor, Object>> fromEntries =
+        from.getAllFields().entrySet().iterator();
+    final Iterator<Entry<FieldDescriptor, Object>> toEntries =
+        to.getAllFields().entrySet().iterator();
+    Entry<FieldDescriptor, Object> fromEntry = next(fromEntries);
+    Entry<FieldDescriptor, Object> toEntry = next(toEntries);
+
+    while (fromEntry != null || toEntry != null) {
+      final int order = fromEntry == null ? 1 : toEntry == null ? -1
+          : compare(fromEntry.getKey(), toEntry.getKey());
+
+      if (order < 0) {
+        fieldDeltas.add(FieldDelta.newClear(fromEntry.getKey()));
+        fromEntry = next(fromEntries);
+      } else if (order > 0) {
+        fieldDeltas.add(FieldDelta.newValue(toEntry.getKey(), toEntry.getValue()));
+        toEntry = next(toEntries);
+      } else {
+        final FieldDelta fieldDelta =
+            diffField(fromEntry.getKey(), fromEntry.getValue(), toEntry.getValue());
+
+        if (fieldDelta != null) {
+          fieldDeltas.add(fieldDelta);
+        }
+
+        fromEntry = next(fromEntries);
+        toEntry = next(toEntries);
+      }
+    }
+
+    return new MessageDelta(type, fieldDeltas);
+  }
+
+  private static Entry<FieldDescriptor, Object> next(
+      final Iterator<Entry<FieldDescriptor, Object>> entries) {
+    return entries.hasNext() ? entries.next() : null;
+  }
+
+  private static int compare(final FieldDescriptor field1, final FieldDescriptor field2) {
+    return field1.getNumber() < field2.getNumber() ? -1
+        : field1.getNumber() == field2.getNumber() ? 0 : 1;
+  }
+
+  private static FieldDelta diffField(final FieldDescriptor field, final Object from,
+      final Object to) {
+    final boolean isMessage = field.getJavaType() == JavaType.MESSAGE;
+
+    if (field.isRepeated()) {
+      final List<Run> runs = diffList(isMessage, (List<?>) from, (List<?>) to);
+      return runs.isEmpty() ? null : FieldDelta.newRuns(field, runs);
+    }
+
+    if (isMessage) {
+      if (isSame((Message) from, (Message) to)) {
+        return null;
+      }
+
+      return FieldDelta.newDelta(field, diff((Message) from, (Message) to));
+    }
+
+    return from.equals(to) ? null : FieldDelta.newValue(field, to);
+  }
+
+  private static List<Run> diffList(final boolean isMessage, final List<?> from,
+      final List<?> to) {
+    final int fromSize = from.size();
+    final int toSize = to.size();
+    int start = 0;
+
+    while (start < fromSize && start < toSize
+        && isSame(isMessage, from.get(start), to.get(start))) {
+      start++;
+    }
+
+    int fromEnd = fromSize;
+    int toEnd = toSize;
+
+    while (fromEnd > start && toEnd > start
+        && isSame(isMessage, from.get(fromEnd - 1), to.get(toEnd - 1))) {
+      fromEnd--;
+      toEnd--;
+    }
+
+    final List<Run> runs = new ArrayList<Run>();
+
+    if (fromEnd - start > MAX_MATCHED_ELEMENTS || toEnd - start > MAX_MATCHED_ELEMENTS) {
+      addRun(runs, isMessage, from, start, fromEnd, to, start, toEnd);
+      return runs;
+    }
+
+    // the longest common suffix lengths of the middle parts, for the forward edit walk
+    final int m = fromEnd - start;
+    final int n = toEnd - start;
+    final int[][] lengths = new int[m + 1][n + 1];
+
+    for (int i = m - 1; i >= 0; i--) {
+      for (int j = n - 1; j >= 0; j--) {
+        lengths[i][j] = isSame(isMessage, from.get(start + i), to.get(start + j))
+            ? lengths[i + 1][j + 1] + 1 : Math.max(lengths[i + 1][j], lengths[i][j + 1]);
+      }
+    }
+
+    int i = 0;
+    int j = 0;
+    int runFrom = 0;
+    int runTo = 0;
+
+    while (i < m || j < n) {
+      if (i < m && j < n && isSame(isMessage, from.get(start + i), to.get(start + j))) {
+        addRun(runs, isMessage, from, start + runFrom, start + i, to, start + runTo, start + j);
+        i++;
+        j++;
+        runFrom = i;
+        runTo = j;
+      } else if (j < n && (i == m || lengths[i][j + 1] >= lengths[i + 1][j])) {
+        j++;
+      } else {
+        i++;
+      }
+    }
+
+    addRun(runs, isMessage, from, start + runFrom, start + m, to, start + runTo, start + n);
+    return runs;
+  }
+
+  /**
+   * Adds the run replacing the from range with the to range, unless both are empty; the replaced
+   * messages are patched by their deltas if the ranges are of the same size.
+   */
+  private static void addRun(final List<Run> runs, final boolean isMessage, final List<?> from,
+      final int fromStart, final int fromEnd, final List<?> to, final int toStart,
+      final int toEnd) {
+    final int deleteCount = fromEnd - fromStart;
+    final int insertCount = toEnd - toStart;
+
+    if (deleteCount == 0 && insertCount == 0) {
+      return;
+    }
+
+    if (isMessage && deleteCount == insertCount) {
+      final List<MessageDelta> deltas = new ArrayList<MessageDelta>(deleteCount);
+
+      for (int i = 0; i < deleteCount; i++) {
+        deltas.add(diff((Message) from.get(fromStart + i), (Message) to.get(toStart + i)));
+      }
+
+      runs.add(new Run(fromStart, deleteCount, Collections.emptyList(), deltas));
+    } else {
+      runs.add(new Run(fromStart, deleteCount, to.subList(toStart, toEnd),
+          Collections.<MessageDelta>emptyList()));
+    }
+  }
+
+  private static boolean isSame(final boolean isMessage, final Object from, final Object to) {
+    return isMessage ? isSame((Message) from, (Message) to) : from.equals(to);
+  }
+
+  private static boolean isSame(final Message from, final Message to) {
+    if (from == to) {
+      return true;
+    }
+
+    if (from instanceof DynamicMessage && to instanceof DynamicMessage
+        && ((DynamicMessage) from).isSameAs((DynamicMessage) to)) {
+      return true;
+    }
+
+    return from.hashCode() == to.hashCode() && from.equals(to);
+  }
+}
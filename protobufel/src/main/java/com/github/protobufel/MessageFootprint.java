@@ -0,0 +1,400 @@
+//
+// Copyright © 2014, David Tesler (https://github.com/protobufel)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+// * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+// * Redistributions in binary form must reproduce the above copyright
+// notice, this list of conditions and the following disclaimer in the
+// documentation and/or other materials provided with the distribution.
+// * Neither the name of the <organization> nor the
+// names of its contributors may be used to endorse or promote products
+// derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+
+package com.github.protobufel;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.github.protobufel.LazyMessage.LazyList;
+import com.github.protobufel.PrimitiveLists.BooleanList;
+import com.github.protobufel.PrimitiveLists.DoubleList;
+import com.github.protobufel.PrimitiveLists.FloatList;
+import com.github.protobufel.PrimitiveLists.IntList;
+import com.github.protobufel.PrimitiveLists.LongList;
+import com.github.protobufel.PrimitiveLists.PrimitiveList;
+import com.github.protobufel.ProtoInterfaces.IFieldBuilder;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.MessageOrBuilder;
+import com.google.protobuf.UnknownFieldSet;
+
+/**
+ * The estimated heap size retained by a message, or a builder tree, broken down by the field
+ * paths, such as {@code "star.planet.name"}; each path's size includes all its sub-paths' ones,
+ * and sums up the sizes of all its values, of the repeated message elements included. The
+ * builders are walked through their active field builders, both the builders and the cached
+ * messages of them, without building anything.
+ * <p>
+ * The estimate assumes the 64-bit JVM with the compressed references, and the pre Java 9 strings.
+ * The fixed overhead of the messages of a type is precomputed once per type, by its
+ * {@link SchemaPlan}; the shared instances, such as the default instances, the enum values, and
+ * the booleans, cost nothing, yet any other substructure shared by several messages is counted
+ * for each of them. It is immutable.
+ *
+ * @author protobufel@gmail.com David Tesler
+ */
+public final class MessageFootprint {
+  private static final int OBJECT_HEADER = 12;
+  private static final int ARRAY_HEADER = 16;
+  private static final int REFERENCE = 4;
+  private static final int ALIGNMENT = 8;
+
+  // the shallow sizes of this package's and the commonly used classes
+  private static final int MESSAGE = 40;
+  private static final int FIELD_SLOTS = 32;
+  private static final int BUILDER = 48;
+  private static final int SUB_BUILDERS = 24;
+  private static final int SINGLE_FIELD_BUILDER = 32;
+  private static final int REPEATED_FIELD_BUILDER = 48;
+  private static final int LAZY_MESSAGE = 24;
+  private static final int LIST = 24;
+  private static final int BOXED_32 = 16;
+  private static final int BOXED_64 = 24;
+  private static final int STRING = 24;
+  private static final int BYTE_STRING = 24;
+  private static final int TREE_MAP = 48;
+  private static final int TREE_MAP_ENTRY = 40;
+  private static final int UNKNOWN_FIELD = 48;
+
+  private final long totalBytes;
+  private final long unknownFieldsBytes;
+  private final Map<String, Long> bytesByPath;
+
+  private MessageFootprint(final long totalBytes, final long unknownFieldsBytes,
+      final Map<String, Long> bytesByPath) {
+    this.totalBytes = totalBytes;
+    this.unknownFieldsBytes = unknownFieldsBytes;
+    this.bytesByPath = bytesByPath;
+  }
+
+  /**
+   * Estimates the heap size retained by the message or the builder, broken down by the field
+   * paths.
+   */
+  public static MessageFootprint estimate(final MessageOrBuilder message) {
+    final Estimator estimator = new Estimator(new LinkedHashMap<String, Long>());
+    final long totalBytes = estimator.estimateMessage(message, "");
+    return new MessageFootprint(totalBytes, estimator.unknownFieldsBytes,
+        Collections.unmodifiableMap(estimator.bytesByPath));
+  }
+
+  /**
+   * Estimates the total heap size retained by the message or the builder, the same as
+   * {@code estimate(message).getTotalBytes()}, without the breakdown, hence with no allocations.
+   */
+  public static long estimateBytes(final MessageOrBuilder message) {
+    return new Estimator(null).estimateMessage(message, null);
+  }
+
+  /**
+   * Returns the estimated size of the whole message, or builder, tree.
+   */
+  public long getTotalBytes() {
+    return totalBytes;
+  }
+
+  /**
+   * Returns the estimated size of the unknown fields of the whole tree.
+   */
+  public long getUnknownFieldsBytes() {
+    return unknownFieldsBytes;
+  }
+
+  /**
+   * Returns the estimated sizes by the field paths, in the order of the first occurrence; the
+   * extensions are named as {@code "(full.name)"}.
+   */
+  public Map<String, Long> getBytesByPath() {
+    return bytesByPath;
+  }
+
+  /**
+   * Returns the estimated size of the field path's values, or 0 if there are none.
+   */
+  public long getBytes(final String path) {
+    final Long bytes = bytesByPath.get(path);
+    return bytes == null ? 0 : bytes;
+  }
+
+  @Override
+  public String toString() {
+    return "MessageFootprint [totalBytes=" + totalBytes + ", unknownFieldsBytes="
+        + unknownFieldsBytes + ", bytesByPath=" + bytesByPath + "]";
+  }
+
+  /**
+   * Computes the estimated heap size of the empty {@link DynamicMessage} of the type, with its
+   * {@link FieldSlots}.
+   */
+  static int computeFixedFootprint(final Descriptor type) {
+    final int fieldCount = type.getFields().size();
+    final int oneofCount = type.getOneofs().size();
+    return MESSAGE + FIELD_SLOTS
+        + (fieldCount == 0 ? 0 : array(REFERENCE, fieldCount) + array(8, (fieldCount + 63) >>> 6))
+        + (oneofCount == 0 ? 0 : array(REFERENCE, oneofCount));
+  }
+
+  private static int align(final long size) {
+    return (int) ((size + ALIGNMENT - 1) & -ALIGNMENT);
+  }
+
+  private static int array(final int elementSize, final int length) {
+    return align(ARRAY_HEADER + (long) elementSize * length);
+  }
+
+  /**
+   * The walk accumulating the sizes by the field paths, unless they are null.
+   */
+  private static final class Estimator {
+    final Map<String, Long> bytesByPath;
+    long unknownFieldsBytes;
+
+    Estimator(final Map<String, Long> bytesByPath) {
+      this.bytesByPath = bytesByPath;
+    }
+
+    long estimateMessage(final MessageOrBuilder message, final String prefix) {
+      long size;
+
+      if (message instanceof DynamicMessage) {
+        final DynamicMessage dynamicMessage = (DynamicMessage) message;
+        final SchemaPlan plan = SchemaPlan.of(dynamicMessage.getDescriptorForType());
+
+        if (dynamicMessage == plan.getDefaultInstance()) {
+          return 0;
+        }
+
+        size = plan.getFixedFootprint()
+            + estimateFields(dynamicMessage.getFieldSlots(), null, prefix);
+      } else if (message instanceof DynamicMessage.Builder) {
+        final DynamicMessage.Builder builder = (DynamicMessage.Builder) message;
+        size = SchemaPlan.of(builder.getDescriptorForType()).getFixedFootprint() - MESSAGE
+            + BUILDER + SUB_BUILDERS
+            + estimateFields(builder.getFieldSlots(), builder, prefix);
+      } else {
+        if (message == message.getDefaultInstanceForType()) {
+          return 0;
+        }
+
+        size = align(OBJECT_HEADER + 2 * REFERENCE
+            + REFERENCE * message.getDescriptorForType().getFields().size());
+
+        for (final Entry<FieldDescriptor, Object> entry : message.getAllFields().entrySet()) {
+          size += estimateField(entry.getKey(), entry.getValue(), prefix);
+        }
+      }
+
+      return size + estimateUnknownFields(message.getUnknownFields());
+    }
+
+    /**
+     * Estimates the fields in the slots, and in the field builders of the builder, if not null.
+     */
+    private long estimateFields(final FieldSlots fields, final DynamicMessage.Builder builder,
+        final String prefix) {
+      long size = 0;
+      final List<FieldDescriptor> typeFields = fields.getDescriptorForType().getFields();
+
+      if (builder == null) {
+        for (int i = fields.nextPresentIndex(0); i >= 0; i = fields.nextPresentIndex(i + 1)) {
+          size += estimateField(typeFields.get(i), fields.getAt(i), prefix);
+        }
+      } else {
+        for (final FieldDescriptor field : typeFields) {
+          size += estimateBuilderField(field, fields.getRaw(field), builder, prefix);
+        }
+      }
+
+      if (!fields.getExtensionFields().isEmpty()) {
+        size += TREE_MAP;
+
+        for (final FieldDescriptor field : fields.getExtensionFields()) {
+          size += TREE_MAP_ENTRY + estimateField(field, fields.getRaw(field), prefix);
+        }
+      }
+
+      if (builder != null) {
+        for (final FieldDescriptor field : builder.getSubBuilderExtensions()) {
+          size += estimateBuilderField(field, null, builder, prefix);
+        }
+      }
+
+      return size;
+    }
+
+    private long estimateBuilderField(final FieldDescriptor field, final Object value,
+        final DynamicMessage.Builder builder, final String prefix) {
+      final IFieldBuilder fieldBuilder = builder.getSubBuilder(field);
+
+      if (fieldBuilder == null) {
+        return value == null ? 0 : estimateField(field, value, prefix);
+      }
+
+      final String path = getPath(field, prefix);
+      final long size;
+
+      if (fieldBuilder instanceof SingleFieldBuilder) {
+        size = estimateSingleFieldBuilder((SingleFieldBuilder<?, ?, ?>) fieldBuilder, path);
+      } else {
+        size = estimateRepeatedFieldBuilder((RepeatedFieldBuilder<?, ?, ?>) fieldBuilder, path);
+      }
+
+      record(path, size);
+      return size;
+    }
+
+    private long estimateSingleFieldBuilder(final SingleFieldBuilder<?, ?, ?> fieldBuilder,
+        final String path) {
+      final MessageOrBuilder builder = fieldBuilder.peekBuilder();
+      final MessageOrBuilder message = fieldBuilder.peekMessage();
+      long size = SINGLE_FIELD_BUILDER;
+
+      if (builder != null) {
+        size += estimateMessage(builder, getPrefix(path));
+      }
+
+      if (message != null) {
+        // the message built by the builder shares its fields
+        size += builder instanceof DynamicMessage.Builder && message instanceof DynamicMessage
+            && ((DynamicMessage.Builder) builder).getFieldSlots()
+                == ((DynamicMessage) message).getFieldSlots() ? MESSAGE
+            : estimateMessage(message, getPrefix(path));
+      }
+
+      return size;
+    }
+
+    private long estimateRepeatedFieldBuilder(final RepeatedFieldBuilder<?, ?, ?> fieldBuilder,
+        final String path) {
+      final List<? extends MessageOrBuilder> messages = fieldBuilder.peekMessages();
+      final List<? extends SingleFieldBuilder<?, ?, ?>> builders = fieldBuilder.peekBuilders();
+      long size = REPEATED_FIELD_BUILDER + LIST + array(REFERENCE, messages.size());
+
+      if (builders != null) {
+        size += LIST + array(REFERENCE, builders.size());
+      }
+
+      for (int i = 0; i < messages.size(); i++) {
+        final SingleFieldBuilder<?, ?, ?> builder = builders == null ? null : builders.get(i);
+
+        if (builder != null) {
+          size += estimateSingleFieldBuilder(builder, path);
+        } else if (messages.get(i) != null) {
+          size += estimateMessage(messages.get(i), getPrefix(path));
+        }
+      }
+
+      return size;
+    }
+
+    private long estimateField(final FieldDescriptor field, final Object value,
+        final String prefix) {
+      final String path = getPath(field, prefix);
+      final long size =
+          field.isRepeated() ? estimateList((List<?>) value, path) : estimateValue(value, path);
+      record(path, size);
+      return size;
+    }
+
+    private long estimateList(final List<?> list, final String path) {
+      if (list instanceof PrimitiveList) {
+        final int elementSize = list instanceof IntList || list instanceof FloatList ? 4
+            : list instanceof LongList || list instanceof DoubleList ? 8
+                : list instanceof BooleanList ? 1 : REFERENCE;
+        return LIST + array(elementSize, list.size());
+      }
+
+      final List<?> elements = list instanceof LazyList ? ((LazyList) list).getRawElements() : list;
+      long size = LIST + array(REFERENCE, elements.size());
+
+      for (final Object element : elements) {
+        size += estimateValue(element, path);
+      }
+
+      return size;
+    }
+
+    private long estimateValue(final Object value, final String path) {
+      if (value instanceof Integer || value instanceof Float) {
+        return BOXED_32;
+      } else if (value instanceof Long || value instanceof Double) {
+        return BOXED_64;
+      } else if (value instanceof String) {
+        return STRING + array(2, ((String) value).length());
+      } else if (value instanceof ByteString) {
+        return BYTE_STRING + array(1, ((ByteString) value).size());
+      } else if (value instanceof LazyMessage) {
+        final LazyMessage message = (LazyMessage) value;
+        return LAZY_MESSAGE + BYTE_STRING + array(1, message.getBytes().size())
+            + (message.isDecoded() ? estimateMessage(message.getValue(), getPrefix(path)) : 0);
+      } else if (value instanceof MessageOrBuilder) {
+        return estimateMessage((MessageOrBuilder) value, getPrefix(path));
+      } else {
+        // the booleans and the enum values are shared
+        return 0;
+      }
+    }
+
+    private long estimateUnknownFields(final UnknownFieldSet unknownFields) {
+      final int fieldCount = unknownFields.asMap().size();
+
+      if (fieldCount == 0) {
+        return 0;
+      }
+
+      final long size = TREE_MAP + OBJECT_HEADER + REFERENCE
+          + (long) fieldCount * (TREE_MAP_ENTRY + UNKNOWN_FIELD)
+          + unknownFields.getSerializedSize();
+      unknownFieldsBytes += size;
+      return size;
+    }
+
+    private String getPath(final FieldDescriptor field, final String prefix) {
+      if (bytesByPath == null) {
+        return null;
+      }
+
+      return prefix + (field.isExtension() ? "(" + field.getFullName() + ")" : field.getName());
+    }
+
+    private String getPrefix(final String path) {
+      return path == null ? null : path + '.';
+    }
+
+    private void record(final String path, final long size) {
+      if (path != null) {
+        final Long oldSize = bytesByPath.get(path);
+        bytesByPath.put(path, oldSize == null ? size : oldSize + size);
+      }
+    }
+  }
+}
@@ -0,0 +1,414 @@
+//
+// Copyright © 2014, David Tesler (https://github.com/protobufel)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+// * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+// * Redistributions in binary form must reproduce the above copyright
+// notice, this list of conditions and the following disclaimer in the
+// documentation and/or other materials provided with the distribution.
+// * Neither the name of the <organization> nor the
+// names of its contributors may be used to endorse or promote products
+// derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+
+package com.github.protobufel;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.github.protobufel.MessageAdapter.FieldCursor;
+import com.github.protobufel.ProtoInterfaces.IBuilder2;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.MessageOrBuilder;
+
+/**
+ * The iterative walker of a message tree, visiting each message before and after its children,
+ * that is in the pre-order and in the post-order, with the path of the fields leading to it. The
+ * walk is driven by an explicit stack, rather than by the recursion, so the deep trees cannot
+ * overflow the thread stack; and the path is kept in the walker's arrays, so no strings, nor any
+ * other objects, are created per message. A visitor can prune a subtree, by not entering it.
+ * <p>
+ * The children are the present message fields' values, in the field number order, followed by the
+ * message extensions; for the {@link IBuilder2} builders, such as {@link DynamicMessage.Builder},
+ * they are taken with {@code getMessageOrBuilder}, so the active nested builders are visited
+ * rather than their messages.
+ * <p>
+ * The walker is reusable, and not thread-safe. See also
+ * {@link #walkParallel(MessageOrBuilder, Visitor, ForkJoinPool, int)} for the parallel walk of
+ * the immutable messages.
+ *
+ * @author protobufel@gmail.com David Tesler
+ */
+public final class MessageWalker {
+  /**
+   * The index of a singular field in the {@link Path}.
+   */
+  public static final int NO_INDEX = -1;
+
+  private static final int INITIAL_DEPTH = 16;
+
+  // the repeated message fields of at least splitThreshold elements are split, if positive
+  private final int splitThreshold;
+  private final Path path;
+  // the stack of the entered messages, by their depth, along with their child cursors, and the
+  // element index and count of their current repeated field
+  private MessageOrBuilder[] messages;
+  private FieldCursor[] cursors;
+  private int[] elementIndexes;
+  private int[] elementCounts;
+  private Visitor visitor;
+
+  /**
+   * Creates the sequential walker.
+   */
+  public MessageWalker() {
+    this(0, new Path());
+  }
+
+  private MessageWalker(final int splitThreshold, final Path path) {
+    this.splitThreshold = splitThreshold;
+    this.path = path;
+    final int capacity = Math.max(INITIAL_DEPTH, path.fields.length);
+    messages = new MessageOrBuilder[capacity];
+    cursors = new FieldCursor[capacity];
+    elementIndexes = new int[capacity];
+    elementCounts = new int[capacity];
+  }
+
+  /**
+   * Walks the message tree, visiting the root with the empty path.
+   */
+  public void walk(final MessageOrBuilder root, final Visitor visitor) {
+    if (root == null || visitor == null) {
+      throw new NullPointerException();
+    }
+
+    path.depth = 0;
+    walk(root, 0, visitor);
+  }
+
+  /**
+   * Walks the message tree, as {@link #walk(MessageOrBuilder, Visitor)} does, splitting the
+   * repeated message fields of at least the splitThreshold elements into the chunks of at most
+   * splitThreshold elements, walked in parallel by the pool. A message is still left after all
+   * its subtrees are, and each chunk is walked in order, but the chunks are walked concurrently,
+   * so the visitor must be thread-safe, and the tree must not be changed meanwhile; hence it is
+   * meant for the immutable messages. The paths are specific to their chunks.
+   *
+   * @throws IllegalArgumentException if the splitThreshold is not positive
+   */
+  public static void walkParallel(final MessageOrBuilder root, final Visitor visitor,
+      final ForkJoinPool pool, final int splitThreshold) {
+    if (root == null || visitor == null) {
+      throw new NullPointerException();
+    }
+
+    if (splitThreshold <= 0) {
+      throw new IllegalArgumentException("the splitThreshold must be positive");
+    }
+
+    pool.invoke(new RecursiveAction() {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected void compute() {
+        new MessageWalker(splitThreshold, new Path()).walk(root, visitor);
+      }
+    });
+  }
+
+  /**
+   * Walks the subtree of the message at the depth, with the path leading to it already set.
+   */
+  private void walk(final MessageOrBuilder root, final int baseDepth, final Visitor visitor) {
+    this.visitor = visitor;
+
+    try {
+      if (!visitor.enter(root, path)) {
+        visitor.leave(root, path);
+        return;
+      }
+
+      push(root, baseDepth);
+      int depth = baseDepth;
+
+      while (depth >= baseDepth) {
+        final MessageOrBuilder child = nextChild(depth);
+
+        if (child == null) {
+          path.depth = depth;
+          visitor.leave(messages[depth], path);
+          messages[depth] = null;
+          depth--;
+        } else {
+          path.depth = depth + 1;
+
+          if (visitor.enter(child, path)) {
+            push(child, ++depth);
+          } else {
+            visitor.leave(child, path);
+          }
+        }
+      }
+    } finally {
+      this.visitor = null;
+    }
+  }
+
+  private void push(final MessageOrBuilder message, final int depth) {
+    if (depth == messages.length) {
+      final int capacity = depth << 1;
+      messages = Arrays.copyOf(messages, capacity);
+      cursors = Arrays.copyOf(cursors, capacity);
+      elementIndexes = Arrays.copyOf(elementIndexes, capacity);
+      elementCounts = Arrays.copyOf(elementCounts, capacity);
+    }
+
+    messages[depth] = message;
+    elementIndexes[depth] = 0;
+    elementCounts[depth] = 0;
+
+    if (cursors[depth] == null) {
+      cursors[depth] = MessageAdapter.newChildCursor(message);
+    } else {
+      cursors[depth].reset(message);
+    }
+  }
+
+  /**
+   * Returns the next child of the message at the depth, setting its path segment, or null if
+   * there is none.
+   */
+  private MessageOrBuilder nextChild(final int depth) {
+    final MessageOrBuilder message = messages[depth];
+
+    if (elementIndexes[depth] < elementCounts[depth]) {
+      final int index = elementIndexes[depth]++;
+      path.set(depth, path.fields[depth], index);
+      return getChild(message, path.fields[depth], index);
+    }
+
+    final FieldCursor cursor = cursors[depth];
+
+    while (cursor.next()) {
+      final FieldDescriptor field = cursor.getField();
+
+      if (!field.isRepeated()) {
+        elementCounts[depth] = 0;
+        path.set(depth, field, NO_INDEX);
+        return getChild(message, field, NO_INDEX);
+      }
+
+      final int count = cursor.getValueCount();
+      path.set(depth, field, 0);
+
+      if (splitThreshold > 0 && count >= splitThreshold) {
+        path.depth = depth + 1;
+        RecursiveAction.invokeAll(new ChunkTask(path.copy(), message, field, 0, count,
+            splitThreshold, visitor));
+        elementCounts[depth] = 0;
+        continue;
+      }
+
+      elementIndexes[depth] = 1;
+      elementCounts[depth] = count;
+      return getChild(message, field, 0);
+    }
+
+    return null;
+  }
+
+  /**
+   * Returns the child message, or the active nested builder of an {@link IBuilder2}, of the field
+   * at the index, or {@link #NO_INDEX} for a singular field.
+   */
+  static MessageOrBuilder getChild(final MessageOrBuilder message, final FieldDescriptor field,
+      final int index) {
+    if (message instanceof IBuilder2) {
+      final IBuilder2 builder = (IBuilder2) message;
+      return index == NO_INDEX ? builder.getMessageOrBuilder(field)
+          : builder.getMessageOrBuilder(field, index);
+    }
+
+    return (MessageOrBuilder) (index == NO_INDEX ? message.getField(field)
+        : message.getRepeatedField(field, index));
+  }
+
+  /**
+   * The visitor of the messages of a tree, along with their paths. The path is owned by the
+   * walker, and changes as the walk goes on, so it must be copied to be retained.
+   */
+  public interface Visitor {
+    /**
+     * Visits the message before its children.
+     *
+     * @return whether to walk the message's children, false to prune its subtree
+     */
+    boolean enter(MessageOrBuilder message, Path path);
+
+    /**
+     * Visits the message after its children, or right after it is entered, if it is pruned.
+     */
+    void leave(MessageOrBuilder message, Path path);
+  }
+
+  /**
+   * The path of the fields from the root to the current message, as in
+   * {@code star[0].planet[1].country}: the field and the index, {@link MessageWalker#NO_INDEX}
+   * for a singular field, of each level. The root's path is empty.
+   */
+  public static final class Path {
+    private FieldDescriptor[] fields;
+    private int[] indexes;
+    private int depth;
+
+    private Path() {
+      this(new FieldDescriptor[INITIAL_DEPTH], new int[INITIAL_DEPTH], 0);
+    }
+
+    private Path(final FieldDescriptor[] fields, final int[] indexes, final int depth) {
+      this.fields = fields;
+      this.indexes = indexes;
+      this.depth = depth;
+    }
+
+    /**
+     * Returns the number of the levels, 0 for the root.
+     */
+    public int getDepth() {
+      return depth;
+    }
+
+    /**
+     * Returns the field of the level, from 0 to depth - 1.
+     */
+    public FieldDescriptor getField(final int level) {
+      return fields[checkLevel(level)];
+    }
+
+    /**
+     * Returns the index of the level, from 0 to depth - 1, or {@link MessageWalker#NO_INDEX} for a
+     * singular field.
+     */
+    public int getIndex(final int level) {
+      return indexes[checkLevel(level)];
+    }
+
+    /**
+     * Returns the copy of this path, which does not change along with this one.
+     */
+    public Path copy() {
+      return new Path(Arrays.copyOf(fields, Math.max(depth, 1)),
+          Arrays.copyOf(indexes, Math.max(depth, 1)), depth);
+    }
+
+    private int checkLevel(final int level) {
+      if (level < 0 || level >= depth) {
+        throw new IndexOutOfBoundsException("level " + level + " of depth " + depth);
+      }
+
+      return level;
+    }
+
+    private void set(final int level, final FieldDescriptor field, final int index) {
+      if (level == fields.length) {
+        fields = Arrays.copyOf(fields, level << 1);
+        indexes = Arrays.copyOf(indexes, level << 1);
+      }
+
+      fields[level] = field;
+      indexes[level] = index;
+    }
+
+    /**
+     * Returns the path as in {@code star[0].planet[1].country}, with the extensions' full names in
+     * parentheses.
+     */
+    @Override
+    public String toString() {
+      final StringBuilder sb = new StringBuilder();
+
+      for (int i = 0; i < depth; i++) {
+        if (i > 0) {
+          sb.append('.');
+        }
+
+        final FieldDescriptor field = fields[i];
+
+        if (field.isExtension()) {
+          sb.append('(').append(field.getFullName()).append(')');
+        } else {
+          sb.append(field.getName());
+        }
+
+        if (indexes[i] != NO_INDEX) {
+          sb.append('[').append(indexes[i]).append(']');
+        }
+      }
+
+      return sb.toString();
+    }
+  }
+
+  /**
+   * Walks the elements of the repeated message field, from the from index, inclusive, to the to
+   * index, exclusive, splitting them into halves, while there are more than splitThreshold ones.
+   */
+  private static final class ChunkTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    // the path of the field's elements, but their index
+    private final Path path;
+    private final MessageOrBuilder message;
+    private final FieldDescriptor field;
+    private final int from;
+    private final int to;
+    private final int splitThreshold;
+    private final Visitor visitor;
+
+    private ChunkTask(final Path path, final MessageOrBuilder message, final FieldDescriptor field,
+        final int from, final int to, final int splitThreshold, final Visitor visitor) {
+      this.path = path;
+      this.message = message;
+      this.field = field;
+      this.from = from;
+      this.to = to;
+      this.splitThreshold = splitThreshold;
+      this.visitor = visitor;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from > splitThreshold) {
+        final int middle = (from + to) >>> 1;
+        invokeAll(new ChunkTask(path, message, field, from, middle, splitThreshold, visitor),
+            new ChunkTask(path.copy(), message, field, middle, to, splitThreshold, visitor));
+        return;
+      }
+
+      final int depth = path.depth;
+      final MessageWalker walker = new MessageWalker(splitThreshold, path);
+
+      for (int i = from; i < to; i++) {
+        path.set(depth - 1, field, i);
+        path.depth = depth;
+        walker.walk(getChild(message, field, i), depth, visitor);
+      }
+    }
+  }
+}
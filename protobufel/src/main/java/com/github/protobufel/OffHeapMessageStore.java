@@ -0,0 +1,319 @@
+//
+// Copyright © 2014, David Tesler (https://github.com/protobufel)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+// * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+// * Redistributions in binary form must reproduce the above copyright
+// notice, this list of conditions and the following disclaimer in the
+// documentation and/or other materials provided with the distribution.
+// * Neither the name of the <organization> nor the
+// names of its contributors may be used to endorse or promote products
+// derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+
+package com.github.protobufel;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+
+/**
+ * The append-only store of the encoded messages of one type in the direct {@link ByteBuffer}
+ * slabs, outside of the Java heap, indexed by their int ids. The heap holds only the slabs'
+ * wrappers and the index of a long offset and an int length per message, so millions of small
+ * messages cost little more than their encoding, and add nothing to the GC pauses.
+ * <p>
+ * The messages are read back as the lazily parsed {@link DynamicMessage}s, whose nested messages
+ * are decoded on their first access, or as the projected ones, with the selected fields only;
+ * either way, only the message's own bytes are copied into the heap. The removed messages' space
+ * is reclaimed by {@link #compact()}, which keeps the ids. The total slab capacity is limited, and
+ * the store is thread-safe.
+ *
+ * @author protobufel@gmail.com David Tesler
+ */
+public final class OffHeapMessageStore {
+  private static final int INITIAL_INDEX_CAPACITY = 16;
+  private static final int SLAB_SHIFT = 32;
+  private static final long POSITION_MASK = 0xFFFFFFFFL;
+  private static final int COPY_CHUNK_SIZE = 1 << 12;
+
+  private final Descriptor type;
+  private final int slabSize;
+  private final long maxCapacity;
+  private final List<ByteBuffer> slabs = new ArrayList<ByteBuffer>();
+  // the slab index in the high, and the position in the low int of each message's offset
+  private long[] offsets = new long[INITIAL_INDEX_CAPACITY];
+  // each message's length, or -1 if removed
+  private int[] lengths = new int[INITIAL_INDEX_CAPACITY];
+  private int idCount;
+  private int size;
+  private long usedBytes;
+  private long garbageBytes;
+
+  /**
+   * Creates the empty store of the messages of the given type, allocating its slabs of the
+   * slabSize bytes each, as needed, up to the maxCapacity bytes in total.
+   *
+   * @throws IllegalArgumentException if the slabSize is not positive, or exceeds the maxCapacity
+   */
+  public OffHeapMessageStore(final Descriptor type, final int slabSize, final long maxCapacity) {
+    if (slabSize <= 0 || slabSize > maxCapacity) {
+      throw new IllegalArgumentException("the slabSize must be positive, and within the "
+          + "maxCapacity");
+    }
+
+    this.type = type;
+    this.slabSize = slabSize;
+    this.maxCapacity = maxCapacity;
+  }
+
+  public Descriptor getDescriptor() {
+    return type;
+  }
+
+  /**
+   * Appends the message's encoding, and returns its id.
+   *
+   * @throws IllegalArgumentException if the message is not of the store's type, or is bigger than
+   *         the slab size
+   * @throws IllegalStateException if the store is full
+   */
+  public int add(final Message message) {
+    if (message.getDescriptorForType() != type) {
+      throw new IllegalArgumentException("the message is not of the type " + type.getFullName());
+    }
+
+    return add(message.toByteString());
+  }
+
+  /**
+   * Appends the message encoding, as is, and returns its id.
+   *
+   * @throws IllegalArgumentException if the encoding is bigger than the slab size
+   * @throws IllegalStateException if the store is full
+   */
+  public synchronized int add(final ByteString encoding) {
+    final int length = encoding.size();
+
+    if (length > slabSize) {
+      throw new IllegalArgumentException("the message of " + length
+          + " bytes is bigger than the slab size " + slabSize);
+    }
+
+    final ByteBuffer slab = getSlabFor(length);
+
+    if (idCount == offsets.length) {
+      offsets = Arrays.copyOf(offsets, idCount * 2);
+      lengths = Arrays.copyOf(lengths, idCount * 2);
+    }
+
+    offsets[idCount] = (long) (slabs.size() - 1) << SLAB_SHIFT | slab.position();
+    lengths[idCount] = length;
+    encoding.copyTo(slab);
+    usedBytes += length;
+    size++;
+    return idCount++;
+  }
+
+  /**
+   * Returns the last slab, if the length fits into it, otherwise the new one.
+   */
+  private ByteBuffer getSlabFor(final int length) {
+    if (!slabs.isEmpty()) {
+      final ByteBuffer slab = slabs.get(slabs.size() - 1);
+
+      if (slab.remaining() >= length) {
+        return slab;
+      }
+    }
+
+    if ((long) (slabs.size() + 1) * slabSize > maxCapacity) {
+      throw new IllegalStateException("the store is full at " + getCapacity() + " bytes");
+    }
+
+    final ByteBuffer slab = ByteBuffer.allocateDirect(slabSize);
+    slabs.add(slab);
+    return slab;
+  }
+
+  /**
+   * Returns whether the id is of a message present in the store.
+   */
+  public synchronized boolean contains(final int id) {
+    return id >= 0 && id < idCount && lengths[id] >= 0;
+  }
+
+  /**
+   * Returns the message's encoding copied into the heap, or null if the message was removed.
+   *
+   * @throws IndexOutOfBoundsException if the id was never returned by the store
+   */
+  public synchronized ByteString getBytes(final int id) {
+    checkId(id);
+    final int length = lengths[id];
+
+    if (length < 0) {
+      return null;
+    }
+
+    final long offset = offsets[id];
+    final ByteBuffer data = slabs.get((int) (offset >>> SLAB_SHIFT)).duplicate();
+    data.limit((int) (offset & POSITION_MASK) + length).position((int) (offset & POSITION_MASK));
+    return ByteString.copyFrom(data);
+  }
+
+  /**
+   * Returns the lazily parsed message, see {@link DynamicMessage#parseLazyFrom(Descriptor,
+   * ByteString)}, or null if the message was removed.
+   *
+   * @throws IndexOutOfBoundsException if the id was never returned by the store
+   */
+  public DynamicMessage get(final int id) throws InvalidProtocolBufferException {
+    final ByteString data = getBytes(id);
+    return data == null ? null : DynamicMessage.parseLazyFrom(type, data);
+  }
+
+  /**
+   * Returns the message parsed with the fields selected by the projection only, or null if the
+   * message was removed.
+   *
+   * @throws IndexOutOfBoundsException if the id was never returned by the store
+   * @see DynamicMessage#parseFrom(Descriptor, ByteString, FieldProjection)
+   */
+  public DynamicMessage get(final int id, final FieldProjection projection)
+      throws InvalidProtocolBufferException {
+    final ByteString data = getBytes(id);
+    return data == null ? null : DynamicMessage.parseFrom(type, data, projection);
+  }
+
+  /**
+   * Removes the message, leaving its space as garbage until the next {@link #compact()}. Returns
+   * whether the message was present.
+   *
+   * @throws IndexOutOfBoundsException if the id was never returned by the store
+   */
+  public synchronized boolean remove(final int id) {
+    checkId(id);
+    final int length = lengths[id];
+
+    if (length < 0) {
+      return false;
+    }
+
+    lengths[id] = -1;
+    usedBytes -= length;
+    garbageBytes += length;
+    size--;
+    return true;
+  }
+
+  /**
+   * Slides the present messages down within the slabs, keeping their ids, and releases the
+   * emptied trailing slabs to be freed by the GC, reclaiming the removed messages' space. No new
+   * slabs are allocated, so the store never exceeds its maximal capacity.
+   */
+  public synchronized void compact() {
+    if (garbageBytes == 0) {
+      return;
+    }
+
+    final byte[] chunk = new byte[Math.min(slabSize, COPY_CHUNK_SIZE)];
+    int slabIndex = 0;
+    ByteBuffer target = slabs.get(0);
+    target.clear();
+
+    // the ids are in the slab order, and each message is packed no further than it was, so the
+    // target never overtakes the source
+    for (int id = 0; id < idCount; id++) {
+      final int length = lengths[id];
+
+      if (length < 0) {
+        continue;
+      }
+
+      if (target.remaining() < length) {
+        target = slabs.get(++slabIndex);
+        target.clear();
+      }
+
+      final long offset = offsets[id];
+      final ByteBuffer source = slabs.get((int) (offset >>> SLAB_SHIFT)).duplicate();
+      source.position((int) (offset & POSITION_MASK));
+      offsets[id] = (long) slabIndex << SLAB_SHIFT | target.position();
+
+      // copy forward by chunks, as the regions of the same slab can overlap
+      for (int remaining = length; remaining > 0;) {
+        final int count = Math.min(chunk.length, remaining);
+        source.get(chunk, 0, count);
+        target.put(chunk, 0, count);
+        remaining -= count;
+      }
+    }
+
+    if (size == 0) {
+      slabs.clear();
+    } else {
+      slabs.subList(slabIndex + 1, slabs.size()).clear();
+    }
+
+    garbageBytes = 0;
+  }
+
+  /**
+   * Returns the number of the present messages.
+   */
+  public synchronized int size() {
+    return size;
+  }
+
+  /**
+   * Returns the total encoding size of the present messages.
+   */
+  public synchronized long getUsedBytes() {
+    return usedBytes;
+  }
+
+  /**
+   * Returns the total encoding size of the removed messages, reclaimable by {@link #compact()}.
+   */
+  public synchronized long getGarbageBytes() {
+    return garbageBytes;
+  }
+
+  /**
+   * Returns the total size of the allocated slabs.
+   */
+  public synchronized long getCapacity() {
+    return (long) slabs.size() * slabSize;
+  }
+
+  public long getMaxCapacity() {
+    return maxCapacity;
+  }
+
+  private void checkId(final int id) {
+    if (id < 0 || id >= idCount) {
+      throw new IndexOutOfBoundsException("id " + id + " of " + idCount);
+    }
+  }
+}
@@ -0,0 +1,850 @@
+//
+// Copyright © 2014, David Tesler (https://github.com/protobufel)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+// * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+// * Redistributions in binary form must reproduce the above copyright
+// notice, this list of conditions and the following disclaimer in the
+// documentation and/or other materials provided with the distribution.
+// * Neither the name of the <organization> nor the
+// names of its contributors may be used to endorse or promote products
+// derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+
+
+package com.github.protobufel;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.RandomAccess;
+
+import com.google.protobuf.Descriptors.FieldDescriptor;
+
+/**
+ * The growable primitive array backed lists for the repeated scalar fields, keeping their values
+ * unboxed. The boxed {@code List} methods are supported for the reflection API's sake; the
+ * primitive accessors, e.g. {@link IntList#getInt(int)}, are to be used on the hot paths.
+ *
+ * @author protobufel@gmail.com David Tesler
+ */
+final class PrimitiveLists {
+  private static final int DEFAULT_CAPACITY = 10;
+
+  private PrimitiveLists() {}
+
+  /**
+   * Returns a new empty mutable list suited for the repeated field's values.
+   */
+  @SuppressWarnings("unchecked")
+  static List<Object> newList(final FieldDescriptor field) {
+    switch (field.getJavaType()) {
+      case INT:
+        return (List<Object>) (List<?>) new IntList();
+      case LONG:
+        return (List<Object>) (List<?>) new LongList();
+      case FLOAT:
+        return (List<Object>) (List<?>) new FloatList();
+      case DOUBLE:
+        return (List<Object>) (List<?>) new DoubleList();
+      case BOOLEAN:
+        return (List<Object>) (List<?>) new BooleanList();
+      default:
+        return new ArrayList<Object>();
+    }
+  }
+
+  /**
+   * Returns a new mutable copy of the list suited for the repeated field's values.
+   */
+  @SuppressWarnings("unchecked")
+  static List<Object> mutableCopyOf(final FieldDescriptor field, final List<?> list) {
+    if (isListFor(field, list)) {
+      return (List<Object>) (List<?>) ((PrimitiveList<?>) list).mutableCopy();
+    }
+
+    final List<Object> result = newList(field);
+    result.addAll(list);
+    return result;
+  }
+
+  /**
+   * Gets whether the list is the primitive list suited for the repeated field's values.
+   */
+  static boolean isListFor(final FieldDescriptor field, final Object list) {
+    switch (field.getJavaType()) {
+      case INT:
+        return list instanceof IntList;
+      case LONG:
+        return list instanceof LongList;
+      case FLOAT:
+        return list instanceof FloatList;
+      case DOUBLE:
+        return list instanceof DoubleList;
+      case BOOLEAN:
+        return list instanceof BooleanList;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Gets the element of the repeated int field's list, or of an empty list if null.
+   */
+  static int getInt(final Object list, final int index) {
+    if (list instanceof IntList) {
+      return ((IntList) list).getInt(index);
+    } else if (list == null) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: 0");
+    } else {
+      return (Integer) ((List<?>) list).get(index);
+    }
+  }
+
+  /**
+   * Gets the element of the repeated long field's list, or of an empty list if null.
+   */
+  static long getLong(final Object list, final int index) {
+    if (list instanceof LongList) {
+      return ((LongList) list).getLong(index);
+    } else if (list == null) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: 0");
+    } else {
+      return (Long) ((List<?>) list).get(index);
+    }
+  }
+
+  /**
+   * Gets the element of the repeated float field's list, or of an empty list if null.
+   */
+  static float getFloat(final Object list, final int index) {
+    if (list instanceof FloatList) {
+      return ((FloatList) list).getFloat(index);
+    } else if (list == null) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: 0");
+    } else {
+      return (Float) ((List<?>) list).get(index);
+    }
+  }
+
+  /**
+   * Gets the element of the repeated double field's list, or of an empty list if null.
+   */
+  static double getDouble(final Object list, final int index) {
+    if (list instanceof DoubleList) {
+      return ((DoubleList) list).getDouble(index);
+    } else if (list == null) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: 0");
+    } else {
+      return (Double) ((List<?>) list).get(index);
+    }
+  }
+
+  /**
+   * Gets the element of the repeated boolean field's list, or of an empty list if null.
+   */
+  static boolean getBoolean(final Object list, final int index) {
+    if (list instanceof BooleanList) {
+      return ((BooleanList) list).getBoolean(index);
+    } else if (list == null) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: 0");
+    } else {
+      return (Boolean) ((List<?>) list).get(index);
+    }
+  }
+
+  /**
+   * A primitive array backed list, which can be made immutable.
+   */
+  abstract static class PrimitiveList<E> extends AbstractList<E> implements RandomAccess {
+    protected int size;
+    private boolean isMutable = true;
+
+    @Override
+    public final int size() {
+      return size;
+    }
+
+    final boolean isMutable() {
+      return isMutable;
+    }
+
+    /**
+     * Makes this list immutable; any subsequent modification throws
+     * UnsupportedOperationException.
+     */
+    final void makeImmutable() {
+      isMutable = false;
+    }
+
+    /**
+     * Returns a new mutable copy of this list.
+     */
+    abstract PrimitiveList<E> mutableCopy();
+
+    @Override
+    public final void clear() {
+      ensureIsMutable();
+      size = 0;
+      modCount++;
+    }
+
+    protected final void ensureIsMutable() {
+      if (!isMutable) {
+        throw new UnsupportedOperationException();
+      }
+    }
+
+    protected final void checkIndex(final int index) {
+      if (index < 0 || index >= size) {
+        throw new IndexOutOfBoundsException(outOfBoundsMessage(index));
+      }
+    }
+
+    protected final void checkIndexForAdd(final int index) {
+      if (index < 0 || index > size) {
+        throw new IndexOutOfBoundsException(outOfBoundsMessage(index));
+      }
+    }
+
+    protected final int newCapacity(final int capacity, final int minCapacity) {
+      final int newCapacity = Math.max(DEFAULT_CAPACITY, capacity + (capacity >> 1));
+      return newCapacity < minCapacity ? minCapacity : newCapacity;
+    }
+
+    private String outOfBoundsMessage(final int index) {
+      return "Index: " + index + ", Size: " + size;
+    }
+  }
+
+  /**
+   * A {@code int} list.
+   */
+  static final class IntList extends PrimitiveList<Integer> {
+    private static final int[] EMPTY_INTS = new int[0];
+
+    private int[] array;
+
+    IntList() {
+      array = EMPTY_INTS;
+    }
+
+    private IntList(final int[] array, final int size) {
+      this.array = array;
+      this.size = size;
+    }
+
+    public int getInt(final int index) {
+      checkIndex(index);
+      return array[index];
+    }
+
+    public int setInt(final int index, final int element) {
+      ensureIsMutable();
+      checkIndex(index);
+      final int previous = array[index];
+      array[index] = element;
+      return previous;
+    }
+
+    public void addInt(final int element) {
+      ensureIsMutable();
+
+      if (size == array.length) {
+        array = Arrays.copyOf(array, newCapacity(array.length, size + 1));
+      }
+
+      array[size++] = element;
+      modCount++;
+    }
+
+    public void addInt(final int index, final int element) {
+      ensureIsMutable();
+      checkIndexForAdd(index);
+
+      if (size == array.length) {
+        array = Arrays.copyOf(array, newCapacity(array.length, size + 1));
+      }
+
+      System.arraycopy(array, index, array, index + 1, size - index);
+      array[index] = element;
+      size++;
+      modCount++;
+    }
+
+    /**
+     * Returns a copy of the values as an array.
+     */
+    public int[] toIntArray() {
+      return Arrays.copyOf(array, size);
+    }
+
+    @Override
+    IntList mutableCopy() {
+      return new IntList(Arrays.copyOf(array, size), size);
+    }
+
+    @Override
+    public Integer get(final int index) {
+      return getInt(index);
+    }
+
+    @Override
+    public Integer set(final int index, final Integer element) {
+      return setInt(index, element);
+    }
+
+    @Override
+    public boolean add(final Integer element) {
+      addInt(element);
+      return true;
+    }
+
+    @Override
+    public void add(final int index, final Integer element) {
+      addInt(index, element);
+    }
+
+    @Override
+    public Integer remove(final int index) {
+      ensureIsMutable();
+      checkIndex(index);
+      final int previous = array[index];
+      System.arraycopy(array, index + 1, array, index, size - index - 1);
+      size--;
+      modCount++;
+      return previous;
+    }
+
+    @Override
+    public boolean addAll(final Collection<? extends Integer> values) {
+      if (!(values instanceof IntList)) {
+        return super.addAll(values);
+      }
+
+      ensureIsMutable();
+      final IntList other = (IntList) values;
+
+      if (other.size == 0) {
+        return false;
+      }
+
+      if (size + other.size > array.length) {
+        array = Arrays.copyOf(array, newCapacity(array.length, size + other.size));
+      }
+
+      System.arraycopy(other.array, 0, array, size, other.size);
+      size += other.size;
+      modCount++;
+      return true;
+    }
+  }
+
+  /**
+   * A {@code long} list.
+   */
+  static final class LongList extends PrimitiveList<Long> {
+    private static final long[] EMPTY_LONGS = new long[0];
+
+    private long[] array;
+
+    LongList() {
+      array = EMPTY_LONGS;
+    }
+
+    private LongList(final long[] array, final int size) {
+      this.array = array;
+      this.size = size;
+    }
+
+    public long getLong(final int index) {
+      checkIndex(index);
+      return array[index];
+    }
+
+    public long setLong(final int index, final long element) {
+      ensureIsMutable();
+      checkIndex(index);
+      final long previous = array[index];
+      array[index] = element;
+      return previous;
+    }
+
+    public void addLong(final long element) {
+      ensureIsMutable();
+
+      if (size == array.length) {
+        array = Arrays.copyOf(array, newCapacity(array.length, size + 1));
+      }
+
+      array[size++] = element;
+      modCount++;
+    }
+
+    public void addLong(final int index, final long element) {
+      ensureIsMutable();
+      checkIndexForAdd(index);
+
+      if (size == array.length) {
+        array = Arrays.copyOf(array, newCapacity(array.length, size + 1));
+      }
+
+      System.arraycopy(array, index, array, index + 1, size - index);
+      array[index] = element;
+      size++;
+      modCount++;
+    }
+
+    /**
+     * Returns a copy of the values as an array.
+     */
+    public long[] toLongArray() {
+      return Arrays.copyOf(array, size);
+    }
+
+    @Override
+    LongList mutableCopy() {
+      return new LongList(Arrays.copyOf(array, size), size);
+    }
+
+    @Override
+    public Long get(final int index) {
+      return getLong(index);
+    }
+
+    @Override
+    public Long set(final int index, final Long element) {
+      return setLong(index, element);
+    }
+
+    @Override
+    public boolean add(final Long element) {
+      addLong(element);
+      return true;
+    }
+
+    @Override
+    public void add(final int index, final Long element) {
+      addLong(index, element);
+    }
+
+    @Override
+    public Long remove(final int index) {
+      ensureIsMutable();
+      checkIndex(index);
+      final long previous = array[index];
+      System.arraycopy(array, index + 1, array, index, size - index - 1);
+      size--;
+      modCount++;
+      return previous;
+    }
+
+    @Override
+    public boolean addAll(final Collection<? extends Long> values) {
+      if (!(values instanceof LongList)) {
+        return super.addAll(values);
+      }
+
+      ensureIsMutable();
+      final LongList other = (LongList) values;
+
+      if (other.size == 0) {
+        return false;
+      }
+
+      if (size + other.size > array.length) {
+        array = Arrays.copyOf(array, newCapacity(array.length, size + other.size));
+      }
+
+      System.arraycopy(other.array, 0, array, size, other.size);
+      size += other.size;
+      modCount++;
+      return true;
+    }
+  }
+
+  /**
+   * A {@code float} list.
+   */
+  static final class FloatList extends PrimitiveList<Float> {
+    private static final float[] EMPTY_FLOATS = new float[0];
+
+    private float[] array;
+
+    FloatList() {
+      array = EMPTY_FLOATS;
+    }
+
+    private FloatList(final float[] array, final int size) {
+      this.array = array;
+      this.size = size;
+    }
+
+    public float getFloat(final int index) {
+      checkIndex(index);
+      return array[index];
+    }
+
+    public float setFloat(final int index, final float element) {
+      ensureIsMutable();
+      checkIndex(index);
+      final float previous = array[index];
+      array[index] = element;
+      return previous;
+    }
+
+    public void addFloat(final float element) {
+      ensureIsMutable();
+
+      if (size == array.length) {
+        array = Arrays.copyOf(array, newCapacity(array.length, size + 1));
+      }
+
+      array[size++] = element;
+      modCount++;
+    }
+
+    public void addFloat(final int index, final float element) {
+      ensureIsMutable();
+      checkIndexForAdd(index);
+
+      if (size == array.length) {
+        array = Arrays.copyOf(array, newCapacity(array.length, size + 1));
+      }
+
+      System.arraycopy(array, index, array, index + 1, size - index);
+      array[index] = element;
+      size++;
+      modCount++;
+    }
+
+    /**
+     * Returns a copy of the values as an array.
+     */
+    public float[] toFloatArray() {
+      return Arrays.copyOf(array, size);
+    }
+
+    @Override
+    FloatList mutableCopy() {
+      return new FloatList(Arrays.copyOf(array, size), size);
+    }
+
+    @Override
+    public Float get(final int index) {
+      return getFloat(index);
+    }
+
+    @Override
+    public Float set(final int index, final Float element) {
+      return setFloat(index, element);
+    }
+
+    @Override
+    public boolean add(final Float element) {
+      addFloat(element);
+      return true;
+    }
+
+    @Override
+    public void add(final int index, final Float element) {
+      addFloat(index, element);
+    }
+
+    @Override
+    public Float remove(final int index) {
+      ensureIsMutable();
+      checkIndex(index);
+      final float previous = array[index];
+      System.arraycopy(array, index + 1, array, index, size - index - 1);
+      size--;
+      modCount++;
+      return previous;
+    }
+
+    @Override
+    public boolean addAll(final Collection<? extends Float> values) {
+      if (!(values instanceof FloatList)) {
+        return super.addAll(values);
+      }
+
+      ensureIsMutable();
+      final FloatList other = (FloatList) values;
+
+      if (other.size == 0) {
+        return false;
+      }
+
+      if (size + other.size > array.length) {
+        array = Arrays.copyOf(array, newCapacity(array.length, size + other.size));
+      }
+
+      System.arraycopy(other.array, 0, array, size, other.size);
+      size += other.size;
+      modCount++;
+      return true;
+    }
+  }
+
+  /**
+   * A {@code double} list.
+   */
+  static final class DoubleList extends PrimitiveList<Double> {
+    private static final double[] EMPTY_DOUBLES = new double[0];
+
+    private double[] array;
+
+    DoubleList() {
+      array = EMPTY_DOUBLES;
+    }
+
+    private DoubleList(final double[] array, final int size) {
+      this.array = array;
+      this.size = size;
+    }
+
+    public double getDouble(final int index) {
+      checkIndex(index);
+      return array[index];
+    }
+
+    public double setDouble(final int index, final double element) {
+      ensureIsMutable();
+      checkIndex(index);
+      final double previous = array[index];
+      array[index] = element;
+      return previous;
+    }
+
+    public void addDouble(final double element) {
+      ensureIsMutable();
+
+      if (size == array.length) {
+        array = Arrays.copyOf(array, newCapacity(array.length, size + 1));
+      }
+
+      array[size++] = element;
+      modCount++;
+    }
+
+    public void addDouble(final int index, final double element) {
+      ensureIsMutable();
+      checkIndexForAdd(index);
+
+      if (size == array.length) {
+        array = Arrays.copyOf(array, newCapacity(array.length, size + 1));
+      }
+
+      System.arraycopy(array, index, array, index + 1, size - index);
+      array[index] = element;
+      size++;
+      modCount++;
+    }
+
+    /**
+     * Returns a copy of the values as an array.
+     */
+    public double[] toDoubleArray() {
+      return Arrays.copyOf(array, size);
+    }
+
+    @Override
+    DoubleList mutableCopy() {
+      return new DoubleList(Arrays.copyOf(array, size), size);
+    }
+
+    @Override
+    public Double get(final int index) {
+      return getDouble(index);
+    }
+
+    @Override
+    public Double set(final int index, final Double element) {
+      return setDouble(index, element);
+    }
+
+    @Override
+    public boolean add(final Double element) {
+      addDouble(element);
+      return true;
+    }
+
+    @Override
+    public void add(final int index, final Double element) {
+      addDouble(index, element);
+    }
+
+    @Override
+    public Double remove(final int index) {
+      ensureIsMutable();
+      checkIndex(index);
+      final double previous = array[index];
+      System.arraycopy(array, index + 1, array, index, size - index - 1);
+      size--;
+      modCount++;
+      return previous;
+    }
+
+    @Override
+    public boolean addAll(final Collection<? extends Double> values) {
+      if (!(values instanceof DoubleList)) {
+        return super.addAll(values);
+      }
+
+      ensureIsMutable();
+      final DoubleList other = (DoubleList) values;
+
+      if (other.size == 0) {
+        return false;
+      }
+
+      if (size + other.size > array.length) {
+        array = Arrays.copyOf(array, newCapacity(array.length, size + other.size));
+      }
+
+      System.arraycopy(other.array, 0, array, size, other.size);
+      size += other.size;
+      modCount++;
+      return true;
+    }
+  }
+
+  /**
+   * A {@code boolean} list.
+   */
+  static final class BooleanList extends PrimitiveList<Boolean> {
+    private static final boolean[] EMPTY_BOOLEANS = new boolean[0];
+
+    private boolean[] array;
+
+    BooleanList() {
+      array = EMPTY_BOOLEANS;
+    }
+
+    private BooleanList(final boolean[] array, final int size) {
+      this.array = array;
+      this.size = size;
+    }
+
+    public boolean getBoolean(final int index) {
+      checkIndex(index);
+      return array[index];
+    }
+
+    public boolean setBoolean(final int index, final boolean element) {
+      ensureIsMutable();
+      checkIndex(index);
+      final boolean previous = array[index];
+      array[index] = element;
+      return previous;
+    }
+
+    public void addBoolean(final boolean element) {
+      ensureIsMutable();
+
+      if (size == array.length) {
+        array = Arrays.copyOf(array, newCapacity(array.length, size + 1));
+      }
+
+      array[size++] = element;
+      modCount++;
+    }
+
+    public void addBoolean(final int index, final boolean element) {
+      ensureIsMutable();
+      checkIndexForAdd(index);
+
+      if (size == array.length) {
+        array = Arrays.copyOf(array, newCapacity(array.length, size + 1));
+      }
+
+      System.arraycopy(array, index, array, index + 1, size - index);
+      array[index] = element;
+      size++;
+      modCount++;
+    }
+
+    /**
+     * Returns a copy of the values as an array.
+     */
+    public boolean[] toBooleanArray() {
+      return Arrays.copyOf(array, size);
+    }
+
+    @Override
+    BooleanList mutableCopy() {
+      return new BooleanList(Arrays.copyOf(array, size), size);
+    }
+
+    @Override
+    public Boolean get(final int index) {
+      return getBoolean(index);
+    }
+
+    @Override
+    public Boolean set(final int index, final Boolean element) {
+      return setBoolean(index, element);
+    }
+
+    @Override
+    public boolean add(final Boolean element) {
+      addBoolean(element);
+      return true;
+    }
+
+    @Override
+    public void add(final int index, final Boolean element) {
+      addBoolean(index, element);
+    }
+
+    @Override
+    public Boolean remove(final int index) {
+      ensureIsMutable();
+      checkIndex(index);
+      final boolean previous = array[index];
+      System.arraycopy(array, index + 1, array, index, size - index - 1);
+      size--;
+      modCount++;
+      return previous;
+    }
+
+    @Override
+    public boolean addAll(final Collection<? extends Boolean> values) {
+      if (!(values instanceof BooleanList)) {
+        return super.addAll(values);
+      }
+
+      ensureIsMutable();
+      final BooleanList other = (BooleanList) values;
+
+      if (other.size == 0) {
+        return false;
+      }
+
+      if (size + other.size > array.length) {
+        array = Arrays.copyOf(array, newCapacity(array.length, size + other.size));
+      }
+
+      System.arraycopy(other.array, 0, array, size, other.size);
+      size += other.size;
+      modCount++;
+      return true;
+    }
+  }
+}
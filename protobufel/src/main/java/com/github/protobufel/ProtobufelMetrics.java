@@ -0,0 +1,102 @@
+//
+// Copyright © 2014, David Tesler (https://github.com/protobufel)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+// * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+// * Redistributions in binary form must reproduce the above copyright
+// notice, this list of conditions and the following disclaimer in the
+// documentation and/or other materials provided with the distribution.
+// * Neither the name of the <organization> nor the
+// names of its contributors may be used to endorse or promote products
+// derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+
+package com.github.protobufel;
+
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+
+/**
+ * The listener of the {@link DynamicMessage} and its builders' hot path events, installed
+ * globally by {@link #install(ProtobufelMetrics)}; all its methods do nothing by default, so the
+ * implementations override the ones of interest only, such as {@link InMemoryMetrics}.
+ * <p>
+ * None is installed by default, and then each hot path pays only the read of a volatile field,
+ * and its null check. The parse and serialization events are reported by the top level
+ * {@code DynamicMessage.parseFrom}, {@code parseLazyFrom}, {@code toByteString} and
+ * {@code toByteArray} calls only, so the nested messages are not counted twice. The methods are
+ * called by the threads doing the work, so must be thread-safe, and fast.
+ *
+ * @author protobufel@gmail.com David Tesler
+ */
+public abstract class ProtobufelMetrics {
+  private static volatile ProtobufelMetrics installed;
+
+  protected ProtobufelMetrics() {
+  }
+
+  /**
+   * Installs the metrics listener, replacing the current one, if any; null uninstalls it.
+   */
+  public static void install(final ProtobufelMetrics metrics) {
+    installed = metrics;
+  }
+
+  /**
+   * Returns the installed metrics listener, or null if there is none.
+   */
+  public static ProtobufelMetrics getInstalled() {
+    return installed;
+  }
+
+  /**
+   * Called on the creation of a {@link DynamicMessage.Builder}.
+   */
+  public void onBuilderCreated(final Descriptor type) {
+  }
+
+  /**
+   * Called on the creation of a field builder, the single or the repeated one, of the message
+   * field.
+   */
+  public void onFieldBuilderCreated(final FieldDescriptor field) {
+  }
+
+  /**
+   * Called when a change of the builder of the type invalidates its parent.
+   */
+  public void onChangePropagated(final Descriptor type) {
+  }
+
+  /**
+   * Called on {@link DynamicMessage.Builder#buildPartial()}, and so on {@code build()} as well.
+   */
+  public void onBuildPartial(final Descriptor type) {
+  }
+
+  /**
+   * Called on the serialization of the message of the type into the bytes.
+   */
+  public void onSerialized(final Descriptor type, final int bytes) {
+  }
+
+  /**
+   * Called on the successful parsing of the message of the type from the bytes, in the nanos.
+   */
+  public void onParsed(final Descriptor type, final int bytes, final long nanos) {
+  }
+}
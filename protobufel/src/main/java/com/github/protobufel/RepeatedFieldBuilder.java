@@ -33,8 +33,10 @@ package com.github.protobufel;
 
 import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 
 import com.github.protobufel.ProtoInterfaces.BuilderParent;
@@ -139,6 +141,20 @@ public abstract class RepeatedFieldBuilder<MType extends Message, BType extends
   protected abstract SingleFieldBuilder<MType, BType, IType> newSingleFieldBuilder(MType message,
       BuilderParent parent, boolean isClean);
 
+  /**
+   * The filter of the elements, messages or builders, see {@link #removeIf(MessageFilter)}.
+   */
+  public interface MessageFilter<IType> {
+    boolean accept(IType messageOrBuilder);
+  }
+
+  /**
+   * The function replacing the messages, see {@link #replaceAll(MessageFunction)}.
+   */
+  public interface MessageFunction<MType> {
+    MType apply(MType message);
+  }
+
   @Override
   public BuilderParent getParent() {
     return parent;
@@ -297,6 +313,7 @@ public abstract class RepeatedFieldBuilder<MType extends Message, BType extends
         entry.dispose();
       }
     }
+    onElementSet(index);
     onChanged();
     incrementModCounts();
     return this;
@@ -317,6 +334,7 @@ public abstract class RepeatedFieldBuilder<MType extends Message, BType extends
     if (builders != null) {
       builders.add(null);
     }
+    onElementsAdded(messages.size() - 1, messages.size());
     onChanged();
     incrementModCounts();
     return this;
@@ -340,6 +358,7 @@ public abstract class RepeatedFieldBuilder<MType extends Message, BType extends
     if (builders != null) {
       builders.add(index, null);
     }
+    onElementsAdded(index, index + 1);
     onChanged();
     incrementModCounts();
     return this;
@@ -354,6 +373,7 @@ public abstract class RepeatedFieldBuilder<MType extends Message, BType extends
    */
   public RepeatedFieldBuilder<MType, BType, IType> addAllMessages(
       final Iterable<? extends MType> values) {
+    final int oldSize;
     for (final MType value : values) {
       if (value == null) {
         throw new NullPointerException();
@@ -366,15 +386,24 @@ public abstract class RepeatedFieldBuilder<MType extends Message, BType extends
         return this;
       }
       ensureMutableMessageList();
+      oldSize = messages.size();
       for (final MType value : values) {
-        addMessage(value);
+        messages.add(value);
+        if (builders != null) {
+          builders.add(null);
+        }
       }
     } else {
       ensureMutableMessageList();
+      oldSize = messages.size();
       for (final MType value : values) {
-        addMessage(value);
+        messages.add(value);
+        if (builders != null) {
+          builders.add(null);
+        }
       }
     }
+    onElementsAdded(oldSize, messages.size());
     onChanged();
     incrementModCounts();
     return this;
@@ -393,6 +422,7 @@ public abstract class RepeatedFieldBuilder<MType extends Message, BType extends
         newSingleFieldBuilder(message, this, isClean);
     messages.add(null);
     builders.add(builder);
+    onElementsAdded(messages.size() - 1, messages.size());
     onChanged();
     incrementModCounts();
     return builder.getBuilder();
@@ -413,6 +443,7 @@ public abstract class RepeatedFieldBuilder<MType extends Message, BType extends
         newSingleFieldBuilder(message, this, isClean);
     messages.add(index, null);
     builders.add(index, builder);
+    onElementsAdded(index, index + 1);
     onChanged();
     incrementModCounts();
     return builder.getBuilder();
@@ -434,6 +465,7 @@ public abstract class RepeatedFieldBuilder<MType extends Message, BType extends
         entry.dispose();
       }
     }
+    onElementsRemoved(index, index + 1);
     onChanged();
     incrementModCounts();
   }
@@ -443,6 +475,7 @@ public abstract class RepeatedFieldBuilder<MType extends Message, BType extends
    */
   @Override
   public void clear() {
+    final int oldSize = messages.size();
     messages = Collections.emptyList();
     isMessagesListMutable = false;
     if (builders != null) {
@@ -453,10 +486,237 @@ public abstract class RepeatedFieldBuilder<MType extends Message, BType extends
       }
       builders = null;
     }
+    onElementsRemoved(0, oldSize);
     onChanged();
     incrementModCounts();
   }
 
+  /**
+   * Appends the new builders, one per message, to the end of this list, and returns them.
+   *
+   * @param values the messages to add which are the basis of the builders
+   * @return the new builders
+   */
+  public List<BType> addAllBuilders(final Iterable<? extends MType> values) {
+    for (final MType value : values) {
+      if (value == null) {
+        throw new NullPointerException();
+      }
+    }
+    final List<BType> result = new ArrayList<BType>();
+    ensureMutableMessageList();
+    ensureBuilders();
+    final int oldSize = messages.size();
+    for (final MType value : values) {
+      final SingleFieldBuilder<MType, BType, IType> builder =
+          newSingleFieldBuilder(value, this, isClean);
+      messages.add(null);
+      builders.add(builder);
+      result.add(builder.getBuilder());
+    }
+    if (!result.isEmpty()) {
+      onElementsAdded(oldSize, messages.size());
+      onChanged();
+      incrementModCounts();
+    }
+    return result;
+  }
+
+  /**
+   * Removes all of the elements, messages or builders, accepted by the filter, in a single pass.
+   * The filter is called once per element, in the list order.
+   *
+   * @param filter the filter of the elements to remove
+   * @return whether any element was removed
+   */
+  public boolean removeIf(final MessageFilter<? super IType> filter) {
+    final int size = messages.size();
+    int first = 0;
+    while (first < size && !filter.accept(getMessageOrBuilder(first))) {
+      first++;
+    }
+    if (first == size) {
+      return false;
+    }
+    ensureMutableMessageList();
+    disposeBuilder(first);
+    // the old indexes of the retained elements
+    final int[] order = new int[size - 1];
+    for (int i = 0; i < first; i++) {
+      order[i] = i;
+    }
+    int newSize = first;
+    for (int i = first + 1; i < size; i++) {
+      if (filter.accept(getMessageOrBuilder(i))) {
+        disposeBuilder(i);
+      } else {
+        messages.set(newSize, messages.get(i));
+        if (builders != null) {
+          builders.set(newSize, builders.get(i));
+        }
+        order[newSize++] = i;
+      }
+    }
+    messages.subList(newSize, size).clear();
+    if (builders != null) {
+      builders.subList(newSize, size).clear();
+    }
+    onElementsReordered(Arrays.copyOf(order, newSize));
+    onChanged();
+    incrementModCounts();
+    return true;
+  }
+
+  /**
+   * Removes the elements from the fromIndex, inclusive, to the toIndex, exclusive.
+   *
+   * @param fromIndex the index of the first element to remove
+   * @param toIndex the index after the last element to remove
+   */
+  public void removeRange(final int fromIndex, final int toIndex) {
+    checkRange(fromIndex, toIndex);
+    if (fromIndex == toIndex) {
+      return;
+    }
+    ensureMutableMessageList();
+    for (int i = fromIndex; i < toIndex; i++) {
+      disposeBuilder(i);
+    }
+    messages.subList(fromIndex, toIndex).clear();
+    if (builders != null) {
+      builders.subList(fromIndex, toIndex).clear();
+    }
+    onElementsRemoved(fromIndex, toIndex);
+    onChanged();
+    incrementModCounts();
+  }
+
+  /**
+   * Retains only the elements from the fromIndex, inclusive, to the toIndex, exclusive, removing
+   * all others; the ones before the range included, so that the range starts at 0.
+   *
+   * @param fromIndex the index of the first element to retain
+   * @param toIndex the index after the last element to retain
+   */
+  public void retainRange(final int fromIndex, final int toIndex) {
+    checkRange(fromIndex, toIndex);
+    final int size = messages.size();
+    if (fromIndex == 0 && toIndex == size) {
+      return;
+    }
+    for (int i = 0; i < fromIndex; i++) {
+      disposeBuilder(i);
+    }
+    for (int i = toIndex; i < size; i++) {
+      disposeBuilder(i);
+    }
+    messages = new ArrayList<MType>(messages.subList(fromIndex, toIndex));
+    isMessagesListMutable = true;
+    if (builders != null) {
+      builders =
+          new ArrayList<SingleFieldBuilder<MType, BType, IType>>(builders.subList(fromIndex,
+              toIndex));
+    }
+    onElementsRemoved(toIndex, size);
+    onElementsRemoved(0, fromIndex);
+    onChanged();
+    incrementModCounts();
+  }
+
+  /**
+   * Sorts the elements, messages or builders, as is, by the comparator. The sort is stable, and
+   * leaves the list unchanged, without any invalidation, if it is sorted already.
+   *
+   * @param comparator the comparator of the elements
+   */
+  public void sort(final Comparator<? super IType> comparator) {
+    final int size = messages.size();
+    if (size < 2) {
+      return;
+    }
+    final Integer[] order = new Integer[size];
+    for (int i = 0; i < size; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(final Integer index1, final Integer index2) {
+        return comparator.compare(getMessageOrBuilder(index1), getMessageOrBuilder(index2));
+      }
+    });
+    int first = 0;
+    while (first < size && order[first] == first) {
+      first++;
+    }
+    if (first == size) {
+      return;
+    }
+    final List<MType> sortedMessages = new ArrayList<MType>(size);
+    final List<SingleFieldBuilder<MType, BType, IType>> sortedBuilders =
+        builders == null ? null : new ArrayList<SingleFieldBuilder<MType, BType, IType>>(size);
+    final int[] newOrder = new int[size];
+    for (int i = 0; i < size; i++) {
+      final int index = order[i];
+      newOrder[i] = index;
+      sortedMessages.add(messages.get(index));
+      if (sortedBuilders != null) {
+        sortedBuilders.add(builders.get(index));
+      }
+    }
+    messages = sortedMessages;
+    isMessagesListMutable = true;
+    builders = sortedBuilders;
+    onElementsReordered(newOrder);
+    onChanged();
+    incrementModCounts();
+  }
+
+  /**
+   * Replaces each element with the function's result for its message; the builders of the
+   * elements are built, and then dropped.
+   *
+   * @param function the function of each message to its replacement
+   */
+  public void replaceAll(final MessageFunction<MType> function) {
+    final int size = messages.size();
+    if (size == 0) {
+      return;
+    }
+    ensureMutableMessageList();
+    for (int i = 0; i < size; i++) {
+      final MType message = function.apply(getMessage(i));
+      if (message == null) {
+        throw new NullPointerException();
+      }
+      messages.set(i, message);
+      if (builders != null) {
+        final SingleFieldBuilder<MType, BType, IType> entry = builders.set(i, null);
+        if (entry != null) {
+          entry.dispose();
+        }
+      }
+      onElementSet(i);
+    }
+    onChanged();
+    incrementModCounts();
+  }
+
+  private void disposeBuilder(final int index) {
+    if (builders != null) {
+      final SingleFieldBuilder<MType, BType, IType> entry = builders.get(index);
+      if (entry != null) {
+        entry.dispose();
+      }
+    }
+  }
+
+  private void checkRange(final int fromIndex, final int toIndex) {
+    if (fromIndex < 0 || toIndex > messages.size() || fromIndex > toIndex) {
+      throw new IndexOutOfBoundsException("range [" + fromIndex + ", " + toIndex + ") of "
+          + messages.size());
+    }
+  }
+
   /**
    * Builds the list of messages from the builder and returns them.
    *
@@ -545,11 +805,61 @@ public abstract class RepeatedFieldBuilder<MType extends Message, BType extends
     return externalMessageOrBuilderList;
   }
 
+  /**
+   * Returns the messages, as is; the ones backed by the builders may be stale, or null.
+   */
+  List<MType> peekMessages() {
+    return messages;
+  }
+
+  /**
+   * Returns the builders, as is, or null if none were created.
+   */
+  List<SingleFieldBuilder<MType, BType, IType>> peekBuilders() {
+    return builders;
+  }
+
+  /**
+   * Called on every change of the builder, or of its nested children, whether or not the parent
+   * is to be notified; does nothing by default.
+   */
+  protected void onAnyChange() {
+  }
+
+  /**
+   * Called after the elements from the fromIndex, inclusive, to the toIndex, exclusive, have been
+   * inserted, shifting the subsequent ones to the right; does nothing by default.
+   */
+  protected void onElementsAdded(final int fromIndex, final int toIndex) {
+  }
+
+  /**
+   * Called after the element at the index has been replaced; does nothing by default.
+   */
+  protected void onElementSet(final int index) {
+  }
+
+  /**
+   * Called after the elements from the fromIndex, inclusive, to the toIndex, exclusive, have been
+   * removed, shifting the subsequent ones to the left; does nothing by default.
+   */
+  protected void onElementsRemoved(final int fromIndex, final int toIndex) {
+  }
+
+  /**
+   * Called after the elements have been reordered, with some of them possibly removed: the new
+   * element at each index i is the old one at order[i]; does nothing by default.
+   */
+  protected void onElementsReordered(final int[] order) {
+  }
+
   /**
    * Called when a the builder or one of its nested children has changed and any parent should be
    * notified of its invalidation.
    */
   private void onChanged() {
+    onAnyChange();
+
     if (isClean && parent != null) {
       parent.markDirty();
 
@@ -0,0 +1,465 @@
+//
+// Copyright © 2014, David Tesler (https://github.com/protobufel)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+// * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+// * Redistributions in binary form must reproduce the above copyright
+// notice, this list of conditions and the following disclaimer in the
+// documentation and/or other materials provided with the distribution.
+// * Neither the name of the <organization> nor the
+// names of its contributors may be used to endorse or promote products
+// derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+
+package com.github.protobufel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import com.github.protobufel.PrimitiveLists.IntList;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Descriptors.EnumValueDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor.JavaType;
+import com.google.protobuf.MessageOrBuilder;
+
+/**
+ * The secondary index of a repeated message field's elements, keyed by one or more of their
+ * scalar fields, such as the stars of a galaxy by their name. It maps each key to the positions
+ * of its elements, in the ascending order, and, if sorted, keeps the keys in their order as well,
+ * for the range lookups.
+ * <p>
+ * The key of an element is its key field's value, as returned by {@code getField}, or, for
+ * multiple key fields, the list of their values. The sorted keys are ordered by their Java values'
+ * natural order, with the enum values ordered by their numbers, and the ByteStrings by their
+ * unsigned bytes, and the lists of values lexicographically.
+ * <p>
+ * The indexes are requested by {@link DynamicMessage.Builder#addFieldIndex(FieldDescriptor,
+ * boolean, FieldDescriptor...)}, and maintained by the builder, and carried over to its built
+ * messages, which build their own, immutable ones, on demand, see
+ * {@link DynamicMessage#getFieldIndex(FieldDescriptor)}.
+ *
+ * @author protobufel@gmail.com David Tesler
+ */
+public final class RepeatedFieldIndex {
+  private static final int[] NO_POSITIONS = new int[0];
+
+  private static final Comparator<Object> KEY_ORDER = new Comparator<Object>() {
+    @SuppressWarnings("unchecked")
+    @Override
+    public int compare(final Object o1, final Object o2) {
+      if (o1 instanceof List) {
+        final List<?> list1 = (List<?>) o1;
+        final List<?> list2 = (List<?>) o2;
+        final int size = Math.min(list1.size(), list2.size());
+
+        for (int i = 0; i < size; i++) {
+          final int result = compare(list1.get(i), list2.get(i));
+
+          if (result != 0) {
+            return result;
+          }
+        }
+
+        return list1.size() - list2.size();
+      } else if (o1 instanceof EnumValueDescriptor) {
+        final int number1 = ((EnumValueDescriptor) o1).getNumber();
+        final int number2 = ((EnumValueDescriptor) o2).getNumber();
+        return number1 < number2 ? -1 : number1 == number2 ? 0 : 1;
+      } else if (o1 instanceof ByteString) {
+        final ByteString bytes1 = (ByteString) o1;
+        final ByteString bytes2 = (ByteString) o2;
+        final int size = Math.min(bytes1.size(), bytes2.size());
+
+        for (int i = 0; i < size; i++) {
+          final int result = (bytes1.byteAt(i) & 0xFF) - (bytes2.byteAt(i) & 0xFF);
+
+          if (result != 0) {
+            return result;
+          }
+        }
+
+        return bytes1.size() - bytes2.size();
+      } else {
+        return ((Comparable<Object>) o1).compareTo(o2);
+      }
+    }
+  };
+
+  private final Definition definition;
+  // the elements' keys by their positions
+  private final List<Object> keys;
+  private final Map<Object, IntList> positions;
+  // the same position lists by the sorted keys, or null if not sorted
+  private final NavigableMap<Object, IntList> sortedPositions;
+
+  RepeatedFieldIndex(final Definition definition, final List<? extends MessageOrBuilder> elements) {
+    this.definition = definition;
+    keys = new ArrayList<Object>(elements.size());
+    positions = new HashMap<Object, IntList>();
+    sortedPositions = definition.isSorted ? new TreeMap<Object, IntList>(KEY_ORDER) : null;
+
+    for (int i = 0; i < elements.size(); i++) {
+      add(i, elements.get(i));
+    }
+  }
+
+  /**
+   * Returns the indexed repeated message field.
+   */
+  public FieldDescriptor getField() {
+    return definition.field;
+  }
+
+  /**
+   * Returns the key fields, in the key order.
+   */
+  public List<FieldDescriptor> getKeyFields() {
+    return definition.keyFields;
+  }
+
+  /**
+   * Returns whether the keys are sorted, so the range lookups are supported.
+   */
+  public boolean isSorted() {
+    return definition.isSorted;
+  }
+
+  /**
+   * Returns the number of the distinct keys.
+   */
+  public int getKeyCount() {
+    return positions.size();
+  }
+
+  /**
+   * Returns the key of the element, as the elements are indexed by.
+   */
+  public Object getKey(final MessageOrBuilder element) {
+    return definition.getKey(element);
+  }
+
+  /**
+   * Returns the position of the first element with the key, or -1 if there is none.
+   */
+  public int findFirst(final Object key) {
+    final IntList list = positions.get(verifyNotNull(key));
+    return list == null ? -1 : list.getInt(0);
+  }
+
+  /**
+   * Returns the positions of the elements with the key, in the ascending order.
+   */
+  public int[] find(final Object key) {
+    final IntList list = positions.get(verifyNotNull(key));
+    return list == null ? NO_POSITIONS : list.toIntArray();
+  }
+
+  /**
+   * Returns the positions of the elements with the keys from the fromKey, inclusive, to the
+   * toKey, exclusive, in the key order, and then in the ascending order. A null bound is unbounded.
+   *
+   * @throws IllegalStateException if this index is not sorted
+   */
+  public int[] findInRange(final Object fromKey, final Object toKey) {
+    if (sortedPositions == null) {
+      throw new IllegalStateException("the index is not sorted");
+    }
+
+    NavigableMap<Object, IntList> range = sortedPositions;
+
+    if (fromKey != null) {
+      range = range.tailMap(fromKey, true);
+    }
+
+    if (toKey != null) {
+      range = range.headMap(toKey, false);
+    }
+
+    final Collection<IntList> lists = range.values();
+    int size = 0;
+
+    for (final IntList list : lists) {
+      size += list.size();
+    }
+
+    final int[] result = new int[size];
+    int offset = 0;
+
+    for (final IntList list : lists) {
+      for (int i = 0; i < list.size(); i++) {
+        result[offset++] = list.getInt(i);
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Returns the number of the indexed elements.
+   */
+  int size() {
+    return keys.size();
+  }
+
+  /**
+   * Returns whether the field is one of the key fields.
+   */
+  boolean isKeyField(final FieldDescriptor field) {
+    return definition.keyFields.contains(field);
+  }
+
+  /**
+   * Indexes the element inserted at the position, shifting the subsequent ones.
+   */
+  void add(final int position, final MessageOrBuilder element) {
+    final Object key = definition.getKey(element);
+
+    if (position == keys.size()) {
+      keys.add(key);
+      addPosition(key, position);
+    } else {
+      keys.add(position, key);
+      reindex();
+    }
+  }
+
+  /**
+   * Re-indexes the element at the position, which has replaced the indexed one.
+   */
+  void replace(final int position, final MessageOrBuilder element) {
+    final Object key = definition.getKey(element);
+    final Object oldKey = keys.set(position, key);
+
+    if (key.equals(oldKey)) {
+      return;
+    }
+
+    final IntList oldList = positions.get(oldKey);
+    oldList.remove(search(oldList, position));
+
+    if (oldList.isEmpty()) {
+      removeKey(oldKey);
+    }
+
+    IntList list = positions.get(key);
+
+    if (list == null) {
+      list = new IntList();
+      positions.put(key, list);
+
+      if (sortedPositions != null) {
+        sortedPositions.put(key, list);
+      }
+    }
+
+    list.addInt(-search(list, position) - 1, position);
+  }
+
+  /**
+   * Removes the elements from the fromPosition, inclusive, to the toPosition, exclusive, shifting
+   * the subsequent ones.
+   */
+  void remove(final int fromPosition, final int toPosition) {
+    if (toPosition < keys.size()) {
+      keys.subList(fromPosition, toPosition).clear();
+      reindex();
+      return;
+    }
+
+    // the trailing positions are the last ones of their lists
+    for (int i = toPosition - 1; i >= fromPosition; i--) {
+      final Object key = keys.remove(i);
+      final IntList list = positions.get(key);
+      list.remove(list.size() - 1);
+
+      if (list.isEmpty()) {
+        removeKey(key);
+      }
+    }
+  }
+
+  /**
+   * Reorders the elements, the new one at each position being the old one at order[position], and
+   * removes the rest.
+   */
+  void reorder(final int[] order) {
+    final Object[] oldKeys = keys.toArray();
+    keys.clear();
+
+    for (final int oldPosition : order) {
+      keys.add(oldKeys[oldPosition]);
+    }
+
+    reindex();
+  }
+
+  void clear() {
+    keys.clear();
+    positions.clear();
+
+    if (sortedPositions != null) {
+      sortedPositions.clear();
+    }
+  }
+
+  private void reindex() {
+    positions.clear();
+
+    if (sortedPositions != null) {
+      sortedPositions.clear();
+    }
+
+    for (int i = 0; i < keys.size(); i++) {
+      addPosition(keys.get(i), i);
+    }
+  }
+
+  private void addPosition(final Object key, final int position) {
+    IntList list = positions.get(key);
+
+    if (list == null) {
+      list = new IntList();
+      positions.put(key, list);
+
+      if (sortedPositions != null) {
+        sortedPositions.put(key, list);
+      }
+    }
+
+    list.addInt(position);
+  }
+
+  private void removeKey(final Object key) {
+    positions.remove(key);
+
+    if (sortedPositions != null) {
+      sortedPositions.remove(key);
+    }
+  }
+
+  /**
+   * Returns the index of the position in the ascending list, if any, otherwise
+   * (-(insertion point) - 1).
+   */
+  private static int search(final IntList list, final int position) {
+    int low = 0;
+    int high = list.size() - 1;
+
+    while (low <= high) {
+      final int mid = (low + high) >>> 1;
+      final int value = list.getInt(mid);
+
+      if (value < position) {
+        low = mid + 1;
+      } else if (value > position) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+
+    return -(low + 1);
+  }
+
+  private static <T> T verifyNotNull(final T value) {
+    if (value == null) {
+      throw new NullPointerException();
+    }
+
+    return value;
+  }
+
+  @Override
+  public String toString() {
+    return "RepeatedFieldIndex [field=" + definition.field.getFullName() + ", keyFields="
+        + definition.keyFields + ", isSorted=" + definition.isSorted + ", keyCount="
+        + positions.size() + "]";
+  }
+
+  /**
+   * The definition of an index, by which the builder and its built messages build their own
+   * indexes.
+   */
+  static final class Definition {
+    private final FieldDescriptor field;
+    private final List<FieldDescriptor> keyFields;
+    private final boolean isSorted;
+
+    /**
+     * @throws IllegalArgumentException if the field is not a repeated message field, or there are
+     *         no key fields, or any of them is not a singular scalar field of its message type
+     */
+    Definition(final FieldDescriptor field, final boolean isSorted,
+        final FieldDescriptor... keyFields) {
+      if (!field.isRepeated() || field.getJavaType() != JavaType.MESSAGE) {
+        throw new IllegalArgumentException("the field must be a repeated message field");
+      }
+
+      if (keyFields.length == 0) {
+        throw new IllegalArgumentException("no key fields");
+      }
+
+      for (final FieldDescriptor keyField : keyFields) {
+        if (keyField.getContainingType() != field.getMessageType()) {
+          throw new IllegalArgumentException(keyField.getFullName()
+              + " is not a field of the element type");
+        }
+
+        if (keyField.isRepeated() || keyField.getJavaType() == JavaType.MESSAGE) {
+          throw new IllegalArgumentException(keyField.getFullName()
+              + " is not a singular scalar field");
+        }
+      }
+
+      this.field = field;
+      this.isSorted = isSorted;
+      this.keyFields =
+          Collections.unmodifiableList(new ArrayList<FieldDescriptor>(Arrays.asList(keyFields)));
+    }
+
+    FieldDescriptor getField() {
+      return field;
+    }
+
+    Object getKey(final MessageOrBuilder element) {
+      if (keyFields.size() == 1) {
+        return element.getField(keyFields.get(0));
+      }
+
+      final Object[] values = new Object[keyFields.size()];
+
+      for (int i = 0; i < values.length; i++) {
+        values[i] = element.getField(keyFields.get(i));
+      }
+
+      return Collections.unmodifiableList(Arrays.asList(values));
+    }
+
+    RepeatedFieldIndex newIndex(final List<? extends MessageOrBuilder> elements) {
+      return new RepeatedFieldIndex(this, elements);
+    }
+  }
+}
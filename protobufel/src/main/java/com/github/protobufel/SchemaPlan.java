@@ -0,0 +1,390 @@
+//
+// Copyright © 2014, David Tesler (https://github.com/protobufel)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+// * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+// * Redistributions in binary form must reproduce the above copyright
+// notice, this list of conditions and the following disclaimer in the
+// documentation and/or other materials provided with the distribution.
+// * Neither the name of the <organization> nor the
+// names of its contributors may be used to endorse or promote products
+// derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+
+package com.github.protobufel;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.github.protobufel.ProtoInterfaces.IFieldHandler;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor.JavaType;
+import com.google.protobuf.UnknownFieldSet;
+
+/**
+ * The per Descriptor compiled schema plan, computed once and shared by all messages, builders and
+ * resolvers of the type: the field name and number lookups, the message fields, the attribute and
+ * child field partitions, the required fields, the builder field handlers, the wire format
+ * {@link FieldTable}, the default instance, and the compiled {@link FieldPath}s.
+ *
+ * <p>
+ * The plans are cached by the Descriptor identity, and are thread-safe. The cache neither keeps
+ * the Descriptors alive, nor grows with the dynamically built schemas: the keys are weak, and the
+ * plans, which reference their Descriptors, are softly reachable, so they are dropped under memory
+ * pressure and recompiled on demand.
+ *
+ * @author protobufel@gmail.com David Tesler
+ */
+public final class SchemaPlan {
+  private static final ConcurrentMap<Object, SoftReference<SchemaPlan>> PLANS =
+      new ConcurrentHashMap<Object, SoftReference<SchemaPlan>>();
+  private static final ReferenceQueue<Descriptor> STALE_KEYS = new ReferenceQueue<Descriptor>();
+  // the max number of the compiled field paths cached per type; the rest are compiled per call
+  private static final int MAX_CACHED_FIELD_PATHS = 1 << 10;
+
+  private final Descriptor type;
+  private final FieldTable table;
+  private final Map<String, FieldDescriptor> fieldsByName;
+  private final List<FieldDescriptor> messageFields;
+  // the declared fields' indexes, as FieldDescriptor.getIndex(), of the non-message fields, and of
+  // the message ones, each in the field number order
+  private final int[] attributeIndexes;
+  private final int[] childIndexes;
+  private final boolean isExtendable;
+  // the required fields' bitset over FieldDescriptor.getIndex(), as the FieldSlots presence
+  private final long[] requiredMask;
+  // the builder field handlers indexed by FieldDescriptor.getIndex()
+  private final IFieldHandler<DynamicMessage.Builder, ?, ?>[] fieldHandlers;
+  private final int fixedFootprint;
+  private DynamicMessage defaultInstance;
+  // the compiled field paths by their strings, created on the first compilation
+  private volatile ConcurrentMap<String, FieldPath> fieldPaths;
+
+  @SuppressWarnings("unchecked")
+  private SchemaPlan(final Descriptor type) {
+    this.type = type;
+    table = new FieldTable(this);
+
+    final List<FieldDescriptor> fields = type.getFields();
+    final List<FieldDescriptor> extensions = type.getExtensions();
+    fieldsByName = new HashMap<String, FieldDescriptor>(
+        (fields.size() + extensions.size()) * 4 / 3 + 1);
+    final List<FieldDescriptor> messageFields = new ArrayList<FieldDescriptor>();
+    final long[] requiredMask = new long[(fields.size() + 63) >>> 6];
+    boolean hasRequired = false;
+    fieldHandlers = newFieldHandlers(fields.size());
+
+    for (final FieldDescriptor field : fields) {
+      final int index = field.getIndex();
+      fieldsByName.put(field.getName(), field);
+      fieldHandlers[index] = DynamicMessage.Builder.FieldHandlerType.getFieldHandler(field);
+
+      if (field.getJavaType() == JavaType.MESSAGE) {
+        messageFields.add(field);
+      }
+
+      if (field.isRequired()) {
+        requiredMask[index >>> 6] |= 1L << index;
+        hasRequired = true;
+      }
+    }
+
+    for (final FieldDescriptor field : extensions) {
+      fieldsByName.put(field.getName(), field);
+
+      if (field.getJavaType() == JavaType.MESSAGE) {
+        messageFields.add(field);
+      }
+    }
+
+    this.messageFields = messageFields.isEmpty() ? Collections.<FieldDescriptor>emptyList()
+        : Collections.unmodifiableList(messageFields);
+    this.requiredMask = hasRequired ? requiredMask : null;
+    final List<FieldDescriptor> fieldsByNumber = new ArrayList<FieldDescriptor>(fields);
+    Collections.sort(fieldsByNumber);
+    final int[] attributeIndexes = new int[fields.size()];
+    final int[] childIndexes = new int[fields.size()];
+    int attributeCount = 0;
+    int childCount = 0;
+
+    for (final FieldDescriptor field : fieldsByNumber) {
+      if (field.getJavaType() == JavaType.MESSAGE) {
+        childIndexes[childCount++] = field.getIndex();
+      } else {
+        attributeIndexes[attributeCount++] = field.getIndex();
+      }
+    }
+
+    this.attributeIndexes = Arrays.copyOf(attributeIndexes, attributeCount);
+    this.childIndexes = Arrays.copyOf(childIndexes, childCount);
+    isExtendable = type.isExtendable();
+    fixedFootprint = MessageFootprint.computeFixedFootprint(type);
+  }
+
+  /**
+   * Returns the shared plan for the type.
+   */
+  public static SchemaPlan of(final Descriptor type) {
+    if (type == null) {
+      throw new NullPointerException();
+    }
+
+    final SoftReference<SchemaPlan> ref = PLANS.get(new LookupKey(type));
+    SchemaPlan plan = ref == null ? null : ref.get();
+
+    if (plan != null) {
+      return plan;
+    }
+
+    expungeStaleKeys();
+    plan = new SchemaPlan(type);
+    final SoftReference<SchemaPlan> newRef = new SoftReference<SchemaPlan>(plan);
+    final WeakKey key = new WeakKey(type, STALE_KEYS);
+
+    while (true) {
+      final SoftReference<SchemaPlan> oldRef = PLANS.putIfAbsent(key, newRef);
+
+      if (oldRef == null) {
+        return plan;
+      }
+
+      final SchemaPlan oldPlan = oldRef.get();
+
+      if (oldPlan != null) {
+        return oldPlan;
+      }
+
+      if (PLANS.replace(key, oldRef, newRef)) {
+        return plan;
+      }
+    }
+  }
+
+  private static void expungeStaleKeys() {
+    Reference<? extends Descriptor> key;
+
+    while ((key = STALE_KEYS.poll()) != null) {
+      PLANS.remove(key);
+    }
+  }
+
+  public Descriptor getDescriptor() {
+    return type;
+  }
+
+  /**
+   * Finds the field, or the extension nested in the type, by its name, as
+   * {@link Descriptor#findFieldByName(String)} does, but without the name concatenation and the
+   * file wide symbol lookup.
+   *
+   * @return the field, or null if there is none
+   */
+  public FieldDescriptor findFieldByName(final String name) {
+    return fieldsByName.get(name);
+  }
+
+  /**
+   * Finds the regular field by its number, as {@link Descriptor#findFieldByNumber(int)} does.
+   *
+   * @return the field, or null if there is none
+   */
+  public FieldDescriptor findFieldByNumber(final int number) {
+    final FieldPlan plan = table.findPlanByNumber(number);
+    return plan == null ? null : plan.field;
+  }
+
+  /**
+   * Returns the message typed fields, followed by the message typed extensions nested in the type.
+   */
+  public List<FieldDescriptor> getMessageFields() {
+    return messageFields;
+  }
+
+  /**
+   * Returns the indexes of the declared non-message fields, in the field number order; must not be
+   * modified.
+   */
+  int[] getAttributeIndexes() {
+    return attributeIndexes;
+  }
+
+  /**
+   * Returns the indexes of the declared message fields, in the field number order; must not be
+   * modified.
+   */
+  int[] getChildIndexes() {
+    return childIndexes;
+  }
+
+  /**
+   * Returns whether the type has extension ranges, so its messages might have extensions.
+   */
+  boolean isExtendable() {
+    return isExtendable;
+  }
+
+  /**
+   * Returns the compiled field path from the type, cached by its string.
+   *
+   * @see FieldPath#compile(Descriptor, String)
+   */
+  FieldPath getFieldPath(final String path) {
+    ConcurrentMap<String, FieldPath> paths = fieldPaths;
+
+    if (paths == null) {
+      synchronized (this) {
+        paths = fieldPaths;
+
+        if (paths == null) {
+          paths = new ConcurrentHashMap<String, FieldPath>();
+          fieldPaths = paths;
+        }
+      }
+    }
+
+    FieldPath result = paths.get(path);
+
+    if (result == null) {
+      result = FieldPath.parse(type, path);
+
+      if (paths.size() < MAX_CACHED_FIELD_PATHS) {
+        final FieldPath oldResult = paths.putIfAbsent(path, result);
+
+        if (oldResult != null) {
+          result = oldResult;
+        }
+      }
+    }
+
+    return result;
+  }
+
+  FieldTable getFieldTable() {
+    return table;
+  }
+
+  /**
+   * Returns the required fields' bitset over their indexes, or null if there are none; must not be
+   * modified.
+   */
+  long[] getRequiredMask() {
+    return requiredMask;
+  }
+
+  IFieldHandler<DynamicMessage.Builder, ?, ?> getFieldHandler(final int index) {
+    return fieldHandlers[index];
+  }
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private static IFieldHandler<DynamicMessage.Builder, ?, ?>[] newFieldHandlers(final int size) {
+    return new IFieldHandler[size];
+  }
+
+  /**
+   * Returns the estimated heap size of the type's empty message, see {@link MessageFootprint}.
+   */
+  int getFixedFootprint() {
+    return fixedFootprint;
+  }
+
+  /**
+   * Returns the shared default instance of the type.
+   */
+  DynamicMessage getDefaultInstance() {
+    // racy, yet the instances are immutable and interchangeable
+    DynamicMessage instance = defaultInstance;
+
+    if (instance == null) {
+      instance = new DynamicMessage(type, new FieldSlots(table),
+          UnknownFieldSet.getDefaultInstance());
+      defaultInstance = instance;
+    }
+
+    return instance;
+  }
+
+  /**
+   * The cache key weakly referencing its Descriptor, and compared by the Descriptor identity.
+   */
+  private static final class WeakKey extends WeakReference<Descriptor> {
+    private final int hash;
+
+    WeakKey(final Descriptor type, final ReferenceQueue<Descriptor> queue) {
+      super(type, queue);
+      hash = System.identityHashCode(type);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+      if (this == obj) {
+        return true;
+      }
+
+      if (obj instanceof LookupKey) {
+        return ((LookupKey) obj).type == get();
+      }
+
+      if (obj instanceof WeakKey) {
+        final Descriptor type = get();
+        return type != null && type == ((WeakKey) obj).get();
+      }
+
+      return false;
+    }
+  }
+
+  /**
+   * The transient strong cache key, equal to the WeakKey of the same Descriptor.
+   */
+  private static final class LookupKey {
+    private final Descriptor type;
+
+    LookupKey(final Descriptor type) {
+      this.type = type;
+    }
+
+    @Override
+    public int hashCode() {
+      return System.identityHashCode(type);
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+      if (this == obj) {
+        return true;
+      }
+
+      return obj instanceof WeakKey && ((WeakKey) obj).get() == type;
+    }
+  }
+}
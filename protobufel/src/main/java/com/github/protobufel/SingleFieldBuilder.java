@@ -68,6 +68,16 @@ public abstract class SingleFieldBuilder<MType extends Message, BType extends Me
 
   protected abstract void dispose(BType builder);
 
+  /**
+   * Returns the new builder of the message's contents, with this as its parent; by default, the
+   * new builder of its type merged from it.
+   */
+  protected BType newBuilder(final MType message) {
+    final BType builder = newBuilderForType(message.getDescriptorForType(), this);
+    builder.mergeFrom(message); // no-op if message is the default message
+    return builder;
+  }
+
   // Parent to send changes to.
   private BuilderParent parent;
 
@@ -147,8 +157,7 @@ public abstract class SingleFieldBuilder<MType extends Message, BType extends Me
       // does not create any sub-objects with independent clean/dirty states,
       // therefore setting the builder itself to clean without actually calling
       // build() cannot break any invariants.
-      builder = newBuilderForType(message.getDescriptorForType(), this);
-      builder.mergeFrom(message); // no-op if message is the default message
+      builder = newBuilder(message);
       markClean(builder);
     }
     return builder;
@@ -223,11 +232,34 @@ public abstract class SingleFieldBuilder<MType extends Message, BType extends Me
     onChanged();
   }
 
+  /**
+   * Returns the message, the cached one if backed by a builder, without building it; may be null.
+   */
+  MType peekMessage() {
+    return message;
+  }
+
+  /**
+   * Returns the builder, if any, without creating it.
+   */
+  BType peekBuilder() {
+    return builder;
+  }
+
+  /**
+   * Called on every change of the builder, or of its nested children, whether or not the parent
+   * is to be notified; does nothing by default.
+   */
+  protected void onAnyChange() {
+  }
+
   /**
    * Called when a the builder or one of its nested children has changed and any parent should be
    * notified of its invalidation.
    */
   private void onChanged() {
+    onAnyChange();
+
     // If builder is null, this is the case where onChanged is being called
     // from setMessage or clear.
     if (builder != null) {
@@ -0,0 +1,187 @@
+//
+// Copyright © 2014, David Tesler (https://github.com/protobufel)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+// * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+// * Redistributions in binary form must reproduce the above copyright
+// notice, this list of conditions and the following disclaimer in the
+// documentation and/or other materials provided with the distribution.
+// * Neither the name of the <organization> nor the
+// names of its contributors may be used to endorse or promote products
+// derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+
+package com.github.protobufel;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor.JavaType;
+
+/**
+ * The bounded interning table of the string and bytes field values, for the parsing of the
+ * records repeating the same values over and over, such as
+ * {@link DynamicMessage#parseFrom(com.google.protobuf.Descriptors.Descriptor, ByteString,
+ * com.google.protobuf.ExtensionRegistry, ValueInterner)}. Each parsed value, of the selected
+ * fields, is replaced by the equal one already in the table, so the parsed messages share the
+ * values rather than retain their own copies. The table holds up to its max size of the values,
+ * evicting the least recently used ones, and counts its hits, misses and evictions.
+ * <p>
+ * The values are matched by their content, with their {@code hashCode} and {@code equals}. It is
+ * thread-safe.
+ *
+ * @author protobufel@gmail.com David Tesler
+ */
+public final class ValueInterner {
+  private final int maxSize;
+  // the selected fields, or null for all string and bytes fields
+  private final Set<FieldDescriptor> fields;
+  private final Map<Object, Object> values;
+  private long hitCount;
+  private long missCount;
+  private long evictionCount;
+
+  /**
+   * Creates the empty table of up to maxSize values of all string and bytes fields.
+   */
+  public ValueInterner(final int maxSize) {
+    this(maxSize, null);
+  }
+
+  /**
+   * Creates the empty table of up to maxSize values of the given string and bytes fields only; the
+   * rest of the fields are ignored.
+   *
+   * @throws IllegalArgumentException if the maxSize is not positive
+   */
+  public ValueInterner(final int maxSize, final Iterable<FieldDescriptor> fields) {
+    if (maxSize <= 0) {
+      throw new IllegalArgumentException("the maxSize must be positive");
+    }
+
+    this.maxSize = maxSize;
+
+    if (fields == null) {
+      this.fields = null;
+    } else {
+      final Set<FieldDescriptor> fieldSet = new HashSet<FieldDescriptor>();
+
+      for (final FieldDescriptor field : fields) {
+        fieldSet.add(field);
+      }
+
+      this.fields = Collections.unmodifiableSet(fieldSet);
+    }
+
+    values = new LinkedHashMap<Object, Object>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(final Map.Entry<Object, Object> eldest) {
+        if (size() <= ValueInterner.this.maxSize) {
+          return false;
+        }
+
+        evictionCount++;
+        return true;
+      }
+    };
+  }
+
+  /**
+   * Returns whether the values of the field are interned: whether it is a string or bytes field,
+   * and selected by this table.
+   */
+  public boolean isInterned(final FieldDescriptor field) {
+    final JavaType javaType = field.getJavaType();
+    return (javaType == JavaType.STRING || javaType == JavaType.BYTE_STRING)
+        && (fields == null || fields.contains(field));
+  }
+
+  /**
+   * Returns the equal string in the table, if any, otherwise adds and returns the given one.
+   */
+  public String intern(final String value) {
+    return (String) intern((Object) value);
+  }
+
+  /**
+   * Returns the equal ByteString in the table, if any, otherwise adds and returns the given one.
+   */
+  public ByteString intern(final ByteString value) {
+    return (ByteString) intern((Object) value);
+  }
+
+  synchronized Object intern(final Object value) {
+    final Object result = values.get(value);
+
+    if (result != null) {
+      hitCount++;
+      return result;
+    }
+
+    missCount++;
+    values.put(value, value);
+    return value;
+  }
+
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+  /**
+   * Returns the number of the values in the table.
+   */
+  public synchronized int size() {
+    return values.size();
+  }
+
+  public synchronized long getHitCount() {
+    return hitCount;
+  }
+
+  public synchronized long getMissCount() {
+    return missCount;
+  }
+
+  public synchronized long getEvictionCount() {
+    return evictionCount;
+  }
+
+  /**
+   * Returns the ratio of the hits to all lookups, or 0 if there were none.
+   */
+  public synchronized double getHitRate() {
+    final long lookupCount = hitCount + missCount;
+    return lookupCount == 0 ? 0 : (double) hitCount / lookupCount;
+  }
+
+  /**
+   * Removes all values, and resets the statistics.
+   */
+  public synchronized void clear() {
+    values.clear();
+    hitCount = 0;
+    missCount = 0;
+    evictionCount = 0;
+  }
+}
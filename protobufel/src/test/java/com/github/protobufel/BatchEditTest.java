@@ -0,0 +1,150 @@
+//
+// Copyright © 2014, David Tesler (https://github.com/protobufel)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+// * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+// * Redistributions in binary form must reproduce the above copyright
+// notice, this list of conditions and the following disclaimer in the
+// documentation and/or other materials provided with the distribution.
+// * Neither the name of the <organization> nor the
+// names of its contributors may be used to endorse or promote products
+// derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+
+package com.github.protobufel;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import protobuf_unittest.UnittestProto.TestAllTypes;
+
+import com.github.protobufel.DynamicMessage.Builder;
+import com.github.protobufel.DynamicMessage.Builder.BatchEdit;
+import com.github.protobufel.ProtoInterfaces.BuilderParent;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+
+@RunWith(JUnit4.class)
+public class BatchEditTest {
+  private final Descriptor type = TestAllTypes.getDescriptor();
+  private final FieldDescriptor optionalInt32 = type.findFieldByName("optional_int32");
+  private final FieldDescriptor nestedMessage = type.findFieldByName("optional_nested_message");
+  private CountingParent parent;
+  private Builder builder;
+
+  @Before
+  public void setUp() {
+    parent = new CountingParent();
+    builder = DynamicMessage.newBuilder(type, parent);
+    builder.build();
+  }
+
+  @Test
+  @SuppressWarnings("try")
+  public void testDefersInvalidation() {
+    try (BatchEdit ignored = builder.batchEdit()) {
+      for (int i = 0; i < 10; i++) {
+        builder.setField(optionalInt32, i);
+        builder.build();
+      }
+
+      assertThat(parent.count, is(0));
+    }
+
+    assertThat(parent.count, is(1));
+    builder.setField(optionalInt32, 100);
+    assertThat(parent.count, is(2));
+  }
+
+  @Test
+  @SuppressWarnings("try")
+  public void testCoalescesNestedBuilders() {
+    final FieldDescriptor bb = nestedMessage.getMessageType().findFieldByName("bb");
+
+    try (BatchEdit ignored = builder.batchEdit()) {
+      final BatchEdit inner = builder.batchEdit();
+
+      for (int i = 0; i < 10; i++) {
+        builder.getFieldBuilder(nestedMessage).setField(bb, i);
+        builder.build();
+      }
+
+      inner.close();
+      assertThat(parent.count, is(0));
+    }
+
+    assertThat(parent.count, is(1));
+    assertThat(((DynamicMessage) builder.build().getField(nestedMessage)).getField(bb),
+        is((Object) 9));
+  }
+
+  @Test
+  @SuppressWarnings("try")
+  public void testReadsAncestorsWithinScope() {
+    final FieldDescriptor bb = nestedMessage.getMessageType().findFieldByName("bb");
+    final Builder root = DynamicMessage.newBuilder(type);
+    final Builder nested = root.getFieldBuilder(nestedMessage);
+
+    try (BatchEdit ignored = nested.batchEdit()) {
+      // each read caches the nested message in the root's field builder
+      nested.setField(bb, 1);
+      assertThat(bb((DynamicMessage) root.getField(nestedMessage), bb), is(1));
+
+      nested.setField(bb, 2);
+      assertThat(bb((DynamicMessage) root.getField(nestedMessage), bb), is(2));
+
+      nested.setField(bb, 3);
+      assertThat(bb((DynamicMessage) root.clone().build().getField(nestedMessage), bb), is(3));
+
+      nested.setField(bb, 4);
+      assertThat(bb((DynamicMessage) root.build().getField(nestedMessage), bb), is(4));
+    }
+  }
+
+  private static int bb(final DynamicMessage message, final FieldDescriptor bb) {
+    return (Integer) message.getField(bb);
+  }
+
+  @Test
+  public void testDoesNothingWithoutChanges() {
+    final BatchEdit edit = builder.batchEdit();
+    edit.close();
+    edit.close();
+    assertThat(parent.count, is(0));
+    builder.setField(optionalInt32, 1);
+    assertThat(parent.count, is(1));
+  }
+
+  private static final class CountingParent implements BuilderParent {
+    private int count;
+
+    @Override
+    public void markDirty() {
+      count++;
+    }
+
+    @Override
+    public BuilderParent getParent() {
+      return null;
+    }
+  }
+}
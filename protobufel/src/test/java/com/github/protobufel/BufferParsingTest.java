@@ -0,0 +1,120 @@
+//
+// Copyright © 2014, David Tesler (https://github.com/protobufel)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+// * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+// * Redistributions in binary form must reproduce the above copyright
+// notice, this list of conditions and the following disclaimer in the
+// documentation and/or other materials provided with the distribution.
+// * Neither the name of the <organization> nor the
+// names of its contributors may be used to endorse or promote products
+// derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+
+
+package com.github.protobufel;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import protobuf_unittest.UnittestProto.TestAllTypes;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.TestUtil;
+
+@RunWith(JUnit4.class)
+public class BufferParsingTest {
+  private static final Descriptor TYPE = TestAllTypes.getDescriptor();
+  private static final byte[] PREFIX = {1, 2, 3};
+
+  @Rule
+  public final TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void testParsesHeapBuffer() throws Exception {
+    final ByteString bytes = TestUtil.getAllSet().toByteString();
+    final ByteBuffer data = ByteBuffer.wrap(prefixed(bytes));
+    data.position(PREFIX.length);
+
+    assertThat(DynamicMessage.parseFrom(TYPE, data.slice()).toByteString(), is(equalTo(bytes)));
+    assertThat(DynamicMessage.parseFrom(TYPE, data).toByteString(), is(equalTo(bytes)));
+    assertThat(data.position(), is(PREFIX.length));
+  }
+
+  @Test
+  public void testParsesDirectBuffer() throws Exception {
+    final ByteString bytes = TestUtil.getAllSet().toByteString();
+    final ByteBuffer data = ByteBuffer.allocateDirect(bytes.size());
+    bytes.copyTo(data);
+    data.flip();
+
+    assertThat(DynamicMessage.parseFrom(TYPE, data).toByteString(), is(equalTo(bytes)));
+    assertThat(DynamicMessage.parseFrom(TYPE, data.asReadOnlyBuffer()).toByteString(),
+        is(equalTo(bytes)));
+    assertThat(data.remaining(), is(bytes.size()));
+  }
+
+  @Test
+  public void testParsesFileRegions() throws Exception {
+    final ByteString small = TestUtil.getAllSet().toByteString();
+    final ByteString big =
+        TestAllTypes.newBuilder().addRepeatedBytes(ByteString.copyFrom(new byte[1 << 17]))
+            .setOptionalString("big").build().toByteString();
+    final File file = temp.newFile();
+    final FileOutputStream output = new FileOutputStream(file);
+
+    try {
+      output.write(PREFIX);
+      small.writeTo(output);
+      big.writeTo(output);
+    } finally {
+      output.close();
+    }
+
+    final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+
+    try {
+      final FileChannel channel = randomAccessFile.getChannel();
+
+      assertThat(DynamicMessage.parseFrom(TYPE, channel, PREFIX.length, small.size())
+          .toByteString(), is(equalTo(small)));
+      assertThat(DynamicMessage.parseFrom(TYPE, channel, PREFIX.length + small.size(),
+          big.size()).toByteString(), is(equalTo(big)));
+      assertThat(channel.position(), is(0L));
+    } finally {
+      randomAccessFile.close();
+    }
+  }
+
+  private static byte[] prefixed(final ByteString bytes) {
+    return ByteString.copyFrom(PREFIX).concat(bytes).toByteArray();
+  }
+}
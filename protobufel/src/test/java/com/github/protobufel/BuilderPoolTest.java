@@ -0,0 +1,118 @@
+//
+// Copyright © 2014, David Tesler (https://github.com/protobufel)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+// * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+// * Redistributions in binary form must reproduce the above copyright
+// notice, this list of conditions and the following disclaimer in the
+// documentation and/or other materials provided with the distribution.
+// * Neither the name of the <organization> nor the
+// names of its contributors may be used to endorse or promote products
+// derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+
+
+package com.github.protobufel;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+
+import java.util.Collections;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import protobuf_unittest.UnittestProto.TestAllTypes;
+
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.TestUtil;
+
+@RunWith(JUnit4.class)
+public class BuilderPoolTest {
+  private static final Descriptor TYPE = TestAllTypes.getDescriptor();
+  private static final FieldDescriptor OPTIONAL_NESTED_MESSAGE_FD = TYPE
+      .findFieldByNumber(TestAllTypes.OPTIONAL_NESTED_MESSAGE_FIELD_NUMBER);
+  private static final FieldDescriptor NESTED_MESSAGE_BB_FD = TestAllTypes.NestedMessage
+      .getDescriptor().findFieldByNumber(TestAllTypes.NestedMessage.BB_FIELD_NUMBER);
+
+  @Test
+  public void testReusesReleasedBuilders() {
+    final BuilderPool pool = new BuilderPool();
+    final DynamicMessage.Builder builder = pool.acquire(TYPE);
+    final DynamicMessage message = builder.mergeFrom(TestUtil.getAllSet()).build();
+    pool.release(builder);
+    pool.release(builder);
+
+    assertThat(builder.isEmpty(), is(true));
+    assertThat(message, is(equalTo(DynamicMessage.newBuilder(TYPE)
+        .mergeFrom(TestUtil.getAllSet()).build())));
+
+    assertThat(pool.acquire(TYPE), is(sameInstance(builder)));
+    assertThat(pool.acquire(TYPE), is(not(sameInstance(builder))));
+    assertThat(builder.mergeFrom(TestUtil.getAllSet()).build(), is(equalTo(message)));
+  }
+
+  @Test
+  public void testReusesFieldSlots() {
+    final BuilderPool pool = new BuilderPool();
+    final DynamicMessage.Builder builder = pool.acquire(TYPE);
+    final FieldSlots fields = builder.getFieldSlots();
+    final DynamicMessage message = builder.mergeFrom(TestUtil.getAllSet()).build();
+    assertThat(message.getFieldSlots(), is(not(sameInstance(fields))));
+    pool.release(builder);
+
+    assertThat(pool.acquire(TYPE), is(sameInstance(builder)));
+    assertThat(builder.getFieldSlots(), is(sameInstance(fields)));
+    builder.setField(OPTIONAL_NESTED_MESSAGE_FD, TestAllTypes.NestedMessage.newBuilder().setBb(1)
+        .build());
+    final DynamicMessage otherMessage = builder.build();
+    pool.release(builder);
+
+    assertThat(builder.getFieldSlots(), is(sameInstance(fields)));
+    assertThat(message, is(equalTo(DynamicMessage.newBuilder(TYPE)
+        .mergeFrom(TestUtil.getAllSet()).build())));
+    assertThat(otherMessage.getAllFields().keySet(),
+        is(equalTo(Collections.singleton(OPTIONAL_NESTED_MESSAGE_FD))));
+  }
+
+  @Test
+  public void testDetachesFieldBuilders() {
+    final BuilderPool pool = new BuilderPool();
+    final DynamicMessage.Builder builder = pool.acquire(TYPE);
+    final DynamicMessage.Builder nestedBuilder =
+        builder.getFieldBuilder(OPTIONAL_NESTED_MESSAGE_FD).setField(NESTED_MESSAGE_BB_FD, 1);
+    final DynamicMessage message = builder.build();
+    pool.release(builder);
+
+    nestedBuilder.setField(NESTED_MESSAGE_BB_FD, 2);
+    assertThat(builder.isEmpty(), is(true));
+    assertThat(builder.hasField(OPTIONAL_NESTED_MESSAGE_FD), is(false));
+    assertThat(((DynamicMessage) message.getField(OPTIONAL_NESTED_MESSAGE_FD))
+        .getField(NESTED_MESSAGE_BB_FD), is((Object) 1));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testRejectsNestedBuilders() {
+    final BuilderPool pool = new BuilderPool();
+    pool.release(pool.acquire(TYPE).getFieldBuilder(OPTIONAL_NESTED_MESSAGE_FD));
+  }
+}
@@ -0,0 +1,113 @@
+//
+// Copyright © 2014, David Tesler (https://github.com/protobufel)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+// * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+// * Redistributions in binary form must reproduce the above copyright
+// notice, this list of conditions and the following disclaimer in the
+// documentation and/or other materials provided with the distribution.
+// * Neither the name of the <organization> nor the
+// names of its contributors may be used to endorse or promote products
+// derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+
+
+package com.github.protobufel;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import protobuf_unittest.UnittestProto.TestAllTypes;
+
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.TestUtil;
+
+@RunWith(JUnit4.class)
+public class CopyOnWriteBuilderTest {
+  private static final Descriptor TYPE = TestAllTypes.getDescriptor();
+  private static final FieldDescriptor OPTIONAL_INT32_FD = TYPE
+      .findFieldByNumber(TestAllTypes.OPTIONAL_INT32_FIELD_NUMBER);
+  private static final FieldDescriptor REPEATED_INT32_FD = TYPE
+      .findFieldByNumber(TestAllTypes.REPEATED_INT32_FIELD_NUMBER);
+  private static final FieldDescriptor OPTIONAL_NESTED_MESSAGE_FD = TYPE
+      .findFieldByNumber(TestAllTypes.OPTIONAL_NESTED_MESSAGE_FIELD_NUMBER);
+  private static final FieldDescriptor OPTIONAL_FOREIGN_MESSAGE_FD = TYPE
+      .findFieldByNumber(TestAllTypes.OPTIONAL_FOREIGN_MESSAGE_FIELD_NUMBER);
+  private static final FieldDescriptor NESTED_MESSAGE_BB_FD = TestAllTypes.NestedMessage
+      .getDescriptor().findFieldByNumber(TestAllTypes.NestedMessage.BB_FIELD_NUMBER);
+
+  private DynamicMessage original;
+
+  @Before
+  public void init() throws Exception {
+    original = DynamicMessage.parseFrom(TYPE, TestUtil.getAllSet().toByteString());
+  }
+
+  @Test
+  public void testToBuilderWritesDoNotLeak() {
+    final DynamicMessage.Builder builder = original.toBuilder();
+    builder.setField(OPTIONAL_INT32_FD, -1).addRepeatedField(REPEATED_INT32_FD, -2);
+    builder.getFieldBuilder(OPTIONAL_NESTED_MESSAGE_FD).setField(NESTED_MESSAGE_BB_FD, -3);
+    final DynamicMessage changed = builder.build();
+
+    assertThat(original.toByteString(), is(equalTo(TestUtil.getAllSet().toByteString())));
+    assertThat(changed.getField(OPTIONAL_INT32_FD), is((Object) (-1)));
+    assertThat(changed.getRepeatedFieldCount(REPEATED_INT32_FD),
+        is(original.getRepeatedFieldCount(REPEATED_INT32_FD) + 1));
+    assertThat(((DynamicMessage) changed.getField(OPTIONAL_NESTED_MESSAGE_FD))
+        .getField(NESTED_MESSAGE_BB_FD), is((Object) (-3)));
+  }
+
+  @Test
+  public void testUnchangedSubtreesAreShared() {
+    final DynamicMessage.Builder builder = original.toBuilder();
+    assertThat(builder.build(), is(equalTo(original)));
+
+    builder.getFieldBuilder(OPTIONAL_NESTED_MESSAGE_FD).setField(NESTED_MESSAGE_BB_FD, -3);
+    final DynamicMessage changed = builder.build();
+
+    assertThat(changed.getField(OPTIONAL_FOREIGN_MESSAGE_FD),
+        is(sameInstance(original.getField(OPTIONAL_FOREIGN_MESSAGE_FD))));
+    assertThat(changed.getField(OPTIONAL_NESTED_MESSAGE_FD),
+        is(not(sameInstance(original.getField(OPTIONAL_NESTED_MESSAGE_FD)))));
+  }
+
+  @Test
+  public void testClonesAreIndependent() {
+    final DynamicMessage.Builder builder = original.toBuilder().setField(OPTIONAL_INT32_FD, 1);
+    builder.addRepeatedField(REPEATED_INT32_FD, 2);
+    final DynamicMessage.Builder clone = builder.clone();
+
+    clone.setField(OPTIONAL_INT32_FD, 3).addRepeatedField(REPEATED_INT32_FD, 4);
+    builder.addRepeatedField(REPEATED_INT32_FD, 5);
+
+    assertThat(builder.getField(OPTIONAL_INT32_FD), is((Object) 1));
+    assertThat(clone.getField(OPTIONAL_INT32_FD), is((Object) 3));
+    final int count = original.getRepeatedFieldCount(REPEATED_INT32_FD);
+    assertThat(builder.getRepeatedField(REPEATED_INT32_FD, count + 1), is((Object) 5));
+    assertThat(clone.getRepeatedField(REPEATED_INT32_FD, count + 1), is((Object) 4));
+  }
+}
@@ -0,0 +1,162 @@
+//
+// Copyright © 2014, David Tesler (https://github.com/protobufel)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+// * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+// * Redistributions in binary form must reproduce the above copyright
+// notice, this list of conditions and the following disclaimer in the
+// documentation and/or other materials provided with the distribution.
+// * Neither the name of the <organization> nor the
+// names of its contributors may be used to endorse or promote products
+// derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+
+
+package com.github.protobufel;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import protobuf_unittest.UnittestProto.TestAllTypes;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Descriptors.Descriptor;
+
+@RunWith(JUnit4.class)
+public class DelimitedMessagesTest {
+  private static final Descriptor TYPE = TestAllTypes.getDescriptor();
+  private static final int MESSAGE_COUNT = 1000;
+
+  @Rule
+  public final TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void testReadsWhatIsWrittenDelimited() throws Exception {
+    final List<TestAllTypes> messages = newMessages();
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+    for (final TestAllTypes message : messages) {
+      message.writeDelimitedTo(output);
+    }
+
+    final ByteArrayOutputStream writerOutput = new ByteArrayOutputStream();
+    final DelimitedMessageWriter writer = new DelimitedMessageWriter(writerOutput, 100);
+    writer.writeAll(messages);
+    writer.close();
+
+    assertThat(ByteString.copyFrom(writerOutput.toByteArray()),
+        is(equalTo(ByteString.copyFrom(output.toByteArray()))));
+    assertThat(writer.getPosition(), is((long) output.size()));
+    assertThat(writer.getCount(), is((long) MESSAGE_COUNT));
+
+    final DelimitedMessageReader reader =
+        new DelimitedMessageReader(TYPE, new ByteArrayInputStream(output.toByteArray()));
+    assertThat(readAll(reader), is(equalTo(toByteStrings(messages))));
+  }
+
+  @Test
+  public void testSplitsByIndex() throws Exception {
+    final List<TestAllTypes> messages = newMessages();
+    final File file = temp.newFile();
+    final File indexFile = temp.newFile();
+    final DelimitedMessageWriter writer =
+        new DelimitedMessageWriter(new FileOutputStream(file),
+            DelimitedMessageWriter.DEFAULT_BUFFER_SIZE, new FileOutputStream(indexFile), 64);
+    writer.writeAll(messages);
+    writer.close();
+
+    final FileInputStream indexInput = new FileInputStream(indexFile);
+    final long[] index;
+
+    try {
+      index = DelimitedMessageReader.readIndex(indexInput);
+    } finally {
+      indexInput.close();
+    }
+
+    assertThat(index.length, is((MESSAGE_COUNT + 63) / 64));
+    final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+
+    try {
+      for (final int maxRegions : new int[] {1, 3, 100}) {
+        final List<DelimitedMessageReader> readers =
+            DelimitedMessageReader.split(TYPE, randomAccessFile.getChannel(), index, maxRegions);
+        assertThat(readers.size(), is(Math.min(maxRegions, index.length)));
+        final List<ByteString> actual = new ArrayList<ByteString>();
+
+        for (final DelimitedMessageReader reader : readers) {
+          actual.addAll(readAll(reader));
+        }
+
+        assertThat(actual, is(equalTo(toByteStrings(messages))));
+      }
+    } finally {
+      randomAccessFile.close();
+    }
+  }
+
+  private static List<TestAllTypes> newMessages() {
+    final List<TestAllTypes> messages = new ArrayList<TestAllTypes>();
+
+    for (int i = 0; i < MESSAGE_COUNT; i++) {
+      messages.add(TestAllTypes.newBuilder().setOptionalInt32(i)
+          .setOptionalString(Integer.toHexString(i * 31)).addRepeatedInt64(i * 7L).build());
+    }
+
+    return messages;
+  }
+
+  private static List<ByteString> readAll(final DelimitedMessageReader reader) throws Exception {
+    final List<ByteString> result = new ArrayList<ByteString>();
+
+    try {
+      while (reader.hasNext()) {
+        result.add(reader.next().toByteString());
+      }
+    } finally {
+      reader.close();
+    }
+
+    return result;
+  }
+
+  private static List<ByteString> toByteStrings(final List<TestAllTypes> messages) {
+    final List<ByteString> result = new ArrayList<ByteString>();
+
+    for (final TestAllTypes message : messages) {
+      result.add(message.toByteString());
+    }
+
+    return result;
+  }
+}
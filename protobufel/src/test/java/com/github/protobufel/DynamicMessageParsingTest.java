@@ -0,0 +1,137 @@
+//
+// Copyright © 2014, David Tesler (https://github.com/protobufel)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+// * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+// * Redistributions in binary form must reproduce the above copyright
+// notice, this list of conditions and the following disclaimer in the
+// documentation and/or other materials provided with the distribution.
+// * Neither the name of the <organization> nor the
+// names of its contributors may be used to endorse or promote products
+// derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+
+
+package com.github.protobufel;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import protobuf_unittest.UnittestProto.NestedTestAllTypes;
+import protobuf_unittest.UnittestProto.TestAllExtensions;
+import protobuf_unittest.UnittestProto.TestAllTypes;
+import protobuf_unittest.UnittestProto.TestFieldOrderings;
+import protobuf_unittest.UnittestProto.TestPackedTypes;
+import protobuf_unittest.UnittestProto.TestRequired;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.TestUtil;
+
+@RunWith(JUnit4.class)
+public class DynamicMessageParsingTest {
+  private static final Descriptor TYPE = TestAllTypes.getDescriptor();
+  private static final FieldDescriptor OPTIONAL_NESTED_MESSAGE_FD = TYPE
+      .findFieldByNumber(TestAllTypes.OPTIONAL_NESTED_MESSAGE_FIELD_NUMBER);
+  private static final FieldDescriptor REPEATED_NESTED_MESSAGE_FD = TYPE
+      .findFieldByNumber(TestAllTypes.REPEATED_NESTED_MESSAGE_FIELD_NUMBER);
+  private static final FieldDescriptor NESTED_MESSAGE_BB_FD = TestAllTypes.NestedMessage
+      .getDescriptor().findFieldByNumber(TestAllTypes.NestedMessage.BB_FIELD_NUMBER);
+
+  @Test
+  public void testParsesAllTypesAsOriginal() throws Exception {
+    assertParsesAsOriginal(TestUtil.getAllSet().toByteString(), TYPE);
+    assertParsesAsOriginal(TestUtil.getPackedSet().toByteString(), TestPackedTypes.getDescriptor());
+  }
+
+  @Test
+  public void testParsesExtensionsAsOriginal() throws Exception {
+    final ByteString bytes = TestUtil.getAllExtensionsSet().toByteString();
+    final DynamicMessage message =
+        DynamicMessage.parseFrom(TestAllExtensions.getDescriptor(), bytes,
+            TestUtil.getExtensionRegistry());
+
+    assertThat(message.toByteString(), is(equalTo(bytes)));
+    assertThat(message.getAllFields(), is(equalTo(com.google.protobuf.DynamicMessage.parseFrom(
+        TestAllExtensions.getDescriptor(), bytes, TestUtil.getExtensionRegistry()).getAllFields())));
+  }
+
+  @Test
+  public void testParsesSparseFieldNumbers() throws Exception {
+    final TestFieldOrderings original =
+        TestFieldOrderings.newBuilder().setMyInt(1).setMyString("two").setMyFloat(3.0f).build();
+
+    assertParsesAsOriginal(original.toByteString(), TestFieldOrderings.getDescriptor());
+  }
+
+  @Test
+  public void testParsesIntoExistingBuilder() throws Exception {
+    final DynamicMessage.Builder builder = DynamicMessage.newBuilder(TYPE);
+    final DynamicMessage.Builder nestedBuilder = builder.getFieldBuilder(OPTIONAL_NESTED_MESSAGE_FD);
+    builder.addFieldBuilder(REPEATED_NESTED_MESSAGE_FD).setField(NESTED_MESSAGE_BB_FD, 1);
+
+    final TestAllTypes update =
+        TestAllTypes.newBuilder()
+            .setOptionalNestedMessage(TestAllTypes.NestedMessage.newBuilder().setBb(2))
+            .addRepeatedNestedMessage(TestAllTypes.NestedMessage.newBuilder().setBb(3)).build();
+    builder.mergeFrom(update.toByteString());
+
+    assertThat(builder.getFieldBuilder(OPTIONAL_NESTED_MESSAGE_FD), is(sameInstance(nestedBuilder)));
+    assertThat(nestedBuilder.getField(NESTED_MESSAGE_BB_FD), is((Object) 2));
+    assertThat(builder.getRepeatedFieldCount(REPEATED_NESTED_MESSAGE_FD), is(2));
+    assertThat(builder.build().toByteString(), is(equalTo(TestAllTypes.newBuilder()
+        .addRepeatedNestedMessage(TestAllTypes.NestedMessage.newBuilder().setBb(1))
+        .mergeFrom(update).build().toByteString())));
+  }
+
+  @Test
+  public void testMergesRepeatedOccurrencesOfSingleMessage() throws Exception {
+    final ByteString bytes =
+        NestedTestAllTypes.newBuilder().setPayload(TestAllTypes.newBuilder().setOptionalInt32(1))
+            .build().toByteString()
+            .concat(NestedTestAllTypes.newBuilder()
+                .setPayload(TestAllTypes.newBuilder().setOptionalString("two")).build()
+                .toByteString());
+
+    assertParsesAsOriginal(bytes, NestedTestAllTypes.getDescriptor());
+  }
+
+  @Test(expected = InvalidProtocolBufferException.class)
+  public void testUninitializedMessageIsRejected() throws Exception {
+    DynamicMessage.parseFrom(TestRequired.getDescriptor(), TestRequired.newBuilder().setA(1)
+        .buildPartial().toByteArray());
+  }
+
+  private static void assertParsesAsOriginal(final ByteString bytes, final Descriptor type)
+      throws Exception {
+    final DynamicMessage message = DynamicMessage.parseFrom(type, bytes);
+    final com.google.protobuf.DynamicMessage expected =
+        com.google.protobuf.DynamicMessage.parseFrom(type, bytes);
+
+    assertThat(message.getAllFields(), is(equalTo(expected.getAllFields())));
+    assertThat(message.toByteString(), is(equalTo(expected.toByteString())));
+    assertThat(DynamicMessage.newBuilder(type).mergeFrom(bytes).build(), is(equalTo(message)));
+  }
+}
@@ -0,0 +1,91 @@
+//
+// Copyright © 2014, David Tesler (https://github.com/protobufel)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+// * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+// * Redistributions in binary form must reproduce the above copyright
+// notice, this list of conditions and the following disclaimer in the
+// documentation and/or other materials provided with the distribution.
+// * Neither the name of the <organization> nor the
+// names of its contributors may be used to endorse or promote products
+// derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+
+
+package com.github.protobufel;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+
+import java.io.ByteArrayOutputStream;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import protobuf_unittest.UnittestProto.NestedTestAllTypes;
+import protobuf_unittest.UnittestProto.TestAllTypes;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.TestUtil;
+
+@RunWith(JUnit4.class)
+public class EncodingCacheTest {
+  @Test
+  public void testRetainsSmallEncoding() throws Exception {
+    final ByteString expected = TestUtil.getAllSet().toByteString();
+    final DynamicMessage message = DynamicMessage.parseFrom(TestAllTypes.getDescriptor(), expected);
+    final ByteString bytes = message.toByteString();
+
+    assertThat(bytes, is(equalTo(expected)));
+    assertThat(message.toByteString(), is(sameInstance(bytes)));
+    assertThat(ByteString.copyFrom(message.toByteArray()), is(equalTo(expected)));
+    assertThat(message.toByteArray(), is(not(sameInstance(message.toByteArray()))));
+
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    message.writeTo(output);
+    assertThat(ByteString.copyFrom(output.toByteArray()), is(equalTo(expected)));
+  }
+
+  @Test
+  public void testNestsRetainedEncoding() throws Exception {
+    final DynamicMessage payload =
+        DynamicMessage.parseFrom(TestAllTypes.getDescriptor(), TestUtil.getAllSet().toByteString());
+    payload.toByteString();
+    final DynamicMessage message =
+        DynamicMessage.newBuilder(NestedTestAllTypes.getDescriptor())
+            .setField(NestedTestAllTypes.getDescriptor().findFieldByName("payload"), payload)
+            .build();
+
+    assertThat(message.toByteString(), is(equalTo(NestedTestAllTypes.newBuilder()
+        .setPayload(TestUtil.getAllSet()).build().toByteString())));
+  }
+
+  @Test
+  public void testDoesNotRetainBigEncoding() throws Exception {
+    final TestAllTypes expected =
+        TestAllTypes.newBuilder().setOptionalBytes(ByteString.copyFrom(new byte[1 << 13])).build();
+    final DynamicMessage message =
+        DynamicMessage.parseFrom(TestAllTypes.getDescriptor(), expected.toByteString());
+
+    assertThat(message.toByteString(), is(equalTo(expected.toByteString())));
+    assertThat(message.toByteString(), is(not(sameInstance(message.toByteString()))));
+  }
+}
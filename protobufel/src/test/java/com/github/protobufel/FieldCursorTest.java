@@ -0,0 +1,152 @@
+//
+// Copyright © 2014, David Tesler (https://github.com/protobufel)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+// * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+// * Redistributions in binary form must reproduce the above copyright
+// notice, this list of conditions and the following disclaimer in the
+// documentation and/or other materials provided with the distribution.
+// * Neither the name of the <organization> nor the
+// names of its contributors may be used to endorse or promote products
+// derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+
+package com.github.protobufel;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map.Entry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import protobuf_unittest.UnittestProto.TestAllExtensions;
+import protobuf_unittest.UnittestProto.TestAllTypes;
+
+import com.github.protobufel.MessageAdapter.FieldCursor;
+import com.github.protobufel.MessageAdapter.FieldVisitor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.MessageOrBuilder;
+import com.google.protobuf.TestUtil;
+
+@RunWith(JUnit4.class)
+public class FieldCursorTest {
+  @Test
+  public void testVisitsFieldsAsGetAllFields() {
+    final DynamicMessage message = DynamicMessage.newBuilder(TestUtil.getAllSet())
+        .clearField(TestAllTypes.getDescriptor().findFieldByName("optional_int32")).build();
+    final DynamicMessage.Builder builder = message.toBuilder();
+    builder.getFieldBuilder(
+        TestAllTypes.getDescriptor().findFieldByName("optional_foreign_message"));
+
+    for (final MessageOrBuilder messageOrBuilder : Arrays.<MessageOrBuilder>asList(
+        TestUtil.getAllSet(), message, builder)) {
+      final FieldCollector attributes = new FieldCollector();
+      final FieldCollector children = new FieldCollector();
+      MessageAdapter.forEachAttribute(messageOrBuilder, attributes);
+      new MessageAdapter<MessageOrBuilder>(messageOrBuilder).forEachChild(children);
+
+      assertThat(attributes.fields, equalTo(expectedFields(messageOrBuilder, false)));
+      assertThat(children.fields, equalTo(expectedFields(messageOrBuilder, true)));
+      assertThat(attributes.values, equalTo(expectedValues(messageOrBuilder, false)));
+      assertThat(children.values, equalTo(expectedValues(messageOrBuilder, true)));
+    }
+  }
+
+  @Test
+  public void testCursorIsReusable() {
+    final FieldCursor cursor = MessageAdapter.newAttributeCursor(TestAllTypes.getDefaultInstance());
+
+    assertThat(cursor.next(), is(false));
+
+    final TestAllTypes message =
+        TestAllTypes.newBuilder().setOptionalInt32(1).addRepeatedString("a").addRepeatedString("b")
+            .setOptionalNestedMessage(TestAllTypes.NestedMessage.getDefaultInstance()).build();
+    cursor.reset(message);
+
+    assertThat(cursor.next(), is(true));
+    assertThat(cursor.getField().getName(), equalTo("optional_int32"));
+    assertThat(cursor.getValue(), equalTo((Object) 1));
+    assertThat(cursor.getValueCount(), equalTo(1));
+    assertThat(cursor.next(), is(true));
+    assertThat(cursor.getField().getName(), equalTo("repeated_string"));
+    assertThat(cursor.getValueCount(), equalTo(2));
+    assertThat(cursor.getValue(1), equalTo((Object) "b"));
+    assertThat(cursor.next(), is(false));
+
+    final FieldCursor childCursor = new MessageAdapter<TestAllTypes>(message).newChildCursor();
+
+    assertThat(childCursor.next(), is(true));
+    assertThat(childCursor.getField().getName(), equalTo("optional_nested_message"));
+    assertThat(childCursor.next(), is(false));
+  }
+
+  @Test
+  public void testVisitsExtensions() {
+    final TestAllExtensions message = TestUtil.getAllExtensionsSet();
+    final List<FieldDescriptor> fields = new ArrayList<FieldDescriptor>();
+
+    for (final FieldCursor cursor = MessageAdapter.newChildCursor(message); cursor.next();) {
+      fields.add(cursor.getField());
+    }
+
+    assertThat(fields, equalTo(expectedFields(message, true)));
+  }
+
+  private static List<FieldDescriptor> expectedFields(final MessageOrBuilder message,
+      final boolean isChild) {
+    final List<FieldDescriptor> result = new ArrayList<FieldDescriptor>();
+
+    for (final FieldDescriptor field : message.getAllFields().keySet()) {
+      if (MessageAdapter.isFieldAttribute(field) != isChild) {
+        result.add(field);
+      }
+    }
+
+    return result;
+  }
+
+  private static List<Object> expectedValues(final MessageOrBuilder message,
+      final boolean isChild) {
+    final List<Object> result = new ArrayList<Object>();
+
+    for (final Entry<FieldDescriptor, Object> entry : message.getAllFields().entrySet()) {
+      if (MessageAdapter.isFieldAttribute(entry.getKey()) != isChild) {
+        result.add(entry.getValue());
+      }
+    }
+
+    return result;
+  }
+
+  private static final class FieldCollector implements FieldVisitor {
+    private final List<FieldDescriptor> fields = new ArrayList<FieldDescriptor>();
+    private final List<Object> values = new ArrayList<Object>();
+
+    @Override
+    public void visit(final FieldDescriptor field, final Object value) {
+      fields.add(field);
+      values.add(value);
+    }
+  }
+}
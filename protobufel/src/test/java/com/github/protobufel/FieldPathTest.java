@@ -0,0 +1,144 @@
+//
+// Copyright © 2014, David Tesler (https://github.com/protobufel)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+// * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+// * Redistributions in binary form must reproduce the above copyright
+// notice, this list of conditions and the following disclaimer in the
+// documentation and/or other materials provided with the distribution.
+// * Neither the name of the <organization> nor the
+// names of its contributors may be used to endorse or promote products
+// derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+
+package com.github.protobufel;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import protobuf_unittest.UnittestProto.TestAllTypes;
+import protobuf_unittest.UnittestProto.TestAllTypes.NestedMessage;
+
+import com.github.protobufel.MessageAdapter.FieldVisitor;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.MessageOrBuilder;
+
+@RunWith(JUnit4.class)
+public class FieldPathTest {
+  private static final Descriptor TYPE = TestAllTypes.getDescriptor();
+
+  private static final TestAllTypes MESSAGE = TestAllTypes.newBuilder()
+      .addRepeatedNestedMessage(NestedMessage.newBuilder().setBb(1))
+      .addRepeatedNestedMessage(NestedMessage.getDefaultInstance())
+      .addRepeatedNestedMessage(NestedMessage.newBuilder().setBb(3))
+      .addRepeatedString("a").addRepeatedString("b").build();
+
+  @Test
+  public void testGets() {
+    for (final MessageOrBuilder message : Arrays.<MessageOrBuilder>asList(MESSAGE,
+        DynamicMessage.newBuilder(MESSAGE).build(), DynamicMessage.newBuilder(MESSAGE))) {
+      assertThat(FieldPath.compile(TYPE, "repeated_nested_message[2].bb").get(message),
+          equalTo((Object) 3));
+      assertThat(FieldPath.compile(TYPE, "optional_nested_message.bb").get(message),
+          equalTo((Object) 0));
+      assertThat(FieldPath.compile(TYPE, "repeated_string[1]").get(message),
+          equalTo((Object) "b"));
+      assertThat(FieldPath.compile(TYPE, "repeated_string").get(message),
+          equalTo((Object) Arrays.asList("a", "b")));
+    }
+  }
+
+  @Test
+  public void testForEachFansOut() {
+    final FieldPath path = FieldPath.compile(TYPE, "repeated_nested_message[*].bb");
+    final List<Object> values = new ArrayList<Object>();
+    path.forEach(MESSAGE, new FieldVisitor() {
+      @Override
+      public void visit(final FieldDescriptor field, final Object value) {
+        values.add(value);
+      }
+    });
+
+    assertThat(path.hasWildcard(), is(true));
+    assertThat(values, equalTo(Arrays.<Object>asList(1, 3)));
+    assertThat(path.count(MESSAGE), equalTo(2));
+    assertThat(FieldPath.compile(TYPE, "repeated_string").count(MESSAGE), equalTo(2));
+    assertThat(FieldPath.compile(TYPE, "repeated_nested_message[5].bb").count(MESSAGE),
+        equalTo(0));
+    assertThat(FieldPath.compile(TYPE, "optional_nested_message.bb").count(MESSAGE),
+        equalTo(0));
+  }
+
+  @Test
+  public void testSets() {
+    final DynamicMessage.Builder builder = DynamicMessage.newBuilder(MESSAGE);
+    FieldPath.compile(TYPE, "repeated_nested_message[*].bb").set(builder, 7);
+    FieldPath.compile(TYPE, "optional_nested_message.bb").set(builder, 5);
+    FieldPath.compile(TYPE, "repeated_string[0]").set(builder, "c");
+    final TestAllTypes message = TestAllTypes.newBuilder().mergeFrom(builder.build()).build();
+
+    assertThat(message.getRepeatedNestedMessageList(), equalTo(Arrays.asList(
+        NestedMessage.newBuilder().setBb(7).build(), NestedMessage.newBuilder().setBb(7).build(),
+        NestedMessage.newBuilder().setBb(7).build())));
+    assertThat(message.getOptionalNestedMessage().getBb(), equalTo(5));
+    assertThat(message.getRepeatedStringList(), equalTo(Arrays.asList("c", "b")));
+
+    final DynamicMessage.Builder nestedBuilder =
+        builder.getFieldBuilder(TYPE.findFieldByName("optional_nested_message"));
+
+    assertThat(FieldPath.compile(TYPE, "optional_nested_message").get(builder),
+        sameInstance((Object) nestedBuilder));
+
+    final TestAllTypes.Builder generatedBuilder = TestAllTypes.newBuilder();
+    FieldPath.compile(TYPE, "optional_nested_message.bb").set(generatedBuilder, 2);
+
+    assertThat(generatedBuilder.getOptionalNestedMessage().getBb(), equalTo(2));
+  }
+
+  @Test
+  public void testCompiles() {
+    final FieldPath path = FieldPath.compile(TYPE, "repeated_nested_message[*].bb");
+
+    assertThat(FieldPath.compile(TYPE, "repeated_nested_message[*].bb"), sameInstance(path));
+    assertThat(path.getSegmentCount(), equalTo(2));
+    assertThat(path.getIndex(0), equalTo(FieldPath.ANY_INDEX));
+    assertThat(path.getIndex(1), equalTo(FieldPath.NO_INDEX));
+    assertThat(path.getField(1), equalTo(NestedMessage.getDescriptor().findFieldByName("bb")));
+
+    for (final String illegalPath : Arrays.asList("", "nope", "optional_int32.bb",
+        "repeated_nested_message.bb", "optional_nested_message[0]", "repeated_string[-1]",
+        "repeated_string[x]", "repeated_string[", "optional_nested_message.", ".optional_int32")) {
+      try {
+        FieldPath.compile(TYPE, illegalPath);
+        throw new AssertionError(illegalPath);
+      } catch (final IllegalArgumentException e) {
+        // expected
+      }
+    }
+  }
+}
@@ -0,0 +1,127 @@
+//
+// Copyright © 2014, David Tesler (https://github.com/protobufel)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+// * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+// * Redistributions in binary form must reproduce the above copyright
+// notice, this list of conditions and the following disclaimer in the
+// documentation and/or other materials provided with the distribution.
+// * Neither the name of the <organization> nor the
+// names of its contributors may be used to endorse or promote products
+// derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+
+package com.github.protobufel;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import protobuf_unittest.UnittestProto.TestAllTypes;
+import protobuf_unittest.UnittestProto.TestAllTypes.NestedMessage;
+import protobuf_unittest.UnittestProto.TestAllTypes.OptionalGroup;
+import protobuf_unittest.UnittestProto.TestPackedTypes;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.TestUtil;
+
+@RunWith(JUnit4.class)
+public class FieldProjectionTest {
+  private static final FieldProjection PROJECTION = FieldProjection.of(
+      TestAllTypes.getDescriptor(), "optional_int32", "optional_nested_message.bb",
+      "repeated_nested_message.bb", "repeated_string", "optionalgroup.a");
+
+  private static TestAllTypes getProjectedAllSet() {
+    final TestAllTypes allSet = TestUtil.getAllSet();
+    final TestAllTypes.Builder builder = TestAllTypes.newBuilder()
+        .setOptionalInt32(allSet.getOptionalInt32())
+        .setOptionalNestedMessage(allSet.getOptionalNestedMessage())
+        .addAllRepeatedString(allSet.getRepeatedStringList())
+        .setOptionalGroup(OptionalGroup.newBuilder().setA(allSet.getOptionalGroup().getA()));
+
+    for (final NestedMessage message : allSet.getRepeatedNestedMessageList()) {
+      builder.addRepeatedNestedMessage(NestedMessage.newBuilder().setBb(message.getBb()));
+    }
+
+    return builder.build();
+  }
+
+  @Test
+  public void testParsesSelectedFieldsOnly() throws Exception {
+    final DynamicMessage result = DynamicMessage.parseFrom(TestAllTypes.getDescriptor(),
+        TestUtil.getAllSet().toByteString(), PROJECTION);
+
+    assertThat(result.toByteString(), equalTo(getProjectedAllSet().toByteString()));
+  }
+
+  @Test
+  public void testWritesSelectedFieldsOnly() throws Exception {
+    final DynamicMessage message =
+        DynamicMessage.parseFrom(TestAllTypes.getDescriptor(), TestUtil.getAllSet()
+            .toByteString());
+    final ByteString data = message.toByteString(PROJECTION);
+
+    assertThat(data, equalTo(getProjectedAllSet().toByteString()));
+    assertThat(message.getSerializedSize(PROJECTION), equalTo(data.size()));
+    assertThat(DynamicMessage.parseFrom(TestAllTypes.getDescriptor(), data, PROJECTION)
+        .toByteString(), equalTo(data));
+  }
+
+  @Test
+  public void testParsesPackedAndUnpackedFields() throws Exception {
+    final FieldProjection projection =
+        FieldProjection.of(TestPackedTypes.getDescriptor(), "packed_int32", "packed_enum");
+    final TestPackedTypes expected =
+        TestPackedTypes.newBuilder().addAllPackedInt32(TestUtil.getPackedSet()
+            .getPackedInt32List()).addAllPackedEnum(TestUtil.getPackedSet()
+            .getPackedEnumList()).build();
+
+    assertThat(DynamicMessage.parseFrom(TestPackedTypes.getDescriptor(),
+        TestUtil.getPackedSet().toByteString(), projection).toByteString(),
+        equalTo(expected.toByteString()));
+    assertThat(DynamicMessage.parseFrom(TestPackedTypes.getDescriptor(),
+        TestUtil.getUnpackedSet().toByteString(), projection).toByteString(),
+        equalTo(expected.toByteString()));
+  }
+
+  @Test
+  public void testMergesPaths() {
+    final FieldProjection projection = FieldProjection.of(TestAllTypes.getDescriptor(),
+        "optional_nested_message.bb", "optional_nested_message", "optional_int32");
+
+    assertThat(projection.getPaths(), contains("optional_int32", "optional_nested_message"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRejectsUnknownField() {
+    FieldProjection.of(TestAllTypes.getDescriptor(), "optional_nested_message.no_such_field");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRejectsPathThroughScalarField() {
+    FieldProjection.of(TestAllTypes.getDescriptor(), "optional_int32.value");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRejectsProjectionOfOtherType() throws Exception {
+    DynamicMessage.parseFrom(TestPackedTypes.getDescriptor(), ByteString.EMPTY, PROJECTION);
+  }
+}
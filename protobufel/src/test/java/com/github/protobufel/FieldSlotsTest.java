@@ -0,0 +1,132 @@
+//
+// Copyright © 2014, David Tesler (https://github.com/protobufel)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+// * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+// * Redistributions in binary form must reproduce the above copyright
+// notice, this list of conditions and the following disclaimer in the
+// documentation and/or other materials provided with the distribution.
+// * Neither the name of the <organization> nor the
+// names of its contributors may be used to endorse or promote products
+// derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+
+
+package com.github.protobufel;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import protobuf_unittest.UnittestProto.TestAllTypes;
+
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+
+@RunWith(JUnit4.class)
+public class FieldSlotsTest {
+  private static final Descriptor TYPE = TestAllTypes.getDescriptor();
+  private static final FieldDescriptor OPTIONAL_INT32_FD = TYPE
+      .findFieldByNumber(TestAllTypes.OPTIONAL_INT32_FIELD_NUMBER);
+  private static final FieldDescriptor REPEATED_INT32_FD = TYPE
+      .findFieldByNumber(TestAllTypes.REPEATED_INT32_FIELD_NUMBER);
+  private static final FieldDescriptor ONEOF_UINT32_FD = TYPE
+      .findFieldByNumber(TestAllTypes.ONEOF_UINT32_FIELD_NUMBER);
+  private static final FieldDescriptor ONEOF_STRING_FD = TYPE
+      .findFieldByNumber(TestAllTypes.ONEOF_STRING_FIELD_NUMBER);
+  private static final FieldDescriptor ONEOF_NESTED_MESSAGE_FD = TYPE
+      .findFieldByNumber(TestAllTypes.ONEOF_NESTED_MESSAGE_FIELD_NUMBER);
+
+  @Test
+  public void testPresenceIteration() {
+    final FieldSlots fields = new FieldSlots(TYPE);
+    assertThat(fields.isEmpty(), is(true));
+    assertThat(fields.nextPresentIndex(0), is(-1));
+
+    final FieldDescriptor lastField = TYPE.getFields().get(TYPE.getFields().size() - 1);
+    fields.set(OPTIONAL_INT32_FD, 1);
+    fields.set(lastField, lastField.getDefaultValue());
+
+    assertThat(fields.nextPresentIndex(0), is(OPTIONAL_INT32_FD.getIndex()));
+    assertThat(fields.nextPresentIndex(OPTIONAL_INT32_FD.getIndex() + 1),
+        is(lastField.getIndex()));
+    assertThat(fields.nextPresentIndex(lastField.getIndex() + 1), is(-1));
+
+    fields.clear(lastField);
+    assertThat(fields.nextPresentIndex(OPTIONAL_INT32_FD.getIndex() + 1), is(-1));
+    assertThat(fields.getAllFields().keySet(), contains(OPTIONAL_INT32_FD));
+  }
+
+  @Test
+  public void testOneofSwitching() {
+    final FieldSlots fields = new FieldSlots(TYPE);
+    fields.set(ONEOF_UINT32_FD, 1);
+    fields.set(ONEOF_STRING_FD, "hello");
+
+    assertThat(fields.get(ONEOF_UINT32_FD), is(nullValue()));
+    assertThat(fields.getOneofFieldDescriptor(ONEOF_STRING_FD.getContainingOneof()),
+        is(equalTo(ONEOF_STRING_FD)));
+
+    fields.setOneofCase(ONEOF_NESTED_MESSAGE_FD);
+    assertThat(fields.get(ONEOF_STRING_FD), is(nullValue()));
+    assertThat(fields.getOneofFieldDescriptor(ONEOF_STRING_FD.getContainingOneof()),
+        is(equalTo(ONEOF_NESTED_MESSAGE_FD)));
+
+    fields.clear(ONEOF_NESTED_MESSAGE_FD);
+    assertThat(fields.getOneofFieldDescriptor(ONEOF_STRING_FD.getContainingOneof()),
+        is(nullValue()));
+  }
+
+  @Test
+  public void testBuilderCopiesOnWriteAfterBuild() {
+    final DynamicMessage.Builder builder = DynamicMessage.newBuilder(TYPE);
+    builder.setField(OPTIONAL_INT32_FD, 1).addRepeatedField(REPEATED_INT32_FD, 1);
+    final DynamicMessage message = builder.build();
+
+    builder.setField(OPTIONAL_INT32_FD, 2).addRepeatedField(REPEATED_INT32_FD, 2);
+    final DynamicMessage.Builder cloned = builder.clone().removeRepeatedField(REPEATED_INT32_FD, 0);
+
+    assertThat(message.getField(OPTIONAL_INT32_FD), is((Object) 1));
+    assertThat(message.getRepeatedFieldCount(REPEATED_INT32_FD), is(1));
+    assertThat(builder.getRepeatedFieldCount(REPEATED_INT32_FD), is(2));
+    assertThat(cloned.getRepeatedFieldCount(REPEATED_INT32_FD), is(1));
+
+    cloned.removeRepeatedField(REPEATED_INT32_FD, 0);
+    assertThat(cloned.build().getAllFields().keySet(), contains(OPTIONAL_INT32_FD));
+  }
+
+  @Test
+  public void testOneofFieldBuilderIsDisposedOnSwitch() {
+    final DynamicMessage.Builder builder = DynamicMessage.newBuilder(TYPE);
+    builder.getFieldBuilder(ONEOF_NESTED_MESSAGE_FD);
+    assertThat(builder.hasField(ONEOF_NESTED_MESSAGE_FD), is(true));
+
+    builder.setField(ONEOF_STRING_FD, "hello");
+    assertThat(builder.hasField(ONEOF_NESTED_MESSAGE_FD), is(false));
+    assertThat(builder.build().getAllFields().keySet(), contains(ONEOF_STRING_FD));
+
+    builder.clearOneof(ONEOF_STRING_FD.getContainingOneof());
+    assertThat(builder.build().getAllFields().entrySet(), is(empty()));
+  }
+}
@@ -0,0 +1,110 @@
+//
+// Copyright © 2014, David Tesler (https://github.com/protobufel)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+// * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+// * Redistributions in binary form must reproduce the above copyright
+// notice, this list of conditions and the following disclaimer in the
+// documentation and/or other materials provided with the distribution.
+// * Neither the name of the <organization> nor the
+// names of its contributors may be used to endorse or promote products
+// derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+
+
+package com.github.protobufel;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import protobuf_unittest.UnittestProto.TestAllExtensions;
+import protobuf_unittest.UnittestProto.TestAllTypes;
+import protobuf_unittest.UnittestProto.TestFieldOrderings;
+
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Message;
+import com.google.protobuf.TestUtil;
+
+@RunWith(JUnit4.class)
+public class FieldTableTest {
+  @Test
+  public void testCompilesFields() {
+    final Descriptor type = TestAllTypes.getDescriptor();
+    final FieldTable table = FieldTable.of(type);
+    assertThat(FieldTable.of(type), is(sameInstance(table)));
+
+    for (final FieldDescriptor field : type.getFields()) {
+      final FieldPlan plan = table.findPlanByNumber(field.getNumber());
+      assertThat(plan, is(sameInstance(table.getPlan(field))));
+      assertThat(plan.field, is(sameInstance(field)));
+      assertThat(plan.tag, is(FieldPlan.makeTag(field)));
+    }
+
+    assertThat(table.findPlanByNumber(1000), is(nullValue()));
+    assertThat(table.getPlan(TestAllTypes.getDescriptor().findFieldByNumber(
+        TestAllTypes.REPEATED_DOUBLE_FIELD_NUMBER)).fixedElementSize, is(10));
+  }
+
+  @Test
+  public void testFindsSparseFieldNumbers() {
+    final Descriptor type = TestFieldOrderings.getDescriptor();
+    final FieldTable table = FieldTable.of(type);
+    FieldPlan previous = null;
+
+    for (final FieldPlan plan : table.getPlansByNumber()) {
+      assertThat(table.findPlanByNumber(plan.number), is(sameInstance(plan)));
+      assertThat(previous == null || previous.number < plan.number, is(true));
+      previous = plan;
+    }
+
+    assertThat(table.findPlanByNumber(2), is(nullValue()));
+  }
+
+  @Test
+  public void testSerializesAsGenerated() throws Exception {
+    assertSerializesAsGenerated(TestUtil.getAllSet());
+    assertSerializesAsGenerated(TestUtil.getPackedSet());
+    assertSerializesAsGenerated(TestUtil.getUnpackedSet());
+    assertSerializesAsGenerated(TestAllTypes.newBuilder().addRepeatedGroup(
+        TestAllTypes.RepeatedGroup.newBuilder().setA(1)).build());
+
+    final TestAllExtensions extensions = TestUtil.getAllExtensionsSet();
+    final DynamicMessage message =
+        DynamicMessage.parseFrom(TestAllExtensions.getDescriptor(), extensions.toByteString(),
+            TestUtil.getExtensionRegistry());
+    assertThat(message.getSerializedSize(), is(extensions.getSerializedSize()));
+    assertThat(message.toByteString(), is(equalTo(extensions.toByteString())));
+  }
+
+  private static void assertSerializesAsGenerated(final Message expected) throws Exception {
+    final DynamicMessage message =
+        DynamicMessage.newBuilder(expected.getDescriptorForType()).mergeFrom(expected).build();
+
+    assertThat(message.getSerializedSize(), is(expected.getSerializedSize()));
+    assertThat(message.toByteString(), is(equalTo(expected.toByteString())));
+    assertThat(DynamicMessage.parseFrom(expected.getDescriptorForType(), expected.toByteString())
+        .toByteString(), is(equalTo(expected.toByteString())));
+  }
+}
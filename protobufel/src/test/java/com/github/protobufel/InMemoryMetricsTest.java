@@ -0,0 +1,113 @@
+//
+// Copyright © 2014, David Tesler (https://github.com/protobufel)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+// * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+// * Redistributions in binary form must reproduce the above copyright
+// notice, this list of conditions and the following disclaimer in the
+// documentation and/or other materials provided with the distribution.
+// * Neither the name of the <organization> nor the
+// names of its contributors may be used to endorse or promote products
+// derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+
+package com.github.protobufel;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.hasKey;
+import static org.hamcrest.Matchers.is;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import protobuf_unittest.UnittestProto.TestAllTypes;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.TestUtil;
+
+@RunWith(JUnit4.class)
+public class InMemoryMetricsTest {
+  private InMemoryMetrics metrics;
+
+  @Before
+  public void setUp() {
+    metrics = new InMemoryMetrics();
+    ProtobufelMetrics.install(metrics);
+  }
+
+  @After
+  public void tearDown() {
+    ProtobufelMetrics.install(null);
+  }
+
+  @Test
+  public void testCountsParsingAndSerialization() throws Exception {
+    final ByteString data = TestUtil.getAllSet().toByteString();
+    final DynamicMessage message = DynamicMessage.parseFrom(TestAllTypes.getDescriptor(), data);
+    DynamicMessage.parseLazyFrom(TestAllTypes.getDescriptor(), data);
+    message.toByteArray();
+
+    assertThat(metrics.getParsedMessages(), equalTo(2L));
+    assertThat(metrics.getParsedBytes(), equalTo(2L * data.size()));
+    assertThat(metrics.getParseNanos(), greaterThan(0L));
+    assertThat(metrics.getSerializedMessages(), equalTo(1L));
+    assertThat(metrics.getSerializedBytes(), equalTo((long) data.size()));
+    assertThat(metrics.getParsedSizeHistogram()[InMemoryMetrics.getBucket(data.size())],
+        equalTo(2L));
+    assertThat(metrics.toMap(), hasKey("parsedSizeBytes.lt."
+        + (1L << InMemoryMetrics.getBucket(data.size()))));
+  }
+
+  @Test
+  public void testCountsBuilderEvents() {
+    final FieldDescriptor field =
+        TestAllTypes.getDescriptor().findFieldByName("optional_nested_message");
+    final DynamicMessage.Builder builder = DynamicMessage.newBuilder(TestAllTypes.getDescriptor());
+    final long builderCreations = metrics.getBuilderCreations();
+    builder.getFieldBuilder(field).setField(
+        field.getMessageType().findFieldByName("bb"), 1);
+    builder.build();
+    builder.getFieldBuilder(field).setField(
+        field.getMessageType().findFieldByName("bb"), 2);
+
+    // the field builders and their nested builders are recreated after the build
+    assertThat(metrics.getBuilderCreations(), equalTo(builderCreations + 2));
+    assertThat(metrics.getFieldBuilderCreations(), equalTo(2L));
+    assertThat(metrics.getBuildPartialCalls() >= 2, is(true));
+    // the first change of each clean nested builder invalidates its field builder
+    assertThat(metrics.getChangePropagations(), equalTo(2L));
+
+    metrics.reset();
+    assertThat(metrics.getBuildPartialCalls(), equalTo(0L));
+  }
+
+  @Test
+  public void testRecordsNothingWhenUninstalled() throws Exception {
+    ProtobufelMetrics.install(null);
+    DynamicMessage.parseFrom(TestAllTypes.getDescriptor(), TestUtil.getAllSet().toByteString())
+        .toBuilder().build();
+
+    assertThat(metrics.getParsedMessages(), equalTo(0L));
+    assertThat(metrics.getBuilderCreations(), equalTo(0L));
+  }
+}
@@ -0,0 +1,121 @@
+//
+// Copyright © 2014, David Tesler (https://github.com/protobufel)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+// * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+// * Redistributions in binary form must reproduce the above copyright
+// notice, this list of conditions and the following disclaimer in the
+// documentation and/or other materials provided with the distribution.
+// * Neither the name of the <organization> nor the
+// names of its contributors may be used to endorse or promote products
+// derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+
+package com.github.protobufel;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import protobuf_unittest.UnittestProto.TestRequired;
+import protobuf_unittest.UnittestProto.TestRequiredForeign;
+
+import com.github.protobufel.DynamicMessage.Builder;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.UninitializedMessageException;
+
+@RunWith(JUnit4.class)
+public class IncrementalInitializationTest {
+  private final Descriptor type = TestRequiredForeign.getDescriptor();
+  private final FieldDescriptor optionalMessage = type.findFieldByName("optional_message");
+  private final FieldDescriptor repeatedMessage = type.findFieldByName("repeated_message");
+  private final Descriptor requiredType = TestRequired.getDescriptor();
+  private final FieldDescriptor a = requiredType.findFieldByName("a");
+  private final FieldDescriptor b = requiredType.findFieldByName("b");
+  private final FieldDescriptor c = requiredType.findFieldByName("c");
+
+  @Test
+  public void testTracksNestedBuilders() {
+    final Builder builder = DynamicMessage.newBuilder(type);
+    assertThat(builder.isInitialized(), is(true));
+
+    final Builder nested = builder.getFieldBuilder(optionalMessage);
+    assertThat(builder.isInitialized(), is(false));
+
+    nested.setField(a, 1).setField(b, 2);
+    assertThat(builder.isInitialized(), is(false));
+    nested.setField(c, 3);
+    assertThat(builder.isInitialized(), is(true));
+
+    final Builder element = builder.addFieldBuilder(repeatedMessage);
+    assertThat(builder.isInitialized(), is(false));
+    element.setField(a, 1).setField(b, 2).setField(c, 3);
+    assertThat(builder.isInitialized(), is(true));
+
+    nested.clearField(b);
+    assertThat(builder.isInitialized(), is(false));
+    assertThat(builder.buildPartial().isInitialized(), is(false));
+  }
+
+  @Test
+  public void testTracksBuildersOfSetMessages() {
+    final TestRequired complete = TestRequired.newBuilder().setA(1).setB(2).setC(3).build();
+    final Builder builder = DynamicMessage.newBuilder(type).setField(optionalMessage, complete)
+        .addRepeatedField(repeatedMessage, complete);
+    assertThat(builder.isInitialized(), is(true));
+
+    builder.getFieldBuilder(optionalMessage).clearField(a);
+    assertThat(builder.isInitialized(), is(false));
+    builder.getFieldBuilder(optionalMessage).setField(a, 1);
+    assertThat(builder.isInitialized(), is(true));
+
+    builder.getFieldBuilder(repeatedMessage, 0).clearField(c);
+    assertThat(builder.isInitialized(), is(false));
+    builder.removeRepeatedField(repeatedMessage, 0);
+    assertThat(builder.isInitialized(), is(true));
+  }
+
+  @Test
+  public void testFindsInitializationErrorsAsGenerated() {
+    final TestRequired partial = TestRequired.newBuilder().setB(2).buildPartial();
+    final TestRequired complete = TestRequired.newBuilder().setA(1).setB(2).setC(3).build();
+    final TestRequiredForeign.Builder expected = TestRequiredForeign.newBuilder()
+        .setOptionalMessage(partial).addRepeatedMessage(complete).addRepeatedMessage(partial);
+    final Builder builder = DynamicMessage.newBuilder(type).mergeFrom(expected.buildPartial());
+
+    assertThat(builder.findInitializationErrors(),
+        is(equalTo(expected.findInitializationErrors())));
+    assertThat(builder.buildPartial().findInitializationErrors(),
+        is(equalTo(expected.buildPartial().findInitializationErrors())));
+
+    builder.getFieldBuilder(optionalMessage).setField(a, 1).setField(c, 3);
+    builder.getFieldBuilder(repeatedMessage, 1).setField(a, 1).setField(c, 3);
+    assertThat(builder.findInitializationErrors(), is(empty()));
+    assertThat(builder.build().isInitialized(), is(true));
+  }
+
+  @Test(expected = UninitializedMessageException.class)
+  public void testBuildThrowsIfUninitialized() {
+    DynamicMessage.newBuilder(type).addFieldBuilder(repeatedMessage).toParent().build();
+  }
+}
@@ -0,0 +1,139 @@
+//
+// Copyright © 2014, David Tesler (https://github.com/protobufel)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+// * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+// * Redistributions in binary form must reproduce the above copyright
+// notice, this list of conditions and the following disclaimer in the
+// documentation and/or other materials provided with the distribution.
+// * Neither the name of the <organization> nor the
+// names of its contributors may be used to endorse or promote products
+// derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+
+
+package com.github.protobufel;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import protobuf_unittest.UnittestProto.NestedTestAllTypes;
+import protobuf_unittest.UnittestProto.TestAllExtensions;
+import protobuf_unittest.UnittestProto.TestAllTypes;
+import protobuf_unittest.UnittestProto.TestRequired;
+import protobuf_unittest.UnittestProto.TestRequiredForeign;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.TestUtil;
+import com.google.protobuf.WireFormat;
+
+@RunWith(JUnit4.class)
+public class LazyParsingTest {
+  private static final Descriptor NESTED_TYPE = NestedTestAllTypes.getDescriptor();
+  private static final FieldDescriptor PAYLOAD_FD = NESTED_TYPE
+      .findFieldByNumber(NestedTestAllTypes.PAYLOAD_FIELD_NUMBER);
+
+  @Test
+  public void testLazyParsingMatchesEager() throws Exception {
+    assertParsesAsEager(TestUtil.getAllSet().toByteString(), TestAllTypes.getDescriptor());
+
+    final ByteString bytes = TestUtil.getAllExtensionsSet().toByteString();
+    final DynamicMessage message =
+        DynamicMessage.parseLazyFrom(TestAllExtensions.getDescriptor(), bytes,
+            TestUtil.getExtensionRegistry());
+
+    assertThat(message.toByteString(), is(equalTo(bytes)));
+    assertThat(message, is(equalTo(DynamicMessage.parseFrom(TestAllExtensions.getDescriptor(),
+        bytes, TestUtil.getExtensionRegistry()))));
+  }
+
+  @Test
+  public void testMergesRepeatedOccurrencesOfSingleMessage() throws Exception {
+    final ByteString bytes =
+        NestedTestAllTypes.newBuilder().setPayload(TestAllTypes.newBuilder().setOptionalInt32(1))
+            .build().toByteString()
+            .concat(NestedTestAllTypes.newBuilder()
+                .setPayload(TestAllTypes.newBuilder().setOptionalString("two")).build()
+                .toByteString());
+
+    assertParsesAsEager(bytes, NESTED_TYPE);
+  }
+
+  @Test
+  public void testUntouchedMessagesPassThroughAsIs() throws Exception {
+    // the payload fields are out of the number order, so the reserialized payload differs
+    final ByteString payload =
+        TestAllTypes.newBuilder().setOptionalString("two").build().toByteString()
+            .concat(TestAllTypes.newBuilder().setOptionalInt32(1).build().toByteString());
+    final ByteString bytes = wrap(PAYLOAD_FD.getNumber(), payload);
+
+    final DynamicMessage message = DynamicMessage.parseLazyFrom(NESTED_TYPE, bytes);
+    assertThat(message.toByteString(), is(equalTo(bytes)));
+    assertThat(message.getSerializedSize(), is(bytes.size()));
+    assertThat(DynamicMessage.parseFrom(NESTED_TYPE, bytes).toByteString(),
+        is(not(equalTo(bytes))));
+
+    final DynamicMessage payloadMessage = (DynamicMessage) message.getField(PAYLOAD_FD);
+    assertThat(payloadMessage.toByteString(), is(not(equalTo(payload))));
+    assertThat(payloadMessage, is(equalTo(DynamicMessage.parseFrom(TestAllTypes.getDescriptor(),
+        payload))));
+    assertThat(message.toByteString(), is(equalTo(bytes)));
+  }
+
+  @Test(expected = InvalidProtocolBufferException.class)
+  public void testUninitializedNestedMessageIsRejected() throws Exception {
+    DynamicMessage.parseLazyFrom(TestRequiredForeign.getDescriptor(), TestRequiredForeign
+        .newBuilder().setOptionalMessage(TestRequired.newBuilder().setA(1).buildPartial())
+        .buildPartial().toByteString());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testMalformedNestedMessageFailsOnAccess() throws Exception {
+    final DynamicMessage message =
+        DynamicMessage.parseLazyFrom(NESTED_TYPE,
+            wrap(PAYLOAD_FD.getNumber(), ByteString.copyFrom(new byte[] {(byte) 0xFF})));
+
+    message.getField(PAYLOAD_FD);
+  }
+
+  private static ByteString wrap(final int number, final ByteString payload) {
+    final ByteString.Output output = ByteString.newOutput();
+    output.write(WireFormat.WIRETYPE_LENGTH_DELIMITED | number << 3);
+    output.write(payload.size());
+    output.write(payload.toByteArray(), 0, payload.size());
+    return output.toByteString();
+  }
+
+  private static void assertParsesAsEager(final ByteString bytes, final Descriptor type)
+      throws Exception {
+    final DynamicMessage message = DynamicMessage.parseLazyFrom(type, bytes);
+    final DynamicMessage expected = DynamicMessage.parseFrom(type, bytes);
+
+    assertThat(message.toByteString(), is(equalTo(expected.toByteString())));
+    assertThat(message.getAllFields(), is(equalTo(expected.getAllFields())));
+    assertThat(message.toBuilder().build(), is(equalTo(expected)));
+  }
+}
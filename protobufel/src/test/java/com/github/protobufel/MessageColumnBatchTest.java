@@ -0,0 +1,135 @@
+//
+// Copyright © 2014, David Tesler (https://github.com/protobufel)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+// * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+// * Redistributions in binary form must reproduce the above copyright
+// notice, this list of conditions and the following disclaimer in the
+// documentation and/or other materials provided with the distribution.
+// * Neither the name of the <organization> nor the
+// names of its contributors may be used to endorse or promote products
+// derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+
+package com.github.protobufel;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import protobuf_unittest.UnittestProto.TestAllTypes;
+import protobuf_unittest.UnittestProto.TestAllTypes.NestedMessage;
+import protobuf_unittest.UnittestProto.TestRecursiveMessage;
+
+import com.github.protobufel.MessageColumnBatch.Column;
+import com.google.protobuf.Message;
+import com.google.protobuf.TestUtil;
+
+@RunWith(JUnit4.class)
+public class MessageColumnBatchTest {
+  @Test
+  public void testReassemblesMessages() throws Exception {
+    final List<Message> messages = Arrays.<Message>asList(
+        TestUtil.getAllSet(),
+        TestAllTypes.getDefaultInstance(),
+        TestAllTypes.newBuilder().setOptionalInt32(1).addRepeatedNestedMessage(
+            NestedMessage.getDefaultInstance()).setOptionalGroup(
+            TestAllTypes.OptionalGroup.getDefaultInstance()).build(),
+        DynamicMessage.newBuilder(TestUtil.getAllSet()).clearField(
+            TestAllTypes.getDescriptor().findFieldByName("repeated_string")).build());
+    final MessageColumnBatch batch = MessageColumnBatch.of(TestAllTypes.getDescriptor(), messages);
+    final List<DynamicMessage> result = batch.toMessages();
+
+    assertThat(batch.getRecordCount(), equalTo(messages.size()));
+
+    for (int i = 0; i < messages.size(); i++) {
+      assertThat(result.get(i).toByteString(), equalTo(messages.get(i).toByteString()));
+      assertThat(batch.getMessage(i).toByteString(), equalTo(messages.get(i).toByteString()));
+    }
+  }
+
+  @Test
+  public void testShredsRepetitionAndDefinitionLevels() {
+    final MessageColumnBatch batch = MessageColumnBatch.of(TestAllTypes.getDescriptor(),
+        Arrays.asList(
+            TestAllTypes.newBuilder()
+                .addRepeatedNestedMessage(NestedMessage.newBuilder().setBb(1))
+                .addRepeatedNestedMessage(NestedMessage.getDefaultInstance())
+                .addRepeatedNestedMessage(NestedMessage.newBuilder().setBb(3)).build(),
+            TestAllTypes.getDefaultInstance()));
+    final Column column = batch.getColumn("repeated_nested_message.bb");
+
+    assertThat(column.getMaxRepetitionLevel(), equalTo(1));
+    assertThat(column.getMaxDefinitionLevel(), equalTo(2));
+    assertThat(column.getLevelCount(), equalTo(4));
+    assertThat(levels(column, true), equalTo(Arrays.asList(0, 1, 1, 0)));
+    assertThat(levels(column, false), equalTo(Arrays.asList(2, 1, 2, 0)));
+    assertThat(column.getValueCount(), equalTo(2));
+    assertThat(column.getLong(0), equalTo(1L));
+    assertThat(column.getLong(1), equalTo(3L));
+  }
+
+  @Test
+  public void testScansColumns() {
+    final List<TestAllTypes> messages = new ArrayList<TestAllTypes>();
+
+    for (int i = 0; i < 10; i++) {
+      messages.add(TestAllTypes.newBuilder().setOptionalDouble(i * 0.5).addRepeatedInt32(i)
+          .addRepeatedInt32(-i).build());
+    }
+
+    final MessageColumnBatch batch = MessageColumnBatch.of(TestAllTypes.getDescriptor(), messages);
+    final Column ints = batch.getColumn("repeated_int32");
+    final Column doubles = batch.getColumn("optional_double");
+    final BitSet expected = new BitSet();
+    expected.set(3, 6);
+
+    assertThat(ints.sumLong(), equalTo(0L));
+    assertThat(ints.minLong(), equalTo(-9L));
+    assertThat(ints.maxLong(), equalTo(9L));
+    assertThat(ints.selectRecords(3L, 5L), equalTo(expected));
+    assertThat(doubles.sumDouble(), equalTo(22.5));
+    assertThat(doubles.maxDouble(), equalTo(4.5));
+    assertThat(doubles.selectRecords(1.5, 2.5), equalTo(expected));
+    assertThat(batch.getColumn("optional_int32").selectPresentRecords().isEmpty(), is(true));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRejectsRecursiveType() {
+    MessageColumnBatch.of(TestRecursiveMessage.getDescriptor(),
+        Arrays.asList(TestRecursiveMessage.getDefaultInstance()));
+  }
+
+  private static List<Integer> levels(final Column column, final boolean isRepetition) {
+    final List<Integer> levels = new ArrayList<Integer>();
+
+    for (int i = 0; i < column.getLevelCount(); i++) {
+      levels.add(isRepetition ? column.getRepetitionLevel(i) : column.getDefinitionLevel(i));
+    }
+
+    return levels;
+  }
+}
@@ -0,0 +1,137 @@
+//
+// Copyright © 2014, David Tesler (https://github.com/protobufel)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+// * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+// * Redistributions in binary form must reproduce the above copyright
+// notice, this list of conditions and the following disclaimer in the
+// documentation and/or other materials provided with the distribution.
+// * Neither the name of the <organization> nor the
+// names of its contributors may be used to endorse or promote products
+// derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+
+package com.github.protobufel;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import protobuf_unittest.UnittestProto;
+import protobuf_unittest.UnittestProto.TestAllExtensions;
+import protobuf_unittest.UnittestProto.TestAllTypes;
+import protobuf_unittest.UnittestProto.TestAllTypes.NestedMessage;
+
+import com.github.protobufel.MessageDelta.Run;
+import com.google.protobuf.ExtensionRegistry;
+import com.google.protobuf.Message;
+import com.google.protobuf.TestUtil;
+
+@RunWith(JUnit4.class)
+public class MessageDiffTest {
+  @Test
+  public void testSkipsIdenticalMessages() {
+    final DynamicMessage message =
+        DynamicMessage.newBuilder(TestAllTypes.getDescriptor()).mergeFrom(TestUtil.getAllSet())
+            .build();
+
+    assertThat(MessageDiff.diff(message, message).isEmpty(), is(true));
+    assertThat(MessageDiff.diff(message, message.toBuilder().build()).isEmpty(), is(true));
+    assertThat(MessageDiff.diff(TestUtil.getAllSet(), message).isEmpty(), is(true));
+  }
+
+  @Test
+  public void testPatchesChangedFields() throws Exception {
+    final TestAllTypes from = TestUtil.getAllSet();
+    final TestAllTypes to = from.toBuilder()
+        .setOptionalInt32(1000)
+        .clearOptionalString()
+        .setOptionalNestedMessage(NestedMessage.newBuilder().setBb(7))
+        .clearRepeatedInt64()
+        .addRepeatedInt64(1).addRepeatedInt64(2)
+        .setRepeatedNestedMessage(1, NestedMessage.newBuilder().setBb(8))
+        .addRepeatedNestedMessage(NestedMessage.newBuilder().setBb(9))
+        .build();
+
+    assertPatches(from, to, ExtensionRegistry.getEmptyRegistry());
+    assertPatches(to, from, ExtensionRegistry.getEmptyRegistry());
+    assertThat(MessageDiff.diff(from, to).toByteString().size() * 4 < to.getSerializedSize(),
+        is(true));
+    assertPatches(TestAllTypes.getDefaultInstance(), to, ExtensionRegistry.getEmptyRegistry());
+    assertPatches(to, TestAllTypes.getDefaultInstance(), ExtensionRegistry.getEmptyRegistry());
+  }
+
+  @Test
+  public void testPatchesExtensions() throws Exception {
+    final TestAllExtensions from = TestUtil.getAllExtensionsSet();
+    final TestAllExtensions to = from.toBuilder()
+        .setExtension(UnittestProto.optionalInt32Extension, 1000)
+        .clearExtension(UnittestProto.optionalNestedMessageExtension)
+        .addExtension(UnittestProto.repeatedStringExtension, "added")
+        .build();
+
+    assertPatches(from, to, TestUtil.getExtensionRegistry());
+  }
+
+  @Test
+  public void testFindsMinimalRuns() {
+    final TestAllTypes from = TestAllTypes.newBuilder()
+        .addAllRepeatedInt32(Arrays.asList(1, 2, 3, 4, 5))
+        .addRepeatedNestedMessage(NestedMessage.newBuilder().setBb(1))
+        .addRepeatedNestedMessage(NestedMessage.newBuilder().setBb(2))
+        .build();
+    final TestAllTypes to = from.toBuilder()
+        .clearRepeatedInt32()
+        .addAllRepeatedInt32(Arrays.asList(1, 3, 4, 9, 5))
+        .setRepeatedNestedMessage(1, NestedMessage.newBuilder().setBb(3))
+        .build();
+
+    final MessageDelta delta = MessageDiff.diff(from, to);
+    assertThat(delta.getFieldDeltas(), hasSize(2));
+
+    final Run deleted = delta.getFieldDeltas().get(0).getRuns().get(0);
+    final Run inserted = delta.getFieldDeltas().get(0).getRuns().get(1);
+    assertThat(delta.getFieldDeltas().get(0).getRuns(), hasSize(2));
+    assertThat(deleted.getIndex(), is(1));
+    assertThat(deleted.getDeleteCount(), is(1));
+    assertThat(inserted.getIndex(), is(4));
+    assertThat(inserted.getValues(), is(equalTo(Arrays.<Object>asList(9))));
+
+    final Run patched = delta.getFieldDeltas().get(1).getRuns().get(0);
+    assertThat(patched.getIndex(), is(1));
+    assertThat(patched.getDeltas(), hasSize(1));
+    assertThat(delta.applyTo(from).toByteString(), is(equalTo(to.toByteString())));
+  }
+
+  private static void assertPatches(final Message from, final Message to,
+      final ExtensionRegistry registry) throws Exception {
+    final MessageDelta delta = MessageDiff.diff(from, to);
+    assertThat(delta.applyTo(from), is(equalTo((Object) DynamicMessage.newBuilder(to).build())));
+
+    final MessageDelta parsed =
+        MessageDelta.parseFrom(from.getDescriptorForType(), delta.toByteString(), registry);
+    final DynamicMessage patched = parsed.applyTo(DynamicMessage.newBuilder(from)).build();
+    assertThat(patched.toByteString(), is(equalTo(to.toByteString())));
+  }
+}
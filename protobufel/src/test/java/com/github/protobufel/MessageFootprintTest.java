@@ -0,0 +1,98 @@
+//
+// Copyright © 2014, David Tesler (https://github.com/protobufel)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+// * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+// * Redistributions in binary form must reproduce the above copyright
+// notice, this list of conditions and the following disclaimer in the
+// documentation and/or other materials provided with the distribution.
+// * Neither the name of the <organization> nor the
+// names of its contributors may be used to endorse or promote products
+// derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+
+package com.github.protobufel;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import protobuf_unittest.UnittestProto.TestAllTypes;
+
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.TestUtil;
+import com.google.protobuf.UnknownFieldSet;
+
+@RunWith(JUnit4.class)
+public class MessageFootprintTest {
+  private static final FieldDescriptor REPEATED_NESTED_MESSAGE =
+      TestAllTypes.getDescriptor().findFieldByName("repeated_nested_message");
+
+  @Test
+  public void testBreaksDownByFieldPath() throws Exception {
+    final DynamicMessage message =
+        DynamicMessage.parseFrom(TestAllTypes.getDescriptor(), TestUtil.getAllSet()
+            .toByteString());
+    final MessageFootprint footprint = MessageFootprint.estimate(message);
+
+    assertThat(footprint.getTotalBytes(), equalTo(MessageFootprint.estimateBytes(message)));
+    assertThat(footprint.getTotalBytes() > message.getSerializedSize(), is(true));
+    assertThat(footprint.getBytes("repeated_nested_message"),
+        greaterThan(footprint.getBytes("repeated_nested_message.bb")));
+    assertThat(footprint.getBytes("repeated_nested_message.bb"), greaterThan(0L));
+    assertThat(footprint.getBytes("optional_string"), greaterThan(0L));
+    assertThat(footprint.getBytes("no_such_field"), equalTo(0L));
+    assertThat(footprint.getUnknownFieldsBytes(), equalTo(0L));
+    assertThat(MessageFootprint.estimateBytes(
+        DynamicMessage.getDefaultInstance(TestAllTypes.getDescriptor())), equalTo(0L));
+  }
+
+  @Test
+  public void testWalksFieldBuilders() throws Exception {
+    final DynamicMessage message =
+        DynamicMessage.parseFrom(TestAllTypes.getDescriptor(), TestUtil.getAllSet()
+            .toByteString());
+    final DynamicMessage.Builder builder = message.toBuilder();
+    final long plainBytes = MessageFootprint.estimateBytes(builder);
+
+    builder.getFieldBuilder(TestAllTypes.getDescriptor().findFieldByName(
+        "optional_nested_message"));
+    builder.getFieldBuilder(REPEATED_NESTED_MESSAGE, 0);
+    final MessageFootprint footprint = MessageFootprint.estimate(builder);
+
+    assertThat(footprint.getTotalBytes(), greaterThan(plainBytes));
+    assertThat(footprint.getBytes("optional_nested_message.bb"), greaterThan(0L));
+    assertThat(footprint.getBytes("repeated_nested_message.bb"), greaterThan(0L));
+    assertThat(footprint.getTotalBytes(), equalTo(MessageFootprint.estimateBytes(builder)));
+  }
+
+  @Test
+  public void testCountsGeneratedMessagesAndUnknownFields() {
+    final TestAllTypes message = TestUtil.getAllSet().toBuilder().setUnknownFields(
+        UnknownFieldSet.newBuilder().mergeVarintField(1000, 1).build()).build();
+    final MessageFootprint footprint = MessageFootprint.estimate(message);
+
+    assertThat(footprint.getUnknownFieldsBytes(), greaterThan(0L));
+    assertThat(footprint.getBytes("repeated_nested_message.bb"), greaterThan(0L));
+    assertThat(MessageFootprint.estimateBytes(TestAllTypes.getDefaultInstance()), equalTo(0L));
+  }
+}
@@ -0,0 +1,183 @@
+//
+// Copyright © 2014, David Tesler (https://github.com/protobufel)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+// * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+// * Redistributions in binary form must reproduce the above copyright
+// notice, this list of conditions and the following disclaimer in the
+// documentation and/or other materials provided with the distribution.
+// * Neither the name of the <organization> nor the
+// names of its contributors may be used to endorse or promote products
+// derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+
+package com.github.protobufel;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.sameInstance;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import protobuf_unittest.UnittestProto.ForeignMessage;
+import protobuf_unittest.UnittestProto.TestAllTypes;
+import protobuf_unittest.UnittestProto.TestAllTypes.NestedMessage;
+import protobuf_unittest.UnittestProto.TestRecursiveMessage;
+
+import com.github.protobufel.MessageWalker.Path;
+import com.github.protobufel.MessageWalker.Visitor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.MessageOrBuilder;
+
+@RunWith(JUnit4.class)
+public class MessageWalkerTest {
+  @Test
+  public void testWalksInPreAndPostOrder() {
+    final TestAllTypes message = TestAllTypes.newBuilder()
+        .addRepeatedNestedMessage(NestedMessage.newBuilder().setBb(1))
+        .addRepeatedNestedMessage(NestedMessage.newBuilder().setBb(2))
+        .setOptionalForeignMessage(ForeignMessage.newBuilder().setC(3))
+        .setOptionalInt32(4).build();
+    final RecordingVisitor visitor = new RecordingVisitor(null);
+    new MessageWalker().walk(message, visitor);
+
+    assertThat(visitor.events, equalTo(Arrays.asList("+", "+optional_foreign_message",
+        "-optional_foreign_message", "+repeated_nested_message[0]", "-repeated_nested_message[0]",
+        "+repeated_nested_message[1]", "-repeated_nested_message[1]", "-")));
+  }
+
+  @Test
+  public void testPrunesSubtrees() {
+    final TestRecursiveMessage message = TestRecursiveMessage.newBuilder().setI(1).setA(
+        TestRecursiveMessage.newBuilder().setI(2).setA(TestRecursiveMessage.newBuilder().setI(3)))
+        .build();
+    final RecordingVisitor visitor = new RecordingVisitor("a");
+    new MessageWalker().walk(message, visitor);
+
+    assertThat(visitor.events, equalTo(Arrays.asList("+", "+a", "-a", "-")));
+  }
+
+  @Test
+  public void testWalksDeepTreesIteratively() {
+    final int depth = 100000;
+    TestRecursiveMessage message = TestRecursiveMessage.getDefaultInstance();
+
+    for (int i = 0; i < depth; i++) {
+      message = TestRecursiveMessage.newBuilder().setA(message).build();
+    }
+
+    final AtomicInteger maxDepth = new AtomicInteger();
+    final AtomicInteger leaveCount = new AtomicInteger();
+    new MessageWalker().walk(message, new Visitor() {
+      @Override
+      public boolean enter(final MessageOrBuilder message, final Path path) {
+        maxDepth.set(Math.max(maxDepth.get(), path.getDepth()));
+        return true;
+      }
+
+      @Override
+      public void leave(final MessageOrBuilder message, final Path path) {
+        leaveCount.incrementAndGet();
+      }
+    });
+
+    assertThat(maxDepth.get(), equalTo(depth));
+    assertThat(leaveCount.get(), equalTo(depth + 1));
+  }
+
+  @Test
+  public void testVisitsActiveNestedBuilders() {
+    final FieldDescriptor field =
+        TestAllTypes.getDescriptor().findFieldByName("optional_nested_message");
+    final DynamicMessage.Builder builder =
+        DynamicMessage.newBuilder(TestAllTypes.getDescriptor());
+    final DynamicMessage.Builder nestedBuilder = builder.getFieldBuilder(field);
+    nestedBuilder.setField(NestedMessage.getDescriptor().findFieldByName("bb"), 1);
+    final List<MessageOrBuilder> visited = new ArrayList<MessageOrBuilder>();
+    new MessageWalker().walk(builder, new Visitor() {
+      @Override
+      public boolean enter(final MessageOrBuilder message, final Path path) {
+        visited.add(message);
+        return true;
+      }
+
+      @Override
+      public void leave(final MessageOrBuilder message, final Path path) {}
+    });
+
+    assertThat(visited.size(), equalTo(2));
+    assertThat(visited.get(1), sameInstance((MessageOrBuilder) nestedBuilder));
+  }
+
+  @Test
+  public void testWalksInParallel() {
+    final TestAllTypes.Builder builder = TestAllTypes.newBuilder();
+
+    for (int i = 0; i < 1000; i++) {
+      builder.addRepeatedForeignMessage(ForeignMessage.newBuilder().setC(i));
+      builder.addRepeatedNestedMessage(NestedMessage.newBuilder().setBb(i));
+    }
+
+    final DynamicMessage message = DynamicMessage.newBuilder(builder.build()).build();
+    final RecordingVisitor expected = new RecordingVisitor(null);
+    new MessageWalker().walk(message, expected);
+    final RecordingVisitor visitor = new RecordingVisitor(null);
+    final ForkJoinPool pool = new ForkJoinPool(4);
+
+    try {
+      MessageWalker.walkParallel(message, visitor, pool, 64);
+    } finally {
+      pool.shutdown();
+    }
+
+    assertThat(visitor.events.size(), equalTo(expected.events.size()));
+    assertThat(new HashSet<String>(visitor.events), equalTo(new HashSet<String>(expected.events)));
+    assertThat(visitor.events.get(visitor.events.size() - 1), equalTo("-"));
+  }
+
+  private static final class RecordingVisitor implements Visitor {
+    private final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+    private final Set<String> prunedPaths;
+
+    private RecordingVisitor(final String prunedPath) {
+      prunedPaths = prunedPath == null ? Collections.<String>emptySet()
+          : Collections.singleton(prunedPath);
+    }
+
+    @Override
+    public boolean enter(final MessageOrBuilder message, final Path path) {
+      events.add("+" + path);
+      return !prunedPaths.contains(path.toString());
+    }
+
+    @Override
+    public void leave(final MessageOrBuilder message, final Path path) {
+      events.add("-" + path);
+    }
+  }
+}
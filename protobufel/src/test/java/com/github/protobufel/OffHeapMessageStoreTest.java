@@ -0,0 +1,167 @@
+//
+// Copyright © 2014, David Tesler (https://github.com/protobufel)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+// * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+// * Redistributions in binary form must reproduce the above copyright
+// notice, this list of conditions and the following disclaimer in the
+// documentation and/or other materials provided with the distribution.
+// * Neither the name of the <organization> nor the
+// names of its contributors may be used to endorse or promote products
+// derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+
+package com.github.protobufel;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import protobuf_unittest.UnittestProto.TestAllTypes;
+import protobuf_unittest.UnittestProto.TestAllTypes.NestedMessage;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.TestUtil;
+
+@RunWith(JUnit4.class)
+public class OffHeapMessageStoreTest {
+  private static TestAllTypes newMessage(final int i) {
+    return TestAllTypes.newBuilder().setOptionalInt32(i).setOptionalString("message " + i)
+        .setOptionalNestedMessage(NestedMessage.newBuilder().setBb(i)).build();
+  }
+
+  @Test
+  public void testReadsBackMessages() throws Exception {
+    final OffHeapMessageStore store =
+        new OffHeapMessageStore(TestAllTypes.getDescriptor(), 1 << 12, 1 << 16);
+    final int allSetId = store.add(TestUtil.getAllSet());
+    final int[] ids = new int[100];
+
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = store.add(newMessage(i));
+    }
+
+    assertThat(store.size(), equalTo(ids.length + 1));
+    assertThat(store.get(allSetId).toByteString(), equalTo(TestUtil.getAllSet().toByteString()));
+
+    for (int i = 0; i < ids.length; i++) {
+      assertThat(store.get(ids[i]).toByteString(), equalTo(newMessage(i).toByteString()));
+    }
+
+    final DynamicMessage projected = store.get(ids[7],
+        FieldProjection.of(TestAllTypes.getDescriptor(), "optional_nested_message"));
+
+    assertThat(projected.toByteString(), equalTo(TestAllTypes.newBuilder()
+        .setOptionalNestedMessage(NestedMessage.newBuilder().setBb(7)).build().toByteString()));
+  }
+
+  @Test
+  public void testCompactsRemovedMessages() throws Exception {
+    final OffHeapMessageStore store =
+        new OffHeapMessageStore(TestAllTypes.getDescriptor(), 1 << 10, 1 << 14);
+    final int[] ids = new int[200];
+
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = store.add(newMessage(i));
+    }
+
+    final long capacity = store.getCapacity();
+
+    for (int i = 0; i < ids.length; i += 2) {
+      assertThat(store.remove(ids[i]), is(true));
+    }
+
+    assertThat(store.remove(ids[0]), is(false));
+    assertThat(store.getGarbageBytes() > 0, is(true));
+    store.compact();
+
+    assertThat(store.getGarbageBytes(), equalTo(0L));
+    assertThat(store.getCapacity() < capacity, is(true));
+    assertThat(store.size(), equalTo(ids.length / 2));
+
+    for (int i = 0; i < ids.length; i++) {
+      if (i % 2 == 0) {
+        assertThat(store.contains(ids[i]), is(false));
+        assertThat(store.get(ids[i]), is(nullValue()));
+      } else {
+        assertThat(store.get(ids[i]).toByteString(), equalTo(newMessage(i).toByteString()));
+      }
+    }
+  }
+
+  @Test
+  public void testCompactsFullStoreInPlace() throws Exception {
+    final OffHeapMessageStore store =
+        new OffHeapMessageStore(TestAllTypes.getDescriptor(), 1 << 13, 1 << 15);
+    final List<TestAllTypes> messages = new ArrayList<TestAllTypes>();
+    final List<Integer> ids = new ArrayList<Integer>();
+
+    try {
+      for (int i = 0;; i++) {
+        // up to 6000 bytes, so some messages are copied in several chunks
+        final TestAllTypes message = TestAllTypes.newBuilder().setOptionalInt32(i)
+            .setOptionalBytes(ByteString.copyFrom(new byte[i * 397 % 6000])).build();
+        ids.add(store.add(message));
+        messages.add(message);
+      }
+    } catch (final IllegalStateException e) {
+      assertThat(store.getCapacity(), equalTo(store.getMaxCapacity()));
+    }
+
+    for (int i = 0; i < ids.size(); i += 3) {
+      store.remove(ids.get(i));
+    }
+
+    store.compact();
+    assertThat(store.getGarbageBytes(), equalTo(0L));
+    assertThat(store.getCapacity() <= store.getMaxCapacity(), is(true));
+
+    for (int i = 0; i < ids.size(); i++) {
+      if (i % 3 == 0) {
+        assertThat(store.contains(ids.get(i)), is(false));
+      } else {
+        assertThat(store.get(ids.get(i)).toByteString(), equalTo(messages.get(i).toByteString()));
+      }
+    }
+
+    for (int i = 0; i < ids.size(); i++) {
+      store.remove(ids.get(i));
+    }
+
+    store.compact();
+    assertThat(store.size(), equalTo(0));
+    assertThat(store.getCapacity(), equalTo(0L));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testLimitsCapacity() {
+    final OffHeapMessageStore store =
+        new OffHeapMessageStore(TestAllTypes.getDescriptor(), 1 << 8, 1 << 10);
+
+    for (int i = 0; i < 1000; i++) {
+      store.add(newMessage(i));
+    }
+  }
+}
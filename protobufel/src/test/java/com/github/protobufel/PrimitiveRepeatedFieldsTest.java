@@ -0,0 +1,126 @@
+//
+// Copyright © 2014, David Tesler (https://github.com/protobufel)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+// * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+// * Redistributions in binary form must reproduce the above copyright
+// notice, this list of conditions and the following disclaimer in the
+// documentation and/or other materials provided with the distribution.
+// * Neither the name of the <organization> nor the
+// names of its contributors may be used to endorse or promote products
+// derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+
+
+package com.github.protobufel;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import protobuf_unittest.UnittestProto.TestAllTypes;
+import protobuf_unittest.UnittestProto.TestPackedTypes;
+
+import com.github.protobufel.PrimitiveLists.IntList;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+
+@RunWith(JUnit4.class)
+public class PrimitiveRepeatedFieldsTest {
+  private static final Descriptor PACKED_TYPE = TestPackedTypes.getDescriptor();
+  private static final FieldDescriptor PACKED_INT32_FD = PACKED_TYPE
+      .findFieldByNumber(TestPackedTypes.PACKED_INT32_FIELD_NUMBER);
+  private static final FieldDescriptor PACKED_SINT64_FD = PACKED_TYPE
+      .findFieldByNumber(TestPackedTypes.PACKED_SINT64_FIELD_NUMBER);
+  private static final FieldDescriptor PACKED_DOUBLE_FD = PACKED_TYPE
+      .findFieldByNumber(TestPackedTypes.PACKED_DOUBLE_FIELD_NUMBER);
+  private static final FieldDescriptor PACKED_BOOL_FD = PACKED_TYPE
+      .findFieldByNumber(TestPackedTypes.PACKED_BOOL_FIELD_NUMBER);
+  private static final FieldDescriptor REPEATED_FLOAT_FD = TestAllTypes.getDescriptor()
+      .findFieldByNumber(TestAllTypes.REPEATED_FLOAT_FIELD_NUMBER);
+
+  @Test
+  public void testPackedRoundTrip() throws Exception {
+    final DynamicMessage.Builder builder = DynamicMessage.newBuilder(PACKED_TYPE);
+    final TestPackedTypes.Builder expected = TestPackedTypes.newBuilder();
+
+    for (int i = -1000; i < 1000; i++) {
+      builder.addRepeatedInt(PACKED_INT32_FD, i).addRepeatedLong(PACKED_SINT64_FD, i * 1000L)
+          .addRepeatedDouble(PACKED_DOUBLE_FD, i / 3.0)
+          .addRepeatedBoolean(PACKED_BOOL_FD, i % 3 == 0);
+      expected.addPackedInt32(i).addPackedSint64(i * 1000L).addPackedDouble(i / 3.0)
+          .addPackedBool(i % 3 == 0);
+    }
+
+    final DynamicMessage message = builder.build();
+    final ByteString bytes = message.toByteString();
+    assertThat(bytes, is(equalTo(expected.build().toByteString())));
+    assertThat(message.getSerializedSize(), is(bytes.size()));
+
+    final DynamicMessage parsed = DynamicMessage.parseFrom(PACKED_TYPE, bytes);
+    assertThat(parsed, is(equalTo(message)));
+    assertThat(parsed.getField(PACKED_INT32_FD), is(instanceOf(IntList.class)));
+    assertThat(parsed.getRepeatedInt(PACKED_INT32_FD, 0), is(-1000));
+    assertThat(parsed.getRepeatedLong(PACKED_SINT64_FD, 1999), is(999000L));
+    assertThat(parsed.getRepeatedBoolean(PACKED_BOOL_FD, 1), is(true));
+  }
+
+  @Test
+  public void testUnpackedRoundTrip() throws Exception {
+    final DynamicMessage message =
+        DynamicMessage.newBuilder(TestAllTypes.getDescriptor())
+            .addRepeatedFloat(REPEATED_FLOAT_FD, 1.5f)
+            .addRepeatedField(REPEATED_FLOAT_FD, 2.5f).setRepeatedFloat(REPEATED_FLOAT_FD, 0, 0.5f)
+            .build();
+    final TestAllTypes expected = TestAllTypes.newBuilder().addRepeatedFloat(0.5f)
+        .addRepeatedFloat(2.5f).build();
+
+    assertThat(message.toByteString(), is(equalTo(expected.toByteString())));
+    assertThat(DynamicMessage.parseFrom(TestAllTypes.getDescriptor(), expected.toByteArray())
+        .getRepeatedFloat(REPEATED_FLOAT_FD, 1), is(2.5f));
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testBuiltListsAreImmutableAndCopiedOnWrite() {
+    final DynamicMessage.Builder builder =
+        DynamicMessage.newBuilder(PACKED_TYPE).addRepeatedInt(PACKED_INT32_FD, 1);
+    final DynamicMessage message = builder.build();
+    builder.addRepeatedInt(PACKED_INT32_FD, 2);
+
+    @SuppressWarnings("unchecked")
+    final List<Integer> values = (List<Integer>) message.getField(PACKED_INT32_FD);
+    assertThat(values, contains(1));
+    assertThat(builder.build().getField(PACKED_INT32_FD), is((Object) Arrays.asList(1, 2)));
+
+    values.add(3);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testWrongJavaTypeIsRejected() {
+    DynamicMessage.newBuilder(PACKED_TYPE).addRepeatedLong(PACKED_INT32_FD, 1L);
+  }
+}
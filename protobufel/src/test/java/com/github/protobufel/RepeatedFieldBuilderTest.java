@@ -34,7 +34,10 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 
 import org.junit.Before;
@@ -49,6 +52,8 @@ import org.slf4j.LoggerFactory;
 import protobuf_unittest.UnittestProto.TestAllTypes;
 
 import com.github.protobufel.DynamicMessage.Builder;
+import com.github.protobufel.RepeatedFieldBuilder.MessageFilter;
+import com.github.protobufel.RepeatedFieldBuilder.MessageFunction;
 import com.google.protobuf.Descriptors.Descriptor;
 import com.google.protobuf.Descriptors.FieldDescriptor;
 import com.google.protobuf.Message;
@@ -200,6 +205,108 @@ public class RepeatedFieldBuilderTest {
     assertEquals(3, protos.size());
   }
 
+  @Test
+  public void testBulkRemovals() {
+    addMessages(0, 1, 2, 3, 4, 5, 6, 7);
+    builder.getBuilder(3).setField(OPTIONAL_INT32, 30);
+    builder.build();
+
+    assertTrue(builder.removeIf(new MessageFilter<MessageOrBuilder>() {
+      @Override
+      public boolean accept(final MessageOrBuilder messageOrBuilder) {
+        return (Integer) messageOrBuilder.getField(OPTIONAL_INT32) % 2 == 0;
+      }
+    }));
+    assertEquals(1, mockParent.getInvalidationCount());
+    assertEquals(Arrays.asList(1, 5, 7), getValues());
+
+    builder.build();
+    builder.removeRange(1, 2);
+    assertEquals(2, mockParent.getInvalidationCount());
+    assertEquals(Arrays.asList(1, 7), getValues());
+
+    addMessages(8, 9);
+    builder.getBuilder(2).setField(OPTIONAL_INT32, 80);
+    builder.retainRange(1, 3);
+    assertEquals(Arrays.asList(7, 80), getValues());
+    assertEquals(80, builder.build().get(1).getField(OPTIONAL_INT32));
+  }
+
+  @Test
+  public void testSortAndReplaceAll() {
+    addMessages(3, 1, 2);
+    builder.getBuilder(0).setField(OPTIONAL_STRING, "three");
+    builder.build();
+
+    builder.sort(new Comparator<MessageOrBuilder>() {
+      @Override
+      public int compare(final MessageOrBuilder o1, final MessageOrBuilder o2) {
+        return ((Integer) o1.getField(OPTIONAL_INT32)).compareTo(
+            (Integer) o2.getField(OPTIONAL_INT32));
+      }
+    });
+    assertEquals(1, mockParent.getInvalidationCount());
+    assertEquals(Arrays.asList(1, 2, 3), getValues());
+    assertEquals("three", builder.getBuilder(2).getField(OPTIONAL_STRING));
+
+    builder.replaceAll(new MessageFunction<Message>() {
+      @Override
+      public Message apply(final Message message) {
+        return message.toBuilder().setField(OPTIONAL_DOUBLE, 1.0).build();
+      }
+    });
+    assertEquals(Arrays.asList(1, 2, 3), getValues());
+    assertEquals(1.0, builder.getMessage(2).getField(OPTIONAL_DOUBLE));
+    assertEquals("three", builder.getMessage(2).getField(OPTIONAL_STRING));
+  }
+
+  @Test
+  public void testAddAllBuilders() {
+    addMessages(0);
+    final List<Builder> builders = builder.addAllBuilders(Arrays.<Message>asList(
+        TestAllTypes.newBuilder().setOptionalInt32(1).build(),
+        TestAllTypes.newBuilder().setOptionalInt32(2).build()));
+    builders.get(1).setField(OPTIONAL_INT32, 20);
+
+    assertEquals(2, builders.size());
+    assertEquals(Arrays.asList(0, 1, 20), getValues());
+  }
+
+  @Test
+  public void testBulkOperationsThroughMessageBuilder() {
+    final FieldDescriptor field =
+        TestAllTypes.getDescriptor().findFieldByName("repeated_nested_message");
+    final FieldDescriptor bb = field.getMessageType().findFieldByName("bb");
+    final Builder messageBuilder = DynamicMessage.newBuilder(TestAllTypes.getDescriptor());
+
+    for (int i = 0; i < 5; i++) {
+      messageBuilder.addRepeatedField(field,
+          DynamicMessage.newBuilder(field.getMessageType()).setField(bb, i).build());
+    }
+
+    messageBuilder.getRepeatedFieldBuilder(field).retainRange(1, 3);
+    final DynamicMessage message = messageBuilder.build();
+
+    assertEquals(2, message.getRepeatedFieldCount(field));
+    assertEquals(1, ((Message) message.getRepeatedField(field, 0)).getField(bb));
+  }
+
+  private void addMessages(final int... values) {
+    for (final int value : values) {
+      builder.addMessage(TestAllTypes.newBuilder().setOptionalInt32(value).build());
+    }
+  }
+
+  private List<Object> getValues() {
+    final List<Object> values = new ArrayList<Object>();
+
+    for (int i = 0; i < builder.getCount(); i++) {
+      values.add(builder.getMessageOrBuilder(i).getField(OPTIONAL_INT32));
+    }
+
+    return values;
+  }
+
   private void assertIsUnmodifiable(final List<?> list) {
     if (list != Collections.emptyList()) {
       expectedException.expect(UnsupportedOperationException.class);
@@ -0,0 +1,270 @@
+//
+// Copyright © 2014, David Tesler (https://github.com/protobufel)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+// * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+// * Redistributions in binary form must reproduce the above copyright
+// notice, this list of conditions and the following disclaimer in the
+// documentation and/or other materials provided with the distribution.
+// * Neither the name of the <organization> nor the
+// names of its contributors may be used to endorse or promote products
+// derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+
+package com.github.protobufel;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import protobuf_unittest.UnittestProto.TestAllTypes;
+import protobuf_unittest.UnittestProto.TestAllTypes.NestedMessage;
+import protobuf_unittest.UnittestProto.TestRequired;
+import protobuf_unittest.UnittestProto.TestRequiredForeign;
+
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Message;
+import com.google.protobuf.MessageOrBuilder;
+
+@RunWith(JUnit4.class)
+public class RepeatedFieldIndexTest {
+  private static final FieldDescriptor NESTED_FIELD =
+      TestAllTypes.getDescriptor().findFieldByName("repeated_nested_message");
+  private static final FieldDescriptor BB_FIELD =
+      NestedMessage.getDescriptor().findFieldByName("bb");
+  private static final FieldDescriptor REQUIRED_FIELD =
+      TestRequiredForeign.getDescriptor().findFieldByName("repeated_message");
+  private static final FieldDescriptor A_FIELD =
+      TestRequired.getDescriptor().findFieldByName("a");
+  private static final FieldDescriptor B_FIELD =
+      TestRequired.getDescriptor().findFieldByName("b");
+
+  @Test
+  public void testBuilderMaintainsIndex() {
+    final DynamicMessage.Builder builder = DynamicMessage.newBuilder(TestAllTypes.getDescriptor())
+        .addFieldIndex(NESTED_FIELD, true, BB_FIELD);
+
+    for (final int bb : new int[] {5, 3, 5}) {
+      builder.addRepeatedField(NESTED_FIELD, nested(bb));
+    }
+
+    assertThat(builder.findIndexesByKey(NESTED_FIELD, 5), equalTo(new int[] {0, 2}));
+    assertThat(builder.findByKey(NESTED_FIELD, 4), is(nullValue()));
+
+    builder.addRepeatedField(NESTED_FIELD, nested(4));
+    builder.setRepeatedField(NESTED_FIELD, 0, nested(7));
+    builder.setField(TestAllTypes.getDescriptor().findFieldByName("optional_int32"), 1);
+
+    assertThat(builder.findIndexesByKey(NESTED_FIELD, 4), equalTo(new int[] {3}));
+    assertThat(builder.findIndexesByKey(NESTED_FIELD, 5), equalTo(new int[] {2}));
+    assertThat(builder.findIndexesInRange(NESTED_FIELD, 4, 6), equalTo(new int[] {3, 2}));
+    assertThat(builder.findIndexesInRange(NESTED_FIELD, null, 5), equalTo(new int[] {1, 3}));
+    assertThat(builder.findIndexesInRange(NESTED_FIELD, 6, null), equalTo(new int[] {0}));
+
+    // the change of an element's builder has the index rebuilt on the next lookup
+    builder.getFieldBuilder(NESTED_FIELD, 1).setField(BB_FIELD, 42);
+
+    assertThat(builder.findIndexesByKey(NESTED_FIELD, 3), equalTo(new int[0]));
+    assertThat(builder.findByKey(NESTED_FIELD, 42),
+        is(sameInstance((MessageOrBuilder) builder.getFieldBuilder(NESTED_FIELD, 1))));
+
+    builder.clearField(NESTED_FIELD);
+
+    assertThat(builder.findByKey(NESTED_FIELD, 42), is(nullValue()));
+  }
+
+  @Test
+  public void testBuiltMessageCarriesIndex() {
+    final DynamicMessage.Builder builder = DynamicMessage.newBuilder(TestAllTypes.getDescriptor())
+        .addFieldIndex(NESTED_FIELD, false, BB_FIELD);
+
+    for (final int bb : new int[] {1, 2, 3}) {
+      builder.addRepeatedField(NESTED_FIELD, nested(bb));
+    }
+
+    final DynamicMessage message = builder.build();
+    final RepeatedFieldIndex index = message.getFieldIndex(NESTED_FIELD);
+
+    assertThat(message.getFieldIndex(NESTED_FIELD), is(sameInstance(index)));
+    assertThat(index.getKeyCount(), equalTo(3));
+    assertThat(index.isSorted(), is(false));
+    assertThat(index.getKeyFields(), equalTo(Arrays.asList(BB_FIELD)));
+    assertThat(message.findByKey(NESTED_FIELD, 2),
+        equalTo(message.getRepeatedField(NESTED_FIELD, 1)));
+
+    final DynamicMessage.Builder rebuilder = message.toBuilder();
+    rebuilder.addRepeatedField(NESTED_FIELD, nested(2));
+
+    assertThat(rebuilder.findIndexesByKey(NESTED_FIELD, 2), equalTo(new int[] {1, 3}));
+    assertThat(message.getFieldIndex(NESTED_FIELD).find(2), equalTo(new int[] {1}));
+    assertThat(rebuilder.removeFieldIndex(NESTED_FIELD).build().hasFieldIndex(NESTED_FIELD),
+        is(false));
+  }
+
+  @Test
+  public void testCompositeKeys() {
+    final FieldDescriptor field =
+        TestRequiredForeign.getDescriptor().findFieldByName("repeated_message");
+    final FieldDescriptor aField = TestRequired.getDescriptor().findFieldByName("a");
+    final FieldDescriptor bField = TestRequired.getDescriptor().findFieldByName("b");
+    final DynamicMessage.Builder builder =
+        DynamicMessage.newBuilder(TestRequiredForeign.getDescriptor())
+            .addFieldIndex(field, true, aField, bField);
+
+    builder.addRepeatedField(field, TestRequired.newBuilder().setA(2).setB(1).setC(0).build());
+    builder.addRepeatedField(field, TestRequired.newBuilder().setA(1).setB(9).setC(0).build());
+    builder.addRepeatedField(field, TestRequired.newBuilder().setA(1).setB(2).setC(0).build());
+
+    final DynamicMessage message = builder.build();
+
+    assertThat(message.findByKey(field, Arrays.asList(1, 9)).getField(bField),
+        equalTo((Object) 9));
+    assertThat(message.getFieldIndex(field).findInRange(Arrays.asList(1), Arrays.asList(2)),
+        equalTo(new int[] {2, 1}));
+  }
+
+  @Test
+  public void testFieldBuilderMaintainsIndex() {
+    final DynamicMessage.Builder builder =
+        DynamicMessage.newBuilder(TestRequiredForeign.getDescriptor())
+            .addFieldIndex(REQUIRED_FIELD, true, A_FIELD);
+    final RepeatedFieldBuilder<Message, DynamicMessage.Builder, MessageOrBuilder> fieldBuilder =
+        builder.getRepeatedFieldBuilder(REQUIRED_FIELD);
+
+    for (final int a : new int[] {5, 3, 5, 8}) {
+      fieldBuilder.addMessage(required(a));
+    }
+
+    final RepeatedFieldIndex index = builder.getFieldIndex(REQUIRED_FIELD);
+
+    fieldBuilder.addBuilder(required(1));
+    fieldBuilder.addBuilder(0, required(9));
+    fieldBuilder.setMessage(1, required(4));
+    fieldBuilder.remove(3);
+    assertIndexIsCurrent(builder, index);
+
+    fieldBuilder.removeIf(new RepeatedFieldBuilder.MessageFilter<MessageOrBuilder>() {
+      @Override
+      public boolean accept(final MessageOrBuilder element) {
+        return element.getField(A_FIELD).equals(4);
+      }
+    });
+    fieldBuilder.sort(new Comparator<MessageOrBuilder>() {
+      @Override
+      public int compare(final MessageOrBuilder o1, final MessageOrBuilder o2) {
+        return (Integer) o1.getField(A_FIELD) - (Integer) o2.getField(A_FIELD);
+      }
+    });
+    assertIndexIsCurrent(builder, index);
+
+    fieldBuilder.removeRange(1, 2);
+    fieldBuilder.addAllMessages(Arrays.asList(required(8), required(2)));
+    fieldBuilder.retainRange(1, 4);
+    assertIndexIsCurrent(builder, index);
+
+    fieldBuilder.replaceAll(new RepeatedFieldBuilder.MessageFunction<Message>() {
+      @Override
+      public Message apply(final Message message) {
+        return required((Integer) message.getField(A_FIELD) + 1);
+      }
+    });
+    fieldBuilder.clear();
+    fieldBuilder.addMessage(required(3));
+    assertIndexIsCurrent(builder, index);
+    assertThat(index.find(3), equalTo(new int[] {0}));
+  }
+
+  @Test
+  public void testOnlyKeyFieldChangeInvalidatesIndex() {
+    final DynamicMessage.Builder builder =
+        DynamicMessage.newBuilder(TestRequiredForeign.getDescriptor())
+            .addFieldIndex(REQUIRED_FIELD, false, A_FIELD);
+    final RepeatedFieldBuilder<Message, DynamicMessage.Builder, MessageOrBuilder> fieldBuilder =
+        builder.getRepeatedFieldBuilder(REQUIRED_FIELD);
+    fieldBuilder.addAllMessages(Arrays.asList(required(1), required(2)));
+    final RepeatedFieldIndex index = builder.getFieldIndex(REQUIRED_FIELD);
+
+    fieldBuilder.getBuilder(0).setField(B_FIELD, 7);
+    builder.setField(TestRequiredForeign.getDescriptor().findFieldByName("dummy"), 1);
+    builder.getFieldBuilder(TestRequiredForeign.getDescriptor().findFieldByName("optional_message"))
+        .setField(A_FIELD, 2);
+
+    assertThat(builder.getFieldIndex(REQUIRED_FIELD), is(sameInstance(index)));
+
+    fieldBuilder.getBuilder(1).setField(A_FIELD, 42);
+
+    assertThat(builder.getFieldIndex(REQUIRED_FIELD), is(not(sameInstance(index))));
+    assertThat(builder.findByKey(REQUIRED_FIELD, 42),
+        is(sameInstance((MessageOrBuilder) fieldBuilder.getBuilder(1))));
+    assertThat(builder.findByKey(REQUIRED_FIELD, 2), is(nullValue()));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRejectsRepeatedKeyField() {
+    DynamicMessage.newBuilder(TestAllTypes.getDescriptor()).addFieldIndex(
+        TestAllTypes.getDescriptor().findFieldByName("repeated_foreign_message"), false,
+        TestAllTypes.getDescriptor().findFieldByName("repeated_int32"));
+  }
+
+  private static Message nested(final int bb) {
+    return NestedMessage.newBuilder().setBb(bb).build();
+  }
+
+  private static Message required(final int a) {
+    return TestRequired.newBuilder().setA(a).setB(0).setC(0).build();
+  }
+
+  /**
+   * Asserts the builder's index has not been rebuilt, and has the positions of all elements, in
+   * the key order.
+   */
+  private static void assertIndexIsCurrent(final DynamicMessage.Builder builder,
+      final RepeatedFieldIndex index) {
+    assertThat(builder.getFieldIndex(REQUIRED_FIELD), is(sameInstance(index)));
+    final Integer[] positions = new Integer[builder.getRepeatedFieldCount(REQUIRED_FIELD)];
+
+    for (int i = 0; i < positions.length; i++) {
+      positions[i] = i;
+    }
+
+    Arrays.sort(positions, new Comparator<Integer>() {
+      @Override
+      public int compare(final Integer o1, final Integer o2) {
+        return (Integer) builder.getMessageOrBuilder(REQUIRED_FIELD, o1).getField(A_FIELD)
+            - (Integer) builder.getMessageOrBuilder(REQUIRED_FIELD, o2).getField(A_FIELD);
+      }
+    });
+
+    final int[] expected = new int[positions.length];
+
+    for (int i = 0; i < expected.length; i++) {
+      expected[i] = positions[i];
+    }
+
+    assertThat(index.findInRange(null, null), equalTo(expected));
+  }
+}
@@ -0,0 +1,115 @@
+//
+// Copyright © 2014, David Tesler (https://github.com/protobufel)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+// * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+// * Redistributions in binary form must reproduce the above copyright
+// notice, this list of conditions and the following disclaimer in the
+// documentation and/or other materials provided with the distribution.
+// * Neither the name of the <organization> nor the
+// names of its contributors may be used to endorse or promote products
+// derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+
+package com.github.protobufel;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import protobuf_unittest.UnittestProto.TestAllTypes;
+import protobuf_unittest.UnittestProto.TestRequired;
+import protobuf_unittest.UnittestProto.TestRequiredForeign;
+
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor.JavaType;
+
+@RunWith(JUnit4.class)
+public class SchemaPlanTest {
+  @Test
+  public void testLooksUpAsDescriptor() {
+    for (final Descriptor type : new Descriptor[] {TestAllTypes.getDescriptor(),
+        TestRequired.getDescriptor()}) {
+      final SchemaPlan plan = SchemaPlan.of(type);
+      assertThat(SchemaPlan.of(type), is(sameInstance(plan)));
+      assertThat(plan.getDescriptor(), is(sameInstance(type)));
+
+      for (final FieldDescriptor field : type.getFields()) {
+        assertThat(plan.findFieldByName(field.getName()), is(sameInstance(field)));
+        assertThat(plan.findFieldByNumber(field.getNumber()), is(sameInstance(field)));
+      }
+
+      for (final FieldDescriptor field : type.getExtensions()) {
+        assertThat(plan.findFieldByName(field.getName()),
+            is(sameInstance(type.findFieldByName(field.getName()))));
+      }
+
+      assertThat(plan.findFieldByName("no_such_field"), is(nullValue()));
+      assertThat(plan.findFieldByNumber(10000), is(nullValue()));
+    }
+  }
+
+  @Test
+  public void testCollectsMessageFields() {
+    final Descriptor type = TestRequired.getDescriptor();
+    final FieldDescriptor single = type.findFieldByName("single");
+    final FieldDescriptor multi = type.findFieldByName("multi");
+    assertThat(single.isExtension() && multi.isExtension(), is(true));
+    assertThat(SchemaPlan.of(type).getMessageFields(), contains(single, multi));
+
+    for (final FieldDescriptor field : SchemaPlan.of(TestAllTypes.getDescriptor())
+        .getMessageFields()) {
+      assertThat(field.getJavaType(), is(JavaType.MESSAGE));
+    }
+  }
+
+  @Test
+  public void testCachesDefaultInstance() {
+    final Descriptor type = TestAllTypes.getDescriptor();
+    final DynamicMessage instance = DynamicMessage.getDefaultInstance(type);
+    assertThat(DynamicMessage.getDefaultInstance(type), is(sameInstance(instance)));
+    assertThat(DynamicMessage.newBuilder(type).getDefaultInstanceForType(),
+        is(sameInstance(instance)));
+    assertThat(instance.getAllFields().isEmpty(), is(true));
+  }
+
+  @Test
+  public void testChecksRequiredFields() {
+    final Descriptor type = TestRequired.getDescriptor();
+    final DynamicMessage.Builder builder = DynamicMessage.newBuilder(type);
+    assertThat(builder.isInitialized(), is(false));
+    builder.setField(type.findFieldByName("a"), 1).setField(type.findFieldByName("b"), 2);
+    assertThat(builder.isInitialized(), is(false));
+    assertThat(builder.buildPartial().isInitialized(), is(false));
+    builder.setField(type.findFieldByName("c"), 3);
+    assertThat(builder.isInitialized(), is(true));
+    assertThat(builder.build().isInitialized(), is(true));
+
+    final Descriptor foreign = TestRequiredForeign.getDescriptor();
+    final DynamicMessage.Builder foreignBuilder = DynamicMessage.newBuilder(foreign);
+    foreignBuilder.getFieldBuilder(foreign.findFieldByName("optional_message"));
+    assertThat(foreignBuilder.isInitialized(), is(false));
+    assertThat(foreignBuilder.getAllFields().size(), is(1));
+  }
+}
@@ -0,0 +1,107 @@
+//
+// Copyright © 2014, David Tesler (https://github.com/protobufel)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+// * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+// * Redistributions in binary form must reproduce the above copyright
+// notice, this list of conditions and the following disclaimer in the
+// documentation and/or other materials provided with the distribution.
+// * Neither the name of the <organization> nor the
+// names of its contributors may be used to endorse or promote products
+// derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+
+package com.github.protobufel;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import protobuf_unittest.UnittestProto.TestAllTypes;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.ExtensionRegistry;
+import com.google.protobuf.TestUtil;
+
+@RunWith(JUnit4.class)
+public class ValueInternerTest {
+  private static final FieldDescriptor OPTIONAL_STRING =
+      TestAllTypes.getDescriptor().findFieldByName("optional_string");
+  private static final FieldDescriptor REPEATED_STRING =
+      TestAllTypes.getDescriptor().findFieldByName("repeated_string");
+  private static final FieldDescriptor OPTIONAL_BYTES =
+      TestAllTypes.getDescriptor().findFieldByName("optional_bytes");
+
+  @Test
+  public void testSharesParsedValues() throws Exception {
+    final ValueInterner interner = new ValueInterner(100);
+    final ByteString data = TestUtil.getAllSet().toByteString();
+    final DynamicMessage first = DynamicMessage.parseFrom(TestAllTypes.getDescriptor(), data,
+        ExtensionRegistry.getEmptyRegistry(), interner);
+    final DynamicMessage second = DynamicMessage.parseFrom(TestAllTypes.getDescriptor(), data,
+        ExtensionRegistry.getEmptyRegistry(), interner);
+
+    assertThat(second, equalTo(first));
+    assertThat(second.toByteString(), equalTo(data));
+    assertThat(second.getField(OPTIONAL_STRING), sameInstance(first.getField(OPTIONAL_STRING)));
+    assertThat(second.getField(OPTIONAL_BYTES), sameInstance(first.getField(OPTIONAL_BYTES)));
+    assertThat(second.getRepeatedField(REPEATED_STRING, 1),
+        sameInstance(first.getRepeatedField(REPEATED_STRING, 1)));
+    assertThat(interner.getHitCount(), equalTo(interner.getMissCount()));
+    assertThat(interner.getHitRate(), equalTo(0.5));
+  }
+
+  @Test
+  public void testInternsSelectedFieldsOnly() throws Exception {
+    final ValueInterner interner = new ValueInterner(100, Arrays.asList(OPTIONAL_STRING));
+    final ByteString data = TestUtil.getAllSet().toByteString();
+    final DynamicMessage first = DynamicMessage.parseFrom(TestAllTypes.getDescriptor(), data,
+        ExtensionRegistry.getEmptyRegistry(), interner);
+    final DynamicMessage second = DynamicMessage.parseFrom(TestAllTypes.getDescriptor(), data,
+        ExtensionRegistry.getEmptyRegistry(), interner);
+
+    assertThat(second.getField(OPTIONAL_STRING), sameInstance(first.getField(OPTIONAL_STRING)));
+    assertThat(second.getField(OPTIONAL_BYTES),
+        not(sameInstance(first.getField(OPTIONAL_BYTES))));
+    assertThat(interner.size(), equalTo(1));
+    assertThat(interner.isInterned(OPTIONAL_BYTES), is(false));
+  }
+
+  @Test
+  public void testEvictsLeastRecentlyUsedValues() {
+    final ValueInterner interner = new ValueInterner(2);
+    final String a = new String("a");
+    interner.intern(a);
+    interner.intern("b");
+    interner.intern(new String("a"));
+    interner.intern("c");
+
+    assertThat(interner.size(), equalTo(2));
+    assertThat(interner.getEvictionCount(), equalTo(1L));
+    assertThat(interner.intern(new String("a")), sameInstance(a));
+    assertThat(interner.getHitCount(), equalTo(2L));
+  }
+}